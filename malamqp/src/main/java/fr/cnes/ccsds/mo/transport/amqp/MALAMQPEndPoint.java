@@ -90,6 +90,7 @@ import com.rabbitmq.client.AMQP.Queue.UnbindOk;
 import com.rabbitmq.client.Channel;
 
 import fr.cnes.ccsds.mo.transport.gen.body.GENDeregisterBody;
+import fr.cnes.ccsds.mo.transport.gen.body.GENMessageBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishBody;
 import fr.dyade.aaa.common.Strings;
 
@@ -109,6 +110,12 @@ public class MALAMQPEndPoint implements MALEndpoint {
   private Hashtable publishRegisterContexts;
   private Map endPointProperties;
   private MALMessageListener listener;
+  
+  /**
+   * True if the headers of the sent messages are mapped in the compact way
+   * by default, see MALAMQPTransport.COMPACT_HEADER.
+   */
+  private boolean compactHeader;
 
   public MALAMQPEndPoint(MALAMQPTransport transport,
     String localName,
@@ -124,6 +131,10 @@ public class MALAMQPEndPoint implements MALEndpoint {
     this.channel = channel;
     this.noack = noack;
     this.endPointProperties = endPointProperties;
+    if (endPointProperties != null) {
+      Object compactHeaderProp = endPointProperties.get(MALAMQPTransport.COMPACT_HEADER);
+      compactHeader = Boolean.parseBoolean(String.valueOf(compactHeaderProp));
+    }
     subscriptions = new Hashtable();
     consumer = null;
     //malEncoder = new MALByteArrayEncoder(transport.getElementStreamFactory());
@@ -234,7 +245,13 @@ public class MALAMQPEndPoint implements MALEndpoint {
     
     // Resolve all the message header fields
     int areaId = messageService.getArea().getNumber().getValue();
-    byte[] authenticationId = msg.getHeader().getAuthenticationId().getValue();
+    byte[] authenticationId;
+    Blob authenticationIdB = msg.getHeader().getAuthenticationId();
+    if (authenticationIdB == null) {
+      authenticationId = null;
+    } else {
+      authenticationId = authenticationIdB.getValue();
+    }
     IdentifierList domainId = msg.getHeader().getDomain();
     short interactionStage;
     UOctet interactionStageB = msg.getHeader().getInteractionStage();
@@ -244,10 +261,23 @@ public class MALAMQPEndPoint implements MALEndpoint {
       interactionStage = interactionStageB.getValue();
     }
     int interactionType = msg.getHeader().getInteractionType().getOrdinal();
-    String networkZone = msg.getHeader().getNetworkZone().getValue();
+    String networkZone;
+    Identifier networkZoneI = msg.getHeader().getNetworkZone();
+    if (networkZoneI == null) {
+      networkZone = null;
+    } else {
+      networkZone = networkZoneI.getValue();
+    }
     int operation = messageService.getOperationByNumber(msg.getHeader().getOperation()).getNumber().getValue();
     int priority = (int) msg.getHeader().getPriority().getValue();
-    int qosLevel = msg.getHeader().getQoSlevel().getOrdinal();
+    int qosLevel;
+    QoSLevel qosLevelE = msg.getHeader().getQoSlevel();
+    if (qosLevelE == null) {
+      // Not mapped, the message is not persistent
+      qosLevel = -1;
+    } else {
+      qosLevel = qosLevelE.getOrdinal();
+    }
     int serviceId = messageService.getNumber().getValue();
     int sessionType = msg.getHeader().getSession().getOrdinal();
     Identifier sessionNameI = msg.getHeader().getSessionName();
@@ -257,13 +287,24 @@ public class MALAMQPEndPoint implements MALEndpoint {
     } else {
       sessionName = "";
     }
-    long timeStamp = msg.getHeader().getTimestamp().getValue();
+    Long timeStamp;
+    Time timeStampT = msg.getHeader().getTimestamp();
+    if (timeStampT == null) {
+      timeStamp = null;
+    } else {
+      timeStamp = new Long(timeStampT.getValue());
+    }
     Long transactionId = msg.getHeader().getTransactionId();
     short version = msg.getHeader().getAreaVersion().getValue();
     boolean isError = msg.getHeader().getIsErrorMessage().booleanValue();
     
     Integer ttl;
+    boolean compact = compactHeader;
     if (qosProperties != null) {
+      Object compactHeaderProp = qosProperties.get(MALAMQPTransport.COMPACT_HEADER);
+      if (compactHeaderProp != null) {
+        compact = Boolean.parseBoolean(String.valueOf(compactHeaderProp));
+      }
       // Resolve the QoS property time-to-live
       ttl = (Integer) qosProperties.get("timeToLive");
     } else {
@@ -271,46 +312,58 @@ public class MALAMQPEndPoint implements MALEndpoint {
     }
     BasicProperties props = new BasicProperties();
     props.headers = new HashMap();
-    if (authenticationId != null && authenticationId.length != 0) {
-      props.headers.put(MALAMQPHelper.AUTHENTICATION_ID_HEADER_FIELD_NAME, new String(authenticationId));
-    }
     if (domainId != null ) {
       props.headers.put(MALAMQPHelper.DOMAIN_HEADER_FIELD_NAME, MALAMQPHelper.domainToString(domainId));
     }
-    if (networkZone != null) {
-      props.headers.put(MALAMQPHelper.NETWORK_ZONE_HEADER_FIELD_NAME, networkZone);
-    }
     props.headers.put(MALAMQPHelper.SESSION_HEADER_FIELD_NAME, new Integer(sessionType));
     props.headers.put(MALAMQPHelper.SESSION_NAME_HEADER_FIELD_NAME, sessionName);
-    props.headers.put(MALAMQPHelper.INTERACTION_TYPE_HEADER_FIELD_NAME, new Integer(interactionType));
-    props.headers.put(MALAMQPHelper.INTERACTION_STAGE_HEADER_FIELD_NAME, new Integer(interactionStage));
-    Integer tid;
-    if (transactionId == null) {
-      tid = new Integer(-1);
-    } else {
-      // TODO: define a full AMQP mapping of the Long transactionId: Integer is not enough
-      tid = new Integer(transactionId.intValue());
-    }
-    props.headers.put(MALAMQPHelper.TRANSACTION_ID_HEADER_FIELD_NAME, tid);
     props.headers.put(MALAMQPHelper.AREA_HEADER_FIELD_NAME, new Integer(areaId));
     props.headers.put(MALAMQPHelper.SERVICE_HEADER_FIELD_NAME, new Integer(serviceId));
     props.headers.put(MALAMQPHelper.VERSION_HEADER_FIELD_NAME, new Integer(version));
     props.headers.put(MALAMQPHelper.OPERATION_HEADER_FIELD_NAME, new Integer(operation));
-    props.headers.put(MALAMQPHelper.QOS_LEVEL_HEADER_FIELD_NAME, new Integer(qosLevel));
-    props.headers.put(MALAMQPHelper.TIMESTAMP_HEADER_FIELD_NAME, "" + timeStamp);
-    int isErrorI;
-    if (isError) {
-      isErrorI = 1;
+    if (compact) {
+      try {
+        props.headers.put(MALAMQPHelper.COMPACT_HEADER_FIELD_NAME, 
+            MALAMQPHelper.getCompactHeader(msg.getHeader()));
+      } catch (Exception exc) {
+        if (logger.isLoggable(BasicLevel.ERROR))
+          logger.log(BasicLevel.ERROR, "", exc);
+        throw MALAMQPHelper.createMALException(exc.toString());
+      }
     } else {
-      isErrorI = 0;
+      if (authenticationId != null && authenticationId.length != 0) {
+        props.headers.put(MALAMQPHelper.AUTHENTICATION_ID_HEADER_FIELD_NAME, new String(authenticationId));
+      }
+      if (networkZone != null) {
+        props.headers.put(MALAMQPHelper.NETWORK_ZONE_HEADER_FIELD_NAME, networkZone);
+      }
+      props.headers.put(MALAMQPHelper.INTERACTION_TYPE_HEADER_FIELD_NAME, new Integer(interactionType));
+      props.headers.put(MALAMQPHelper.INTERACTION_STAGE_HEADER_FIELD_NAME, new Integer(interactionStage));
+      if (transactionId != null) {
+        props.headers.put(MALAMQPHelper.TRANSACTION_ID_HEADER_FIELD_NAME, transactionId);
+      }
+      if (qosLevel >= 0) {
+        props.headers.put(MALAMQPHelper.QOS_LEVEL_HEADER_FIELD_NAME, new Integer(qosLevel));
+      }
+      if (timeStamp != null) {
+        props.headers.put(MALAMQPHelper.TIMESTAMP_HEADER_FIELD_NAME, "" + timeStamp);
+      }
+      int isErrorI;
+      if (isError) {
+        isErrorI = 1;
+      } else {
+        isErrorI = 0;
+      }
+      props.headers.put(MALAMQPHelper.IS_ERROR_HEADER_FIELD_NAME, new Integer(isErrorI));
     }
-    props.headers.put(MALAMQPHelper.IS_ERROR_HEADER_FIELD_NAME, new Integer(isErrorI));
     props.priority = new Integer(priority);
     long currentTime = System.currentTimeMillis();
     if (ttl != null) {
       props.expiration = String.valueOf(currentTime + ttl.intValue());
     }
-    props.timestamp = new Date(timeStamp);
+    if (timeStamp != null) {
+      props.timestamp = new Date(timeStamp.longValue());
+    }
 
     if (qosLevel == QoSLevel.QUEUED.getOrdinal() ||
       qosLevel == QoSLevel.ASSURED.getOrdinal() ||
@@ -331,15 +384,21 @@ public class MALAMQPEndPoint implements MALEndpoint {
     boolean immediate  = (qosLevel != QoSLevel.QUEUED.getOrdinal());
     // Encode the body
     MALMessageBody body = msg.getBody();
-    int bodySize = body.getElementCount();
-    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    MALElementOutputStream meos = transport.getElementStreamFactory().createOutputStream(baos);
-    for( int i = 0; i < bodySize; i++) {
-      msgCtx.setBodyElementIndex(i);
-      meos.writeElement((Element) body.getBodyElement(i, null), msgCtx);
+    byte[] encodedBody;
+    if ((body instanceof GENMessageBody) && ((GENMessageBody) body).isEncoded()) {
+      // Already encoded body (forwarded message), sent as is
+      encodedBody = GENMessageBody.getBytes(body.getEncodedBody());
+    } else {
+      int bodySize = body.getElementCount();
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      MALElementOutputStream meos = transport.getElementStreamFactory().createOutputStream(baos);
+      for( int i = 0; i < bodySize; i++) {
+        msgCtx.setBodyElementIndex(i);
+        meos.writeElement((Element) body.getBodyElement(i, null), msgCtx);
+      }
+      meos.flush();
+      encodedBody = baos.toByteArray();
     }
-    meos.flush();
-    byte[] encodedBody = baos.toByteArray();
     try {
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "channel.basicPublish(" +
@@ -1035,23 +1094,55 @@ public class MALAMQPEndPoint implements MALEndpoint {
   }
 
   @Override
-  public MALMessage createMessage(Blob arg0, URI arg1, Time arg2,
-      QoSLevel arg3, UInteger arg4, IdentifierList arg5, Identifier arg6,
-      SessionType arg7, Identifier arg8, Long arg9, Boolean arg10,
-      MALOperation arg11, UOctet arg12, Map arg13, MALEncodedBody arg14)
-      throws IllegalArgumentException, MALException {
-    // TODO Auto-generated method stub
-    return null;
+  public MALMessage createMessage(Blob authenticationId, URI uRITo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, Long transactionId, Boolean isErrorMessage,
+      MALOperation op, UOctet interactionStage, Map qosProperties,
+      MALEncodedBody body) throws IllegalArgumentException, MALException {
+    return createMessage(authenticationId, uRITo,
+      timestamp, qoSlevel, priority,
+      domain, networkZone, session,
+      sessionName, op.getInteractionType(),
+      interactionStage, transactionId, op.getService().getArea().getNumber(),
+      op.getService().getNumber(), op.getNumber(), op.getService().getArea().getVersion(),
+      isErrorMessage, qosProperties, body);
   }
 
   @Override
-  public MALMessage createMessage(Blob arg0, URI arg1, Time arg2,
-      QoSLevel arg3, UInteger arg4, IdentifierList arg5, Identifier arg6,
-      SessionType arg7, Identifier arg8, InteractionType arg9, UOctet arg10,
-      Long arg11, UShort arg12, UShort arg13, UShort arg14, UOctet arg15,
-      Boolean arg16, Map arg17, MALEncodedBody arg18)
+  public MALMessage createMessage(Blob authenticationId, URI uRITo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, InteractionType interactionType,
+      UOctet interactionStage, Long transactionId, UShort serviceArea,
+      UShort service, UShort operation, UOctet areaVersion,
+      Boolean isErrorMessage, Map qosProperties, MALEncodedBody body)
       throws IllegalArgumentException, MALException {
-    // TODO Auto-generated method stub
-    return null;
+    MALAMQPMessageHeader header = new MALAMQPMessageHeader(
+        getURI(), authenticationId, uRITo, timestamp, qoSlevel, priority, 
+        domain, networkZone, session, sessionName, 
+        interactionType, interactionStage, transactionId,
+        serviceArea, service, operation, areaVersion,
+        isErrorMessage);
+    MALArea messageArea = MALContextFactory.lookupArea(serviceArea, areaVersion);
+    if (messageArea == null) {
+      throw MALAMQPHelper.createMALException("Unknown area: " + serviceArea + " version: " + areaVersion);
+    }
+    MALService messageService = messageArea.getServiceByNumber(service);
+    if (messageService == null) {
+      throw MALAMQPHelper.createMALException("Unknown service: " + service);
+    }
+    MALOperation messageOperation = messageService.getOperationByNumber(operation);
+    if (messageOperation == null) {
+      throw MALAMQPHelper.createMALException("Unknown operation: " + operation);
+    }
+    // The body is kept encoded, it is decoded if the transport needs to
+    // read it, e.g. to dispatch the updates of a PUBLISH.
+    MALEncodingContext msgCtx = new MALEncodingContext(header,
+        messageOperation, 0, endPointProperties, qosProperties);
+    MALMessageBody messageBody = MALAMQPHelper.createMessageBody(
+        GENMessageBody.getBytes(body), msgCtx,
+        transport.getElementStreamFactory());
+    return new MALAMQPMessage(header, messageBody, qosProperties);
   }
 }
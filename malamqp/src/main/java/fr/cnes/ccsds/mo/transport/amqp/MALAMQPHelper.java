@@ -70,6 +70,7 @@ import org.objectweb.util.monolog.api.Logger;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.impl.LongString;
+import com.rabbitmq.client.impl.LongStringHelper;
 
 import fr.cnes.ccsds.mo.transport.gen.body.GENDeregisterBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENErrorBody;
@@ -78,6 +79,9 @@ import fr.cnes.ccsds.mo.transport.gen.body.GENNotifyBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishRegisterBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENRegisterBody;
+import fr.cnes.encoding.binary.BufferDecoder;
+import fr.cnes.encoding.binary.BufferEncoder;
+import fr.cnes.encoding.binary.BufferReader;
 
 public class MALAMQPHelper {
   
@@ -99,6 +103,7 @@ public class MALAMQPHelper {
   public static final String QOS_LEVEL_HEADER_FIELD_NAME = "mal.qosLevel";
   public static final String TIMESTAMP_HEADER_FIELD_NAME = "mal.timestamp";
   public static final String IS_ERROR_HEADER_FIELD_NAME = "mal.isError";
+  public static final String COMPACT_HEADER_FIELD_NAME = "mal.header";
   
   public static String getQueueName(URI uri) {
     // removes the prefix "malamqp://queue."
@@ -282,36 +287,161 @@ public class MALAMQPHelper {
     }
   }
 
+  /**
+   * Encodes with the binary encoder the header fields that are not mapped to
+   * AMQP headers in the compact mapping (see
+   * MALAMQPTransport.COMPACT_HEADER): the authentication id, the network
+   * zone, the interaction type and stage, the transaction id, the QoS level,
+   * the timestamp and the error flag, the fields that may be null being
+   * preceded by a presence flag. The domain, the session, the area, the
+   * service, the version and the operation are still mapped to headers as
+   * they are used by the consumers before the header is read, the URI from
+   * and the priority are the AMQP 'reply-to' and 'priority' properties.
+   */
+  public static LongString getCompactHeader(MALMessageHeader header) throws Exception {
+    BufferEncoder encoder = new BufferEncoder(null, 64);
+    Blob authenticationId = header.getAuthenticationId();
+    if (authenticationId == null) {
+      encoder.writeNullableByteArray(null);
+    } else {
+      encoder.writeNullableByteArray(authenticationId.getValue());
+    }
+    Identifier networkZone = header.getNetworkZone();
+    if (networkZone == null) {
+      encoder.writeNullableString(null);
+    } else {
+      encoder.writeNullableString(networkZone.getValue());
+    }
+    encoder.writeByte((byte) header.getInteractionType().getOrdinal());
+    UOctet interactionStage = header.getInteractionStage();
+    if (interactionStage == null) {
+      encoder.writeByte((byte) 0);
+    } else {
+      encoder.writeByte((byte) interactionStage.getValue());
+    }
+    Long transactionId = header.getTransactionId();
+    if (transactionId == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeSignedLong(transactionId.longValue());
+    }
+    QoSLevel qosLevel = header.getQoSlevel();
+    if (qosLevel == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeByte((byte) qosLevel.getOrdinal());
+    }
+    Time timestamp = header.getTimestamp();
+    if (timestamp == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeSignedLong(timestamp.getValue());
+    }
+    encoder.writeBoolean(header.getIsErrorMessage().booleanValue());
+    return LongStringHelper.asLongString(encoder.toByteArray());
+  }
+  
+  private static void readCompactHeader(LongString compactHeader,
+      MALMessageHeader header) {
+    try {
+      readCompactHeader(new BufferDecoder(
+          new BufferReader(compactHeader.getBytes(), 0)), header);
+    } catch (Exception exc) {
+      throw new IllegalArgumentException("Invalid compact header: " + exc);
+    }
+  }
+  
+  private static void readCompactHeader(BufferDecoder decoder,
+      MALMessageHeader header) throws Exception {
+    byte[] authenticationId = decoder.readNullableByteArray();
+    if (authenticationId != null) {
+      header.setAuthenticationId(new Blob(authenticationId));
+    }
+    String networkZone = decoder.readNullableString();
+    if (networkZone != null) {
+      header.setNetworkZone(new Identifier(networkZone));
+    }
+    header.setInteractionType(InteractionType.fromOrdinal(decoder.readByte()));
+    header.setInteractionStage(new UOctet(decoder.readByte()));
+    if (decoder.isNull()) {
+      header.setTransactionId(null);
+    } else {
+      header.setTransactionId(new Long(decoder.readSignedLong()));
+    }
+    if (decoder.isNull()) {
+      header.setQoSlevel(null);
+    } else {
+      header.setQoSlevel(QoSLevel.fromOrdinal(decoder.readByte()));
+    }
+    if (decoder.isNull()) {
+      header.setTimestamp(null);
+    } else {
+      header.setTimestamp(new Time(decoder.readSignedLong()));
+    }
+    header.setIsErrorMessage(Boolean.valueOf(decoder.readBoolean()));
+  }
+  
+  /**
+   * Translates the AMQP properties of a message into a MAL header, the
+   * fields of a compact header are decoded from the 'mal.header' header.
+   */
   public static MALMessageHeader getMALHeader(BasicProperties props, 
       String exchangeName, String routingKey, MALService service) {
     MALAMQPMessageHeader header = new MALAMQPMessageHeader();
-    LongString authenticationIdS = (LongString) props.headers.get(AUTHENTICATION_ID_HEADER_FIELD_NAME);
-    if (authenticationIdS != null) {
-      byte[] authenticationId = authenticationIdS.getBytes();
-      header.setAuthenticationId(new Blob(authenticationId));
-    }
     LongString domainIdS = (LongString) props.headers.get(DOMAIN_HEADER_FIELD_NAME);
     if (domainIdS != null) {
       IdentifierList domainId = MALAMQPHelper.stringToDomain(domainIdS.toString());
       header.setDomain(domainId);
     }
-    LongString networkZoneS = (LongString) props.headers.get(NETWORK_ZONE_HEADER_FIELD_NAME);
-    if (networkZoneS != null) {
-      header.setNetworkZone(new Identifier(networkZoneS.toString()));
-    }
     Integer sessionTypeI = (Integer) props.headers.get(SESSION_HEADER_FIELD_NAME);
     header.setSession(SessionType.fromOrdinal(sessionTypeI.intValue()));
     LongString sessionNameS = (LongString) props.headers.get(SESSION_NAME_HEADER_FIELD_NAME);
     header.setSessionName(new Identifier(sessionNameS.toString()));
-    Integer interactionTypeI = (Integer) props.headers.get(INTERACTION_TYPE_HEADER_FIELD_NAME);
-    header.setInteractionType(InteractionType.fromOrdinal(interactionTypeI.intValue()));
-    Integer interactionStageI = (Integer) props.headers.get(INTERACTION_STAGE_HEADER_FIELD_NAME);
-    header.setInteractionStage(new UOctet(interactionStageI.byteValue()));
-    Integer transactionId = (Integer) props.headers.get(TRANSACTION_ID_HEADER_FIELD_NAME);
-    if (transactionId.intValue() < 0) {
-      header.setTransactionId(null);
+    
+    LongString compactHeader = (LongString) props.headers.get(COMPACT_HEADER_FIELD_NAME);
+    if (compactHeader != null) {
+      readCompactHeader(compactHeader, header);
     } else {
-      header.setTransactionId(new Long(transactionId.intValue()));
+      LongString authenticationIdS = (LongString) props.headers.get(AUTHENTICATION_ID_HEADER_FIELD_NAME);
+      if (authenticationIdS != null) {
+        byte[] authenticationId = authenticationIdS.getBytes();
+        header.setAuthenticationId(new Blob(authenticationId));
+      }
+      LongString networkZoneS = (LongString) props.headers.get(NETWORK_ZONE_HEADER_FIELD_NAME);
+      if (networkZoneS != null) {
+        header.setNetworkZone(new Identifier(networkZoneS.toString()));
+      }
+      Integer interactionTypeI = (Integer) props.headers.get(INTERACTION_TYPE_HEADER_FIELD_NAME);
+      header.setInteractionType(InteractionType.fromOrdinal(interactionTypeI.intValue()));
+      Integer interactionStageI = (Integer) props.headers.get(INTERACTION_STAGE_HEADER_FIELD_NAME);
+      header.setInteractionStage(new UOctet(interactionStageI.byteValue()));
+      Object transactionId = props.headers.get(TRANSACTION_ID_HEADER_FIELD_NAME);
+      if (transactionId instanceof Long) {
+        header.setTransactionId((Long) transactionId);
+      } else if (transactionId instanceof Integer && ((Integer) transactionId).intValue() >= 0) {
+        // Former mapping of the transaction id, -1 if null
+        header.setTransactionId(new Long(((Integer) transactionId).intValue()));
+      } else {
+        header.setTransactionId(null);
+      }
+      Integer qosI = (Integer) props.headers.get(QOS_LEVEL_HEADER_FIELD_NAME);
+      if (qosI != null) {
+        header.setQoSlevel(QoSLevel.fromOrdinal(qosI.intValue()));
+      }
+      LongString timestampS = (LongString) props.headers.get(MALAMQPHelper.TIMESTAMP_HEADER_FIELD_NAME);
+      if (timestampS != null) {
+        header.setTimestamp(new Time((Long.parseLong(timestampS.toString()))));
+      }
+      //header.setTimestamp(new Time(props.timestamp.getTime()));
+      Integer isErrorI = (Integer) props.headers.get(MALAMQPHelper.IS_ERROR_HEADER_FIELD_NAME);
+      if (isErrorI.intValue() == 0) {
+        header.setIsErrorMessage(Boolean.FALSE);
+      } else {
+        header.setIsErrorMessage(Boolean.TRUE);
+      }
     }
     
     if (service == null) {
@@ -327,16 +457,11 @@ public class MALAMQPHelper {
     header.setAreaVersion(service.getArea().getVersion());
     Integer operationI = (Integer) props.headers.get(MALAMQPHelper.OPERATION_HEADER_FIELD_NAME);
     header.setOperation(service.getOperationByNumber(new UShort(operationI.intValue())).getNumber());
-    Integer qosI = (Integer) props.headers.get(QOS_LEVEL_HEADER_FIELD_NAME);
-    header.setQoSlevel(QoSLevel.fromOrdinal(qosI.intValue()));
     header.setURIFrom(MALAMQPHelper.getQueueUri(props.replyTo));
-    LongString timestampS = (LongString) props.headers.get(MALAMQPHelper.TIMESTAMP_HEADER_FIELD_NAME);
-    header.setTimestamp(new Time((Long.parseLong(timestampS.toString()))));
-    //header.setTimestamp(new Time(props.timestamp.getTime()));
     
     URI uriTo;
-    if (interactionTypeI.intValue() == InteractionType._PUBSUB_INDEX) {
-      if (interactionStageI.intValue() == MALPubSubOperation._PUBLISH_STAGE) {
+    if (header.getInteractionType().getOrdinal() == InteractionType._PUBSUB_INDEX) {
+      if (header.getInteractionStage().getValue() == MALPubSubOperation._PUBLISH_STAGE) {
         if (exchangeName.length() == 0) {
           uriTo = MALAMQPHelper.getQueueUri(routingKey);
         } else {
@@ -354,12 +479,6 @@ public class MALAMQPHelper {
     
     header.setURITo(uriTo);
     header.setPriority(new UInteger(props.priority.intValue()));
-    Integer isErrorI = (Integer) props.headers.get(MALAMQPHelper.IS_ERROR_HEADER_FIELD_NAME);
-    if (isErrorI.intValue() == 0) {
-      header.setIsErrorMessage(Boolean.FALSE);
-    } else {
-      header.setIsErrorMessage(Boolean.TRUE);
-    }
     return header;
   }
   
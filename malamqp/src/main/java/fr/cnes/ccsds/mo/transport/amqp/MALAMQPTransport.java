@@ -66,6 +66,16 @@ public class MALAMQPTransport implements MALTransport {
   public final static String SHARED_BROKER_CREATION = 
     "fr.cnes.malamqp.shared.broker.creation";
   
+  /**
+   * Endpoint or message QoS property selecting the compact mapping of the
+   * MAL header: only the fields needed by the consumers before the header is
+   * read are AMQP headers, the other fields are encoded with the binary
+   * encoder in a single header (see MALAMQPHelper.getCompactHeader). Both
+   * mappings are always accepted on reception.
+   */
+  public final static String COMPACT_HEADER = 
+    "fr.cnes.malamqp.header.compact";
+  
   public static final Blob DEFAULT_AUTHENTICATION_ID = new Blob(new byte[0]);
   
   private MALElementStreamFactory elementStreamFactory;
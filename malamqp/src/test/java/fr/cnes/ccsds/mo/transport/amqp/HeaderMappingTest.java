@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright or  or Copr. CNES
+ *
+ * This software is a computer program whose purpose is to provide a 
+ * framework for the CCSDS Mission Operations services.
+ *
+ * This software is governed by the CeCILL-C license under French law and
+ * abiding by the rules of distribution of free software.  You can  use, 
+ * modify and/ or redistribute the software under the terms of the CeCILL-C
+ * license as circulated by CEA, CNRS and INRIA at the following URL
+ * "http://www.cecill.info". 
+ *
+ * As a counterpart to the access to the source code and  rights to copy,
+ * modify and redistribute granted by the license, users are provided only
+ * with a limited warranty  and the software's author,  the holder of the
+ * economic rights,  and the successive licensors  have only  limited
+ * liability. 
+ *
+ * In this respect, the user's attention is drawn to the risks associated
+ * with loading,  using,  modifying and/or developing or reproducing the
+ * software by the user in light of its specific status of free software,
+ * that may mean  that it is complicated to manipulate,  and  that  also
+ * therefore means  that it is reserved for developers  and  experienced
+ * professionals having in-depth computer knowledge. Users are therefore
+ * encouraged to load and test the software's suitability as regards their
+ * requirements in conditions enabling the security of their systems and/or 
+ * data to be ensured and,  more generally, to use and operate it in the 
+ * same conditions as regards security. 
+ *
+ * The fact that you are presently reading this means that you have had
+ * knowledge of the CeCILL-C license and that you accept its terms.
+ *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.amqp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.impl.LongStringHelper;
+
+/**
+ * Maps MAL headers to AMQP properties with the default and the compact
+ * mapping (see MALAMQPTransport.COMPACT_HEADER), then reads them back, with
+ * all the fields set and with the optional fields null. The channel of the
+ * endpoint is a stand-in keeping the properties of the last published
+ * message.
+ */
+public class HeaderMappingTest {
+
+  private static final String PROTOCOL = "malamqp";
+
+  private static final UOctet SEND_STAGE = new UOctet((short) 1);
+
+  private static final String QUEUE_NAME = "sender";
+
+  private static final String ROUTING_KEY = "destination";
+
+  /**
+   * Transaction identifier that does not fit in an Integer.
+   */
+  private static final Long TRANSACTION_ID = Long.valueOf(0x123456789AL);
+
+  private static MALSendOperation op;
+
+  private static MALAMQPEndPoint endpoint;
+
+  private static BasicProperties published;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+        "fr.cnes.encoding.binary.BinaryElementStreamFactory");
+    MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+    op = new MALSendOperation(new UShort(1), new Identifier("send"),
+        Boolean.FALSE, new UShort(1), new MALOperationStage(SEND_STAGE,
+            new Object[] { Blob.BLOB_SHORT_FORM }, new Object[0]));
+    MALService service = new MALService(new UShort(1), new Identifier("TestService"));
+    service.addOperation(op);
+    MALArea area = new MALArea(new UShort(201), new Identifier("TestArea"),
+        new UOctet((short) 1));
+    area.addService(service);
+    MALContextFactory.registerArea(area);
+
+    MALAMQPTransport transport = new MALAMQPTransport(null, null);
+    transport.init(PROTOCOL, new HashMap());
+    Channel channel = (Channel) Proxy.newProxyInstance(HeaderMappingTest.class.getClassLoader(),
+        new Class[] { Channel.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("basicPublish")) {
+              published = (BasicProperties) args[args.length - 2];
+              return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    endpoint = new MALAMQPEndPoint(transport, null, QUEUE_NAME, null, channel, true, null);
+  }
+
+  private static IdentifierList domain() {
+    IdentifierList domain = new IdentifierList();
+    domain.add(new Identifier("test"));
+    domain.add(new Identifier("header"));
+    return domain;
+  }
+
+  private MALMessage createMessage(Blob authenticationId, Time timestamp,
+      QoSLevel qosLevel, Identifier networkZone, Long transactionId,
+      boolean compact) throws Exception {
+    Map qosProperties = new HashMap();
+    qosProperties.put(MALAMQPTransport.COMPACT_HEADER, Boolean.toString(compact));
+    return endpoint.createMessage(authenticationId, MALAMQPHelper.getQueueUri(ROUTING_KEY),
+        timestamp, qosLevel, new UInteger(4), domain(), networkZone,
+        SessionType.SIMULATION, new Identifier("SIM"), transactionId,
+        Boolean.FALSE, op, SEND_STAGE, qosProperties, new Blob(new byte[16]));
+  }
+
+  /**
+   * Publishes a message and reads its header back from the published
+   * properties.
+   */
+  private MALMessageHeader roundTrip(MALMessage msg, boolean compact) throws Exception {
+    published = null;
+    endpoint.defaultSendMessage(msg, "", ROUTING_KEY, QUEUE_NAME);
+    assertEquals(compact,
+        published.headers.containsKey(MALAMQPHelper.COMPACT_HEADER_FIELD_NAME));
+    // The strings are received as long strings
+    for (Iterator it = published.headers.entrySet().iterator(); it.hasNext();) {
+      Map.Entry entry = (Map.Entry) it.next();
+      if (entry.getValue() instanceof String) {
+        entry.setValue(LongStringHelper.asLongString((String) entry.getValue()));
+      }
+    }
+    return MALAMQPHelper.getMALHeader(published, "", ROUTING_KEY, op.getService());
+  }
+
+  private void checkAllFields(boolean compact) throws Exception {
+    Time timestamp = new Time(System.currentTimeMillis());
+    MALMessage msg = createMessage(new Blob("user".getBytes()), timestamp,
+        QoSLevel.QUEUED, new Identifier("Network"), TRANSACTION_ID, compact);
+    MALMessageHeader header = roundTrip(msg, compact);
+
+    assertArrayEquals("user".getBytes(), header.getAuthenticationId().getValue());
+    assertEquals(endpoint.getURI(), header.getURIFrom());
+    assertEquals(MALAMQPHelper.getQueueUri(ROUTING_KEY), header.getURITo());
+    assertEquals(timestamp, header.getTimestamp());
+    assertEquals(timestamp.getValue(), published.timestamp.getTime());
+    assertEquals(QoSLevel.QUEUED, header.getQoSlevel());
+    assertEquals(new UInteger(4), header.getPriority());
+    assertEquals(domain(), header.getDomain());
+    assertEquals(new Identifier("Network"), header.getNetworkZone());
+    assertEquals(SessionType.SIMULATION, header.getSession());
+    assertEquals(new Identifier("SIM"), header.getSessionName());
+    assertEquals(op.getInteractionType(), header.getInteractionType());
+    assertEquals(SEND_STAGE, header.getInteractionStage());
+    assertEquals(TRANSACTION_ID, header.getTransactionId());
+    if (! compact) {
+      assertEquals(TRANSACTION_ID,
+          published.headers.get(MALAMQPHelper.TRANSACTION_ID_HEADER_FIELD_NAME));
+    }
+    assertEquals(op.getService().getArea().getNumber(), header.getServiceArea());
+    assertEquals(op.getService().getNumber(), header.getService());
+    assertEquals(op.getNumber(), header.getOperation());
+    assertFalse(header.getIsErrorMessage().booleanValue());
+  }
+
+  private void checkNullFields(boolean compact) throws Exception {
+    MALMessage msg = createMessage(null, null, null, null, null, compact);
+    MALMessageHeader header = roundTrip(msg, compact);
+
+    assertNull(published.timestamp);
+    assertNull(header.getAuthenticationId());
+    assertNull(header.getTimestamp());
+    assertNull(header.getQoSlevel());
+    assertNull(header.getNetworkZone());
+    assertNull(header.getTransactionId());
+    assertEquals(endpoint.getURI(), header.getURIFrom());
+    assertEquals(SessionType.SIMULATION, header.getSession());
+    assertEquals(SEND_STAGE, header.getInteractionStage());
+    assertFalse(header.getIsErrorMessage().booleanValue());
+  }
+
+  @Test
+  public void testDefaultMapping() throws Exception {
+    checkAllFields(false);
+  }
+
+  @Test
+  public void testCompactMapping() throws Exception {
+    checkAllFields(true);
+  }
+
+  @Test
+  public void testDefaultMappingNullFields() throws Exception {
+    checkNullFields(false);
+  }
+
+  @Test
+  public void testCompactMappingNullFields() throws Exception {
+    checkNullFields(true);
+  }
+
+  @Test
+  public void testFormerTransactionIdMapping() throws Exception {
+    MALMessage msg = createMessage(null, null, null, null, null, false);
+    roundTrip(msg, false);
+    // A peer using the former mapping sends an Integer, -1 if null
+    published.headers.put(MALAMQPHelper.TRANSACTION_ID_HEADER_FIELD_NAME, new Integer(42));
+    assertEquals(Long.valueOf(42),
+        MALAMQPHelper.getMALHeader(published, "", ROUTING_KEY, op.getService()).getTransactionId());
+    published.headers.put(MALAMQPHelper.TRANSACTION_ID_HEADER_FIELD_NAME, new Integer(-1));
+    assertNull(MALAMQPHelper.getMALHeader(published, "", ROUTING_KEY, op.getService()).getTransactionId());
+  }
+}
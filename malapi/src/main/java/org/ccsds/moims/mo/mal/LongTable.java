@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package org.ccsds.moims.mo.mal;
+
+/**
+ * Immutable map of long keys, used for the lookups done for each received
+ * message (areas, element factories).
+ * 
+ * The entries are stored in two arrays using open addressing with linear
+ * probing, so a lookup neither allocates nor locks. The table is never
+ * modified: an update returns a new table, the owner publishes it through
+ * a volatile field.
+ */
+final class LongTable<V> {
+  
+  static final LongTable EMPTY = new LongTable(new long[8], new Object[8], 0);
+  
+  private final long[] keys;
+  
+  /**
+   * The values, a null value marks a free slot.
+   */
+  private final Object[] values;
+  
+  private final int size;
+  
+  private LongTable(long[] keys, Object[] values, int size) {
+    this.keys = keys;
+    this.values = values;
+    this.size = size;
+  }
+  
+  @SuppressWarnings("unchecked")
+  static <V> LongTable<V> empty() {
+    return (LongTable<V>) EMPTY;
+  }
+  
+  private static int index(long key, int mask) {
+    int h = (int) (key ^ (key >>> 32));
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h & mask;
+  }
+  
+  int size() {
+    return size;
+  }
+  
+  /**
+   * Returns the value mapped to the key, null if none.
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    while (true) {
+      Object value = values[i];
+      if (value == null) return null;
+      if (keys[i] == key) return (V) value;
+      i = (i + 1) & mask;
+    }
+  }
+  
+  /**
+   * Returns a table mapping the key to the value in addition to the entries
+   * of this table.
+   */
+  LongTable<V> put(long key, V value) {
+    if (value == null) throw new IllegalArgumentException("Null value");
+    int capacity = keys.length;
+    // Keeps the load factor under 1/2
+    if ((size + 1) * 2 > capacity) capacity *= 2;
+    LongTable<V> table = copy(capacity);
+    if (table.insert(key, value)) {
+      return new LongTable<V>(table.keys, table.values, size + 1);
+    }
+    return table;
+  }
+  
+  /**
+   * Returns a table without the key.
+   */
+  LongTable<V> remove(long key) {
+    if (get(key) == null) return this;
+    LongTable<V> table = new LongTable<V>(new long[keys.length], new Object[keys.length], size - 1);
+    for (int i = 0; i < keys.length; i++) {
+      if ((values[i] != null) && (keys[i] != key))
+        table.insert(keys[i], values[i]);
+    }
+    return table;
+  }
+  
+  private LongTable<V> copy(int capacity) {
+    if (capacity == keys.length) {
+      return new LongTable<V>(keys.clone(), values.clone(), size);
+    }
+    LongTable<V> table = new LongTable<V>(new long[capacity], new Object[capacity], size);
+    for (int i = 0; i < keys.length; i++) {
+      if (values[i] != null)
+        table.insert(keys[i], values[i]);
+    }
+    return table;
+  }
+  
+  /**
+   * Inserts an entry in the arrays, only used while building a table.
+   * Returns true if the key is added, false if its value is replaced.
+   */
+  private boolean insert(long key, Object value) {
+    int mask = keys.length - 1;
+    int i = index(key, mask);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        values[i] = value;
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    return true;
+  }
+}
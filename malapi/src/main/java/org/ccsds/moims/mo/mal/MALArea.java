@@ -42,6 +42,11 @@ public class MALArea {
   
   private Vector<MALService> services;
   
+  /**
+   * The services indexed by number, replaced when a service is added.
+   */
+  private volatile MALService[] servicesByNumber = new MALService[0];
+  
   /**
    * Constructs an area description with the specified number, name and version.
    * @param number the number of the area
@@ -104,14 +109,23 @@ public class MALArea {
     if (service == null) {
       throw new IllegalArgumentException("Null service");
     }
-    if (getServiceByNumber(service.getNumber()) != null) {
-      throw new MALException("Already added service: number=" + service.getNumber());
-    }
-    if (getServiceByName(service.getName()) != null) {
-      throw new MALException("Already added service: name=" + service.getName());
+    synchronized (services) {
+      // Checked under the lock so that concurrent additions of a same service
+      // cannot both succeed: the first service added with a number is kept.
+      if (getServiceByNumber(service.getNumber()) != null) {
+        throw new MALException("Already added service: number=" + service.getNumber());
+      }
+      if (getServiceByName(service.getName()) != null) {
+        throw new MALException("Already added service: name=" + service.getName());
+      }
+      service.setArea(this);
+      services.addElement(service);
+      int n = service.getNumber().getValue();
+      MALService[] table = new MALService[Math.max(servicesByNumber.length, n + 1)];
+      System.arraycopy(servicesByNumber, 0, table, 0, servicesByNumber.length);
+      table[n] = service;
+      servicesByNumber = table;
     }
-    service.setArea(this);
-    services.addElement(service);
   }
   
   /**
@@ -135,13 +149,9 @@ public class MALArea {
    * @return the service with the specified number.
    */
   public MALService getServiceByNumber(UShort serviceNumber) {
-    for (int i = 0; i < services.size(); i++) {
-      MALService s = services.elementAt(i);
-      if (s.getNumber().getValue() == serviceNumber.getValue()) {
-        return s;
-      }
-    }
-    return null;
+    int n = serviceNumber.getValue();
+    MALService[] table = servicesByNumber;
+    return (n < table.length) ? table[n] : null;
   }
 
   @Override
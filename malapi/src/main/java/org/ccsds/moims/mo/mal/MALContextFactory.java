@@ -41,7 +41,11 @@ public abstract class MALContextFactory {
   
   private static Hashtable<AreaNameKey, MALArea> areaNameRepository;
   
-  private static Hashtable<AreaNumberKey, MALArea> areaNumberRepository;
+  /**
+   * Areas indexed by number and version (see areaKey), replaced at each
+   * registration.
+   */
+  private static volatile LongTable<MALArea> areaNumberRepository;
   
   private static Hashtable<UInteger, Identifier> errorRepository;
   
@@ -51,7 +55,7 @@ public abstract class MALContextFactory {
   
   static {
     areaNameRepository = new Hashtable<AreaNameKey, MALArea>();
-    areaNumberRepository = new Hashtable<AreaNumberKey, MALArea>();
+    areaNumberRepository = LongTable.empty();
     errorRepository= new Hashtable<UInteger, Identifier>();
     try {
       elementFactoryRegistry = new MALElementFactoryRegistry();
@@ -131,10 +135,10 @@ public abstract class MALContextFactory {
    */
   public static void registerArea(MALArea area) throws IllegalArgumentException, MALException {
     if (area == null) throw new IllegalArgumentException("Null area");
-    AreaNumberKey numberKey = new AreaNumberKey(area.getNumber(), area.getVersion());
+    long numberKey = areaKey(area.getNumber(), area.getVersion());
     AreaNameKey nameKey = new AreaNameKey(area.getName().getValue(), area.getVersion());
-    synchronized (areaNumberRepository) {
-      MALArea initialArea = (MALArea) areaNumberRepository.get(numberKey);
+    synchronized (areaNameRepository) {
+      MALArea initialArea = areaNumberRepository.get(numberKey);
       if (initialArea != null && initialArea != area) {
         throw new MALException("Area already registered: " + area.getNumber());
       }
@@ -142,7 +146,7 @@ public abstract class MALContextFactory {
       if (initialArea != null && initialArea != area) {
         throw new MALException("Area already registered: " + area.getName());
       }
-      areaNumberRepository.put(numberKey, area);
+      areaNumberRepository = areaNumberRepository.put(numberKey, area);
       areaNameRepository.put(nameKey, area);
     }
   }
@@ -172,9 +176,11 @@ public abstract class MALContextFactory {
   public static MALArea lookupArea(UShort areaNumber, UOctet areaVersion) throws IllegalArgumentException {
     if (areaNumber == null) throw new IllegalArgumentException("Null area number");
     if (areaVersion == null) throw new IllegalArgumentException("Null version");
-    AreaNumberKey key = new AreaNumberKey(areaNumber, areaVersion);
-    MALArea area = areaNumberRepository.get(key);
-    return area;
+    return areaNumberRepository.get(areaKey(areaNumber, areaVersion));
+  }
+  
+  private static long areaKey(UShort areaNumber, UOctet areaVersion) {
+    return (areaNumber.getValue() << 8) | areaVersion.getValue();
   }
   
   /**
@@ -260,51 +266,4 @@ public abstract class MALContextFactory {
     }
   }
   
-  static class AreaNumberKey {
-    private UShort number;
-    private UOctet version;
-    
-    public AreaNumberKey(UShort number, UOctet version) {
-      super();
-      this.number = number;
-      this.version = version;
-    }
-
-    @Override
-    public int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result + ((number == null) ? 0 : number.hashCode());
-      result = prime * result + ((version == null) ? 0 : version.hashCode());
-      return result;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      AreaNumberKey other = (AreaNumberKey) obj;
-      if (number == null) {
-        if (other.number != null)
-          return false;
-      } else if (!number.equals(other.number))
-        return false;
-      if (version == null) {
-        if (other.version != null)
-          return false;
-      } else if (!version.equals(other.version))
-        return false;
-      return true;
-    }
-
-    @Override
-    public String toString() {
-      return "AreaNumberKey [number=" + number + ", version=" + version + "]";
-    }
-  }
-  
 }
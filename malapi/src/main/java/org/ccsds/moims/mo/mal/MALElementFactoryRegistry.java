@@ -33,11 +33,18 @@ public class MALElementFactoryRegistry {
   
   private Hashtable<Object, MALElementFactory> elementFactories;
   
+  /**
+   * The factories registered with a Long short form, replaced at each
+   * registration so that the lookups need no lock.
+   */
+  private volatile LongTable<MALElementFactory> longFactories;
+  
   /**
    * Constructs an element factory registry.
    */
   public MALElementFactoryRegistry() {
     elementFactories = new Hashtable<Object, MALElementFactory>();
+    longFactories = LongTable.empty();
   }
   
   /**
@@ -49,7 +56,11 @@ public class MALElementFactoryRegistry {
   public void registerElementFactory(Object shortForm, MALElementFactory elementFactory) throws IllegalArgumentException {
     if (shortForm == null) throw new IllegalArgumentException("Null short form");
     if (elementFactory == null) throw new IllegalArgumentException("Null element factory");
-    elementFactories.put(shortForm, elementFactory);
+    synchronized (elementFactories) {
+      elementFactories.put(shortForm, elementFactory);
+      if (shortForm instanceof Long)
+        longFactories = longFactories.put(((Long) shortForm).longValue(), elementFactory);
+    }
   }
   
   /**
@@ -61,7 +72,11 @@ public class MALElementFactoryRegistry {
    */
   public boolean deregisterElementFactory(Object shortForm) throws IllegalArgumentException {
     if (shortForm == null) throw new IllegalArgumentException("Null short form");
-    return (elementFactories.remove(shortForm) != null);
+    synchronized (elementFactories) {
+      if (shortForm instanceof Long)
+        longFactories = longFactories.remove(((Long) shortForm).longValue());
+      return (elementFactories.remove(shortForm) != null);
+    }
   }
 
   /**
@@ -72,6 +87,8 @@ public class MALElementFactoryRegistry {
    */
   public MALElementFactory lookupElementFactory(Object shortForm) throws IllegalArgumentException {
     if (shortForm == null) throw new IllegalArgumentException("Null short form");
+    if (shortForm instanceof Long)
+      return longFactories.get(((Long) shortForm).longValue());
     MALElementFactory factory = elementFactories.get(shortForm);
     return factory;
   }
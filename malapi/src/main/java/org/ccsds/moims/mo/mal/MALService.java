@@ -47,6 +47,11 @@ public class MALService {
   
   private Vector<MALOperation> operations;
   
+  /**
+   * The operations indexed by number, replaced when an operation is added.
+   */
+  private volatile MALOperation[] operationsByNumber = new MALOperation[0];
+  
   /**
    * Constructs a service description with the specified parameters.
    * @param number the number of the service
@@ -105,7 +110,17 @@ public class MALService {
   public void addOperation(MALOperation operation) throws IllegalArgumentException {
     if (operation == null) throw new IllegalArgumentException("Null operation");
     operation.setService(this);
-    operations.addElement(operation);
+    synchronized (operations) {
+      operations.addElement(operation);
+      int n = operation.getNumber().getValue();
+      // The first operation added with a number is kept
+      if ((n >= operationsByNumber.length) || (operationsByNumber[n] == null)) {
+        MALOperation[] table = new MALOperation[Math.max(operationsByNumber.length, n + 1)];
+        System.arraycopy(operationsByNumber, 0, table, 0, operationsByNumber.length);
+        table[n] = operation;
+        operationsByNumber = table;
+      }
+    }
   }
   
   /**
@@ -114,12 +129,9 @@ public class MALService {
    * @return the operation which number is specified
    */
   public MALOperation getOperationByNumber(UShort opNumber) {
-    int length = operations.size();
-    for (int i = 0; i < length; i++) {
-      MALOperation op = operations.elementAt(i);
-      if (op.getNumber().getValue() == opNumber.getValue()) return op;
-    }
-    return null;
+    int n = opNumber.getValue();
+    MALOperation[] table = operationsByNumber;
+    return (n < table.length) ? table[n] : null;
   }
   
   /**
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package org.ccsds.moims.mo.mal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the immutable LongTable against a HashMap.
+ */
+public class LongTableTest {
+  
+  @Test
+  public void testEmpty() {
+    LongTable<String> table = LongTable.empty();
+    assertEquals(0, table.size());
+    assertNull(table.get(0));
+    assertNull(table.get(-1));
+    assertSame(table, table.remove(0));
+  }
+  
+  @Test
+  public void testImmutable() {
+    LongTable<String> empty = LongTable.empty();
+    LongTable<String> one = empty.put(1, "one");
+    LongTable<String> replaced = one.put(1, "un");
+    
+    // An update returns a new table, the former ones are unchanged
+    assertNull(empty.get(1));
+    assertEquals("one", one.get(1));
+    assertEquals("un", replaced.get(1));
+    assertEquals(1, replaced.size());
+    
+    LongTable<String> removed = replaced.remove(1);
+    assertNull(removed.get(1));
+    assertEquals(0, removed.size());
+    assertEquals("un", replaced.get(1));
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullValue() {
+    LongTable.<String>empty().put(1, null);
+  }
+  
+  @Test
+  public void testCollisions() {
+    // Keys differing only by their high bits, or mapped to the same slot
+    long[] keys = { 0, 1L << 32, 1L << 48, -1, 0xFFFFFFFFL, Long.MIN_VALUE, Long.MAX_VALUE, 8, 16, 24 };
+    LongTable<Long> table = LongTable.empty();
+    for (long key : keys) {
+      table = table.put(key, new Long(key));
+    }
+    assertEquals(keys.length, table.size());
+    for (long key : keys) {
+      assertEquals(new Long(key), table.get(key));
+    }
+    
+    // The removal of a key keeps the keys probed after it
+    for (int i = 0; i < keys.length; i++) {
+      table = table.remove(keys[i]);
+      assertNull(table.get(keys[i]));
+      for (int j = i + 1; j < keys.length; j++) {
+        assertEquals(new Long(keys[j]), table.get(keys[j]));
+      }
+    }
+    assertEquals(0, table.size());
+  }
+  
+  @Test
+  public void testRandomUpdates() {
+    Random random = new Random(42);
+    Map<Long, Integer> expected = new HashMap<Long, Integer>();
+    LongTable<Integer> table = LongTable.empty();
+    for (int i = 0; i < 10000; i++) {
+      // A small key range so that the keys are replaced and removed
+      long key = random.nextInt(500) - 250;
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        table = table.remove(key);
+      } else {
+        expected.put(key, i);
+        table = table.put(key, i);
+      }
+      assertEquals(expected.size(), table.size());
+    }
+    for (long key = -300; key < 300; key++) {
+      assertEquals(expected.get(key), table.get(key));
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, by default the
+ * results are written in JSON to jmh-result.json and the allocation rate is
+ * measured with the GC profiler:
+ * <pre>
+ * java -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ * </pre>
+ */
+public class BenchmarkMain {
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+	
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp()) {
+			cmd.showHelp();
+			return;
+		}
+		if (cmd.shouldListProfilers()) {
+			cmd.listProfilers();
+			return;
+		}
+		if (cmd.shouldListResultFormats()) {
+			cmd.listResultFormats();
+			return;
+		}
+		
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+		if (! cmd.getResultFormat().hasValue())
+			options.resultFormat(ResultFormatType.JSON);
+		if (! cmd.getResult().hasValue())
+			options.result(DEFAULT_RESULT_FILE);
+		if (cmd.getProfilers().isEmpty())
+			options.addProfiler(GCProfiler.class);
+		
+		Runner runner = new Runner(options.build());
+		if (cmd.shouldList()) {
+			runner.list();
+		} else if (cmd.shouldListWithParams()) {
+			runner.listWithParams(cmd);
+		} else {
+			runner.run();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.ccsds.moims.mo.mal.structures.DoubleList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.LongList;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.encoding.base.JavaDurationEncoder;
+import fr.cnes.encoding.base.JavaTimeEncoder;
+import fr.cnes.encoding.binary.BinaryElementByteArrayOutputStream;
+import fr.cnes.encoding.binary.BinaryEncoder;
+import fr.cnes.encoding.binary.OutputStreamEncoder;
+
+/**
+ * Compares the encoding of a typical TM body with the OutputStreamEncoder,
+ * allocating a new stream and encoder for each message, and with a reused
+ * BinaryElementByteArrayOutputStream backed by a BufferEncoder.
+ * 
+ * The body is made of an update header list, the parameter names and
+ * their raw and converted values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryEncoderBenchmark {
+	private static final JavaTimeEncoder timeEncoder = new JavaTimeEncoder();
+	private static final JavaDurationEncoder durationEncoder = new JavaDurationEncoder();
+
+	@Param({ "50" })
+	public int parameters;
+
+	private Element[] body;
+	private BinaryElementByteArrayOutputStream eos;
+
+	@Setup
+	public void setup() {
+		body = createBody(parameters);
+		eos = new BinaryElementByteArrayOutputStream(true, false, timeEncoder, timeEncoder, durationEncoder);
+	}
+
+	static Element[] createBody(int parameters) {
+		UpdateHeaderList headers = new UpdateHeaderList();
+		IdentifierList names = new IdentifierList();
+		LongList rawValues = new LongList();
+		DoubleList values = new DoubleList();
+		URI source = new URI("maltcp://127.0.0.1:1024/TMProvider");
+		for (int i = 0; i < parameters; i++) {
+			Identifier name = new Identifier("PARAM_" + i);
+			headers.add(new UpdateHeader(new Time(System.currentTimeMillis()), source,
+					UpdateType.UPDATE, new EntityKey(name, Long.valueOf(i), Long.valueOf(0), Long.valueOf(0))));
+			names.add(name);
+			rawValues.add(Long.valueOf(i * 4096L));
+			values.add(Double.valueOf(i * 0.125));
+		}
+		return new Element[] { new Identifier("TM"), headers, names, rawValues, values, new UInteger(parameters) };
+	}
+
+	@Benchmark
+	public byte[] outputStreamEncoder() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryEncoder encoder = new BinaryEncoder(new OutputStreamEncoder(baos), false,
+				timeEncoder, timeEncoder, durationEncoder);
+		for (int i = 0; i < body.length; i++) {
+			encoder.encodeElement(body[i]);
+		}
+		encoder.flush();
+		return baos.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] bufferEncoder() throws Exception {
+		eos.reset();
+		for (int i = 0; i < body.length; i++) {
+			eos.writeElement(body[i], null);
+		}
+		return eos.toByteArray();
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+import fr.cnes.encoding.splitbinary.SplitBinaryElementStreamFactory;
+import fr.cnes.mal.CNESMALMessageHeader;
+
+/**
+ * Encoding and decoding throughput of the message bodies with the fixed
+ * binary, varint binary and split-binary encodings.
+ * 
+ * The bodies are encoded as the transports do, through
+ * MALElementStreamFactory.encode, and decoded element by element from a
+ * MALElementInputStream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	/**
+	 * The encodings, each one is registered as a protocol of the element
+	 * stream factories.
+	 */
+	public enum Encoding {
+		FIXED(BinaryElementStreamFactory.class, false),
+		VARINT(BinaryElementStreamFactory.class, true),
+		SPLIT(SplitBinaryElementStreamFactory.class, true);
+		
+		private final Class<? extends MALElementStreamFactory> factoryClass;
+		private final boolean varint;
+		
+		private Encoding(Class<? extends MALElementStreamFactory> factoryClass, boolean varint) {
+			this.factoryClass = factoryClass;
+			this.varint = varint;
+		}
+		
+		MALElementStreamFactory createFactory(boolean encodedUpdate) throws Exception {
+			String protocol = "bench" + name().toLowerCase();
+			System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + protocol,
+					factoryClass.getName());
+			Map<String, Object> properties = new HashMap<String, Object>();
+			properties.put(BinaryElementStreamFactory.ENCODED_UPDATE_PROPERTY, Boolean.valueOf(encodedUpdate));
+			MALElementStreamFactory factory = MALElementStreamFactory.newFactory(protocol, properties);
+			if (factory instanceof BinaryElementStreamFactory)
+				((BinaryElementStreamFactory) factory).setVarintSupported(varint);
+			return factory;
+		}
+	}
+	
+	@Param
+	Encoding encoding;
+	
+	@Param
+	MessageBody body;
+	
+	private MALElementStreamFactory factory;
+	private MALEncodingContext ctx;
+	private Object[] elements;
+	private byte[] encoded;
+	
+	@Setup
+	public void setup() throws Exception {
+		MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+		
+		factory = encoding.createFactory(body.isEncodedUpdate());
+		MALOperation op = body.getOperation();
+		boolean publish = (op.getInteractionType().getOrdinal() == InteractionType._PUBSUB_INDEX);
+		IdentifierList domain = new IdentifierList();
+		domain.add(new Identifier("bench"));
+		CNESMALMessageHeader header = new CNESMALMessageHeader(
+				new URI("maltcp://127.0.0.1:1024/Provider"), new Blob(new byte[] { 0 }),
+				new URI("maltcp://127.0.0.1:1025/Consumer"), new Time(System.currentTimeMillis()),
+				QoSLevel.BESTEFFORT, new UInteger(1), domain, new Identifier("Network"),
+				SessionType.LIVE, new Identifier("LIVE"), op.getInteractionType(),
+				publish ? MALPubSubOperation.PUBLISH_STAGE : new UOctet((short) 1), Long.valueOf(1),
+				MessageBody.AREA, MessageBody.SERVICE, op.getNumber(), MessageBody.AREA_VERSION, Boolean.FALSE);
+		ctx = new MALEncodingContext(header, op, 0, null, null);
+		
+		elements = body.createElements();
+		encoded = encode().getValue();
+	}
+	
+	@Benchmark
+	public Blob encode() throws Exception {
+		return factory.encode(elements, ctx);
+	}
+	
+	@Benchmark
+	public void decode(Blackhole bh) throws Exception {
+		MALElementInputStream eis = factory.createInputStream(encoded, 0);
+		for (int i = 0; i < elements.length; i++) {
+			ctx.setBodyElementIndex(i);
+			bh.consume(eis.readElement(((Element) elements[i]).createElement(), ctx));
+		}
+	}
+}
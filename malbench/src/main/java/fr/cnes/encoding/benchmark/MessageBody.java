@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.benchmark;
+
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.LongList;
+import org.ccsds.moims.mo.mal.structures.NamedValue;
+import org.ccsds.moims.mo.mal.structures.NamedValueList;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+
+/**
+ * Representative message bodies of the codec benchmarks.
+ * 
+ * Each body defines the operation it is sent with, the elements to encode and
+ * the empty elements the decoded values are read into. The PUBLISH bodies are
+ * encoded with and without ENCODED_UPDATE_PROPERTY, see isEncodedUpdate.
+ */
+public enum MessageBody {
+	/**
+	 * An update header list and the names of the parameters.
+	 */
+	COMPOSITES {
+		@Override
+		Element[] createElements() {
+			return new Element[] { createUpdateHeaders(COMPOSITE_COUNT), createNames(COMPOSITE_COUNT) };
+		}
+	},
+	/**
+	 * A large list of raw values.
+	 */
+	LONG_LIST {
+		@Override
+		Element[] createElements() {
+			LongList list = new LongList(LIST_SIZE);
+			for (int i = 0; i < LIST_SIZE; i++) {
+				list.add(Long.valueOf(i * 4099L - LIST_SIZE));
+			}
+			return new Element[] { list };
+		}
+	},
+	/**
+	 * A large list of engineering values.
+	 */
+	DOUBLE_LIST {
+		@Override
+		Element[] createElements() {
+			DoubleList list = new DoubleList(LIST_SIZE);
+			for (int i = 0; i < LIST_SIZE; i++) {
+				list.add(Double.valueOf(i * 0.125));
+			}
+			return new Element[] { list };
+		}
+	},
+	/**
+	 * A file-like blob.
+	 */
+	BLOB {
+		@Override
+		Element[] createElements() {
+			byte[] value = new byte[BLOB_SIZE];
+			for (int i = 0; i < value.length; i++) {
+				value[i] = (byte) i;
+			}
+			return new Element[] { new Blob(value) };
+		}
+	},
+	/**
+	 * Named values whose values are Attribute unions of various types.
+	 */
+	ATTRIBUTES {
+		@Override
+		Element[] createElements() {
+			return new Element[] { createNamedValues(COMPOSITE_COUNT) };
+		}
+	},
+	/**
+	 * A PUBLISH of named values, the updates are encoded with the message.
+	 */
+	PUBLISH {
+		@Override
+		Element[] createElements() {
+			return new Element[] { createUpdateHeaders(COMPOSITE_COUNT), createNamedValues(COMPOSITE_COUNT) };
+		}
+		
+		@Override
+		MALOperation getOperation() {
+			return PUBLISH_OPERATION;
+		}
+	},
+	/**
+	 * The same PUBLISH, each update is encoded separately so that a broker can
+	 * forward it without decoding.
+	 */
+	ENCODED_PUBLISH {
+		@Override
+		Element[] createElements() {
+			return PUBLISH.createElements();
+		}
+		
+		@Override
+		MALOperation getOperation() {
+			return PUBLISH_OPERATION;
+		}
+		
+		@Override
+		boolean isEncodedUpdate() {
+			return true;
+		}
+	};
+	
+	static final int COMPOSITE_COUNT = 100;
+	
+	static final int LIST_SIZE = 10000;
+	
+	static final int BLOB_SIZE = 64 * 1024;
+	
+	static final UShort AREA = new UShort(201);
+	
+	static final UShort SERVICE = new UShort(1);
+	
+	static final UOctet AREA_VERSION = new UOctet((short) 1);
+	
+	private static final MALPubSubOperation PUBLISH_OPERATION = new MALPubSubOperation(
+			new UShort(2), new Identifier("publish"), Boolean.FALSE, new UShort(1),
+			new Object[] { NamedValueList.SHORT_FORM }, new Object[0]);
+	
+	abstract Element[] createElements();
+	
+	/**
+	 * Returns the operation the body is sent with, by default a SEND operation
+	 * declaring the types of the elements, so that there is no polymorphism.
+	 */
+	MALOperation getOperation() {
+		Element[] elements = createElements();
+		Object[] shortForms = new Object[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			shortForms[i] = elements[i].getShortForm();
+		}
+		return new MALSendOperation(new UShort(1), new Identifier("send"), Boolean.FALSE,
+				new UShort(1), new MALOperationStage(new UOctet((short) 1), shortForms, new Object[0]));
+	}
+	
+	/**
+	 * Returns true if the updates of a PUBLISH body are encoded separately.
+	 */
+	boolean isEncodedUpdate() {
+		return false;
+	}
+	
+	static UpdateHeaderList createUpdateHeaders(int count) {
+		UpdateHeaderList headers = new UpdateHeaderList(count);
+		URI source = new URI("maltcp://127.0.0.1:1024/TMProvider");
+		for (int i = 0; i < count; i++) {
+			headers.add(new UpdateHeader(new Time(1514764800000L + i), source, UpdateType.UPDATE,
+					new EntityKey(new Identifier("PARAM_" + i), Long.valueOf(i), Long.valueOf(0), Long.valueOf(0))));
+		}
+		return headers;
+	}
+	
+	static IdentifierList createNames(int count) {
+		IdentifierList names = new IdentifierList(count);
+		for (int i = 0; i < count; i++) {
+			names.add(new Identifier("PARAM_" + i));
+		}
+		return names;
+	}
+	
+	static NamedValueList createNamedValues(int count) {
+		NamedValueList values = new NamedValueList(count);
+		for (int i = 0; i < count; i++) {
+			Attribute value;
+			switch (i % 6) {
+			case 0:
+				value = new Union(Double.valueOf(i * 0.125));
+				break;
+			case 1:
+				value = new Union(Long.valueOf(i * 4099L));
+				break;
+			case 2:
+				value = new Union(Boolean.valueOf((i & 8) != 0));
+				break;
+			case 3:
+				value = new Union("value " + i);
+				break;
+			case 4:
+				value = new UInteger(i);
+				break;
+			default:
+				value = new Time(1514764800000L + i);
+			}
+			values.add(new NamedValue(new Identifier("PARAM_" + i), value));
+		}
+		return values;
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.orekit.data.ClasspathCrawler;
+import org.orekit.data.DataProvidersManager;
+
+import fr.cnes.encoding.base.Decoder;
+import fr.cnes.encoding.binary.BufferDecoder;
+import fr.cnes.encoding.binary.BufferEncoder;
+import fr.cnes.encoding.binary.BufferReader;
+import fr.cnes.malspp.encoding.CDSFineTimeDecoder;
+import fr.cnes.malspp.encoding.CDSFineTimeEncoder;
+import fr.cnes.malspp.encoding.CDSTimeCode;
+import fr.cnes.malspp.encoding.CDSTimeDecoder;
+import fr.cnes.malspp.encoding.CDSTimeEncoder;
+import fr.cnes.malspp.encoding.CUCFineTimeDecoder;
+import fr.cnes.malspp.encoding.CUCFineTimeEncoder;
+import fr.cnes.malspp.encoding.CUCTimeCode;
+import fr.cnes.malspp.encoding.CUCTimeDecoder;
+import fr.cnes.malspp.encoding.CUCTimeEncoder;
+
+/**
+ * Encoding and decoding throughput of the CCSDS time codes of the MAL/SPP
+ * binary encoding: CUC and CDS, for Time (milliseconds) and FineTime
+ * (picoseconds) values.
+ * 
+ * The CDS time codes are computed in UTC, the leap seconds are read from the
+ * Orekit data directory if orekit.data.path is set, else from the table
+ * packaged with the benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeCodeBenchmark {
+	/**
+	 * A time code and its encoder and decoder.
+	 */
+	public enum Code {
+		CUC_TIME {
+			@Override
+			void init(TimeCodeBenchmark state) throws Exception {
+				CUCTimeCode timeCode = createCUCTimeCode(4, 2);
+				final CUCTimeEncoder encoder = new CUCTimeEncoder(timeCode);
+				final CUCTimeDecoder decoder = new CUCTimeDecoder(timeCode);
+				state.codec = new Codec() {
+					public void encode(long time, BufferEncoder buffer) throws Exception {
+						encoder.encode(time, buffer);
+					}
+					public long decode(Decoder buffer) throws Exception {
+						return decoder.decode(buffer);
+					}
+				};
+				state.time = TIME;
+			}
+		},
+		CUC_FINE_TIME {
+			@Override
+			void init(TimeCodeBenchmark state) throws Exception {
+				CUCTimeCode timeCode = createCUCTimeCode(4, 5);
+				final CUCFineTimeEncoder encoder = new CUCFineTimeEncoder(timeCode);
+				final CUCFineTimeDecoder decoder = new CUCFineTimeDecoder(timeCode);
+				state.codec = new Codec() {
+					public void encode(long time, BufferEncoder buffer) throws Exception {
+						encoder.encode(time, buffer);
+					}
+					public long decode(Decoder buffer) throws Exception {
+						return decoder.decode(buffer);
+					}
+				};
+				state.time = FINE_TIME;
+			}
+		},
+		CDS_TIME {
+			@Override
+			void init(TimeCodeBenchmark state) throws Exception {
+				CDSTimeCode timeCode = createCDSTimeCode(0);
+				final CDSTimeEncoder encoder = new CDSTimeEncoder(timeCode);
+				final CDSTimeDecoder decoder = new CDSTimeDecoder(timeCode);
+				state.codec = new Codec() {
+					public void encode(long time, BufferEncoder buffer) throws Exception {
+						encoder.encode(time, buffer);
+					}
+					public long decode(Decoder buffer) throws Exception {
+						return decoder.decode(buffer);
+					}
+				};
+				state.time = TIME;
+			}
+		},
+		CDS_FINE_TIME {
+			@Override
+			void init(TimeCodeBenchmark state) throws Exception {
+				CDSTimeCode timeCode = createCDSTimeCode(2);
+				final CDSFineTimeEncoder encoder = new CDSFineTimeEncoder(timeCode);
+				final CDSFineTimeDecoder decoder = new CDSFineTimeDecoder(timeCode);
+				state.codec = new Codec() {
+					public void encode(long time, BufferEncoder buffer) throws Exception {
+						encoder.encode(time, buffer);
+					}
+					public long decode(Decoder buffer) throws Exception {
+						return decoder.decode(buffer);
+					}
+				};
+				state.time = FINE_TIME;
+			}
+		};
+		
+		abstract void init(TimeCodeBenchmark state) throws Exception;
+	}
+	
+	interface Codec {
+		void encode(long time, BufferEncoder buffer) throws Exception;
+		
+		long decode(Decoder buffer) throws Exception;
+	}
+	
+	/**
+	 * 2018-01-01T00:00:00.125 in milliseconds since the Java epoch.
+	 */
+	static final long TIME = 1514764800125L;
+	
+	/**
+	 * About 5 years in picoseconds since the FineTime epoch (2013-01-01).
+	 */
+	static final long FINE_TIME = 157766400125000500L;
+	
+	@Param
+	Code code;
+	
+	private Codec codec;
+	private long time;
+	private BufferEncoder buffer;
+	private byte[] encoded;
+	
+	@Setup
+	public void setup() throws Exception {
+		initOrekitData();
+		code.init(this);
+		buffer = new BufferEncoder();
+		encode();
+		encoded = new byte[buffer.getIndex()];
+		System.arraycopy(buffer.getBuffer(), 0, encoded, 0, encoded.length);
+	}
+	
+	static synchronized void initOrekitData() throws Exception {
+		DataProvidersManager manager = DataProvidersManager.getInstance();
+		if ((System.getProperty(DataProvidersManager.OREKIT_DATA_PATH) == null) &&
+				! manager.isSupported(ClasspathCrawler.class)) {
+			manager.addProvider(new ClasspathCrawler("UTC-TAI.history"));
+		}
+	}
+	
+	static CUCTimeCode createCUCTimeCode(int basicTimeLength, int fractionalTimeLength) {
+		CUCTimeCode timeCode = new CUCTimeCode();
+		timeCode.setBasicTimeLength(basicTimeLength);
+		timeCode.setFractionalTimeLength(fractionalTimeLength);
+		return timeCode;
+	}
+	
+	static CDSTimeCode createCDSTimeCode(int subMillisecondLength) {
+		CDSTimeCode timeCode = new CDSTimeCode();
+		timeCode.setDaySegmentLength(2);
+		timeCode.setSubMillisecondLength(subMillisecondLength);
+		return timeCode;
+	}
+	
+	@Benchmark
+	public int encode() throws Exception {
+		buffer.reset();
+		codec.encode(time, buffer);
+		return buffer.getIndex();
+	}
+	
+	@Benchmark
+	public long decode() throws Exception {
+		return codec.decode(new BufferDecoder(new BufferReader(encoded)));
+	}
+}
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContext;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.accesscontrol.MALAccessControl;
+import org.ccsds.moims.mo.mal.accesscontrol.MALAccessControlFactory;
+import org.ccsds.moims.mo.mal.accesscontrol.MALCheckErrorException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.provider.MALInteractionHandler;
+import org.ccsds.moims.mo.mal.provider.MALInvoke;
+import org.ccsds.moims.mo.mal.provider.MALProgress;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.provider.MALRequest;
+import org.ccsds.moims.mo.mal.provider.MALSubmit;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.mal.CNESMALContext;
+import fr.cnes.mal.CNESMALContextFactory;
+import fr.cnes.mal.VirtualThreadPool;
+
+/**
+ * Compares the execution modes of the MAL bindings: the ThreadPool, the
+ * execution in the polling threads and the virtual threads. A consumer sends
+ * synchronous requests to a provider through an in-memory transport, from a
+ * single thread to measure the latency and from many concurrent callers to
+ * measure the throughput.
+ * 
+ * The virtual mode should be run with a JVM supporting the virtual threads
+ * (Java 21 or later), with an older JVM it uses a cached thread pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionModeBenchmark {
+  
+  public final static String PROTOCOL = "loopback";
+  
+  /**
+   * Number of concurrent callers of the throughput benchmark.
+   */
+  public final static int CALLERS = 1000;
+  
+  private static MALService service;
+  
+  private static MALRequestOperation operation;
+  
+  static {
+    System.setProperty(MALContextFactory.MAL_FACTORY_CLASS, 
+        CNESMALContextFactory.class.getName());
+    System.setProperty("org.ccsds.moims.mo.mal.transport.protocol." + PROTOCOL, 
+        LoopbackTransportFactory.class.getName());
+    System.setProperty(MALAccessControlFactory.FACTORY_CLASS, 
+        NoAccessControlFactory.class.getName());
+    
+    MALArea area = new MALArea(new UShort(200), new Identifier("Benchmark"), 
+        new UOctet((short) 1));
+    service = new MALService(new UShort(1), new Identifier("Echo"));
+    operation = new MALRequestOperation(new UShort(1), new Identifier("echo"), 
+        false, new UShort(1),
+        new MALOperationStage(new UOctet((short) 1), 
+            new Object[] {Union.STRING_SHORT_FORM}, new Object[0]),
+        new MALOperationStage(new UOctet((short) 2), 
+            new Object[] {Union.STRING_SHORT_FORM}, new Object[0]));
+    try {
+      service.addOperation(operation);
+      area.addService(service);
+      MALContextFactory.registerArea(area);
+    } catch (MALException exc) {
+      throw new IllegalStateException(exc);
+    }
+  }
+  
+  /**
+   * Execution mode of the MAL context.
+   */
+  public enum ExecutionMode {
+    THREAD_POOL(CNESMALContext.POLL_EXEC, "false"),
+    POLL_EXEC(CNESMALContext.POLL_EXEC, "true"),
+    VIRTUAL(CNESMALContext.VIRTUAL_EXEC, "true");
+    
+    final String property;
+    final String value;
+    
+    ExecutionMode(String property, String value) {
+      this.property = property;
+      this.value = value;
+    }
+  }
+  
+  @Param
+  public ExecutionMode mode;
+  
+  private MALContext ctx;
+  
+  private MALConsumer consumer;
+  
+  private ExecutorService callerExecutor;
+  
+  @Setup
+  public void setup() throws Exception {
+    Map props = new HashMap();
+    props.put(mode.property, mode.value);
+    ctx = MALContextFactory.newFactory().createMALContext(props);
+    Blob authId = new Blob(new byte[0]);
+    MALProvider provider = ctx.createProviderManager().createProvider(
+        "provider", PROTOCOL, service, authId, new EchoHandler(), 
+        new QoSLevel[] {QoSLevel.BESTEFFORT}, new UInteger(1), null, 
+        Boolean.FALSE, null);
+    IdentifierList domain = new IdentifierList();
+    domain.add(new Identifier("domain"));
+    consumer = ctx.createConsumerManager().createConsumer(
+        "consumer", provider.getURI(), null, service, authId, domain, 
+        new Identifier("network"), SessionType.LIVE, new Identifier("session"), 
+        QoSLevel.BESTEFFORT, null, new UInteger(0));
+    callerExecutor = VirtualThreadPool.newExecutor("Caller#", CALLERS);
+  }
+  
+  @TearDown
+  public void tearDown() throws Exception {
+    callerExecutor.shutdown();
+    ctx.close();
+  }
+  
+  @Benchmark
+  public void request() throws Exception {
+    request(consumer);
+  }
+  
+  /**
+   * Each caller sends one request, the time is reported per request.
+   */
+  @Benchmark
+  @OperationsPerInvocation(CALLERS)
+  public void concurrentRequests() throws Exception {
+    final CountDownLatch done = new CountDownLatch(CALLERS);
+    final AtomicInteger errors = new AtomicInteger();
+    for (int i = 0; i < CALLERS; i++) {
+      callerExecutor.execute(new Runnable() {
+        public void run() {
+          try {
+            request(consumer);
+          } catch (Exception exc) {
+            errors.incrementAndGet();
+          } finally {
+            done.countDown();
+          }
+        }
+      });
+    }
+    done.await();
+    if (errors.get() > 0) {
+      throw new MALException(errors.get() + " requests failed");
+    }
+  }
+  
+  static void request(MALConsumer consumer) throws MALInteractionException, MALException {
+    MALMessageBody body = consumer.request(operation, new Union("ping"));
+    Union reply = (Union) body.getBodyElement(0, null);
+    if (! "ping".equals(reply.getStringValue())) {
+      throw new MALException("Unexpected reply: " + reply);
+    }
+  }
+  
+  static class EchoHandler implements MALInteractionHandler {
+    
+    public void malInitialize(MALProvider provider) throws MALException {}
+
+    public void handleSend(MALInteraction interaction, MALMessageBody body)
+        throws MALInteractionException, MALException {}
+
+    public void handleSubmit(MALSubmit interaction, MALMessageBody body)
+        throws MALInteractionException, MALException {}
+
+    public void handleRequest(MALRequest interaction, MALMessageBody body)
+        throws MALInteractionException, MALException {
+      interaction.sendResponse(body.getBodyElement(0, null));
+    }
+
+    public void handleInvoke(MALInvoke interaction, MALMessageBody body)
+        throws MALInteractionException, MALException {}
+
+    public void handleProgress(MALProgress interaction, MALMessageBody body)
+        throws MALInteractionException, MALException {}
+
+    public void malFinalize(MALProvider provider) throws MALException {}
+  }
+  
+  public static class NoAccessControlFactory extends MALAccessControlFactory {
+    
+    public MALAccessControl createAccessControl(Map properties) throws MALException {
+      return new MALAccessControl() {
+        public MALMessage check(MALMessage msg) throws IllegalArgumentException,
+            MALCheckErrorException {
+          return msg;
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
+
+import fr.cnes.mal.CNESMALMessageHeader;
+
+/**
+ * Endpoint of the in-memory transport. Each endpoint delivers its incoming
+ * messages from its own thread, as a network transport would do.
+ */
+public class LoopbackEndpoint implements MALEndpoint, Runnable {
+  
+  private LoopbackTransport transport;
+  
+  private String localName;
+  
+  private URI uri;
+  
+  private LinkedBlockingQueue<MALMessage> queue;
+  
+  private volatile MALMessageListener listener;
+  
+  private Thread thread;
+  
+  private volatile boolean closed;
+  
+  public LoopbackEndpoint(LoopbackTransport transport, String localName, URI uri) {
+    this.transport = transport;
+    this.localName = localName;
+    this.uri = uri;
+    queue = new LinkedBlockingQueue<MALMessage>();
+  }
+
+  public URI getURI() {
+    return uri;
+  }
+
+  public String getLocalName() {
+    return localName;
+  }
+
+  public MALMessage createMessage(Blob authenticationId, URI uriTo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, Long transactionId, Boolean isErrorMessage,
+      MALOperation op, UOctet interactionStage, Map qosProperties,
+      Object... body) throws IllegalArgumentException, MALException {
+    return createMessage(authenticationId, uriTo, timestamp, qoSlevel,
+        priority, domain, networkZone, session, sessionName,
+        op.getInteractionType(), interactionStage, transactionId, 
+        op.getService().getArea().getNumber(), op.getService().getNumber(),
+        op.getNumber(), op.getService().getArea().getVersion(),
+        isErrorMessage, qosProperties, body);
+  }
+
+  public MALMessage createMessage(Blob authenticationId, URI uriTo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, Long transactionId, Boolean isErrorMessage,
+      MALOperation op, UOctet interactionStage, Map qosProperties,
+      MALEncodedBody encodedBody) throws IllegalArgumentException,
+      MALException {
+    throw new MALException("Encoded body not supported");
+  }
+
+  public MALMessage createMessage(Blob authenticationId, URI uriTo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, InteractionType interactionType,
+      UOctet interactionStage, Long transactionId, UShort serviceArea,
+      UShort service, UShort operation, UOctet areaVersion,
+      Boolean isErrorMessage, Map qosProperties, Object... body)
+      throws IllegalArgumentException, MALException {
+    CNESMALMessageHeader header = new CNESMALMessageHeader(uri, 
+        authenticationId, uriTo, timestamp, qoSlevel, priority, domain, 
+        networkZone, session, sessionName, interactionType, interactionStage,
+        transactionId, serviceArea, service, operation, areaVersion, 
+        isErrorMessage);
+    return new LoopbackMessage(header, qosProperties, body);
+  }
+
+  public MALMessage createMessage(Blob authenticationId, URI uriTo,
+      Time timestamp, QoSLevel qoSlevel, UInteger priority,
+      IdentifierList domain, Identifier networkZone, SessionType session,
+      Identifier sessionName, InteractionType interactionType,
+      UOctet interactionStage, Long transactionId, UShort serviceArea,
+      UShort service, UShort operation, UOctet areaVersion,
+      Boolean isErrorMessage, Map qosProperties, MALEncodedBody encodedBody)
+      throws IllegalArgumentException, MALException {
+    throw new MALException("Encoded body not supported");
+  }
+
+  public synchronized void startMessageDelivery() throws MALException {
+    if (thread == null) {
+      thread = new Thread(this, "Loopback." + localName);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  public void stopMessageDelivery() throws MALException {
+    // Messages are still delivered
+  }
+
+  public void setMessageListener(MALMessageListener listener)
+      throws MALException {
+    this.listener = listener;
+  }
+
+  public void sendMessage(MALMessage msg) throws IllegalArgumentException,
+      MALTransmitErrorException, MALException {
+    LoopbackEndpoint destination = transport.lookup(msg.getHeader().getURITo());
+    if (destination == null) {
+      throw new MALTransmitErrorException(msg.getHeader(), 
+          new MALStandardError(MALHelper.DESTINATION_UNKNOWN_ERROR_NUMBER, null), null);
+    }
+    destination.queue.offer(msg);
+  }
+
+  public void sendMessages(MALMessage[] msgList)
+      throws IllegalArgumentException, MALTransmitMultipleErrorException,
+      MALException {
+    for (MALMessage msg : msgList) {
+      try {
+        sendMessage(msg);
+      } catch (MALTransmitErrorException exc) {
+        throw new MALTransmitMultipleErrorException(new MALTransmitErrorException[] {exc});
+      }
+    }
+  }
+
+  public void run() {
+    while (! closed) {
+      try {
+        MALMessage msg = queue.take();
+        MALMessageListener l = listener;
+        if (l != null) {
+          l.onMessage(this, msg);
+        }
+      } catch (InterruptedException exc) {
+        return;
+      } catch (Throwable error) {
+        MALMessageListener l = listener;
+        if (l != null) {
+          l.onInternalError(this, error);
+        }
+      }
+    }
+  }
+
+  public synchronized void close() throws MALException {
+    closed = true;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+}
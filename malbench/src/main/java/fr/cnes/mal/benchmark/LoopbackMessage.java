@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.benchmark;
+
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Message of the in-memory transport, the body elements are passed by
+ * reference.
+ */
+public class LoopbackMessage implements MALMessage {
+  
+  private MALMessageHeader header;
+  
+  private Map qosProperties;
+  
+  private MALMessageBody body;
+
+  public LoopbackMessage(MALMessageHeader header, Map qosProperties, Object[] elements) {
+    this.header = header;
+    this.qosProperties = qosProperties;
+    if (header.getIsErrorMessage().booleanValue()) {
+      body = new ErrorBody(elements);
+    } else {
+      body = new Body(elements);
+    }
+  }
+
+  public MALMessageHeader getHeader() {
+    return header;
+  }
+
+  public MALMessageBody getBody() {
+    return body;
+  }
+
+  public Map getQoSProperties() {
+    return qosProperties;
+  }
+
+  public void free() throws MALException {
+    // Nothing to do
+  }
+  
+  static class Body implements MALMessageBody {
+    
+    protected Object[] elements;
+    
+    Body(Object[] elements) {
+      this.elements = elements;
+    }
+
+    public int getElementCount() {
+      return elements.length;
+    }
+
+    public Object getBodyElement(int index, Object element) throws MALException {
+      return elements[index];
+    }
+
+    public MALEncodedElement getEncodedBodyElement(int index) throws MALException {
+      throw new MALException("Encoded body not supported");
+    }
+
+    public MALEncodedBody getEncodedBody() throws MALException {
+      throw new MALException("Encoded body not supported");
+    }
+  }
+  
+  static class ErrorBody extends Body implements MALErrorBody {
+    
+    ErrorBody(Object[] elements) {
+      super(elements);
+    }
+
+    public MALStandardError getError() throws MALException {
+      return new MALStandardError((UInteger) elements[0], elements[1]);
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALTransport;
+
+/**
+ * In-memory transport: the messages are passed by reference between the
+ * endpoints of the JVM, without encoding.
+ */
+public class LoopbackTransport implements MALTransport {
+  
+  private String protocol;
+  
+  private ConcurrentHashMap<String, LoopbackEndpoint> endpoints;
+  
+  private AtomicInteger endpointCounter;
+  
+  public LoopbackTransport(String protocol) {
+    this.protocol = protocol;
+    endpoints = new ConcurrentHashMap<String, LoopbackEndpoint>();
+    endpointCounter = new AtomicInteger();
+  }
+
+  public MALEndpoint createEndpoint(String localName, Map qosProperties)
+      throws MALException {
+    if (localName == null) {
+      localName = "ep" + endpointCounter.getAndIncrement();
+    }
+    LoopbackEndpoint endpoint = new LoopbackEndpoint(this, localName, 
+        new URI(protocol + "://" + localName));
+    endpoints.put(endpoint.getURI().getValue(), endpoint);
+    return endpoint;
+  }
+
+  public MALEndpoint getEndpoint(String localName) throws MALException {
+    return endpoints.get(protocol + "://" + localName);
+  }
+
+  public MALEndpoint getEndpoint(URI uri) throws MALException {
+    return endpoints.get(uri.getValue());
+  }
+  
+  LoopbackEndpoint lookup(URI uri) {
+    return endpoints.get(uri.getValue());
+  }
+
+  public void deleteEndpoint(String localName) throws MALException {
+    LoopbackEndpoint endpoint = endpoints.remove(protocol + "://" + localName);
+    if (endpoint != null) {
+      endpoint.close();
+    }
+  }
+
+  public boolean isSupportedQoSLevel(QoSLevel qos) {
+    return true;
+  }
+
+  public boolean isSupportedInteractionType(InteractionType type) {
+    return true;
+  }
+
+  public MALBrokerBinding createBroker(String localName,
+      Blob authenticationId, QoSLevel[] expectedQos,
+      UInteger priorityLevelNumber, Map qosProperties) throws MALException {
+    return null;
+  }
+
+  public MALBrokerBinding createBroker(MALEndpoint endpoint,
+      Blob authenticationId, QoSLevel[] expectedQos,
+      UInteger priorityLevelNumber, Map qosProperties) throws MALException {
+    return null;
+  }
+
+  public void close() throws MALException {
+    for (LoopbackEndpoint endpoint : endpoints.values()) {
+      endpoint.close();
+    }
+    endpoints.clear();
+  }
+
+}
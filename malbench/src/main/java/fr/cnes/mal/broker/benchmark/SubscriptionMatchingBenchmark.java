@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.broker.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.mal.broker.internal.Broker;
+import fr.cnes.mal.broker.internal.BrokerEntityRequest;
+import fr.cnes.mal.broker.internal.BrokerNotification;
+import fr.cnes.mal.broker.internal.BrokerPublication;
+
+/**
+ * Latency of the broker publish and registration with a large number of
+ * subscriptions and registered entity keys.
+ * 
+ * The publisher registers the keys (OBJ&lt;i&gt;, j, 1, 1) and the pattern
+ * (DYN, *, *, *). Out of ten subscriptions eight request a registered key,
+ * one a wildcard pattern (OBJ&lt;i&gt;, *, *, *) including a thousand keys and
+ * one a key (DYN, j, 1, 1) that is only potentially matched by the
+ * publisher. Each publication is a single update of a random key, each
+ * registration replaces a subscription by one with a new random pattern.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriptionMatchingBenchmark {
+	private static final int KEYS_PER_OBJECT = 1000;
+	
+	private static final IdentifierList DOMAIN = new IdentifierList();
+	
+	private static final Identifier NETWORK_ZONE = new Identifier("Network");
+	
+	private static final Identifier SESSION_NAME = new Identifier("LIVE");
+	
+	private static final UShort AREA = new UShort(1);
+	
+	private static final UShort SERVICE = new UShort(1);
+	
+	private static final UShort OPERATION = new UShort(1);
+	
+	private static final UOctet VERSION = new UOctet((short) 1);
+	
+	private static final URI PUBLISHER_URI = new URI("maltcp://publisher");
+	
+	static {
+		DOMAIN.add(new Identifier("spacecraft"));
+	}
+	
+	@Param({ "10000" })
+	public int subscriptions;
+	
+	@Param({ "100000" })
+	public int keys;
+	
+	private Broker broker;
+	private Random random;
+	private EntityKey[] updateKeys;
+	private Time timestamp;
+	private int publication;
+	private int registration;
+	
+	private EntityKey objectKey(int key) {
+		return new EntityKey(new Identifier("OBJ" + (key / KEYS_PER_OBJECT)),
+				new Long(key % KEYS_PER_OBJECT + 1), new Long(1), new Long(1));
+	}
+	
+	private EntityKey dynamicKey(int key) {
+		return new EntityKey(new Identifier("DYN"), new Long(key + 1), new Long(1), new Long(1));
+	}
+	
+	private EntityKey subscriptionPattern(int subscription) {
+		switch (subscription % 10) {
+		case 0:
+			return new EntityKey(new Identifier("OBJ" + random.nextInt(Math.max(1, keys / KEYS_PER_OBJECT))),
+					new Long(0), new Long(0), new Long(0));
+		case 1:
+			return dynamicKey(random.nextInt(subscriptions));
+		default:
+			return objectKey(random.nextInt(keys));
+		}
+	}
+	
+	private void register(int subscription) throws Exception {
+		BrokerEntityRequest[] entityRequests = new BrokerEntityRequest[] {
+				new BrokerEntityRequest(null, Boolean.FALSE, Boolean.FALSE,
+						Boolean.FALSE, subscriptionPattern(subscription), Boolean.FALSE) };
+		int subscriberCount = Math.max(1, subscriptions / 100);
+		broker.register(new URI("maltcp://subscriber" + (subscription % subscriberCount)),
+				new Long(subscription), DOMAIN, NETWORK_ZONE, SessionType.LIVE, SESSION_NAME,
+				QoSLevel.BESTEFFORT, new HashMap(), new UInteger(1),
+				new Identifier("sub" + subscription), entityRequests, AREA, SERVICE, OPERATION,
+				VERSION);
+	}
+	
+	@Setup
+	public void setup() throws Exception {
+		random = new Random(0);
+		broker = new Broker("MAL:type=SubscriptionMatchingBenchmark");
+		
+		EntityKeyList patterns = new EntityKeyList();
+		for (int i = 0; i < keys; i++) {
+			patterns.add(objectKey(i));
+		}
+		patterns.add(new EntityKey(new Identifier("DYN"), new Long(0), new Long(0), new Long(0)));
+		broker.registerPublisher(PUBLISHER_URI, new Long(1), DOMAIN, NETWORK_ZONE,
+				SessionType.LIVE, SESSION_NAME, QoSLevel.BESTEFFORT, new UInteger(1),
+				patterns, AREA, SERVICE, OPERATION, VERSION);
+		for (int i = 0; i < subscriptions; i++) {
+			register(i);
+		}
+		
+		updateKeys = new EntityKey[1024];
+		for (int i = 0; i < updateKeys.length; i++) {
+			if (i % 10 == 0) {
+				updateKeys[i] = dynamicKey(random.nextInt(subscriptions));
+			} else {
+				updateKeys[i] = objectKey(random.nextInt(keys));
+			}
+		}
+		timestamp = new Time(System.currentTimeMillis());
+	}
+	
+	@Benchmark
+	public BrokerNotification[] publish() throws Exception {
+		UpdateHeaderList updateHeaders = new UpdateHeaderList();
+		updateHeaders.add(new UpdateHeader(timestamp, PUBLISHER_URI,
+				UpdateType.UPDATE, updateKeys[publication++ & (updateKeys.length - 1)]));
+		BrokerPublication brokerPublication = new BrokerPublication(PUBLISHER_URI,
+				DOMAIN, NETWORK_ZONE, SessionType.LIVE, SESSION_NAME, updateHeaders,
+				new List[0], AREA, SERVICE, OPERATION, VERSION);
+		return broker.publish(brokerPublication);
+	}
+	
+	@Benchmark
+	public void register() throws Exception {
+		register(registration++ % subscriptions);
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.malspp.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Space packet socket stand-in discarding the sent packets.
+ * 
+ * Each send may busy wait during a fixed delay to simulate the transmission
+ * of the packet. The socket checks that the sequence counts of the packets
+ * of each APID are consecutive. Nothing is ever received.
+ */
+public class LoopbackSPPSocket implements SPPSocket {
+  
+  private final long sendNanos;
+  
+  private final AtomicLong packets = new AtomicLong();
+  
+  private final AtomicLong bytes = new AtomicLong();
+  
+  private final AtomicLong sequenceErrors = new AtomicLong();
+  
+  /**
+   * Last sequence count sent by each qualified APID.
+   */
+  private final ConcurrentHashMap<Integer, AtomicInteger> lastSequenceCounts = 
+      new ConcurrentHashMap<Integer, AtomicInteger>();
+  
+  private final CountDownLatch closed = new CountDownLatch(1);
+  
+  public LoopbackSPPSocket(long sendNanos) {
+    this.sendNanos = sendNanos;
+  }
+  
+  public void send(SpacePacket packet) throws Exception {
+    if (sendNanos > 0) {
+      long end = System.nanoTime() + sendNanos;
+      while (System.nanoTime() - end < 0);
+    }
+    
+    Integer key = new Integer((packet.getApidQualifier() << 16) | packet.getHeader().getApid());
+    AtomicInteger last = lastSequenceCounts.get(key);
+    if (last == null) {
+      last = new AtomicInteger(-1);
+      AtomicInteger previous = lastSequenceCounts.putIfAbsent(key, last);
+      if (previous != null) last = previous;
+    }
+    int sequenceCount = packet.getHeader().getSequenceCount();
+    int previousCount = last.getAndSet(sequenceCount);
+    if ((previousCount >= 0) && (sequenceCount != ((previousCount + 1) & 0x3FFF))) {
+      sequenceErrors.incrementAndGet();
+    }
+    
+    packets.incrementAndGet();
+    bytes.addAndGet(packet.getLength());
+  }
+
+  public SpacePacket receive() throws Exception {
+    closed.await();
+    throw new IOException("Socket closed");
+  }
+
+  public void close() throws Exception {
+    closed.countDown();
+  }
+
+  public String getDescription() {
+    return "loopback";
+  }
+  
+  public long getPackets() {
+    return packets.get();
+  }
+  
+  public long getBytes() {
+    return bytes.get();
+  }
+  
+  public long getSequenceErrors() {
+    return sequenceErrors.get();
+  }
+}
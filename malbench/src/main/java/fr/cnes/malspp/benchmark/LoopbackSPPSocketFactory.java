@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.malspp.benchmark;
+
+import java.util.Map;
+
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+
+/**
+ * Creates LoopbackSPPSocket instances, the last created socket is kept so
+ * that the benchmark can check its counters.
+ */
+public class LoopbackSPPSocketFactory extends SPPSocketFactory {
+  
+  public static final String SEND_NANOS = "fr.cnes.malspp.benchmark.send.nanos";
+  
+  private static volatile LoopbackSPPSocket lastSocket;
+  
+  public static LoopbackSPPSocket getLastSocket() {
+    return lastSocket;
+  }
+
+  public SPPSocket createSocket(Map properties) throws Exception {
+    String sendNanos = (String) properties.get(SEND_NANOS);
+    LoopbackSPPSocket socket = new LoopbackSPPSocket(
+        (sendNanos == null) ? 0 : Long.parseLong(sendNanos));
+    lastSocket = socket;
+    return socket;
+  }
+}
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.malspp.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+import fr.cnes.malspp.transport.MALSPPHelper;
+import fr.cnes.malspp.transport.MALSPPTransport;
+
+/**
+ * Throughput of the MAL/SPP send path with several threads sending SEND
+ * messages to several APIDs through a LoopbackSPPSocket.
+ * 
+ * Each thread has its own endpoint and sends to the APID (thread % apids),
+ * the packets of an APID being sequenced together. The calls to the socket
+ * are either serialized by the transport or concurrent, the benchmark fails
+ * if the sequence counts of an APID are not consecutive. A body larger than
+ * the packet data field size limit is segmented.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class SendThroughputBenchmark {
+  
+  private static final String PROTOCOL = "malspp";
+  
+  private static final int APID_QUALIFIER = 247;
+  
+  private static final int FIRST_DESTINATION_APID = 100;
+  
+  private static final int PACKET_DATA_FIELD_SIZE_LIMIT = 1024;
+  
+  private static final Blob AUTHENTICATION_ID = new Blob(new byte[] { 0 });
+  
+  private static final IdentifierList DOMAIN = new IdentifierList();
+  
+  private static final Identifier NETWORK_ZONE = new Identifier("Network");
+  
+  private static final Identifier SESSION_NAME = new Identifier("LIVE");
+  
+  private static MALSendOperation op;
+  
+  static {
+    DOMAIN.add(new Identifier("bench"));
+    System.setProperty(SPPSocketFactory.FACTORY_CLASS, 
+        LoopbackSPPSocketFactory.class.getName());
+    System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+        BinaryElementStreamFactory.class.getName());
+    try {
+      op = registerArea();
+    } catch (MALException exc) {
+      throw new IllegalStateException(exc);
+    }
+  }
+  
+  @Param({ "false", "true" })
+  public boolean concurrentSocket;
+  
+  @Param({ "8" })
+  public int apids;
+  
+  @Param({ "256" })
+  public int bodySize;
+  
+  @Param({ "2000" })
+  public long sendNanos;
+  
+  private File conf;
+  
+  private MALSPPTransport transport;
+  
+  private LoopbackSPPSocket socket;
+  
+  private Blob body;
+  
+  private final AtomicInteger senderCount = new AtomicInteger();
+  
+  private static File writeConfiguration() throws Exception {
+    File conf = File.createTempFile("malspp-benchmark", ".xml");
+    FileWriter writer = new FileWriter(conf);
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<conf xmlns=\"http://www.cnes.fr/schema/MalSppSchema\">\n"
+          + "  <app apidQualifier=\"" + APID_QUALIFIER + "\" apid=\"" + FIRST_DESTINATION_APID + "\">\n"
+          + "    <authenticationId value=\"00\"/>\n"
+          + "    <domain value=\"bench\"/>\n"
+          + "    <duration codeFormat=\"1E\"><unit value=\"second\"/></duration>\n"
+          + "    <time codeFormat=\"2E\"><unit value=\"second\"/>"
+          + "<epoch value=\"2010-01-01T00:00:00\" timeScale=\"TAI\"/></time>\n"
+          + "    <fineTime codeFormat=\"2F\"><unit value=\"second\"/>"
+          + "<epoch value=\"2010-01-01T00:00:00\" timeScale=\"TAI\"/></fineTime>\n"
+          + "    <networkZone value=\"Network\"/>\n"
+          + "    <packetDataFieldSizeLimit value=\"" + PACKET_DATA_FIELD_SIZE_LIMIT + "\"/>\n"
+          + "    <priority value=\"1\"/>\n"
+          + "    <sessionName value=\"LIVE\"/>\n"
+          + "    <varintSupported value=\"true\"/>\n"
+          + "  </app>\n"
+          + "</conf>\n");
+    } finally {
+      writer.close();
+    }
+    return conf;
+  }
+  
+  private static MALSendOperation registerArea() throws MALException {
+    MALSendOperation op = new MALSendOperation(new UShort(1),
+        new Identifier("send"), Boolean.FALSE, new UShort(1),
+        new MALOperationStage(new UOctet((short) 1), 
+            new Object[] { Blob.BLOB_SHORT_FORM }, new Object[0]));
+    MALService service = new MALService(new UShort(1), new Identifier("BenchmarkService"));
+    service.addOperation(op);
+    MALArea area = new MALArea(new UShort(201), new Identifier("BenchmarkArea"), 
+        new UOctet((short) 1));
+    area.addService(service);
+    MALContextFactory.registerArea(area);
+    return op;
+  }
+  
+  @Setup
+  public void setup() throws Exception {
+    conf = writeConfiguration();
+    Map properties = new HashMap();
+    properties.put(MALSPPTransport.CONF_FILE, conf.getPath());
+    properties.put(MALSPPTransport.CONCURRENT_SOCKET, Boolean.toString(concurrentSocket));
+    properties.put(LoopbackSPPSocketFactory.SEND_NANOS, Long.toString(sendNanos));
+    transport = new MALSPPTransport();
+    transport.init(PROTOCOL, properties);
+    socket = LoopbackSPPSocketFactory.getLastSocket();
+    body = new Blob(new byte[bodySize]);
+  }
+  
+  @TearDown
+  public void tearDown() throws Exception {
+    transport.close();
+    conf.delete();
+    if (socket.getSequenceErrors() > 0) {
+      throw new IllegalStateException(socket.getSequenceErrors() + " sequence errors");
+    }
+  }
+  
+  /**
+   * Endpoint of a sending thread.
+   */
+  @State(Scope.Thread)
+  public static class Sender {
+    MALEndpoint endpoint;
+    URI uriTo;
+    long transactionId;
+    
+    @Setup
+    public void setup(SendThroughputBenchmark benchmark) throws Exception {
+      int i = benchmark.senderCount.getAndIncrement();
+      Map qos = new HashMap();
+      qos.put(MALSPPTransport.APID_QUALIFIER, Integer.toString(APID_QUALIFIER));
+      qos.put(MALSPPTransport.APID, Integer.toString(i + 1));
+      endpoint = benchmark.transport.createEndpoint("sender" + i, qos);
+      endpoint.setMessageListener(new IgnoringListener());
+      uriTo = new URI(MALSPPHelper.toUri(PROTOCOL, APID_QUALIFIER,
+          FIRST_DESTINATION_APID + (i % benchmark.apids), new Integer(0)));
+    }
+  }
+  
+  /**
+   * Listener of the sending endpoints, the transport reports the interruption
+   * of its receiving thread when it is closed.
+   */
+  static class IgnoringListener implements MALMessageListener {
+    public void onInternalError(MALEndpoint endpoint, Throwable cause) {}
+    
+    public void onTransmitError(MALEndpoint endpoint, MALMessageHeader header,
+        MALStandardError error, Map properties) {}
+    
+    public void onMessage(MALEndpoint endpoint, MALMessage msg) {}
+    
+    public void onMessages(MALEndpoint endpoint, MALMessage[] msgList) {}
+  }
+  
+  @Benchmark
+  public void send(Sender sender) throws Exception {
+    MALMessage msg = sender.endpoint.createMessage(AUTHENTICATION_ID, sender.uriTo,
+        new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT,
+        new UInteger(1), DOMAIN, NETWORK_ZONE, SessionType.LIVE,
+        SESSION_NAME, new Long(sender.transactionId++), Boolean.FALSE, op,
+        MALSPPHelper.INITIATION_STAGE, null, body);
+    sender.endpoint.sendMessage(msg);
+  }
+}
@@ -23,6 +23,7 @@
   *******************************************************************************/
 package fr.cnes.encoding.binary;
 
+import java.io.File;
 import java.util.List;
 
 import org.ccsds.moims.mo.mal.MALDecoder;
@@ -31,10 +32,12 @@ import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALListDecoder;
 import org.ccsds.moims.mo.mal.structures.Attribute;
 import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
 import org.ccsds.moims.mo.mal.structures.Duration;
 import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.structures.FineTime;
 import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.LongList;
 import org.ccsds.moims.mo.mal.structures.Time;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.structures.ULong;
@@ -106,6 +109,10 @@ public class BinaryDecoder implements MALDecoder {
   private FineTimeDecoder fineTimeDecoder;
   
   private DurationDecoder durationDecoder;
+  
+  private int blobSpoolThreshold;
+  
+  private File blobSpoolDirectory;
 
   public BinaryDecoder(Decoder decoder, boolean byteArrayString, 
       TimeDecoder timeDecoder, FineTimeDecoder fineTimeDecoder,
@@ -120,6 +127,19 @@ public class BinaryDecoder implements MALDecoder {
   public Decoder getDecoder() {
     return decoder;
   }
+  
+  /**
+   * Sets the size above which a decoded blob is stored in a temporary file
+   * rather than in memory.
+   * 
+   * @param threshold the size in bytes, 0 to keep all the blobs in memory
+   * @param directory the directory of the temporary files, the default
+   *                  temporary directory if null
+   */
+  public void setBlobSpool(int threshold, File directory) {
+    this.blobSpoolThreshold = threshold;
+    this.blobSpoolDirectory = directory;
+  }
 
   public Boolean decodeNullableBoolean() throws MALException {
     try {
@@ -240,17 +260,65 @@ public class BinaryDecoder implements MALDecoder {
   }
   
   public Element decodeElement(Element element) throws MALException {
+    if (element instanceof LongList) {
+      return decodeLongList((LongList) element);
+    } else if (element instanceof DoubleList) {
+      return decodeDoubleList((DoubleList) element);
+    }
     Element decodedElement = element.decode(this);
     return decodedElement;
   }
+  
+  /**
+   * Decodes a LongList in a single loop on the underlying decoder, the
+   * elements are added to the list as with the generic list decoding.
+   */
+  private LongList decodeLongList(LongList list) throws MALException {
+    try {
+      int size = decoder.readUnsignedInt();
+      for (int i = list.size(); i < size; i++) {
+        if (decoder.isNull()) {
+          list.add(null);
+        } else {
+          list.add(new Long(decoder.readSignedLong()));
+        }
+      }
+      return list;
+    } catch (Exception e) {
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "", e);
+      throw new MALException(e.toString(), e);
+    }
+  }
+  
+  /**
+   * Decodes a DoubleList in a single loop on the underlying decoder, the
+   * elements are added to the list as with the generic list decoding.
+   */
+  private DoubleList decodeDoubleList(DoubleList list) throws MALException {
+    try {
+      int size = decoder.readUnsignedInt();
+      for (int i = list.size(); i < size; i++) {
+        if (decoder.isNull()) {
+          list.add(null);
+        } else {
+          list.add(new Double(Double.longBitsToDouble(decoder.readSignedLong())));
+        }
+      }
+      return list;
+    } catch (Exception e) {
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "", e);
+      throw new MALException(e.toString(), e);
+    }
+  }
 
   public Blob decodeNullableBlob() throws MALException {
     try {
-      byte[] ba = decoder.readNullableByteArray();
-      if (ba == null) {
+      if (decoder.isNull()) {
         return null; 
       } else {
-        return new Blob(ba);
+        return readBlob();
       }
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.DEBUG))
@@ -261,13 +329,20 @@ public class BinaryDecoder implements MALDecoder {
 
   public Blob decodeBlob() throws MALException {
     try {
-      byte[] ba = decoder.readByteArray();
-      return new Blob(ba);
+      return readBlob();
     } catch (Exception e) {
       throw new MALException(e.toString(), e);
     }
   }
   
+  private Blob readBlob() throws Exception {
+    int length = decoder.readUnsignedInt();
+    if ((blobSpoolThreshold > 0) && (length > blobSpoolThreshold)) {
+      return BlobTransfer.spool(decoder, length, blobSpoolDirectory);
+    }
+    return new Blob(decoder.readByteArray(length));
+  }
+  
   public Duration decodeNullableDuration() throws MALException {
     try {
       if (decoder.isNull()) {
@@ -1,7 +1,7 @@
 /*******************************************************************************
  * MIT License
  * 
- * Copyright (c) 2017 CNES
+ * Copyright (c) 2017 - 2018 CNES
  * 
  * Permission is hereby granted, free of charge, to any person obtaining a copy
  * of this software and associated documentation files (the "Software"), to deal
@@ -24,10 +24,9 @@
 package fr.cnes.encoding.binary;
 
 import java.io.IOException;
-import java.util.List;
 
 import org.ccsds.moims.mo.mal.MALException;
-import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.Blob;
 import org.objectweb.util.monolog.api.Logger;
 
 import fr.cnes.encoding.base.DurationEncoder;
@@ -35,12 +34,15 @@ import fr.cnes.encoding.base.FineTimeEncoder;
 import fr.cnes.encoding.base.OpenByteArrayOutputStream;
 import fr.cnes.encoding.base.TimeEncoder;
 
+/**
+ * Binary element output stream keeping the encoded data in its internal
+ * buffer. Such a stream is reused by BinaryElementStreamFactory to encode the
+ * messages without allocating new streams, see reset().
+ */
 public class BinaryElementByteArrayOutputStream extends BinaryElementOutputStream {
   
   public final static Logger logger = fr.dyade.aaa.common.Debug
       .getLogger(BinaryElementByteArrayOutputStream.class.getName());
-
-  private OpenByteArrayOutputStream baos;
   
   public BinaryElementByteArrayOutputStream(OpenByteArrayOutputStream baos, 
       boolean encodedUpdate, boolean byteArrayString, 
@@ -48,26 +50,46 @@ public class BinaryElementByteArrayOutputStream extends BinaryElementOutputStrea
       DurationEncoder durationEncoder) {
     super(baos, encodedUpdate, byteArrayString, timeEncoder, 
         fineTimeEncoder, durationEncoder);
-    this.baos = baos;
   }
   
-  protected void encode(List<Element> updateList) throws MALException {
+  public BinaryElementByteArrayOutputStream(boolean encodedUpdate, 
+      boolean byteArrayString, TimeEncoder timeEncoder, 
+      FineTimeEncoder fineTimeEncoder, DurationEncoder durationEncoder) {
+    this(null, encodedUpdate, byteArrayString, timeEncoder, 
+        fineTimeEncoder, durationEncoder);
+  }
+  
+  /**
+   * Discards the encoded data.
+   */
+  public void reset() {
+    reset(null);
+  }
+  
+  /**
+   * Returns the internal buffer, the encoded data is stored from index 0 to
+   * getIndex().
+   */
+  public byte[] getBuffer() {
+    return buffer.getBuffer();
+  }
+  
+  public int getIndex() {
+    return buffer.getIndex();
+  }
+  
+  public byte[] toByteArray() {
+    return buffer.toByteArray();
+  }
+  
+  /**
+   * Returns the encoded message and discards it, see BufferEncoder.toBlob().
+   */
+  public Blob toBlob() throws MALException {
     try {
-      encoder.getEncoder().writeUnsignedInt(updateList.size());
-      for (Element update : updateList) {
-        baos.write(PAD);
-        int startIndex = baos.getIndex();
-        encoder.encodeNullableElement(update);
-        int stopIndex = baos.getIndex();
-        int updateLength = stopIndex - startIndex;
-        byte[] internalArray = baos.getInternalArray();
-        internalArray[startIndex - 4] = (byte) (updateLength >>> 24);
-        internalArray[startIndex - 3] = (byte) (updateLength >>> 16);
-        internalArray[startIndex - 2] = (byte) (updateLength >>> 8);
-        internalArray[startIndex - 1] = (byte) (updateLength >>> 0);
-      }
-    } catch (IOException e) {
-      throw new MALException("", e);
+      return buffer.toBlob();
+    } catch (IOException exc) {
+      throw new MALException(exc.toString(), exc);
     }
   }
 }
@@ -23,6 +23,7 @@
   *******************************************************************************/
 package fr.cnes.encoding.binary;
 
+import java.io.File;
 import java.io.InputStream;
 
 import org.ccsds.moims.mo.mal.MALContextFactory;
@@ -123,6 +124,15 @@ public class BinaryElementInputStream implements MALElementInputStream {
   public void setVarintSupported(boolean varintSupported) {
     decoder.setVarintSupported(varintSupported);
   }
+  
+  /**
+   * Sets the size above which a decoded blob is stored in a temporary file.
+   * 
+   * @see BinaryDecoder#setBlobSpool(int, File)
+   */
+  public void setBlobSpool(int threshold, File directory) {
+    malDecoder.setBlobSpool(threshold, directory);
+  }
 
   private boolean isNull() throws MALException {
     byte b;
@@ -134,15 +144,17 @@ public class BinaryElementInputStream implements MALElementInputStream {
   }
 
   public Object readElement(Object object, MALEncodingContext ctx) throws MALException {
-    Element element = (Element) object;
+    // An encoded element list can be passed in order to keep the updates of a
+    // PUBLISH encoded, they are then copied as is in the NOTIFY messages.
+    Element element = (object instanceof Element) ? (Element) object : null;
     if (ctx == null) {
       return malDecoder.decodeElement(element);
     }
     MALOperation op = ctx.getOperation();
     MALMessageHeader header = ctx.getHeader();
     
-    if (logger.isLoggable(BasicLevel.WARN))
-      logger.log(BasicLevel.WARN, "Reads op=" + op + ", header=" + header);
+    if (logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "Reads op=" + op + ", header=" + header);
     
     if (header.getIsErrorMessage()) {
       switch (ctx.getBodyElementIndex()) {
@@ -181,7 +193,7 @@ public class BinaryElementInputStream implements MALElementInputStream {
             // Do not decode the updates
             MALOperationStage opStage = resolveOperationStage(ctx);
             try {
-              if (keepPublishUpdateEncoded) {
+              if (keepPublishUpdateEncoded || object instanceof MALEncodedElementList) {
                 Object shortForm = resolveShortForm(opStage, ctx);
                 Integer listSize = malDecoder.getDecoder().readUnsignedInt();
                 MALEncodedElementList malEncodedList = new MALEncodedElementList(shortForm, listSize);
@@ -47,10 +47,19 @@ import org.objectweb.util.monolog.api.Logger;
 
 import fr.cnes.encoding.base.DurationEncoder;
 import fr.cnes.encoding.base.FineTimeEncoder;
-import fr.cnes.encoding.base.OpenByteArrayOutputStream;
 import fr.cnes.encoding.base.TimeEncoder;
 import fr.cnes.encoding.binary.OutputStreamEncoder;
 
+/**
+ * Binary element output stream.
+ * 
+ * The elements are encoded in the internal array of a BufferEncoder, they are
+ * written to the output stream when this stream is flushed. A stream can be
+ * reused for several messages, see reset(OutputStream).
+ * 
+ * The SplitBinary element stream shares this implementation, it only provides
+ * its own BufferEncoder, see createBufferEncoder.
+ */
 public class BinaryElementOutputStream implements MALElementOutputStream {
 
   public final static Logger logger = fr.dyade.aaa.common.Debug.getLogger(BinaryElementOutputStream.class.getName());
@@ -60,9 +69,19 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
   public final static int ATTRIBUTE_TYPES_COUNT = 18;
 
   private OutputStream os;
+  
+  protected BufferEncoder buffer;
 
   protected BinaryEncoder encoder;
   
+  /**
+   * Encoder of the separate updates of a PUBLISH message, kept between
+   * messages.
+   */
+  private BufferEncoder updateBuffer;
+  
+  private BinaryEncoder updateEncoder;
+  
   private boolean encodedUpdate;
   
   private TimeEncoder timeEncoder;
@@ -71,7 +90,7 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
   
   private DurationEncoder durationEncoder;
 
-  BinaryElementOutputStream(OutputStream os, boolean encodedUpdate, 
+  protected BinaryElementOutputStream(OutputStream os, boolean encodedUpdate, 
       boolean byteArrayString, TimeEncoder timeEncoder,
       FineTimeEncoder fineTimeEncoder,
       DurationEncoder durationEncoder) {
@@ -80,10 +99,31 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
     this.timeEncoder = timeEncoder;
     this.fineTimeEncoder = fineTimeEncoder;
     this.durationEncoder = durationEncoder;
-    encoder = new BinaryEncoder(os, byteArrayString, 
+    buffer = createBufferEncoder(os);
+    encoder = new BinaryEncoder(buffer, byteArrayString, 
         timeEncoder, fineTimeEncoder, durationEncoder);
   }
   
+  /**
+   * Creates the encoder of the message, and of the separate updates of a
+   * PUBLISH message with a null output stream.
+   */
+  protected BufferEncoder createBufferEncoder(OutputStream os) {
+    return new BufferEncoder(os);
+  }
+  
+  /**
+   * Discards the pending data and sets the output stream, so that this stream
+   * can be reused to encode another message.
+   * 
+   * @param os  the new output stream, may be null if the encoded data is
+   *            directly read from the internal buffer.
+   */
+  public void reset(OutputStream os) {
+    this.os = os;
+    buffer.reset(os);
+  }
+  
   public boolean isVarintSupported() {
     return encoder.isVarintSupported();
   }
@@ -109,8 +149,8 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
     MALMessageHeader header = ctx.getHeader();
     MALOperation op = ctx.getOperation();
     
-    if (logger.isLoggable(BasicLevel.WARN))
-      logger.log(BasicLevel.WARN, "Writes op=" + op + ", header=" + header);
+    if (logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "Writes op=" + op + ", header=" + header);
     
     if (header.getIsErrorMessage()) {
       switch (ctx.getBodyElementIndex()) {
@@ -271,7 +311,7 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
         	encodePresent(false);
         } else {
         	encodePresent(true);
-          os.write(encodedUpdate.getEncodedElement().getValue());
+          writeBlob(encodedUpdate.getEncodedElement());
         }
       }
     } catch (IOException e) {
@@ -279,6 +319,15 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
     }
   }
   
+  private void writeBlob(Blob blob) throws MALException {
+    if (blob.isURLBased()) {
+      byte[] value = blob.getValue();
+      buffer.write(value, 0, value.length);
+    } else {
+      buffer.write(blob.getValue(), blob.getOffset(), blob.getLength());
+    }
+  }
+  
   private void writeNullableEncodedElementList(MALEncodedElementList encodedUpdateList) throws MALException {
     try {
       encoder.getEncoder().writeUnsignedInt(encodedUpdateList.size());
@@ -287,7 +336,7 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
           encoder.getEncoder().writeNull();
         } else {
           encoder.getEncoder().writeNotNull();
-          os.write(encodedUpdate.getEncodedElement().getValue());
+          writeBlob(encodedUpdate.getEncodedElement());
         }
       }
     } catch (IOException e) {
@@ -302,13 +351,15 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
    */
   protected void encode(ElementList updateList) throws MALException {
     try {
-      OpenByteArrayOutputStream baos = new OpenByteArrayOutputStream();
-      
-      // Need to create another encoder for separate updates.
-      // Should have exactly the same configuration as 'encoder'.
-      BinaryEncoder updateEncoder = new BinaryEncoder(baos, encoder.isByteArrayString(), 
-          timeEncoder, fineTimeEncoder, durationEncoder);
+      if (updateEncoder == null) {
+        // Need to create another encoder for separate updates.
+        // Should have exactly the same configuration as 'encoder'.
+        updateBuffer = createBufferEncoder(null);
+        updateEncoder = new BinaryEncoder(updateBuffer, encoder.isByteArrayString(), 
+            timeEncoder, fineTimeEncoder, durationEncoder);
+      }
       updateEncoder.setVarintSupported(isVarintSupported());
+      updateBuffer.reset();
       
       encoder.getEncoder().writeUnsignedInt(updateList.size());
       for (Object update : updateList) {
@@ -319,12 +370,12 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
           
           updateEncoder.encodeElement(castToElement(update));
            
-          int length = baos.size();
+          int offset = updateBuffer.finish();
+          int length = updateBuffer.getIndex() - offset;
           encoder.getEncoder().writeUnsignedInt(length);
           
-          byte[] encodedUpdate = baos.getInternalArray();
-          os.write(encodedUpdate, 0, baos.size());
-          baos.reset();
+          buffer.write(updateBuffer.getBuffer(), offset, length);
+          updateBuffer.reset();
         }
       }
     } catch (IOException e) {
@@ -342,7 +393,7 @@ public class BinaryElementOutputStream implements MALElementOutputStream {
 
   public void close() throws MALException {
     try {
-      os.close();
+      buffer.close();
     } catch (Exception e) {
       throw new MALException(e.getMessage(), e);
     }
@@ -23,6 +23,7 @@
   *******************************************************************************/
 package fr.cnes.encoding.binary;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
@@ -43,7 +44,6 @@ import fr.cnes.encoding.base.JavaDurationDecoder;
 import fr.cnes.encoding.base.JavaDurationEncoder;
 import fr.cnes.encoding.base.JavaTimeDecoder;
 import fr.cnes.encoding.base.JavaTimeEncoder;
-import fr.cnes.encoding.base.OpenByteArrayOutputStream;
 import fr.cnes.encoding.base.TimeDecoder;
 import fr.cnes.encoding.base.TimeEncoder;
 
@@ -67,6 +67,20 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
   public final static String DURATION_ENCODER_PROPERTY = "fr.cnes.encoding.binary.duration.encoder";
   
   public final static String DURATION_DECODER_PROPERTY = "fr.cnes.encoding.binary.duration.decoder";
+  
+  /**
+   * Size in bytes above which a received blob is stored in a temporary file
+   * rather than in memory, 0 (default) to keep all the blobs in memory. The
+   * decoded message then no longer holds the blob, the received frame may
+   * however have been buffered by the transport.
+   */
+  public final static String BLOB_SPOOL_THRESHOLD_PROPERTY = "fr.cnes.encoding.binary.blob.spool.threshold";
+  
+  /**
+   * Directory of the temporary files of the received blobs, by default the
+   * temporary directory of the JVM.
+   */
+  public final static String BLOB_SPOOL_DIRECTORY_PROPERTY = "fr.cnes.encoding.binary.blob.spool.dir";
 
   //private OpenByteArrayOutputStream baos;
   
@@ -88,6 +102,16 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
   
   private boolean varintSupported;
   
+  private int blobSpoolThreshold;
+  
+  private File blobSpoolDirectory;
+  
+  /**
+   * Output stream of each thread, reused by encode.
+   */
+  private final ThreadLocal<BinaryElementByteArrayOutputStream> threadOutputStream = 
+      new ThreadLocal<BinaryElementByteArrayOutputStream>();
+  
   public BinaryElementStreamFactory() {
 
   }
@@ -164,6 +188,22 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
     this.durationDecoder = durationDecoder;
   }
 
+  public int getBlobSpoolThreshold() {
+    return blobSpoolThreshold;
+  }
+
+  public void setBlobSpoolThreshold(int blobSpoolThreshold) {
+    this.blobSpoolThreshold = blobSpoolThreshold;
+  }
+
+  public File getBlobSpoolDirectory() {
+    return blobSpoolDirectory;
+  }
+
+  public void setBlobSpoolDirectory(File blobSpoolDirectory) {
+    this.blobSpoolDirectory = blobSpoolDirectory;
+  }
+
   public MALElementInputStream createInputStream(InputStream is)
       throws MALException {
     if (is == null)
@@ -172,6 +212,7 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
         encodedUpdate, byteArrayString, timeDecoder, fineTimeDecoder,
         durationDecoder);
     eis.setVarintSupported(varintSupported);
+    eis.setBlobSpool(blobSpoolThreshold, blobSpoolDirectory);
     return eis;
   }
 
@@ -215,6 +256,14 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
     if (durationDecoder == null) {
       durationDecoder = new JavaDurationDecoder();
     }
+    Object threshold = properties.get(BLOB_SPOOL_THRESHOLD_PROPERTY);
+    if (threshold != null) {
+      blobSpoolThreshold = Integer.parseInt(threshold.toString());
+    }
+    Object directory = properties.get(BLOB_SPOOL_DIRECTORY_PROPERTY);
+    if (directory != null) {
+      blobSpoolDirectory = new File(directory.toString());
+    }
   }
   
   static Object newInstance(String propName, Map properties) throws MALException {
@@ -269,6 +318,7 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
     BinaryElementInputStream eis = new BinaryElementInputStream(bytes, offset, encodedUpdate, 
         byteArrayString, timeDecoder, fineTimeDecoder, durationDecoder);
     eis.setVarintSupported(varintSupported);
+    eis.setBlobSpool(blobSpoolThreshold, blobSpoolDirectory);
     return eis;
   }
 
@@ -279,17 +329,38 @@ public class BinaryElementStreamFactory extends MALElementStreamFactory {
       throw new IllegalArgumentException("Null elements");
     if (ctx == null)
       throw new IllegalArgumentException("Null MALEncodingContext");
-    OpenByteArrayOutputStream baos = new OpenByteArrayOutputStream();
-    BinaryElementOutputStream eos = new BinaryElementByteArrayOutputStream(
-        baos, encodedUpdate, byteArrayString, timeEncoder, fineTimeEncoder,
+    // The stream of the thread is removed while in use, so that a nested
+    // call allocates its own stream.
+    BinaryElementByteArrayOutputStream eos = threadOutputStream.get();
+    if (eos == null) {
+      eos = createByteArrayOutputStream();
+    } else {
+      threadOutputStream.set(null);
+      eos.reset();
+      eos.setVarintSupported(varintSupported);
+    }
+    try {
+      for (int i = 0; i < elements.length; i++) {
+        ctx.setBodyElementIndex(i);
+        eos.writeElement(elements[i], ctx);
+      }
+      return eos.toBlob();
+    } finally {
+      threadOutputStream.set(eos);
+    }
+  }
+  
+  /**
+   * Creates an output stream keeping the encoded data in its internal buffer.
+   * The stream can be reset and reused for several messages.
+   * 
+   * @return the new output stream
+   */
+  public BinaryElementByteArrayOutputStream createByteArrayOutputStream() {
+    BinaryElementByteArrayOutputStream eos = new BinaryElementByteArrayOutputStream(
+        encodedUpdate, byteArrayString, timeEncoder, fineTimeEncoder,
         durationEncoder);
     eos.setVarintSupported(varintSupported);
-    for (int i = 0; i < elements.length; i++) {
-      ctx.setBodyElementIndex(i);
-      eos.writeElement(elements[i], ctx);
-    }
-    Blob res = new Blob(baos.getInternalArray(), 0, baos.size());
-    baos.reset();
-    return res;
+    return eos;
   }
 }
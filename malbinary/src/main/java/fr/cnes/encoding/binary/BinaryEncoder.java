@@ -32,10 +32,12 @@ import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALListEncoder;
 import org.ccsds.moims.mo.mal.structures.Attribute;
 import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
 import org.ccsds.moims.mo.mal.structures.Duration;
 import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.structures.FineTime;
 import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.LongList;
 import org.ccsds.moims.mo.mal.structures.Time;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.structures.ULong;
@@ -50,7 +52,6 @@ import fr.cnes.encoding.base.DurationEncoder;
 import fr.cnes.encoding.base.Encoder;
 import fr.cnes.encoding.base.FineTimeEncoder;
 import fr.cnes.encoding.base.TimeEncoder;
-import fr.cnes.encoding.binary.OutputStreamEncoder;
 
 public class BinaryEncoder implements MALEncoder {
 
@@ -67,10 +68,21 @@ public class BinaryEncoder implements MALEncoder {
   
   private DurationEncoder durationEncoder;
 
+  /**
+   * Creates an encoder writing to the specified output stream, the encoded
+   * data is buffered until the encoder is flushed.
+   */
   public BinaryEncoder(OutputStream os, boolean byteArrayString, 
       TimeEncoder timeEncoder, FineTimeEncoder fineTimeEncoder,
       DurationEncoder durationEncoder) {
-    encoder = new OutputStreamEncoder(os);
+    this(new BufferEncoder(os), byteArrayString, timeEncoder, 
+        fineTimeEncoder, durationEncoder);
+  }
+  
+  public BinaryEncoder(Encoder encoder, boolean byteArrayString, 
+      TimeEncoder timeEncoder, FineTimeEncoder fineTimeEncoder,
+      DurationEncoder durationEncoder) {
+    this.encoder = encoder;
     this.byteArrayString = byteArrayString;
     this.timeEncoder = timeEncoder;
     this.fineTimeEncoder = fineTimeEncoder;
@@ -267,9 +279,10 @@ public class BinaryEncoder implements MALEncoder {
   public void encodeNullableBlob(Blob element) throws MALException {
     try {
       if (element == null) {
-        encoder.writeNullableByteArray(null);
+        encoder.writeNull();
       } else {
-        encoder.writeNullableByteArray(element.getValue());
+        encoder.writeNotNull();
+        BlobTransfer.write(element, encoder);
       }
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.DEBUG))
@@ -281,7 +294,7 @@ public class BinaryEncoder implements MALEncoder {
   public void encodeBlob(Blob element) throws MALException {
     if (element == null) throw new IllegalArgumentException("Null element");
     try {
-      encoder.writeByteArray(element.getValue());
+      BlobTransfer.write(element, encoder);
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "", e);
@@ -528,7 +541,61 @@ public class BinaryEncoder implements MALEncoder {
 
   public void encodeElement(Element element) throws MALException {
     if (element == null) throw new IllegalArgumentException("Null element");
-    element.encode(this);
+    if (element instanceof LongList) {
+      encodeLongList((LongList) element);
+    } else if (element instanceof DoubleList) {
+      encodeDoubleList((DoubleList) element);
+    } else {
+      element.encode(this);
+    }
+  }
+  
+  /**
+   * Encodes a LongList in a single loop on the underlying encoder, the
+   * encoded data is the one of the generic list encoding.
+   */
+  private void encodeLongList(LongList list) throws MALException {
+    try {
+      int size = list.size();
+      encoder.writeUnsignedInt(size);
+      for (int i = 0; i < size; i++) {
+        Long value = list.get(i);
+        if (value == null) {
+          encoder.writeNull();
+        } else {
+          encoder.writeNotNull();
+          encoder.writeSignedLong(value.longValue());
+        }
+      }
+    } catch (Exception e) {
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "", e);
+      throw new MALException(e.toString(), e);
+    }
+  }
+  
+  /**
+   * Encodes a DoubleList in a single loop on the underlying encoder, the
+   * encoded data is the one of the generic list encoding.
+   */
+  private void encodeDoubleList(DoubleList list) throws MALException {
+    try {
+      int size = list.size();
+      encoder.writeUnsignedInt(size);
+      for (int i = 0; i < size; i++) {
+        Double value = list.get(i);
+        if (value == null) {
+          encoder.writeNull();
+        } else {
+          encoder.writeNotNull();
+          encoder.writeSignedLong(Double.doubleToLongBits(value.doubleValue()));
+        }
+      }
+    } catch (Exception e) {
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "", e);
+      throw new MALException(e.toString(), e);
+    }
   }
   
   public void encodeNullableUInteger(UInteger element) throws MALException {
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.binary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+
+import fr.cnes.encoding.base.Decoder;
+import fr.cnes.encoding.base.Encoder;
+
+/**
+ * Streaming transfer of large blobs.
+ * 
+ * The content of a URL based blob is copied in chunks from its source to the
+ * encoder, and a received blob larger than a threshold is copied in chunks to
+ * a temporary file, so that the codec never loads the content in memory.
+ * 
+ * The whole content is still held in memory if the transport encodes into,
+ * or decodes from, a memory buffer: MALTCP buffers each received frame before
+ * decoding it, and builds each sent frame in a byte array unless its stream
+ * threshold is set.
+ */
+final class BlobTransfer {
+  
+  final static int CHUNK_SIZE = 64 * 1024;
+  
+  private BlobTransfer() {}
+  
+  /**
+   * Encodes the length and the content of the blob.
+   */
+  static void write(Blob blob, Encoder encoder) throws Exception {
+    if (! blob.isURLBased()) {
+      encoder.writeByteArray(blob.getValue(), blob.getOffset(), blob.getLength());
+      return;
+    }
+    
+    URL url = new URL(blob.getURL());
+    long length;
+    URLConnection connection = null;
+    if ("file".equals(url.getProtocol())) {
+      File file = new File(url.toURI());
+      length = file.isFile() ? file.length() : -1;
+    } else {
+      connection = url.openConnection();
+      length = connection.getContentLength();
+    }
+    if ((length < 0) || ! (encoder instanceof BufferEncoder)) {
+      // Unknown length, the content is loaded in memory.
+      encoder.writeByteArray(blob.getValue());
+      return;
+    }
+    if (length > Integer.MAX_VALUE)
+      throw new IOException("Blob too large: " + length);
+    
+    InputStream is = (connection != null) ? connection.getInputStream() : url.openStream();
+    try {
+      encoder.writeUnsignedInt((int) length);
+      ((BufferEncoder) encoder).write(is, length);
+    } finally {
+      is.close();
+    }
+  }
+  
+  /**
+   * Decodes a blob content of the specified length into a temporary file.
+   * 
+   * @param decoder   the decoder
+   * @param length    the length of the blob content
+   * @param directory the directory of the temporary file, the default
+   *                  temporary directory if null
+   * @return a URL based blob, the temporary file is deleted by Blob.delete()
+   *         or at JVM exit.
+   */
+  static Blob spool(Decoder decoder, int length, File directory) throws Exception {
+    File file = File.createTempFile("blob", ".tmp", directory);
+    file.deleteOnExit();
+    OutputStream os = new FileOutputStream(file);
+    try {
+      int remaining = length;
+      while (remaining > 0) {
+        int size = Math.min(remaining, CHUNK_SIZE);
+        os.write(decoder.readByteArray(size));
+        remaining -= size;
+      }
+    } catch (Exception exc) {
+      os.close();
+      file.delete();
+      throw exc;
+    }
+    os.close();
+    return new Blob(file.toURI().toURL().toString());
+  }
+}
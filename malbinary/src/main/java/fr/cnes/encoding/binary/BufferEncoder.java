@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding.binary;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+
+import fr.cnes.encoding.base.Encoder;
+
+/**
+ * Encoder writing directly into a growable byte array.
+ * 
+ * Unlike OutputStreamEncoder this encoder does not make a call to the output
+ * stream for each byte, the encoded data is kept in the internal array until
+ * the flush method writes it in a single call to the output stream if any.
+ * The internal array is kept between messages, so a reset encoder can be
+ * reused without allocation.
+ */
+public class BufferEncoder implements Encoder {
+  
+  public final static int DEFAULT_CAPACITY = 512;
+  
+  public final static int STREAM_CHUNK_SIZE = 64 * 1024;
+  
+  /**
+   * Size above which the internal array is given away by toBlob rather than
+   * kept for the next messages.
+   */
+  public final static int MAX_RETAINED_CAPACITY = 64 * 1024;
+  
+  private OutputStream os;
+  
+  protected byte[] buf;
+  
+  protected int count;
+  
+  private boolean varintSupported;
+  
+  /**
+   * Creates an encoder keeping the encoded data in its internal array.
+   */
+  public BufferEncoder() {
+    this(null, DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * Creates an encoder writing the encoded data to the specified output
+   * stream when it is flushed.
+   * 
+   * @param os  the output stream, may be null
+   */
+  public BufferEncoder(OutputStream os) {
+    this(os, DEFAULT_CAPACITY);
+  }
+  
+  public BufferEncoder(OutputStream os, int capacity) {
+    this.os = os;
+    buf = new byte[capacity];
+    count = 0;
+    varintSupported = true;
+  }
+  
+  public boolean isVarintSupported() {
+    return varintSupported;
+  }
+
+  public void setVarintSupported(boolean varintSupported) {
+    this.varintSupported = varintSupported;
+  }
+  
+  public OutputStream getOutputStream() {
+    return os;
+  }
+  
+  /**
+   * Changes the output stream, the pending data is discarded.
+   * 
+   * @param os  the new output stream, may be null
+   */
+  public void reset(OutputStream os) {
+    this.os = os;
+    count = 0;
+  }
+  
+  /**
+   * Discards the pending data.
+   */
+  public void reset() {
+    count = 0;
+  }
+  
+  /**
+   * Returns the internal array, the encoded data is stored from index 0 to
+   * getIndex().
+   */
+  public byte[] getBuffer() {
+    return buf;
+  }
+  
+  /**
+   * Returns the number of bytes encoded since the last reset or flush.
+   */
+  public int getIndex() {
+    return count;
+  }
+  
+  public byte[] toByteArray() {
+    byte[] res = new byte[count];
+    System.arraycopy(buf, 0, res, 0, count);
+    return res;
+  }
+  
+  /**
+   * Completes the encoded message and returns it in a blob, the pending data
+   * is then discarded. A message held in an array of at most
+   * MAX_RETAINED_CAPACITY bytes is copied and the array is kept for the next
+   * messages. A larger array is returned in the blob without copy and the
+   * encoder starts again with a new array, so that a reused encoder does not
+   * keep the array of the largest message it has encoded.
+   */
+  public Blob toBlob() throws IOException {
+    int offset = finish();
+    int length = count - offset;
+    if (buf.length <= MAX_RETAINED_CAPACITY) {
+      byte[] res = new byte[length];
+      System.arraycopy(buf, offset, res, 0, length);
+      reset();
+      return new Blob(res);
+    }
+    Blob blob = new Blob(buf, offset, length);
+    releaseBuffer();
+    reset();
+    return blob;
+  }
+  
+  /**
+   * Replaces the internal array by a new one of DEFAULT_CAPACITY bytes, the
+   * encoded data must then be reset.
+   */
+  protected void releaseBuffer() {
+    buf = new byte[DEFAULT_CAPACITY];
+  }
+  
+  protected void ensureCapacity(int length) {
+    if (count + length > buf.length) {
+      int capacity = buf.length << 1;
+      if (capacity < count + length) capacity = count + length;
+      byte[] newBuf = new byte[capacity];
+      System.arraycopy(buf, 0, newBuf, 0, count);
+      buf = newBuf;
+    }
+  }
+
+  /**
+   * Completes the encoded message and returns the index of its first byte in
+   * the internal array, the message ends at getIndex(). This encoder writes
+   * the message as is from index 0, subclasses may add a prefix computed
+   * from the whole message.
+   */
+  public int finish() throws IOException {
+    return 0;
+  }
+
+  public void flush() throws IOException {
+    if (os != null) {
+      int offset = finish();
+      if (count > offset) {
+        os.write(buf, offset, count - offset);
+      }
+      reset();
+      os.flush();
+    }
+  }
+  
+  public void writeNull() throws IOException {
+    writeBoolean(false);
+  }
+  
+  public void writeNotNull() throws IOException {
+    writeBoolean(true);
+  }
+  
+  public void writeBoolean(boolean bool) throws IOException {
+    ensureCapacity(1);
+    buf[count++] = bool ? Binary.TRUE : Binary.FALSE;
+  }
+  
+  public void writeByte(byte b) throws IOException {
+    ensureCapacity(1);
+    buf[count++] = b;
+  }
+  
+  /**
+   * Writes the specified bytes as is (no length).
+   */
+  public void write(byte[] tab, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(tab, offset, buf, count, length);
+    count += length;
+  }
+  
+  /**
+   * Copies the specified number of bytes from the input stream. If this
+   * encoder has an output stream, the pending data is flushed and the bytes
+   * are copied to the output stream by chunks of at most STREAM_CHUNK_SIZE
+   * through the internal array.
+   */
+  public void write(InputStream is, long length) throws IOException {
+    if (os != null) {
+      if (count > 0) {
+        os.write(buf, 0, count);
+        count = 0;
+      }
+      ensureCapacity((int) Math.min(length, STREAM_CHUNK_SIZE));
+      while (length > 0) {
+        int n = is.read(buf, 0, (int) Math.min(buf.length, length));
+        if (n < 0) throw new EOFException();
+        os.write(buf, 0, n);
+        length -= n;
+      }
+    } else {
+      ensureCapacity((int) length);
+      while (length > 0) {
+        int n = is.read(buf, count, (int) length);
+        if (n < 0) throw new EOFException();
+        count += n;
+        length -= n;
+      }
+    }
+  }
+  
+  protected void writeVarInt(int value) {
+    ensureCapacity(5);
+    while ((value & ~0x7F) != 0) {
+      buf[count++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buf[count++] = (byte) value;
+  }
+  
+  protected void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7FL) != 0) {
+      buf[count++] = (byte) (((int) value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buf[count++] = (byte) value;
+  }
+  
+  public void writeSignedShort(short s) throws IOException {
+    if (varintSupported) {
+      writeVarInt((s << 1 ^ s >> 15) & 0xFFFF);
+    } else {
+      write16(s);
+    }
+  }
+  
+  public void writeUnsignedShort(short s) throws IOException {
+    if (varintSupported) {
+      writeVarInt(s & 0xFFFF);
+    } else {
+      write16(s);
+    }
+  }
+  
+  public void write16(short s) throws IOException {
+    ensureCapacity(2);
+    buf[count++] = (byte) (s >>> 8);
+    buf[count++] = (byte) s;
+  }
+  
+  public void write24(int i) throws IOException {
+    ensureCapacity(3);
+    buf[count++] = (byte) (i >>> 16);
+    buf[count++] = (byte) (i >>> 8);
+    buf[count++] = (byte) i;
+  }
+  
+  public void writeSignedInt(int i) throws IOException {
+    if (varintSupported) {
+      writeVarInt(i << 1 ^ i >> 31);
+    } else {
+      write32(i);
+    }
+  }
+  
+  public void writeUnsignedInt(int i) throws IOException {
+    if (varintSupported) {
+      writeVarInt(i);
+    } else {
+      write32(i);
+    }
+  }
+  
+  public void write32(int i) throws IOException {
+    ensureCapacity(4);
+    buf[count++] = (byte) (i >>> 24);
+    buf[count++] = (byte) (i >>> 16);
+    buf[count++] = (byte) (i >>> 8);
+    buf[count++] = (byte) i;
+  }
+  
+  public void writeSignedLong(long l) throws IOException {
+    if (varintSupported) {
+      writeVarLong(l << 1 ^ l >> 63);
+    } else {
+      write64(l);
+    }
+  }
+  
+  public void writeUnsignedLong(BigInteger bigInt) throws IOException {
+    if (varintSupported) {
+      writeVarLong(bigInt.longValue());
+    } else {
+      write64(bigInt.longValue());
+    }
+  }
+  
+  public void write64(long l) throws IOException {
+    ensureCapacity(8);
+    buf[count++] = (byte) (l >>> 56);
+    buf[count++] = (byte) (l >>> 48);
+    buf[count++] = (byte) (l >>> 40);
+    buf[count++] = (byte) (l >>> 32);
+    buf[count++] = (byte) (l >>> 24);
+    buf[count++] = (byte) (l >>> 16);
+    buf[count++] = (byte) (l >>> 8);
+    buf[count++] = (byte) l;
+  }
+  
+  public void writeNullableString(String str) throws Exception {
+    if (str == null) {
+      writeNull();
+    } else {
+      writeNotNull();
+      writeString(str);
+    }
+  }
+  
+  public void writeString(String str) throws Exception {
+    int length = str.length();
+    for (int i = 0; i < length; i++) {
+      if (str.charAt(i) >= 0x80) {
+        // Non ASCII string
+        writeByteArray(str.getBytes(Binary.utf8));
+        return;
+      }
+    }
+    // The UTF-8 encoding of an ASCII string is the string itself
+    writeUnsignedInt(length);
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buf[count++] = (byte) str.charAt(i);
+    }
+  }
+  
+  public void writeNullableByteArray(byte[] tab) throws Exception {
+    if (tab == null) {
+      writeNull();
+    } else {
+      writeNotNull();
+      writeByteArray(tab);
+    }
+  }
+  
+  public void writeByteArray(byte[] tab) throws Exception {
+    writeByteArray(tab, 0, tab.length);
+  }
+  
+  public void writeNullableByteArray(byte[] tab, int offset, int length) throws Exception {
+    if (tab == null) {
+      writeNull();
+    } else {
+      writeNotNull();
+      writeByteArray(tab, offset, length);
+    }
+  }
+    
+  public void writeByteArray(byte[] tab, int offset, int length) throws Exception {
+    writeUnsignedInt(length);
+    if (length > 0) {
+      write(tab, offset, length);
+    }
+  }
+  
+  public void close() throws IOException {
+    flush();
+    if (os != null) {
+      os.close();
+    }
+  }
+}
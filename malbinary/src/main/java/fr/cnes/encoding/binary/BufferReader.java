@@ -56,7 +56,7 @@ public class BufferReader implements Reader {
   }
 
   public String getString(int length) {
-    String s = new String(buf, index, length);
+    String s = new String(buf, index, length, Binary.utf8);
     index += length;
     return s;
   }
@@ -31,7 +31,7 @@ public class BufferReader implements Reader {
   private int bfoff;
   // Index of current decoded bit in bitfield.
   private int bfidx;
-  // Number of bits in bitfield.
+  // Number of bytes in bitfield.
   private int bflen;
   // Index of current decoded byte in buffer.
   private int index;
@@ -64,7 +64,7 @@ public class BufferReader implements Reader {
   }
 
   public String getString(int length) {
-    String s = new String(buf, index, length);
+    String s = new String(buf, index, length, SplitBinary.utf8);
     index += length;
     return s;
   }
@@ -81,7 +81,7 @@ public class BufferReader implements Reader {
   }
 
   public boolean getBoolean() throws Exception {
-	  if (bflen <= bfidx) return false;
+	  if ((bflen << 3) <= bfidx) return false;
 	  
 	  boolean value = (((buf[bfoff + (bfidx >> 3)] >> (bfidx%8)) & 1) == SplitBinary.TRUE);
 	  bfidx += 1;
@@ -23,233 +23,197 @@
   *******************************************************************************/
 package fr.cnes.encoding.splitbinary;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.math.BigInteger;
-import java.nio.charset.Charset;
 
-import org.objectweb.util.monolog.api.BasicLevel;
 import org.objectweb.util.monolog.api.Logger;
 
-import fr.cnes.encoding.base.Encoder;
-import fr.cnes.encoding.base.VarintHelper;
+import fr.cnes.encoding.binary.BufferEncoder;
 
-public class OutputStreamEncoder implements Encoder {
+/**
+ * SplitBinary encoder writing directly into a growable byte array.
+ * 
+ * A SplitBinary message starts with the bitfield of all the boolean values
+ * (presence flags included) preceded by its varint length, then the body. As
+ * the bitfield is only known once the message is complete, the body is
+ * written in place after a reserved space, and the length and the bitfield
+ * are written in front of it when the message is completed, so that the
+ * whole message is contiguous in the internal array and written to the output
+ * stream in a single call. The reserved space is adjusted to the largest
+ * bitfield encoded so far, the body is only moved when it grows.
+ * 
+ * The bits are set in an array of longs, bit i of the bitfield being bit
+ * (i % 64) of word (i / 64), which is the little-endian order of the bytes of
+ * the encoded bitfield.
+ */
+public class OutputStreamEncoder extends BufferEncoder {
   
   public final static Logger logger = fr.dyade.aaa.common.Debug.getLogger(OutputStreamEncoder.class.getName());
   
-  // Note: It is no longer possible to write encoded value directly on the output stream.
-  // The SplitBinary encoding needs to buffer all encoded datas.
+  /**
+   * Initial space reserved in front of the body, enough for a bitfield of
+   * 120 bits.
+   */
+  public final static int DEFAULT_RESERVE = 16;
+  
+  private long[] bits = new long[4];
   
-  private static int BF_BLOCK_SIZE = 32;
-  private byte bf[] = new byte[BF_BLOCK_SIZE];
   // Index of next bit to use in bitfield.
   private int bitidx = 0;
-  // Number of significant byte used in bitfield
-  private int bflen = 0;
-  
-  private ByteArrayOutputStream baos = null;
   
-  private final boolean varintSupported = true;
+  // Index of the first byte of the body in the internal array.
+  private int start;
   
   public OutputStreamEncoder() {
-    baos = new ByteArrayOutputStream();
+    this(null);
+  }
+  
+  /**
+   * Creates an encoder writing each message to the specified output stream
+   * when it is flushed.
+   * 
+   * @param os  the output stream, may be null
+   */
+  public OutputStreamEncoder(OutputStream os) {
+    super(os, DEFAULT_CAPACITY);
+    start = DEFAULT_RESERVE;
+    count = start;
   }
 
   public boolean isVarintSupported() {
-	  return true;
+    return true;
   }
 
   public void setVarintSupported(boolean varintSupported) {
-  }
-
-
-  public void writeNull() throws IOException {
-	// IsPresent false => writeBoolean(false)
-    writeBoolean(false);
-  }
-  
-  public void writeNotNull() throws IOException {
-	// IsPresent true => writeBoolean(true)
-    writeBoolean(true);
-  }
-  
-  public void writeBoolean(boolean bool) throws IOException {
-	  if (bool) {
-		int idx = bitidx / 8;
-		if ((idx +1) > bf.length) {
-		  bf = java.util.Arrays.copyOf(bf, (((idx +1) / BF_BLOCK_SIZE) + 1) * BF_BLOCK_SIZE);
-		}
-		bflen = idx +1;
-		bf[idx] |= (1 << (bitidx % 8));
-	  }
-	  bitidx += 1;
+    // The SplitBinary encoding always uses varint.
   }
   
-  public void writeByte(byte b) throws IOException {
-    baos.write(b);
+  public void reset(OutputStream os) {
+    super.reset(os);
+    reset();
   }
   
-  public void writeVarInt(int value) throws IOException {
-    while (true) {
-      if ((value & ~0x7F) == 0) {
-        baos.write(value);
-        return;
-      } else {
-        baos.write((value & 0x7F) | 0x80);
-        value >>>= 7;
-      }
-    }
-  }
-  
-  public void writeVarLong(long value) throws IOException {
-    while (true) {
-      if ((value & ~0x7FL) == 0) {
-        baos.write((int) value);
-        return;
-      } else {
-        baos.write(((int) value & 0x7F) | 0x80);
-        value >>>= 7;
-      }
-    }
-  }
-  
-  public void writeSignedShort(short s) throws IOException {
-    if (varintSupported) {
-      writeVarInt((s << 1 ^ s >> 15) & 0xFFFF);
-    } else {
-      write16(s);
-    }
-  }
-  
-  public void writeUnsignedShort(short s) throws IOException {
-    if (varintSupported) {
-      writeVarInt(s & 0xFFFF);
-    } else {
-      write16(s);
+  public void reset() {
+    int words = (bitidx + 63) >>> 6;
+    for (int i = 0; i < words; i++) {
+      bits[i] = 0;
     }
+    bitidx = 0;
+    count = start;
   }
   
-  public void write16(short s) throws IOException {
-    baos.write((byte) (s >>>  8));
-    baos.write((byte) (s >>>  0));
-  }
-  
-  public void write24(int i) throws IOException {
-    baos.write((byte) (i >>>  16));
-    baos.write((byte) (i >>>  8));
-    baos.write((byte) (i >>>  0));
-  }
-  
-  public void writeSignedInt(int i) throws IOException {
-    if (varintSupported) {
-      writeVarInt(i << 1 ^ i >> 31);
-    } else {
-      write32(i);
+  /**
+   * Writes the current message to the output stream if any, nothing is
+   * written if no value has been encoded since the last reset or flush.
+   */
+  public void flush() throws IOException {
+    if ((bitidx == 0) && (count == start)) {
+      OutputStream os = getOutputStream();
+      if (os != null) os.flush();
+      return;
     }
-  }
-  
-  public void writeUnsignedInt(int i) throws IOException {
-    if (varintSupported) {
-      writeVarInt(i);
-    } else {
-      write32(i);
+    super.flush();
+  }
+  
+  protected void releaseBuffer() {
+    super.releaseBuffer();
+    // The reserved space and the bitfield may have grown with a large message.
+    bits = new long[4];
+    bitidx = 0;
+    start = DEFAULT_RESERVE;
+  }
+  
+  public byte[] toByteArray() {
+    try {
+      int offset = finish();
+      byte[] res = new byte[count - offset];
+      System.arraycopy(buf, offset, res, 0, res.length);
+      return res;
+    } catch (IOException exc) {
+      // Cannot happen, the message is not written
+      throw new IllegalStateException(exc);
     }
   }
   
-  public void write32(int i) throws IOException {
-    baos.write((byte) (i >>>  24));
-    baos.write((byte) (i >>>  16));
-    baos.write((byte) (i >>>  8));
-    baos.write((byte) (i >>>  0));
-  }
-  
-  public void writeSignedLong(long l) throws IOException {
-    if (varintSupported) {
-      writeVarLong(l << 1 ^ l >> 63);
-    } else {
-      write64(l);
+  public void writeBoolean(boolean bool) throws IOException {
+    if (bool) {
+      int idx = bitidx >>> 6;
+      if (idx >= bits.length) {
+        long[] newBits = new long[Math.max(bits.length << 1, idx + 1)];
+        System.arraycopy(bits, 0, newBits, 0, bits.length);
+        bits = newBits;
+      }
+      bits[idx] |= 1L << (bitidx & 63);
     }
-  }
-  
-  public void writeUnsignedLong(BigInteger bigInt) throws IOException {
-    if (varintSupported) {
-      writeVarLong(bigInt.longValue());
-    } else {
-      write64(bigInt.longValue());
+    bitidx += 1;
+  }
+  
+  /**
+   * Copies the specified number of bytes from the input stream. The bytes
+   * are kept in the internal array as the bitfield must be written first.
+   */
+  public void write(InputStream is, long length) throws IOException {
+    ensureCapacity((int) length);
+    while (length > 0) {
+      int n = is.read(buf, count, (int) length);
+      if (n < 0) throw new EOFException();
+      count += n;
+      length -= n;
     }
   }
   
-  public void write64(long l) throws IOException {
-    baos.write((byte) (l >>>  56));
-    baos.write((byte) (l >>>  48));
-    baos.write((byte) (l >>>  40));
-    baos.write((byte) (l >>>  32));
-    baos.write((byte) (l >>>  24));
-    baos.write((byte) (l >>>  16));
-    baos.write((byte) (l >>>  8));
-    baos.write((byte) (l >>>  0));
-  }
-  
-  public void writeNullableString(String str) throws Exception {
-    if (str == null) {
-      writeNull();
-    } else {
-      writeNotNull();
-      writeString(str);
+  /**
+   * Returns the number of significant bytes of the bitfield, i.e. the index
+   * of the byte holding the last bit set plus 1.
+   */
+  private int getBitfieldLength() {
+    for (int i = ((bitidx + 63) >>> 6) - 1; i >= 0; i--) {
+      if (bits[i] != 0) {
+        int highestBit = (i << 6) + 63 - Long.numberOfLeadingZeros(bits[i]);
+        return (highestBit >>> 3) + 1;
+      }
     }
+    return 0;
   }
   
-  public void writeString(String str) throws Exception {
-    if (str.length() == 0) {
-      writeUnsignedInt(0);
-    } else {
-      byte[] buf = str.getBytes(SplitBinary.utf8);
-      writeByteArray(buf);
+  private static int getVarintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
     }
-  }
-  
-  public void writeNullableByteArray(byte[] tab) throws Exception {
-    if (tab == null) {
-      writeNull();
-    } else {
-      writeNotNull();
-      writeByteArray(tab);
+    return size;
+  }
+  
+  /**
+   * Writes the length and the bitfield in front of the body and returns the
+   * index of the first byte of the message.
+   */
+  public int finish() throws IOException {
+    int bflen = getBitfieldLength();
+    int headerLength = getVarintSize(bflen) + bflen;
+    if (headerLength > start) {
+      // The reserved space is too small, moves the body once and keeps the
+      // larger space for the next messages.
+      int shift = headerLength - start;
+      ensureCapacity(shift);
+      System.arraycopy(buf, start, buf, headerLength, count - start);
+      count += shift;
+      start = headerLength;
     }
-  }
-  
-  public void writeByteArray(byte[] tab) throws Exception {
-    writeByteArray(tab, 0, tab.length);
-  }
-  
-  public void writeNullableByteArray(byte[] tab, int offset, int length) throws Exception {
-    if (tab == null) {
-      writeNull();
-    } else {
-      writeNotNull();
-      writeByteArray(tab, offset, length);
+    int offset = start - headerLength;
+    int idx = offset;
+    int value = bflen;
+    while ((value & ~0x7F) != 0) {
+      buf[idx++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
     }
-  }
-    
-  public void writeByteArray(byte[] tab, int offset, int length) throws Exception {
-    writeUnsignedInt(length);
-    if (length > 0) {
-      baos.write(tab, offset, length);
+    buf[idx++] = (byte) value;
+    for (int i = 0; i < bflen; i++) {
+      buf[idx++] = (byte) (bits[i >>> 3] >>> ((i & 7) << 3));
     }
+    return offset;
   }
-
-  // TODO (AF): Not needed, suppress in interface
-  public void flush() throws IOException {
-  }
-
-  // TODO (AF): Not needed, suppress in interface
-  public void close() throws IOException {
-  }
-
-  public void writeTo(OutputStream os) throws IOException {
-	  VarintHelper.writeRawVarint32(bflen, os);
-	  os.write(bf, 0, bflen);
-	  baos.writeTo(os);
-  }
-}
\ No newline at end of file
+}
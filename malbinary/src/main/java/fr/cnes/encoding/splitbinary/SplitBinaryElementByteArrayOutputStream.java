@@ -24,10 +24,9 @@
 package fr.cnes.encoding.splitbinary;
 
 import java.io.IOException;
-import java.util.List;
 
 import org.ccsds.moims.mo.mal.MALException;
-import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.Blob;
 import org.objectweb.util.monolog.api.Logger;
 
 import fr.cnes.encoding.base.DurationEncoder;
@@ -35,12 +34,14 @@ import fr.cnes.encoding.base.FineTimeEncoder;
 import fr.cnes.encoding.base.OpenByteArrayOutputStream;
 import fr.cnes.encoding.base.TimeEncoder;
 
-// TODO (AF): It seems to be identical to BinaryElementByteArrayOutputStream except the superclass.
+/**
+ * SplitBinary element output stream keeping the encoded data in its internal
+ * buffer. Such a stream is reused by SplitBinaryElementStreamFactory to encode
+ * the messages without allocating new streams, see reset().
+ */
 public class SplitBinaryElementByteArrayOutputStream extends SplitBinaryElementOutputStream {
   
   public final static Logger logger = fr.dyade.aaa.common.Debug.getLogger(SplitBinaryElementByteArrayOutputStream.class.getName());
-
-  private OpenByteArrayOutputStream baos;
   
   public SplitBinaryElementByteArrayOutputStream(OpenByteArrayOutputStream baos, 
       boolean encodedUpdate, boolean byteArrayString, 
@@ -48,26 +49,37 @@ public class SplitBinaryElementByteArrayOutputStream extends SplitBinaryElementO
       DurationEncoder durationEncoder) {
     super(baos, encodedUpdate, byteArrayString, timeEncoder, 
         fineTimeEncoder, durationEncoder);
-    this.baos = baos;
   }
   
-  protected void encode(List<Element> updateList) throws MALException {
+  public SplitBinaryElementByteArrayOutputStream(boolean encodedUpdate, 
+      boolean byteArrayString, TimeEncoder timeEncoder, 
+      FineTimeEncoder fineTimeEncoder, DurationEncoder durationEncoder) {
+    this(null, encodedUpdate, byteArrayString, timeEncoder, 
+        fineTimeEncoder, durationEncoder);
+  }
+  
+  /**
+   * Discards the encoded data.
+   */
+  public void reset() {
+    reset(null);
+  }
+  
+  /**
+   * Returns the encoded message, bitfield included.
+   */
+  public byte[] toByteArray() {
+    return buffer.toByteArray();
+  }
+  
+  /**
+   * Returns the encoded message and discards it, see BufferEncoder.toBlob().
+   */
+  public Blob toBlob() throws MALException {
     try {
-      encoder.getEncoder().writeUnsignedInt(updateList.size());
-      for (Element update : updateList) {
-        baos.write(PAD);
-        int startIndex = baos.getIndex();
-        encoder.encodeNullableElement(update);
-        int stopIndex = baos.getIndex();
-        int updateLength = stopIndex - startIndex;
-        byte[] internalArray = baos.getInternalArray();
-        internalArray[startIndex - 4] = (byte) (updateLength >>> 24);
-        internalArray[startIndex - 3] = (byte) (updateLength >>> 16);
-        internalArray[startIndex - 2] = (byte) (updateLength >>> 8);
-        internalArray[startIndex - 1] = (byte) (updateLength >>> 0);
-      }
-    } catch (IOException e) {
-      throw new MALException("", e);
+      return buffer.toBlob();
+    } catch (IOException exc) {
+      throw new MALException(exc.toString(), exc);
     }
   }
 }
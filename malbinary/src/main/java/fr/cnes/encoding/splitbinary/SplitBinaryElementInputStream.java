@@ -93,10 +93,22 @@ public class SplitBinaryElementInputStream implements MALElementInputStream {
   
   private boolean keepPublishUpdateEncoded;
   
+  private boolean byteArrayString;
+  
+  private TimeDecoder timeDecoder;
+  
+  private FineTimeDecoder fineTimeDecoder;
+  
+  private DurationDecoder durationDecoder;
+  
   SplitBinaryElementInputStream(InputStream is, boolean encodedUpdate, 
       boolean byteArrayString, TimeDecoder timeDecoder,
       FineTimeDecoder fineTimeDecoder, DurationDecoder durationDecoder) throws Exception {
     this.encodedUpdate = encodedUpdate;
+    this.byteArrayString = byteArrayString;
+    this.timeDecoder = timeDecoder;
+    this.fineTimeDecoder = fineTimeDecoder;
+    this.durationDecoder = durationDecoder;
     decoder = new InputStreamDecoder(is);
     //decoder = new BufferDecoder(new InputStreamReader(is));
     malDecoder = new SplitBinaryDecoder(decoder, byteArrayString, 
@@ -107,6 +119,10 @@ public class SplitBinaryElementInputStream implements MALElementInputStream {
       boolean encodedUpdate, boolean byteArrayString, TimeDecoder timeDecoder,
       FineTimeDecoder fineTimeDecoder, DurationDecoder durationDecoder) throws Exception {
     this.encodedUpdate = encodedUpdate;
+    this.byteArrayString = byteArrayString;
+    this.timeDecoder = timeDecoder;
+    this.fineTimeDecoder = fineTimeDecoder;
+    this.durationDecoder = durationDecoder;
     decoder = new BufferDecoder(new BufferReader(bytes, offset));
     malDecoder = new SplitBinaryDecoder(decoder, byteArrayString, 
         timeDecoder, fineTimeDecoder, durationDecoder);
@@ -130,15 +146,18 @@ public class SplitBinaryElementInputStream implements MALElementInputStream {
   }
 
   public Object readElement(Object object, MALEncodingContext ctx) throws MALException {
-    Element element = (Element) object;
+    // The updates of a PUBLISH are always decoded: the elements are encoded
+    // separately with their own bit field so they cannot be copied in the list
+    // of a NOTIFY.
+    Element element = (object instanceof Element) ? (Element) object : null;
     if (ctx == null) {
       return malDecoder.decodeElement(element);
     }
     MALOperation op = ctx.getOperation();
     MALMessageHeader header = ctx.getHeader();
     
-    if (logger.isLoggable(BasicLevel.WARN))
-      logger.log(BasicLevel.WARN, "Reads op=" + op + ", header=" + header);
+    if (logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "Reads op=" + op + ", header=" + header);
     
     if (header.getIsErrorMessage()) {
       switch (ctx.getBodyElementIndex()) {
@@ -213,11 +232,10 @@ public class SplitBinaryElementInputStream implements MALElementInputStream {
                   if (isNull()) {
                     updateList.add(null);
                   } else {  
-                    // Decode the update length but does not use it
-                    malDecoder.getDecoder().readUnsignedInt();
-                  
+                    // Each update is a separate SplitBinary message with its own bitfield
+                    int length = malDecoder.getDecoder().readUnsignedInt();
                     Element update = (Element) updateFactory.createElement();
-                    update = update.decode(malDecoder);
+                    update = decodeUpdate(decoder.readByteArray(length), update);
                     
                     if (update instanceof Union) {
                       Union union = (Union) update;
@@ -250,6 +268,20 @@ public class SplitBinaryElementInputStream implements MALElementInputStream {
     }
   }
   
+  /**
+   * Decodes an update encoded separately by the SplitBinaryElementOutputStream.
+   * 
+   * @param bytes the encoded update, starting with its bitfield
+   * @param update the element to decode
+   * @return the decoded update
+   */
+  private Element decodeUpdate(byte[] bytes, Element update) throws Exception {
+    BufferDecoder updateDecoder = new BufferDecoder(new BufferReader(bytes, 0));
+    updateDecoder.setVarintSupported(decoder.isVarintSupported());
+    return new SplitBinaryDecoder(updateDecoder, byteArrayString, timeDecoder,
+        fineTimeDecoder, durationDecoder).decodeElement(update);
+  }
+  
   // TODO (AF): Patch needed by API divergence.
   private Object getUnionValue(Union union) throws MALException {
 	  switch (union.getTypeShortForm()) {
@@ -43,7 +43,6 @@ import fr.cnes.encoding.base.JavaDurationDecoder;
 import fr.cnes.encoding.base.JavaDurationEncoder;
 import fr.cnes.encoding.base.JavaTimeDecoder;
 import fr.cnes.encoding.base.JavaTimeEncoder;
-import fr.cnes.encoding.base.OpenByteArrayOutputStream;
 import fr.cnes.encoding.base.TimeDecoder;
 import fr.cnes.encoding.base.TimeEncoder;
 
@@ -69,6 +68,13 @@ public class SplitBinaryElementStreamFactory extends MALElementStreamFactory {
 
   //private OpenByteArrayOutputStream baos;
   
+  /**
+   * Stream of each thread used to encode the messages in a Blob, so that its
+   * internal buffer is reused.
+   */
+  private final ThreadLocal<SplitBinaryElementByteArrayOutputStream> threadOutputStream = 
+      new ThreadLocal<SplitBinaryElementByteArrayOutputStream>();
+  
   private boolean encodedUpdate;
   
   private boolean byteArrayString;
@@ -288,17 +294,25 @@ public class SplitBinaryElementStreamFactory extends MALElementStreamFactory {
       throw new IllegalArgumentException("Null elements");
     if (ctx == null)
       throw new IllegalArgumentException("Null MALEncodingContext");
-    OpenByteArrayOutputStream baos = new OpenByteArrayOutputStream();
-    SplitBinaryElementOutputStream eos = new SplitBinaryElementByteArrayOutputStream(
-        baos, encodedUpdate, byteArrayString, timeEncoder, fineTimeEncoder,
-        durationEncoder);
-    eos.setVarintSupported(true);
-    for (int i = 0; i < elements.length; i++) {
-      ctx.setBodyElementIndex(i);
-      eos.writeElement(elements[i], ctx);
+    // The stream of the thread is removed while in use, so that a nested
+    // call allocates its own stream.
+    SplitBinaryElementByteArrayOutputStream eos = threadOutputStream.get();
+    if (eos == null) {
+      eos = new SplitBinaryElementByteArrayOutputStream(
+          encodedUpdate, byteArrayString, timeEncoder, fineTimeEncoder,
+          durationEncoder);
+    } else {
+      threadOutputStream.set(null);
+      eos.reset();
+    }
+    try {
+      for (int i = 0; i < elements.length; i++) {
+        ctx.setBodyElementIndex(i);
+        eos.writeElement(elements[i], ctx);
+      }
+      return eos.toBlob();
+    } finally {
+      threadOutputStream.set(eos);
     }
-    Blob res = new Blob(baos.getInternalArray(), 0, baos.size());
-    baos.reset();
-    return res;
   }
 }
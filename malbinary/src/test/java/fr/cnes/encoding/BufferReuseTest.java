@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package fr.cnes.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.LongList;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.cnes.encoding.base.JavaDurationEncoder;
+import fr.cnes.encoding.base.JavaTimeEncoder;
+import fr.cnes.encoding.binary.BinaryElementByteArrayOutputStream;
+import fr.cnes.encoding.binary.BinaryEncoder;
+import fr.cnes.encoding.binary.BufferEncoder;
+import fr.cnes.encoding.splitbinary.OutputStreamEncoder;
+import junit.framework.Assert;
+
+/**
+ * Checks that the encoders reused by the stream factories do not keep the
+ * array of a large message, and that the messages are not altered.
+ */
+public class BufferReuseTest {
+	final static String BINARY = "bufferreusebinary";
+	final static String SPLITBINARY = "bufferreusesplitbinary";
+
+	static MALPubSubOperation op;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+		op = new MALPubSubOperation(new UShort(1), new Identifier("monitor"),
+				Boolean.FALSE, new UShort(1),
+				new Object[] { IdentifierList.SHORT_FORM }, new Object[0]);
+		MALService service = new MALService(new UShort(1), new Identifier("BufferReuseService"));
+		service.addOperation(op);
+		MALArea area = new MALArea(new UShort(213), new Identifier("BufferReuseArea"),
+				new UOctet((short) 1));
+		area.addService(service);
+		MALContextFactory.registerArea(area);
+
+		System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + BINARY,
+				"fr.cnes.encoding.binary.BinaryElementStreamFactory");
+		System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + SPLITBINARY,
+				"fr.cnes.encoding.splitbinary.SplitBinaryElementStreamFactory");
+	}
+
+	static MALEncodingContext createContext() {
+		MALMessageHeader header = (MALMessageHeader) Proxy.newProxyInstance(
+				MALMessageHeader.class.getClassLoader(),
+				new Class[] { MALMessageHeader.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getIsErrorMessage")) return Boolean.FALSE;
+						if (name.equals("getInteractionType")) return InteractionType.PUBSUB;
+						if (name.equals("getInteractionStage")) return MALPubSubOperation.PUBLISH_STAGE;
+						if (name.equals("toString")) return "PUBLISH header";
+						return null;
+					}
+				});
+		return new MALEncodingContext(header, op, 0, new HashMap(), new HashMap());
+	}
+
+	static Element[] createPublishBody(int count) {
+		UpdateHeaderList updateHeaders = new UpdateHeaderList();
+		IdentifierList updates = new IdentifierList();
+		for (int i = 0; i < count; i++) {
+			updateHeaders.add(new UpdateHeader(new Time(1000L * i), new URI("maltcp://provider"),
+					UpdateType.UPDATE, new EntityKey(new Identifier("param" + i), 0L, 0L, 0L)));
+			updates.add((i % 3 == 0) ? null : new Identifier("value" + i));
+		}
+		return new Element[] { updateHeaders, updates };
+	}
+
+	static void checkDecoded(Element[] elements, MALElementStreamFactory factory, Blob blob) throws Exception {
+		MALElementInputStream meis = factory.createInputStream(blob.getValue(), blob.getOffset());
+		MALEncodingContext ctx = createContext();
+		ctx.setBodyElementIndex(0);
+		Assert.assertEquals(elements[0], meis.readElement(new UpdateHeaderList(), ctx));
+		ctx.setBodyElementIndex(1);
+		Assert.assertEquals(elements[1], meis.readElement(new IdentifierList(), ctx));
+		meis.close();
+	}
+
+	private void checkFactory(String protocol) throws Exception {
+		MALElementStreamFactory factory = MALElementStreamFactory.newFactory(protocol, new HashMap());
+		// Small, large, then small again with the same thread stream
+		int[] counts = { 3, 5000, 2, 5000 };
+		for (int count : counts) {
+			Element[] elements = createPublishBody(count);
+			Blob blob = factory.encode(elements, createContext());
+			checkDecoded(elements, factory, blob);
+			Assert.assertTrue(blob.getOffset() + blob.getLength() <= blob.getValue().length);
+			if (count < 10) {
+				// A small message is copied in an array of its own
+				Assert.assertEquals(0, blob.getOffset());
+				Assert.assertEquals(blob.getLength(), blob.getValue().length);
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryFactory() throws Exception {
+		checkFactory(BINARY);
+	}
+
+	@Test
+	public void testSplitBinaryFactory() throws Exception {
+		checkFactory(SPLITBINARY);
+	}
+
+	@Test
+	public void testSmallBufferKept() throws Exception {
+		BufferEncoder encoder = new BufferEncoder();
+		byte[] buf = encoder.getBuffer();
+		encoder.writeString("small message");
+		Blob blob = encoder.toBlob();
+		Assert.assertNotSame(buf, blob.getValue());
+		Assert.assertSame(buf, encoder.getBuffer());
+		Assert.assertEquals(0, encoder.getIndex());
+	}
+
+	@Test
+	public void testLargeBufferReleased() throws Exception {
+		BufferEncoder encoder = new BufferEncoder();
+		byte[] data = new byte[BufferEncoder.MAX_RETAINED_CAPACITY + 1];
+		Arrays.fill(data, (byte) 7);
+		encoder.write(data, 0, data.length);
+		byte[] buf = encoder.getBuffer();
+		Blob blob = encoder.toBlob();
+		// Given away without copy
+		Assert.assertSame(buf, blob.getValue());
+		Assert.assertEquals(data.length, blob.getLength());
+		Assert.assertEquals(BufferEncoder.DEFAULT_CAPACITY, encoder.getBuffer().length);
+		Assert.assertEquals(0, encoder.getIndex());
+	}
+
+	static Element[] createTMBody(int parameters) {
+		UpdateHeaderList headers = new UpdateHeaderList();
+		IdentifierList names = new IdentifierList();
+		LongList rawValues = new LongList();
+		DoubleList values = new DoubleList();
+		URI source = new URI("maltcp://127.0.0.1:1024/TMProvider");
+		for (int i = 0; i < parameters; i++) {
+			Identifier name = new Identifier("PARAM_" + i);
+			headers.add(new UpdateHeader(new Time(1000L * i), source,
+					UpdateType.UPDATE, new EntityKey(name, Long.valueOf(i), Long.valueOf(0), Long.valueOf(0))));
+			names.add(name);
+			rawValues.add(Long.valueOf(i * 4096L));
+			values.add(Double.valueOf(i * 0.125));
+		}
+		return new Element[] { new Identifier("TM"), headers, names, rawValues, values, new UInteger(parameters) };
+	}
+
+	@Test
+	public void testReusedStreamMatchesOutputStreamEncoder() throws Exception {
+		JavaTimeEncoder timeEncoder = new JavaTimeEncoder();
+		JavaDurationEncoder durationEncoder = new JavaDurationEncoder();
+		BinaryElementByteArrayOutputStream eos = new BinaryElementByteArrayOutputStream(true, false,
+				timeEncoder, timeEncoder, durationEncoder);
+		// Small, larger than the retained capacity, then small again
+		int[] counts = { 50, 5000, 50, 1 };
+		for (int count : counts) {
+			Element[] body = createTMBody(count);
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			BinaryEncoder encoder = new BinaryEncoder(new fr.cnes.encoding.binary.OutputStreamEncoder(baos), false,
+					timeEncoder, timeEncoder, durationEncoder);
+			for (int i = 0; i < body.length; i++) {
+				encoder.encodeElement(body[i]);
+			}
+			encoder.flush();
+
+			eos.reset();
+			for (int i = 0; i < body.length; i++) {
+				eos.writeElement(body[i], null);
+			}
+			Assert.assertTrue(Arrays.equals(baos.toByteArray(), eos.toByteArray()));
+		}
+	}
+
+	private static byte[] encodeSplit(OutputStreamEncoder encoder, int booleans, int bytes) throws Exception {
+		for (int i = 0; i < booleans; i++) encoder.writeBoolean(i % 2 == 0);
+		for (int i = 0; i < bytes; i++) encoder.writeByte((byte) i);
+		Blob blob = encoder.toBlob();
+		return Arrays.copyOfRange(blob.getValue(), blob.getOffset(), blob.getOffset() + blob.getLength());
+	}
+
+	@Test
+	public void testSplitBinaryBufferReleased() throws Exception {
+		OutputStreamEncoder encoder = new OutputStreamEncoder();
+		// Large bitfield and body, the reserved space grows
+		byte[] large = encodeSplit(encoder, 10000, BufferEncoder.MAX_RETAINED_CAPACITY);
+		Assert.assertTrue(Arrays.equals(large, encodeSplit(new OutputStreamEncoder(), 10000, BufferEncoder.MAX_RETAINED_CAPACITY)));
+		Assert.assertEquals(BufferEncoder.DEFAULT_CAPACITY, encoder.getBuffer().length);
+		// The released encoder encodes as a new one
+		Assert.assertTrue(Arrays.equals(encodeSplit(new OutputStreamEncoder(), 300, 10), encodeSplit(encoder, 300, 10)));
+		Assert.assertTrue(Arrays.equals(encodeSplit(new OutputStreamEncoder(), 3, 1000), encodeSplit(encoder, 3, 1000)));
+	}
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package fr.cnes.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.cnes.ccsds.mo.transport.gen.body.GENPublishBody;
+import fr.cnes.encoding.binary.BinaryElementInputStream;
+import fr.cnes.encoding.binary.BinaryElementOutputStream;
+import junit.framework.Assert;
+
+/**
+ * Checks that the GEN transports forward the elements of a received body as
+ * they have been encoded, and decode a PUBLISH body kept encoded.
+ */
+public class EncodedBodyTest {
+	final static String PROTOCOL = "encodedbody";
+
+	static MALPubSubOperation op;
+	static MALElementStreamFactory factory;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+		op = new MALPubSubOperation(new UShort(1), new Identifier("monitor"),
+				Boolean.FALSE, new UShort(1),
+				new Object[] { IdentifierList.SHORT_FORM }, new Object[0]);
+		MALService service = new MALService(new UShort(1), new Identifier("EncodedBodyService"));
+		service.addOperation(op);
+		MALArea area = new MALArea(new UShort(211), new Identifier("EncodedBodyArea"),
+				new UOctet((short) 1));
+		area.addService(service);
+		MALContextFactory.registerArea(area);
+
+		System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+				"fr.cnes.encoding.binary.BinaryElementStreamFactory");
+		factory = MALElementStreamFactory.newFactory(PROTOCOL, new HashMap());
+	}
+
+	static MALEncodingContext createContext() {
+		MALMessageHeader header = (MALMessageHeader) Proxy.newProxyInstance(
+				MALMessageHeader.class.getClassLoader(),
+				new Class[] { MALMessageHeader.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getIsErrorMessage")) return Boolean.FALSE;
+						if (name.equals("getInteractionType")) return InteractionType.PUBSUB;
+						if (name.equals("getInteractionStage")) return MALPubSubOperation.PUBLISH_STAGE;
+						if (name.equals("toString")) return "PUBLISH header";
+						return null;
+					}
+				});
+		return new MALEncodingContext(header, op, 0, new HashMap(), new HashMap());
+	}
+
+	static Element[] createPublishBody() {
+		UpdateHeaderList updateHeaders = new UpdateHeaderList();
+		IdentifierList updates = new IdentifierList();
+		for (int i = 0; i < 3; i++) {
+			updateHeaders.add(new UpdateHeader(new Time(1000L * i), new URI("maltcp://provider"),
+					UpdateType.UPDATE, new EntityKey(new Identifier("param" + i), 0L, 0L, 0L)));
+			updates.add(new Identifier("value" + i));
+		}
+		return new Element[] { updateHeaders, updates };
+	}
+
+	static byte[] encode(Element[] elements, int first, int count) throws MALException {
+		MALEncodingContext ctx = createContext();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		MALElementOutputStream meos = factory.createOutputStream(baos);
+		for (int i = first; i < first + count; i++) {
+			ctx.setBodyElementIndex(i);
+			meos.writeElement(elements[i], ctx);
+		}
+		meos.flush();
+		meos.close();
+		return baos.toByteArray();
+	}
+
+	static byte[] getBytes(Blob blob) throws MALException {
+		byte[] bytes = new byte[blob.getLength()];
+		System.arraycopy(blob.getValue(), blob.getOffset(), bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	@Test
+	public void testEncodedElements() throws Exception {
+		Element[] elements = createPublishBody();
+		byte[] encodedBody = encode(elements, 0, elements.length);
+		GENPublishBody body = new GENPublishBody(encodedBody, createContext(), factory);
+
+		for (int i = 0; i < elements.length; i++) {
+			Blob blob = body.getEncodedBodyElement(i).getEncodedElement();
+			// A part of the received body, not an element encoded again
+			Assert.assertSame(encodedBody, blob.getValue());
+			Assert.assertTrue(Arrays.equals(encode(elements, i, 1), getBytes(blob)));
+		}
+		Assert.assertTrue(Arrays.equals(encodedBody,
+				getBytes(body.getEncodedBodyElement(-1).getEncodedElement())));
+	}
+
+	@Test
+	public void testEncodedPublishBody() throws Exception {
+		Element[] elements = createPublishBody();
+		byte[] encodedBody = encode(elements, 0, elements.length);
+		// PUBLISH body as given to the broker of the JMS and AMQP transports
+		GENPublishBody body = new GENPublishBody(encodedBody, createContext(), factory);
+
+		Assert.assertEquals(elements[0], body.getUpdateHeaderList());
+		List[] updateLists = body.getUpdateLists();
+		Assert.assertEquals(1, updateLists.length);
+		Assert.assertEquals(elements[1], updateLists[0]);
+		Assert.assertTrue(body.isEncoded());
+		Assert.assertSame(encodedBody, body.getEncodedBody().getEncodedBody().getValue());
+	}
+
+	@Test
+	public void testEncodedBodyWithoutContext() throws Exception {
+		byte[] encodedBody = encode(createPublishBody(), 0, 2);
+		List bodyElements = new ArrayList();
+		bodyElements.add(new MALEncodedBody(new Blob(encodedBody)));
+		GENPublishBody body = new GENPublishBody(bodyElements);
+
+		// The body can only be sent as is
+		Assert.assertTrue(body.isEncoded());
+		try {
+			body.getUpdateHeaderList();
+			Assert.fail("Decoded without encoding context");
+		} catch (MALException exc) {
+		}
+	}
+
+	@Test
+	public void testNoWarningPerMessage() throws Exception {
+		final List<String> warnings = new ArrayList<String>();
+		Handler handler = new Handler() {
+			public void publish(LogRecord record) {
+				if (record.getLevel().intValue() >= Level.WARNING.intValue()) warnings.add(record.getMessage());
+			}
+			public void flush() {}
+			public void close() {}
+		};
+		Logger[] loggers = {
+				Logger.getLogger(BinaryElementOutputStream.class.getName()),
+				Logger.getLogger(BinaryElementInputStream.class.getName()) };
+		for (Logger logger : loggers) logger.addHandler(handler);
+		try {
+			Element[] elements = createPublishBody();
+			byte[] encodedBody = encode(elements, 0, elements.length);
+			Assert.assertEquals(elements[0], new GENPublishBody(encodedBody, createContext(), factory).getUpdateHeaderList());
+		} finally {
+			for (Logger logger : loggers) logger.removeHandler(handler);
+		}
+		// Encoding and decoding a valid message is not worth a warning
+		Assert.assertTrue(warnings.toString(), warnings.isEmpty());
+	}
+}
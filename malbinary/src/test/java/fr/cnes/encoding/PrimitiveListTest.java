@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.ccsds.moims.mo.mal.MALDecoder;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.LongList;
+import org.junit.Test;
+
+import fr.cnes.encoding.base.JavaDurationDecoder;
+import fr.cnes.encoding.base.JavaDurationEncoder;
+import fr.cnes.encoding.base.JavaTimeDecoder;
+import fr.cnes.encoding.base.JavaTimeEncoder;
+import fr.cnes.encoding.binary.BinaryDecoder;
+import fr.cnes.encoding.binary.BinaryEncoder;
+import fr.cnes.encoding.binary.BufferDecoder;
+import fr.cnes.encoding.binary.BufferReader;
+import fr.cnes.encoding.splitbinary.SplitBinaryEncoder;
+import junit.framework.Assert;
+
+/**
+ * Checks that the LongList and DoubleList encoded and decoded by the binary
+ * encoder and decoder match the generic list encoding.
+ */
+public class PrimitiveListTest {
+	final static JavaTimeEncoder TIME_ENCODER = new JavaTimeEncoder();
+	final static JavaDurationEncoder DURATION_ENCODER = new JavaDurationEncoder();
+	final static JavaTimeDecoder TIME_DECODER = new JavaTimeDecoder();
+	final static JavaDurationDecoder DURATION_DECODER = new JavaDurationDecoder();
+
+	static LongList createLongList() {
+		LongList list = new LongList();
+		long[] values = { 0, 1, -1, 63, -64, 64, 1L << 40, Long.MAX_VALUE, Long.MIN_VALUE };
+		for (int i = 0; i < values.length; i++) {
+			list.add(new Long(values[i]));
+			if (i % 3 == 0) list.add(null);
+		}
+		return list;
+	}
+
+	static DoubleList createDoubleList() {
+		DoubleList list = new DoubleList();
+		double[] values = { 0.0, -0.0, 1.5, -3.25e100, Double.MIN_VALUE, Double.MAX_VALUE,
+				Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < values.length; i++) {
+			list.add(new Double(values[i]));
+			if (i % 3 == 1) list.add(null);
+		}
+		return list;
+	}
+
+	/**
+	 * Encodes the element with the binary encoder.
+	 *
+	 * @param generic	true to call the encode method of the element instead
+	 * 	of the encoder.
+	 */
+	static byte[] encode(Element element, boolean varint, boolean generic) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		BinaryEncoder encoder = new BinaryEncoder(baos, false, TIME_ENCODER, TIME_ENCODER, DURATION_ENCODER);
+		encoder.setVarintSupported(varint);
+		if (generic) {
+			element.encode(encoder);
+		} else {
+			encoder.encodeElement(element);
+		}
+		encoder.flush();
+		return baos.toByteArray();
+	}
+
+	static MALDecoder createDecoder(byte[] data, boolean varint) {
+		BufferDecoder decoder = new BufferDecoder(new BufferReader(data));
+		decoder.setVarintSupported(varint);
+		return new BinaryDecoder(decoder, false, TIME_DECODER, TIME_DECODER, DURATION_DECODER);
+	}
+
+	private void check(Element list, boolean varint) throws Exception {
+		byte[] data = encode(list, varint, false);
+		Assert.assertTrue(Arrays.equals(encode(list, varint, true), data));
+
+		Element decoded = createDecoder(data, varint).decodeElement(list.createElement());
+		Assert.assertEquals(list, decoded);
+		Assert.assertEquals(list, list.createElement().decode(createDecoder(data, varint)));
+	}
+
+	@Test
+	public void testLongList() throws Exception {
+		check(createLongList(), true);
+		check(createLongList(), false);
+		check(new LongList(), true);
+	}
+
+	@Test
+	public void testDoubleList() throws Exception {
+		check(createDoubleList(), true);
+		check(createDoubleList(), false);
+		check(new DoubleList(), false);
+	}
+
+	@Test
+	public void testSplitBinary() throws Exception {
+		Element[] lists = { createLongList(), createDoubleList() };
+		for (Element list : lists) {
+			// The null flags are gathered in the bitfield of the message
+			ByteArrayOutputStream generic = new ByteArrayOutputStream();
+			SplitBinaryEncoder encoder = new SplitBinaryEncoder(generic, false, TIME_ENCODER, TIME_ENCODER, DURATION_ENCODER);
+			list.encode(encoder);
+			encoder.close();
+
+			ByteArrayOutputStream fast = new ByteArrayOutputStream();
+			encoder = new SplitBinaryEncoder(fast, false, TIME_ENCODER, TIME_ENCODER, DURATION_ENCODER);
+			encoder.encodeElement(list);
+			encoder.close();
+
+			Assert.assertTrue(Arrays.equals(generic.toByteArray(), fast.toByteArray()));
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package fr.cnes.encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import junit.framework.Assert;
+
+/**
+ * Checks that the updates of a PUBLISH message encoded separately by the
+ * split binary encoding, each one with its own bitfield, are decoded back.
+ */
+public class SplitBinaryEncodedUpdateTest {
+	final static String PROTOCOL = "splitbinaryupdate";
+
+	static MALPubSubOperation op;
+	static MALElementStreamFactory factory;
+
+	@BeforeClass
+	public static void init() throws Exception {
+		MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+		op = new MALPubSubOperation(new UShort(1), new Identifier("monitor"),
+				Boolean.FALSE, new UShort(1),
+				new Object[] { EntityKeyList.SHORT_FORM }, new Object[0]);
+		MALService service = new MALService(new UShort(1), new Identifier("SplitBinaryUpdateService"));
+		service.addOperation(op);
+		MALArea area = new MALArea(new UShort(212), new Identifier("SplitBinaryUpdateArea"),
+				new UOctet((short) 1));
+		area.addService(service);
+		MALContextFactory.registerArea(area);
+
+		System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+				"fr.cnes.encoding.splitbinary.SplitBinaryElementStreamFactory");
+		// The updates are encoded separately by default
+		factory = MALElementStreamFactory.newFactory(PROTOCOL, new HashMap());
+	}
+
+	static MALEncodingContext createContext() {
+		MALMessageHeader header = (MALMessageHeader) Proxy.newProxyInstance(
+				MALMessageHeader.class.getClassLoader(),
+				new Class[] { MALMessageHeader.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getIsErrorMessage")) return Boolean.FALSE;
+						if (name.equals("getInteractionType")) return InteractionType.PUBSUB;
+						if (name.equals("getInteractionStage")) return MALPubSubOperation.PUBLISH_STAGE;
+						if (name.equals("toString")) return "PUBLISH header";
+						return null;
+					}
+				});
+		return new MALEncodingContext(header, op, 0, new HashMap(), new HashMap());
+	}
+
+	static Element[] createPublishBody() {
+		UpdateHeaderList updateHeaders = new UpdateHeaderList();
+		EntityKeyList updates = new EntityKeyList();
+		for (int i = 0; i < 3; i++) {
+			updateHeaders.add(new UpdateHeader(new Time(1000L * i), new URI("malsplitbinary://provider"),
+					UpdateType.UPDATE, new EntityKey(new Identifier("param" + i), 0L, 0L, 0L)));
+			// Nullable fields, so the presence flags of each update are in its bitfield
+			updates.add(new EntityKey(new Identifier("key" + i), (i == 1) ? null : new Long(i),
+					new Long(10L * i), (i == 2) ? null : new Long(100L * i)));
+		}
+		updates.add(null);
+		return new Element[] { updateHeaders, updates };
+	}
+
+	static byte[] encode(Element[] elements) throws Exception {
+		MALEncodingContext ctx = createContext();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		MALElementOutputStream meos = factory.createOutputStream(baos);
+		for (int i = 0; i < elements.length; i++) {
+			ctx.setBodyElementIndex(i);
+			meos.writeElement(elements[i], ctx);
+		}
+		meos.flush();
+		meos.close();
+		return baos.toByteArray();
+	}
+
+	static void checkDecoded(Element[] elements, MALElementInputStream meis) throws Exception {
+		MALEncodingContext ctx = createContext();
+		ctx.setBodyElementIndex(0);
+		Assert.assertEquals(elements[0], meis.readElement(new UpdateHeaderList(), ctx));
+		ctx.setBodyElementIndex(1);
+		Assert.assertEquals(elements[1], meis.readElement(new EntityKeyList(), ctx));
+		meis.close();
+	}
+
+	@Test
+	public void testEncodedUpdatesFromBytes() throws Exception {
+		Element[] elements = createPublishBody();
+		byte[] bytes = encode(elements);
+		checkDecoded(elements, factory.createInputStream(bytes, 0));
+	}
+
+	@Test
+	public void testEncodedUpdatesFromStream() throws Exception {
+		Element[] elements = createPublishBody();
+		byte[] bytes = encode(elements);
+		checkDecoded(elements, factory.createInputStream(new ByteArrayInputStream(bytes)));
+	}
+}
@@ -24,14 +24,18 @@
 package fr.cnes.ccsds.mo.transport.gen.body;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALOperationStage;
 import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
 import org.ccsds.moims.mo.mal.transport.MALMessageBody;
@@ -51,6 +55,14 @@ public class GENMessageBody implements MALMessageBody {
 
 	private MALElementInputStream meis;
 
+	private BodyInputStream bodyInputStream;
+
+	/**
+	 * End offsets of the decoded elements in the encoded body, null if the
+	 * elements cannot be delimited in the encoded body.
+	 */
+	private int[] elementEnds;
+
 	/**
 	 * Constructor.
 	 */
@@ -88,13 +100,23 @@ public class GENMessageBody implements MALMessageBody {
 
 	private MALElementInputStream getElementInputStream() throws MALException {
 		if (meis == null) {
-			ByteArrayInputStream bais = new ByteArrayInputStream(encodedBody);
-			meis = elementStreamFactory.createInputStream(bais);
+			bodyInputStream = new BodyInputStream(encodedBody);
+			meis = elementStreamFactory.createInputStream(bodyInputStream);
+			// An encoding reading a part of the body before the first element,
+			// e.g. the split binary bit field, shares it between the elements:
+			// they cannot be delimited.
+			if (bodyInputStream.getPosition() == 0) {
+				elementEnds = new int[getElementCount()];
+			}
 		}
 		return meis;
 	}
 
 	public Object getBodyElement(int index, Object element) throws MALException {
+		if ((encodedBody == null) && isEncoded()) {
+			// A body created with a MALEncodedBody has no encoding context
+			throw new MALException("Encoded body without decoding context");
+		}
 		if (elements.size() < index + 1) {
 			int i = elements.size();
 			MALElementInputStream meis = getElementInputStream();
@@ -102,17 +124,97 @@ public class GENMessageBody implements MALMessageBody {
 				msgCtx.setBodyElementIndex(i);
 				Object bodyElement = meis.readElement(element, msgCtx);
 				elements.add(bodyElement);
+				if ((elementEnds != null) && (i < elementEnds.length)) {
+					elementEnds[i] = bodyInputStream.getPosition();
+				}
 				i++;
 			}
 		}
 		return elements.get(index); 
 	}
 
+	/**
+	 * Returns an element of the body in its encoded form, -1 returns the
+	 * complete body. For a received body the element is delimited while it is
+	 * decoded, and returned as a slice of the encoded body without copy. This
+	 * relies on the decoder reading exactly the bytes of each element, as the
+	 * binary decoder does. Otherwise the element is encoded again.
+	 */
 	public MALEncodedElement getEncodedBodyElement(int index) throws MALException {
-		throw new MALException("Not available");
+		if (index == -1) {
+			return new MALEncodedElement(getEncodedBody().getEncodedBody());
+		}
+
+		Object element = getBodyElement(index, null);
+		if (element instanceof MALEncodedElement) {
+			return (MALEncodedElement) element;
+		}
+		if ((elementEnds != null) && (index < elementEnds.length)) {
+			int start = (index == 0) ? 0 : elementEnds[index - 1];
+			return new MALEncodedElement(new Blob(encodedBody, start, elementEnds[index] - start));
+		}
+		if (elementStreamFactory == null) {
+			throw new MALException("Not available");
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		MALElementOutputStream meos = elementStreamFactory.createOutputStream(baos);
+		msgCtx.setBodyElementIndex(index);
+		meos.writeElement((Element) element, msgCtx);
+		meos.flush();
+		meos.close();
+		return new MALEncodedElement(new Blob(baos.toByteArray()));
 	}
 
+	/**
+	 * Returns the encoded body: either the body of a received message, without
+	 * copy, or the encoded body this body has been created with.
+	 */
 	public MALEncodedBody getEncodedBody() throws MALException {
-		throw new MALException("Not yet implemented");
+		if (encodedBody != null) {
+			return new MALEncodedBody(new Blob(encodedBody));
+		}
+		if ((elements.size() == 1) && (elements.get(0) instanceof MALEncodedBody)) {
+			return (MALEncodedBody) elements.get(0);
+		}
+		throw new MALException("Not available");
+	}
+
+	/**
+	 * Returns true if the body is available in its encoded form, so that it
+	 * can be sent as is.
+	 */
+	public boolean isEncoded() {
+		return (encodedBody != null) ||
+				((elements.size() == 1) && (elements.get(0) instanceof MALEncodedBody));
+	}
+
+	/**
+	 * Returns the bytes of an encoded body, copied only if the blob is a part
+	 * of its byte array.
+	 */
+	public static byte[] getBytes(MALEncodedBody encodedBody) throws MALException {
+		Blob blob = encodedBody.getEncodedBody();
+		byte[] bytes = blob.getValue();
+		if (! blob.isURLBased() &&
+				((blob.getOffset() != 0) || (blob.getLength() != bytes.length))) {
+			byte[] buf = new byte[blob.getLength()];
+			System.arraycopy(bytes, blob.getOffset(), buf, 0, buf.length);
+			bytes = buf;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Input stream giving the position of the decoder in the encoded body.
+	 */
+	private static class BodyInputStream extends ByteArrayInputStream {
+
+		BodyInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		int getPosition() {
+			return pos;
+		}
 	}
 }
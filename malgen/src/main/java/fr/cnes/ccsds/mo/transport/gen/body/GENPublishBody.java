@@ -31,6 +31,7 @@ import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
 import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 /**
@@ -59,11 +60,16 @@ public class GENPublishBody extends GENMessageBody implements MALPublishBody {
 		return (UpdateHeaderList) getBodyElement(0, new UpdateHeaderList());
 	}
 
+	/**
+	 * Returns the decoded update lists. The encoded element lists given by the
+	 * broker to keep the updates encoded are ignored: the GEN transports always
+	 * decode the updates.
+	 */
 	public List[] getUpdateLists(List... updateLists) throws MALException {
 		List[] res = new List[getElementCount() - 1];
 		for (int i = 0; i < res.length; i++) {
 			List toDecode;
-			if (updateLists.length > i) {
+			if ((updateLists.length > i) && ! (updateLists[i] instanceof MALEncodedElementList)) {
 				toDecode = updateLists[i];
 			} else {
 				toDecode = null;
@@ -94,6 +94,9 @@ public abstract class BindingManager<B extends Binding> {
       for (int i = 0; i < threadPoolSize; i++) {
         taskExecutors.add(new BindingTaskExecutor());
       }
+    } else if (malContext.isVirtualExec()) {
+      threadPool = new VirtualThreadPool(name, threadPoolSize);
+      threadPool.start();
     } else {
       threadPool = new ThreadPool(name, threadPoolSize);
       threadPool.start();
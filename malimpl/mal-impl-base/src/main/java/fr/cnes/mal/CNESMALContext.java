@@ -73,6 +73,12 @@ public class CNESMALContext implements MALContext, CNESMALContextMBean {
   
   public static final String POLL_EXEC = "fr.cnes.mal.poll.exec";
   
+  /**
+   * If true the delivery tasks are executed on virtual threads (Java 21),
+   * this mode takes precedence over the poll execution mode.
+   */
+  public static final String VIRTUAL_EXEC = "fr.cnes.mal.virtual.exec";
+  
   private Vector<CNESMALConsumerManager> consumerManagers;
   
   private Vector<CNESMALProviderManager> providerManagers;
@@ -103,6 +109,8 @@ public class CNESMALContext implements MALContext, CNESMALContextMBean {
   
   private boolean pollExec;
   
+  private boolean virtualExec;
+  
   public CNESMALContext() {
     consumerManagers = new Vector<CNESMALConsumerManager>();
     providerManagers = new Vector<CNESMALProviderManager>();
@@ -135,6 +143,10 @@ public class CNESMALContext implements MALContext, CNESMALContextMBean {
     return pollExec;
   }
 
+  public boolean isVirtualExec() {
+    return virtualExec;
+  }
+
   public void init(Map properties) throws MALException {
     this.properties = properties;
     String defaultThreadPoolSizeS = 
@@ -156,6 +168,12 @@ public class CNESMALContext implements MALContext, CNESMALContextMBean {
       pollExec = true;
     }
     
+    String virtualExecS = (String) properties.get(VIRTUAL_EXEC);
+    if (virtualExecS != null) {
+      virtualExec = Boolean.parseBoolean(virtualExecS);
+      if (virtualExec) pollExec = false;
+    }
+    
     String interactionTimeoutS = (String) properties.get(INTERACTION_TIMEOUT);
     if (interactionTimeoutS != null) {
       interactionTimeout = Integer.parseInt(interactionTimeoutS);
@@ -175,7 +193,9 @@ public class CNESMALContext implements MALContext, CNESMALContextMBean {
       logger.log(BasicLevel.DEBUG, "securityManager class: " + accessControl.getClass().getName());
     
     if (interactionTimeout > 0) {
-      timer.schedule(interactionWatchDog, interactionTimeout, interactionTimeout);
+      // The watchdog runs at each tick of the interaction timer wheels
+      long period = Math.max(1, interactionTimeout / InteractionTimerWheel.TICKS_PER_TIMEOUT);
+      timer.schedule(interactionWatchDog, period, period);
     }
     
     try {
@@ -64,7 +64,8 @@ public abstract class Interaction {
   
   private MALMessage msg;
   
-  private long timestamp;
+  // Read by the watchdog thread
+  private volatile long timestamp;
   
   public Interaction(MALOperation operation, MALMessageHeader initiationHeader) {
     this.operation = operation;
@@ -23,10 +23,11 @@
   *******************************************************************************/
 package fr.cnes.mal;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
-import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.ccsds.moims.mo.mal.MALException;
@@ -44,6 +45,15 @@ import fr.cnes.mal.consumer.AsyncProgressInteraction;
 import fr.cnes.mal.consumer.AsyncRequestInteraction;
 import fr.cnes.mal.consumer.AsyncSubmitInteraction;
 
+/**
+ * Table of the running interactions of a consumer.
+ * 
+ * The table is a concurrent map so that the threads initiating interactions
+ * and the threads delivering the responses do not contend on a common lock,
+ * the messages of an interaction are serialized by the interaction itself.
+ * The inactive interactions are detected by a timer wheel created by the
+ * first activity check.
+ */
 public class InteractionManager {
   public final static Logger logger = fr.dyade.aaa.common.Debug
     .getLogger(InteractionManager.class.getName());
@@ -51,16 +61,22 @@ public class InteractionManager {
 //  private volatile long transIdCounter;
   private static AtomicLong counter = new AtomicLong();
   
-  private Hashtable<Long, Interaction> interactions;
+  private ConcurrentHashMap<Long, Interaction> interactions;
   
   private volatile boolean closed;
   
+  /**
+   * Timer wheel checking the activity of the interactions, only created if
+   * an inactivity timeout is defined.
+   */
+  private volatile InteractionTimerWheel timerWheel;
+  
   public InteractionManager() {
 //    transIdCounter = 0;
-    interactions = new Hashtable<Long, Interaction>();
+    interactions = new ConcurrentHashMap<Long, Interaction>();
   }
   
-  public synchronized Long getTransactionId() throws MALException {
+  public Long getTransactionId() throws MALException {
     if (closed)
       throwClosedError();
 //    Long tid = new Long(transIdCounter++);
@@ -68,13 +84,26 @@ public class InteractionManager {
     return tid;
   }
   
-  public synchronized Long putInteraction(Long tid, Interaction interact) throws MALException {
+  public Long putInteraction(Long tid, Interaction interact) throws MALException {
+    if (closed) throwClosedError();
     interactions.put(tid, interact);
+    if (closed) {
+      // Closed concurrently, the interaction may have been missed by close()
+      if (interactions.remove(tid, interact)) closeInteraction(interact);
+      throwClosedError();
+    }
+    InteractionTimerWheel wheel = timerWheel;
+    if (wheel != null) wheel.add(interact);
     return tid;
   }
   
-  public synchronized void removeInteraction(Long tid) {
+  public void removeInteraction(Long tid) {
     Interaction interact = interactions.remove(tid);
+    if (interact == null) return;
+    closeInteraction(interact);
+  }
+  
+  private void closeInteraction(Interaction interact) {
     try {
       interact.close();
     } catch (MALException e) {
@@ -89,32 +118,29 @@ public class InteractionManager {
       logger.log(BasicLevel.DEBUG, "InteractionManager.signalResponse(" +
           op + ',' + response + ')');
     Long tid = response.getHeader().getTransactionId();
-    Interaction interact;
-    synchronized (this) {
-      if (closed) throwClosedError();
-      interact = (Interaction) interactions.get(tid);
-      if (interact == null) {
-        // Assume that this interaction has been closed or 
-        // has never existed (error).
-        // If the interaction needs to be recovered then the 
-        // consumer has to start the message 
-        // delivery in an explicit way (using MALEndpoint)
-        // after having called 'continueInteraction'
-        
-        // Ignore the message
-        //throwClosedError();
-        if (logger.isLoggable(BasicLevel.WARN))
-          logger.log(BasicLevel.WARN,
-              "Interaction not found: " + response.getHeader());
-        return true;
-      }
+    if (closed) throwClosedError();
+    Interaction interact = interactions.get(tid);
+    if (interact == null) {
+      // Assume that this interaction has been closed or 
+      // has never existed (error).
+      // If the interaction needs to be recovered then the 
+      // consumer has to start the message 
+      // delivery in an explicit way (using MALEndpoint)
+      // after having called 'continueInteraction'
+      
+      // Ignore the message
+      //throwClosedError();
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN,
+            "Interaction not found: " + response.getHeader());
+      return true;
     }
     
     interact.onMessage(op, response);
     if (interact.isCompleted()) {
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "Interaction " + tid + " is completed");
-      interactions.remove(tid);
+      interactions.remove(tid, interact);
       return true;
     } else {
       return false;
@@ -125,23 +151,17 @@ public class InteractionManager {
     throw CNESMALContext.createException("Closed");
   }
   
-  public synchronized void close() {
+  public void close() {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "InteractionManager.close()");
     if (! closed) {
       closed = true;
-      Enumeration enumer = interactions.elements();
-      while (enumer.hasMoreElements()) {
-        Interaction interact = (Interaction) enumer.nextElement();
-        try {
-          interact.close();
-        } catch (MALException e) {
-          if (logger.isLoggable(BasicLevel.DEBUG))
-            logger.log(BasicLevel.DEBUG, "", e);
-          // continue
-        }
+      Iterator<Interaction> iterator = interactions.values().iterator();
+      while (iterator.hasNext()) {
+        Interaction interact = iterator.next();
+        iterator.remove();
+        closeInteraction(interact);
       }
-      interactions.clear();
     }
   }
   
@@ -173,46 +193,61 @@ public class InteractionManager {
       UOctet lastInteractionStage,
       MALInteractionListener listener) throws MALException {
     Long tid = initHeader.getTransactionId();
+    if (closed) throwClosedError();
     Interaction interact;
-    synchronized (this) {
-      if (closed) throwClosedError();
-      interact = (Interaction) interactions.get(tid);
-      if (interact != null) {
-        throw new MALException("Already running interaction: " + tid);
-      }
-      switch (initHeader.getInteractionType().getOrdinal()) {
-      case InteractionType._SUBMIT_INDEX:
-        interact = new AsyncSubmitInteraction(op, initHeader, listener);
-        interactions.put(tid, interact);
-        break;
-      case InteractionType._REQUEST_INDEX:
-        interact = new AsyncRequestInteraction(op, initHeader, listener);
-        interactions.put(tid, interact);
-        break;
-      case InteractionType._INVOKE_INDEX:
-        interact = new AsyncInvokeInteraction(op, initHeader, listener);
-        interactions.put(tid, interact);
-        break;
-      case InteractionType._PROGRESS_INDEX:
-        interact = new AsyncProgressInteraction(op, initHeader, listener);
-        interactions.put(tid, interact);
-        break;
-      default:
-        throw CNESMALContext.createException("Unknown transaction " + tid);
-      }
-      interact.setStage(lastInteractionStage);
+    switch (initHeader.getInteractionType().getOrdinal()) {
+    case InteractionType._SUBMIT_INDEX:
+      interact = new AsyncSubmitInteraction(op, initHeader, listener);
+      break;
+    case InteractionType._REQUEST_INDEX:
+      interact = new AsyncRequestInteraction(op, initHeader, listener);
+      break;
+    case InteractionType._INVOKE_INDEX:
+      interact = new AsyncInvokeInteraction(op, initHeader, listener);
+      break;
+    case InteractionType._PROGRESS_INDEX:
+      interact = new AsyncProgressInteraction(op, initHeader, listener);
+      break;
+    default:
+      throw CNESMALContext.createException("Unknown transaction " + tid);
     }
+    // The stage is set before the interaction is visible to the delivery
+    interact.setStage(lastInteractionStage);
+    if (interactions.putIfAbsent(tid, interact) != null) {
+      throw new MALException("Already running interaction: " + tid);
+    }
+    InteractionTimerWheel wheel = timerWheel;
+    if (wheel != null) wheel.add(interact);
   }
   
+  /**
+   * Closes the interactions inactive for more than the timeout. This method
+   * is periodically called by a single thread, the first call creates the
+   * timer wheel and the following ones only visit the interactions
+   * reaching their deadline.
+   * 
+   * @param currentTime the current time in milliseconds
+   * @param timeout the inactivity timeout in milliseconds
+   */
   public void checkInteractionActivity(long currentTime, int timeout) {
-    Enumeration enumer = interactions.elements();
-    while (enumer.hasMoreElements()) {
-      Interaction interact = (Interaction) enumer.nextElement();
-      if (interact != null &&
-          (currentTime - interact.getTimestamp() > timeout)) {
+    InteractionTimerWheel wheel = timerWheel;
+    if (wheel == null || wheel.getTimeout() != timeout) {
+      wheel = new InteractionTimerWheel(timeout, currentTime);
+      timerWheel = wheel;
+      // Schedules the interactions started before the wheel, an interaction
+      // added concurrently may be scheduled twice which is harmless.
+      for (Interaction interact : interactions.values()) {
+        wheel.add(interact);
+      }
+    }
+    
+    List<Interaction> expired = new ArrayList<Interaction>();
+    wheel.expire(currentTime, expired);
+    for (Interaction interact : expired) {
+      if (interactions.remove(interact.getTransactionId(), interact)) {
         if (logger.isLoggable(BasicLevel.WARN))
           logger.log(BasicLevel.WARN, "Interaction timeout:" + interact.getInitiationHeader());
-        removeInteraction(interact.getTransactionId());
+        closeInteraction(interact);
       }
     }
   }
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timer wheel detecting the inactive interactions of an
+ * InteractionManager.
+ * 
+ * The wheel is divided in slots of one tick, an interaction is put in the
+ * slot of the tick at which it times out if no message is received. At each
+ * check only the slots of the elapsed ticks are visited: a completed
+ * interaction is dropped, an interaction that received a message since it
+ * was scheduled is moved to the slot of its new deadline, the other ones are
+ * expired. So the cost of a check is proportional to the number of
+ * interactions reaching their deadline rather than to the number of running
+ * interactions.
+ * 
+ * The interactions are added by any thread through a lock-free queue, the
+ * wheel itself is only handled by the thread calling expire.
+ */
+class InteractionTimerWheel {
+  
+  /**
+   * Number of ticks of a timeout, gives the resolution of the timeout.
+   */
+  static final int TICKS_PER_TIMEOUT = 8;
+  
+  private static final int SLOT_COUNT = 64;
+  
+  /**
+   * Scheduled interaction, the tick is needed to detect the interactions
+   * scheduled after one or more rotations of the wheel.
+   */
+  static final class Entry {
+    final Interaction interaction;
+    final long tick;
+    
+    Entry(Interaction interaction, long tick) {
+      this.interaction = interaction;
+      this.tick = tick;
+    }
+  }
+  
+  private int timeout;
+  
+  private long tickDuration;
+  
+  private ArrayList<Entry>[] slots;
+  
+  /**
+   * Last processed tick.
+   */
+  private long currentTick;
+  
+  private ConcurrentLinkedQueue<Interaction> added;
+  
+  @SuppressWarnings("unchecked")
+  InteractionTimerWheel(int timeout, long currentTime) {
+    this.timeout = timeout;
+    tickDuration = Math.max(1, timeout / TICKS_PER_TIMEOUT);
+    slots = new ArrayList[SLOT_COUNT];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new ArrayList<Entry>();
+    }
+    currentTick = currentTime / tickDuration;
+    added = new ConcurrentLinkedQueue<Interaction>();
+  }
+  
+  int getTimeout() {
+    return timeout;
+  }
+  
+  /**
+   * Returns the duration of a tick in milliseconds.
+   */
+  long getTickDuration() {
+    return tickDuration;
+  }
+  
+  /**
+   * Adds an interaction, it is scheduled by the next call to expire.
+   * 
+   * @param interaction the running interaction
+   */
+  void add(Interaction interaction) {
+    added.offer(interaction);
+  }
+  
+  private void schedule(Interaction interaction) {
+    long deadline = interaction.getTimestamp() + timeout;
+    // The interaction expires once the deadline is exceeded, at the next
+    // tick at the latest.
+    long tick = Math.max(deadline / tickDuration + 1, currentTick + 1);
+    slots[(int) (tick % SLOT_COUNT)].add(new Entry(interaction, tick));
+  }
+  
+  /**
+   * Processes the slots of the ticks elapsed since the last call.
+   * 
+   * @param currentTime the current time in milliseconds
+   * @param expired list filled with the interactions inactive for more than
+   * the timeout
+   */
+  void expire(long currentTime, List<Interaction> expired) {
+    Interaction interaction;
+    while ((interaction = added.poll()) != null) {
+      schedule(interaction);
+    }
+    
+    long now = currentTime / tickDuration;
+    // No need to visit a slot more than once
+    long tick = Math.max(currentTick + 1, now - SLOT_COUNT + 1);
+    currentTick = now;
+    for (; tick <= now; tick++) {
+      int index = (int) (tick % SLOT_COUNT);
+      ArrayList<Entry> slot = slots[index];
+      if (slot.isEmpty()) continue;
+      slots[index] = new ArrayList<Entry>();
+      Iterator<Entry> entries = slot.iterator();
+      while (entries.hasNext()) {
+        Entry entry = entries.next();
+        if (entry.interaction.isCompleted()) continue;
+        if (entry.tick > now) {
+          // Scheduled for a later rotation
+          slots[index].add(entry);
+        } else if (currentTime - entry.interaction.getTimestamp() > timeout) {
+          expired.add(entry.interaction);
+        } else {
+          schedule(entry.interaction);
+        }
+      }
+    }
+  }
+  
+}
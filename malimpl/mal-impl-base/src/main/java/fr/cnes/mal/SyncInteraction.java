@@ -23,6 +23,9 @@
   *******************************************************************************/
 package fr.cnes.mal;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.MALOperation;
@@ -39,7 +42,11 @@ public abstract class SyncInteraction extends Interaction {
   public final static Logger logger = fr.dyade.aaa.common.Debug
     .getLogger(SyncInteraction.class.getName());
 
-  private Object lock;
+  // A j.u.c. lock rather than a monitor so that a waiting virtual thread
+  // does not pin its carrier thread.
+  private ReentrantLock lock;
+  
+  private Condition received;
   
   private MALMessageBody result;
   
@@ -47,17 +54,21 @@ public abstract class SyncInteraction extends Interaction {
   
   public SyncInteraction(MALOperation operation, MALMessageHeader header) {
     super(operation, header);
-    this.lock = new Object();
+    this.lock = new ReentrantLock();
+    this.received = lock.newCondition();
     resultReceived = false;
   }
   
   public void notifyInitiator(MALMessageBody body) {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "SyncInteraction.notifyInitiator(" + body + ')');
-    synchronized (lock) {
+    lock.lock();
+    try {
       result = body;
       resultReceived = true;
-      lock.notify();
+      received.signal();
+    } finally {
+      lock.unlock();
     }
   }
   
@@ -68,16 +79,19 @@ public abstract class SyncInteraction extends Interaction {
   public MALMessageBody waitForResponse() throws MALInteractionException, MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "SyncInteraction.waitForResponse(" + result + ')');
-    synchronized (lock) {
+    lock.lock();
+    try {
       while (!resultReceived) {
         try {
-          lock.wait();
+          received.await();
         } catch (InterruptedException exc) {
           if (logger.isLoggable(BasicLevel.DEBUG))
             logger.log(BasicLevel.DEBUG, "SyncInteraction.waitForResponse()", exc);
           return null;
         }
       }
+    } finally {
+      lock.unlock();
     }
 
     if (result instanceof MALErrorBody) {
@@ -29,6 +29,22 @@ import org.ccsds.moims.mo.mal.transport.MALMessage;
 
 public interface Task {
   
+  /**
+   * Scheduling key of the tasks that may be executed at any time,
+   * concurrently with any other task.
+   */
+  Object CONCURRENT = new Object();
+  
+  /**
+   * Returns the key used to order the execution of this task: the tasks
+   * having the same key are executed one at a time, in their submission
+   * order, and runnable() is not checked. If the key is null the task is
+   * executed as soon as runnable() returns true.
+   * 
+   * @return the scheduling key, CONCURRENT or null.
+   */
+  Object getSchedulingKey();
+  
   boolean runnable();
   
   MALMessage getMessage();
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+/**
+ * Scheduling key of a task identified by its binding and an identifier
+ * local to this binding (e.g. a transaction id).
+ */
+public final class TaskKey {
+  
+  private final Object owner;
+  
+  private final Object id;
+
+  public TaskKey(Object owner, Object id) {
+    this.owner = owner;
+    this.id = id;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * System.identityHashCode(owner) + id.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (! (obj instanceof TaskKey)) return false;
+    TaskKey other = (TaskKey) obj;
+    return (owner == other.owner) && id.equals(other.id);
+  }
+
+  @Override
+  public String toString() {
+    return "TaskKey(" + owner + ',' + id + ')';
+  }
+}
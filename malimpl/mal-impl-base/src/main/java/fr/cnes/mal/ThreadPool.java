@@ -24,14 +24,28 @@
 package fr.cnes.mal;
 
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.objectweb.util.monolog.api.BasicLevel;
 import org.objectweb.util.monolog.api.Logger;
 
 import fr.dyade.aaa.common.Daemon;
 
+/**
+ * Pool of threads executing the tasks of a binding manager.
+ * 
+ * The tasks having the same scheduling key are kept in a FIFO sub-queue, a
+ * sub-queue is put in the ready queue when it has a task to execute and no
+ * task running, so picking the next task does not scan the pending tasks.
+ * The tasks without key are checked with runnable() and put aside until
+ * another task completes if they cannot be executed, they are then executed
+ * before the tasks pushed since, in their original order.
+ */
 public class ThreadPool {
   
   public final static Logger logger = 
@@ -39,7 +53,45 @@ public class ThreadPool {
   
   private String poolName;
   
-  private Vector<Task> taskQueue;
+  /**
+   * Sub-queues of the tasks having a scheduling key, a sub-queue is
+   * registered while it has tasks to execute or running.
+   */
+  private ConcurrentHashMap<Object, TaskQueue> keyQueues;
+  
+  /**
+   * Sub-queues having a task ready to be executed.
+   */
+  private ConcurrentLinkedQueue<TaskQueue> readyQueue;
+  
+  /**
+   * Sub-queues of the blocked tasks pushed again, they are picked before the
+   * ones of the ready queue.
+   */
+  private ConcurrentLinkedQueue<TaskQueue> retryQueue;
+  
+  /**
+   * Number of sub-queues in the ready and retry queues, the workers wait on it.
+   */
+  private Semaphore readyCount;
+  
+  /**
+   * Tasks without key that were not runnable, guarded by itself. They are
+   * not counted as waiting tasks until they are pushed again.
+   */
+  private LinkedList<Task> blockedTasks;
+  
+  /**
+   * Number of tasks without key being checked or blocked. It is incremented
+   * before runnable() is called so a completing task only takes the lock of
+   * the blocked tasks if one of them may be waiting for it.
+   */
+  private AtomicInteger blockedCount;
+  
+  /**
+   * Number of tasks waiting to be executed.
+   */
+  private AtomicInteger taskCount;
   
   private List<Worker> workers;
   
@@ -47,13 +99,23 @@ public class ThreadPool {
 
   public ThreadPool(String poolName, int size) {
     this.poolName = poolName;
-    taskQueue = new Vector<Task>();
+    keyQueues = new ConcurrentHashMap<Object, TaskQueue>();
+    readyQueue = new ConcurrentLinkedQueue<TaskQueue>();
+    retryQueue = new ConcurrentLinkedQueue<TaskQueue>();
+    readyCount = new Semaphore(0);
+    blockedTasks = new LinkedList<Task>();
+    blockedCount = new AtomicInteger();
+    taskCount = new AtomicInteger();
     workers = new ArrayList<ThreadPool.Worker>(size);
     for (int i = 0; i < size; i++) {
       workers.add(new Worker(i));
     }
   }
 
+  protected String getPoolName() {
+    return poolName;
+  }
+
   public synchronized void start() {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "ThreadPool.start()");
@@ -101,9 +163,165 @@ public class ThreadPool {
   public void push(Task task) {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "ThreadPool.push(" + task + ')');
-    synchronized (taskQueue) {
-      taskQueue.addElement(task);
-      taskQueue.notify();
+    taskCount.incrementAndGet();
+    Object key = task.getSchedulingKey();
+    if (key == null || key == Task.CONCURRENT) {
+      TaskQueue queue = new TaskQueue(key);
+      queue.tasks.add(task);
+      schedule(queue);
+      return;
+    }
+    
+    while (true) {
+      TaskQueue queue = keyQueues.get(key);
+      if (queue == null) {
+        queue = new TaskQueue(key);
+        TaskQueue previous = keyQueues.putIfAbsent(key, queue);
+        if (previous != null) {
+          queue = previous;
+        }
+      }
+      synchronized (queue) {
+        if (queue.removed) {
+          // The sub-queue has just been unregistered, get the new one.
+          continue;
+        }
+        queue.tasks.addLast(task);
+        if (queue.scheduled) {
+          // The task will be executed after the pending ones.
+          return;
+        }
+        queue.scheduled = true;
+      }
+      schedule(queue);
+      return;
+    }
+  }
+  
+  /**
+   * Makes a sub-queue ready: one of its tasks will be executed by a worker
+   * calling runNext(queue).
+   */
+  void schedule(TaskQueue queue) {
+    readyQueue.offer(queue);
+    readyCount.release();
+  }
+  
+  /**
+   * Executes the next task of a ready sub-queue.
+   */
+  final void runNext(TaskQueue queue) {
+    try {
+      Task task;
+      synchronized (queue) {
+        task = queue.tasks.removeFirst();
+      }
+      taskCount.decrementAndGet();
+      
+      if (queue.key == null) {
+        blockedCount.incrementAndGet();
+        synchronized (blockedTasks) {
+          if (! task.runnable()) {
+            blockedTasks.addLast(task);
+            return;
+          }
+          blockedCount.decrementAndGet();
+          task.init();
+        }
+      }
+      
+      try {
+        if (queue.key != null) {
+          task.init();
+        }
+        task.run();
+      } finally {
+        // The completion of any task may make the blocked tasks runnable.
+        if (queue.key == null || blockedCount.get() > 0) {
+          synchronized (blockedTasks) {
+            task.finalizeTask();
+          }
+        } else {
+          task.finalizeTask();
+        }
+        if (queue.key != null && queue.key != Task.CONCURRENT) {
+          release(queue);
+        }
+        unblock();
+        // Not synchronized with the sub-queue
+        // to avoid deadlock.
+        // Moreover free() can take some time
+        // if an acknowledgment message is sent.
+        task.free();
+      }
+    } catch (Throwable error) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "", error);
+    }
+  }
+  
+  /**
+   * Called when a task of the sub-queue completes: schedules the sub-queue
+   * again if it has pending tasks, unregisters it otherwise.
+   */
+  private void release(TaskQueue queue) {
+    synchronized (queue) {
+      if (queue.tasks.isEmpty()) {
+        queue.scheduled = false;
+        queue.removed = true;
+        keyQueues.remove(queue.key, queue);
+        return;
+      }
+    }
+    schedule(queue);
+  }
+  
+  /**
+   * Pushes again the tasks that were not runnable, ahead of the ready
+   * sub-queues and in their original order.
+   */
+  private void unblock() {
+    if (blockedCount.get() == 0) return;
+    List<Task> tasks;
+    synchronized (blockedTasks) {
+      if (blockedTasks.isEmpty()) return;
+      tasks = new ArrayList<Task>(blockedTasks);
+      blockedTasks.clear();
+      blockedCount.addAndGet(-tasks.size());
+    }
+    taskCount.addAndGet(tasks.size());
+    for (Task task : tasks) {
+      TaskQueue queue = new TaskQueue(null);
+      queue.tasks.add(task);
+      retryQueue.offer(queue);
+    }
+    readyCount.release(tasks.size());
+  }
+  
+  /**
+   * FIFO sub-queue of the tasks having the same scheduling key. The tasks
+   * without key, or concurrent, are scheduled in their own sub-queue.
+   */
+  static class TaskQueue {
+    
+    final Object key;
+    
+    final LinkedList<Task> tasks;
+    
+    /**
+     * True while the sub-queue is in the ready queue or one of its tasks is
+     * running.
+     */
+    boolean scheduled;
+    
+    /**
+     * True if the sub-queue has been unregistered, it can no longer be used.
+     */
+    boolean removed;
+    
+    TaskQueue(Object key) {
+      this.key = key;
+      tasks = new LinkedList<Task>();
     }
   }
   
@@ -119,49 +337,23 @@ public class ThreadPool {
 
     public void run() {
       canStop = true;
-      loop:
       while (running) {
         try {
-          Task task;
-          synchronized (taskQueue) {
-            waitLoop: while (true) {
-              for (int i = 0; i < taskQueue.size(); i++) {
-                task = taskQueue.elementAt(i);
-                if (task.runnable()) {
-                  taskQueue.removeElementAt(i);
-                  break waitLoop;
-                }
-              }
-              taskQueue.wait();
-            }
-            task.init();
-          }
-          
-          try {
-            task.run();
-          } finally {
-            synchronized (taskQueue) {
-              task.finalizeTask();
-              taskQueue.notify();
-            }
-            // Not synchronized with taskQueue
-            // to avoid deadlock.
-            // Moreover free() can take some time
-            // if an acknowledgment message is sent.
-            task.free();
-          }
+          readyCount.acquire();
         } catch (InterruptedException exc) {
-          break loop;
-        } catch (Throwable error) {
-          if (logger.isLoggable(BasicLevel.WARN))
-            logger.log(BasicLevel.WARN, "", error);
+          break;
+        }
+        TaskQueue queue = retryQueue.poll();
+        if (queue == null) {
+          queue = readyQueue.poll();
         }
+        runNext(queue);
       }
     }
   }
 
   public int getTaskQueueSize() {
-    return taskQueue.size();
+    return taskCount.get();
   }
 
   public int getSize() {
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.util.monolog.api.BasicLevel;
+
+/**
+ * Thread pool executing each ready task on its own virtual thread, the tasks
+ * having the same scheduling key are still executed one at a time in their
+ * submission order. The number of threads is not bounded, so a task may block
+ * without starving the other ones.
+ * 
+ * Virtual threads are created by reflection as they require Java 21, on an
+ * older JVM the tasks are executed by a bounded pool of platform threads.
+ * 
+ * The pool can be started again after stop(), the tasks scheduled while it is
+ * stopped are executed when it is restarted.
+ */
+public class VirtualThreadPool extends ThreadPool {
+  
+  private volatile ExecutorService executor;
+  
+  /**
+   * Maximum number of platform threads if virtual threads are not supported.
+   */
+  private int maxThreads;
+  
+  /**
+   * Sub-queues scheduled while the pool is stopped, guarded by the pool.
+   */
+  private List<TaskQueue> suspendedQueues;
+  
+  /**
+   * Number of tasks being executed.
+   */
+  private AtomicInteger activeCount;
+
+  /**
+   * @param poolName the name of the pool.
+   * @param maxThreads the maximum number of platform threads executing the
+   *          tasks if the JVM does not support virtual threads.
+   */
+  public VirtualThreadPool(String poolName, int maxThreads) {
+    super(poolName, 0);
+    this.maxThreads = maxThreads;
+    suspendedQueues = new ArrayList<TaskQueue>();
+    activeCount = new AtomicInteger();
+    executor = newExecutor(poolName + ".Virtual#", maxThreads);
+  }
+  
+  /**
+   * Creates an executor starting a new virtual thread for each task if the
+   * JVM supports it, a pool of at most maxThreads platform threads otherwise.
+   * Applications may use it to issue many concurrent synchronous interactions.
+   * 
+   * @param threadName the prefix of the thread names.
+   * @param maxThreads the maximum number of platform threads.
+   * @return the executor.
+   */
+  public static ExecutorService newExecutor(final String threadName, int maxThreads) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, threadName, 0L);
+      ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+      return (ExecutorService) Executors.class.getMethod(
+          "newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+    } catch (NoSuchMethodException exc) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "Virtual threads are not supported, use platform threads");
+    } catch (Exception exc) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "Cannot create virtual threads, use platform threads", exc);
+    }
+    // The tasks exceeding the number of threads wait in the queue
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      
+      private AtomicInteger threadCounter = new AtomicInteger();
+      
+      public Thread newThread(Runnable runnable) {
+        Thread newThread = new Thread(runnable, threadName + threadCounter.getAndIncrement());
+        newThread.setDaemon(true);
+        return newThread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  void schedule(final TaskQueue queue) {
+    try {
+      executor.execute(newRunner(queue));
+    } catch (RejectedExecutionException exc) {
+      suspend(queue);
+    }
+  }
+  
+  private Runnable newRunner(final TaskQueue queue) {
+    return new Runnable() {
+      public void run() {
+        activeCount.incrementAndGet();
+        try {
+          runNext(queue);
+        } finally {
+          activeCount.decrementAndGet();
+        }
+      }
+    };
+  }
+  
+  /**
+   * Keeps a sub-queue rejected by the executor until the pool is restarted.
+   */
+  private synchronized void suspend(TaskQueue queue) {
+    if (executor.isShutdown()) {
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, getPoolName() + " is stopped, task delayed");
+      suspendedQueues.add(queue);
+    } else {
+      // The pool has been restarted in the meantime
+      executor.execute(newRunner(queue));
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    if (executor.isShutdown()) {
+      executor = newExecutor(getPoolName() + ".Virtual#", maxThreads);
+    }
+    super.start();
+    for (TaskQueue queue : suspendedQueues) {
+      executor.execute(newRunner(queue));
+    }
+    suspendedQueues.clear();
+  }
+
+  @Override
+  public synchronized void setThreadPoolSize(int newSize) {
+    // The number of threads is not bounded
+    if (logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "VirtualThreadPool.setThreadPoolSize(" + newSize + ") ignored");
+  }
+
+  @Override
+  public synchronized void stop() {
+    super.stop();
+    executor.shutdown();
+  }
+
+  /**
+   * Returns the number of threads currently executing a task.
+   */
+  @Override
+  public int getSize() {
+    return activeCount.get();
+  }
+}
@@ -23,10 +23,12 @@
   *******************************************************************************/
 package fr.cnes.mal.broker;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
 import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.EntityKey;
 import org.ccsds.moims.mo.mal.structures.EntityKeyList;
@@ -34,7 +36,9 @@ import org.ccsds.moims.mo.mal.structures.EntityRequest;
 import org.ccsds.moims.mo.mal.structures.EntityRequestList;
 import org.ccsds.moims.mo.mal.structures.IdentifierList;
 import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 import org.objectweb.util.monolog.api.BasicLevel;
 import org.objectweb.util.monolog.api.Logger;
 
@@ -64,6 +68,35 @@ public class BrokerAdapter {
   public Blob getAuthenticationId() {
     return authenticationId;
   }
+  
+  /**
+   * Returns the update lists of a received PUBLISH message. Encoded element
+   * lists are passed to the body so that the updates are kept encoded if the
+   * transport supports it, currently MALTCP: the updates are then copied as is
+   * in the NOTIFY messages instead of being encoded again for each subscriber.
+   * The other transports ignore the encoded lists and decode the updates.
+   * 
+   * The encoded updates can only be sent through the transport they have been
+   * received from.
+   * 
+   * @param op the PubSub operation
+   * @param body the body of the PUBLISH message
+   * @return the update lists, either encoded or decoded
+   * @throws MALException if the body cannot be decoded
+   */
+  public static List[] getUpdateLists(MALPubSubOperation op,
+      MALPublishBody body) throws MALException {
+    Object[] shortForms = op.getOperationStage(MALPubSubOperation.PUBLISH_STAGE)
+        .getElementShortForms();
+    if (shortForms == null) {
+      return body.getUpdateLists();
+    }
+    List[] updateLists = new List[shortForms.length - 1];
+    for (int i = 0; i < updateLists.length; i++) {
+      updateLists[i] = new MALEncodedElementList(shortForms[i + 1], 0);
+    }
+    return body.getUpdateLists(updateLists);
+  }
 
   public synchronized void handleRegister(MALMessageHeader header,
       Subscription subscription, Map qosProperties) throws MALException {
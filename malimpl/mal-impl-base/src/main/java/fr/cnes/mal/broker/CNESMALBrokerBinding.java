@@ -64,6 +64,8 @@ import fr.cnes.mal.CNESMALContext;
 import fr.cnes.mal.MessageDeliveryTask;
 import fr.cnes.mal.MessageDispatcher;
 import fr.cnes.mal.MessageSender;
+import fr.cnes.mal.Task;
+import fr.cnes.mal.TaskKey;
 import fr.cnes.mal.provider.CNESMALDeregister;
 import fr.cnes.mal.provider.CNESMALPublishDeregister;
 import fr.cnes.mal.provider.CNESMALPublishRegister;
@@ -293,6 +295,15 @@ public class CNESMALBrokerBinding extends Binding implements MALBrokerBinding, M
       }
     }
 
+    public Object getSchedulingKey() {
+      // The messages from a source are handled one at a time
+      URI from = getMessage().getHeader().getURIFrom();
+      if (from == null) {
+        return Task.CONCURRENT;
+      }
+      return new TaskKey(CNESMALBrokerBinding.this, from);
+    }
+
     public boolean runnable() {
       URI from = getMessage().getHeader().getURIFrom();
       int index = runningTransactions.indexOf(from);
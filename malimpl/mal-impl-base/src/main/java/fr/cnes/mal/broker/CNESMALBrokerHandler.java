@@ -139,8 +139,15 @@ public class CNESMALBrokerHandler implements MALBrokerHandler, MALTransmitErrorL
 
   public void handlePublish(MALInteraction interaction, MALPublishBody body) 
       throws MALInteractionException, MALException {
+    List[] updateLists;
+    if (brokerContexts.size() == 1) {
+      updateLists = BrokerAdapter.getUpdateLists(
+          (MALPubSubOperation) interaction.getOperation(), body);
+    } else {
+      // The updates are notified through every broker binding
+      updateLists = body.getUpdateLists();
+    }
     UpdateHeaderList updateHeaderList = body.getUpdateHeaderList();
-    List[] updateLists = body.getUpdateLists();
     
     MALMessageHeader header = interaction.getMessageHeader();
     BrokerContext brokerContext = getBrokerContext(interaction.getMessageHeader().getURITo());
@@ -74,6 +74,8 @@ import fr.cnes.mal.MessageDeliveryTask;
 import fr.cnes.mal.MessageDispatcher;
 import fr.cnes.mal.Binding;
 import fr.cnes.mal.SubscriptionManager;
+import fr.cnes.mal.Task;
+import fr.cnes.mal.TaskKey;
 
 public class CNESMALConsumer extends Binding implements MALConsumer, CNESMALConsumerMBean {
   
@@ -584,6 +586,15 @@ public class CNESMALConsumer extends Binding implements MALConsumer, CNESMALCons
       }
     }
 
+    public Object getSchedulingKey() {
+      // The messages of a transaction are delivered one at a time
+      Long tid = getMessage().getHeader().getTransactionId();
+      if (tid == null) {
+        return Task.CONCURRENT;
+      }
+      return new TaskKey(CNESMALConsumer.this, tid);
+    }
+
     public boolean runnable() {
       Long tid = getMessage().getHeader().getTransactionId();
       int index = runningTransactions.indexOf(tid);
@@ -769,6 +780,15 @@ public class CNESMALConsumer extends Binding implements MALConsumer, CNESMALCons
     interactionManager.checkInteractionActivity(currentTime, timeout);
   }
   
+  /**
+   * Releases a running interaction, the messages received later for this
+   * transaction are ignored.
+   */
+  void cancelInteraction(Long tid) {
+    interactionManager.removeInteraction(tid);
+    executorIndexes.remove(tid);
+  }
+  
   private int getExecutorIndex(MALMessage msg) {
     Integer index = executorIndexes.get(msg.getHeader().getTransactionId());
     if (index == null) {
@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.consumer;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+import org.objectweb.util.monolog.api.BasicLevel;
+import org.objectweb.util.monolog.api.Logger;
+
+/**
+ * Future-based facade of a consumer. Each call starts an asynchronous
+ * interaction through the consumer and returns a {@link MALFuture} completed
+ * by the delivery of the last message of the interaction, so a caller can
+ * start many interactions then wait for or chain their results without
+ * blocking a thread per interaction.
+ * 
+ * Each call may define a timeout in milliseconds covering the whole
+ * interaction, 0 meaning no timeout. When the timeout expires the future fails
+ * with a DELIVERY_TIMEDOUT error and the interaction is released.
+ */
+public class FutureConsumer {
+  
+  public final static Logger logger = fr.dyade.aaa.common.Debug
+    .getLogger(FutureConsumer.class.getName());
+  
+  private static ScheduledExecutorService timer;
+  
+  /**
+   * Returns the timer shared by all the facades, its single daemon thread
+   * only fails the timed out futures.
+   */
+  private static synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "FutureConsumer.Timer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return timer;
+  }
+  
+  private CNESMALConsumer consumer;
+  
+  /**
+   * Constructs a facade of a consumer created by this MAL implementation.
+   * 
+   * @param consumer the consumer
+   * @throws IllegalArgumentException if the consumer has not been created
+   * by this MAL implementation
+   */
+  public FutureConsumer(MALConsumer consumer) {
+    if (! (consumer instanceof CNESMALConsumer))
+      throw new IllegalArgumentException("Unexpected consumer: " + consumer);
+    this.consumer = (CNESMALConsumer) consumer;
+  }
+  
+  public MALConsumer getConsumer() {
+    return consumer;
+  }
+  
+  /**
+   * Initiates a SUBMIT interaction, the future completes with the
+   * acknowledgement.
+   */
+  public MALFuture submit(MALSubmitOperation op, long timeout, 
+      Object... body) throws MALInteractionException, MALException {
+    MALFuture future = new MALFuture(consumer);
+    MALMessage msg = consumer.asyncSubmit(op, new FutureListener(future, null), body);
+    return started(future, msg, timeout);
+  }
+  
+  /**
+   * Initiates a REQUEST interaction, the future completes with the response.
+   */
+  public MALFuture request(MALRequestOperation op, long timeout, 
+      Object... body) throws MALInteractionException, MALException {
+    MALFuture future = new MALFuture(consumer);
+    MALMessage msg = consumer.asyncRequest(op, new FutureListener(future, null), body);
+    return started(future, msg, timeout);
+  }
+  
+  /**
+   * Initiates an INVOKE interaction, the future completes with the response.
+   * An acknowledgement error fails the future.
+   */
+  public MALFuture invoke(MALInvokeOperation op, long timeout, 
+      Object... body) throws MALInteractionException, MALException {
+    MALFuture future = new MALFuture(consumer);
+    MALMessage msg = consumer.asyncInvoke(op, new FutureListener(future, null), body);
+    return started(future, msg, timeout);
+  }
+  
+  /**
+   * Initiates a PROGRESS interaction, the updates are delivered to the
+   * progress listener and the future completes with the response.
+   * 
+   * @param updateListener listener receiving the updates, may be null
+   */
+  public MALFuture progress(MALProgressOperation op, 
+      MALProgressListener updateListener, long timeout, 
+      Object... body) throws MALInteractionException, MALException {
+    MALFuture future = new MALFuture(consumer);
+    MALMessage msg = consumer.asyncProgress(op, new FutureListener(future, updateListener), body);
+    return started(future, msg, timeout);
+  }
+  
+  private MALFuture started(final MALFuture future, MALMessage msg, long timeout) {
+    future.setTransactionId(msg.getHeader().getTransactionId());
+    if (future.isDone()) {
+      // Completed before the transaction id has been set
+      future.release();
+    } else if (timeout > 0) {
+      scheduleTimeout(future, timeout);
+    }
+    return future;
+  }
+  
+  /**
+   * Schedules the failure of a future with a DELIVERY_TIMEDOUT error, the
+   * task is cancelled if the future completes before.
+   */
+  static void scheduleTimeout(final MALFuture future, long timeout) {
+    future.setTimeoutTask(getTimer().schedule(new Runnable() {
+      public void run() {
+        MALStandardError error = new MALStandardError(
+            MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER, 
+            new Union("Interaction timeout"));
+        if (future.fail(null, new MALInteractionException(error))) {
+          if (logger.isLoggable(BasicLevel.WARN))
+            logger.log(BasicLevel.WARN, "Interaction timeout: " + future);
+          future.release();
+        }
+      }
+    }, timeout, TimeUnit.MILLISECONDS));
+  }
+  
+  /**
+   * Completes a future from the callbacks of the asynchronous interaction.
+   */
+  static class FutureListener implements MALInteractionListener {
+    
+    private MALFuture future;
+    
+    private MALProgressListener updateListener;
+    
+    FutureListener(MALFuture future, MALProgressListener updateListener) {
+      this.future = future;
+      this.updateListener = updateListener;
+    }
+    
+    private void completed(MALMessageHeader header, MALMessageBody body) {
+      future.complete(header, body);
+    }
+    
+    private void failed(MALMessageHeader header, MALErrorBody body) throws MALException {
+      try {
+        future.fail(header, new MALInteractionException(body.getError()));
+      } catch (MALException exc) {
+        future.fail(header, exc);
+        throw exc;
+      }
+    }
+
+    public void submitAckReceived(MALMessageHeader header, Map qosProperties)
+        throws MALException {
+      completed(header, null);
+    }
+
+    public void submitErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void requestResponseReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {
+      completed(header, body);
+    }
+
+    public void requestErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void invokeAckReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {}
+
+    public void invokeAckErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void invokeResponseReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {
+      completed(header, body);
+    }
+
+    public void invokeResponseErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void progressAckReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {}
+
+    public void progressAckErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void progressUpdateReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {
+      if (updateListener != null && ! future.isDone()) {
+        updateListener.progressUpdateReceived(header, body, qosProperties);
+      }
+    }
+
+    public void progressUpdateErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void progressResponseReceived(MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) throws MALException {
+      completed(header, body);
+    }
+
+    public void progressResponseErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {
+      failed(header, body);
+    }
+
+    public void registerAckReceived(MALMessageHeader header, Map qosProperties)
+        throws MALException {}
+
+    public void registerErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {}
+
+    public void notifyReceived(MALMessageHeader header, MALNotifyBody body,
+        Map qosProperties) throws MALException {}
+
+    public void notifyErrorReceived(MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) throws MALException {}
+
+    public void deregisterAckReceived(MALMessageHeader header, Map qosProperties)
+        throws MALException {}
+  }
+
+}
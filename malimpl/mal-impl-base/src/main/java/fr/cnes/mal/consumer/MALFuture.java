@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.consumer;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.objectweb.util.monolog.api.BasicLevel;
+import org.objectweb.util.monolog.api.Logger;
+
+/**
+ * Result of an interaction started through a {@link FutureConsumer}. The
+ * future completes with the body of the last message of the interaction
+ * (response or acknowledgement for SUBMIT), an error message completes it
+ * with an ExecutionException caused by a MALInteractionException.
+ * 
+ * Listeners may be added to chain the processing of the results without
+ * blocking a thread per interaction. Cancelling the future releases the
+ * interaction, a response received later is ignored.
+ */
+public class MALFuture implements Future<MALMessageBody> {
+  
+  public final static Logger logger = fr.dyade.aaa.common.Debug
+    .getLogger(MALFuture.class.getName());
+  
+  private CNESMALConsumer consumer;
+  
+  private volatile Long transactionId;
+  
+  private CountDownLatch latch;
+  
+  private boolean done;
+  
+  private boolean cancelled;
+  
+  private MALMessageHeader header;
+  
+  private MALMessageBody body;
+  
+  private Exception error;
+  
+  private List<MALFutureListener> listeners;
+  
+  private ScheduledFuture<?> timeoutTask;
+  
+  MALFuture(CNESMALConsumer consumer) {
+    this.consumer = consumer;
+    latch = new CountDownLatch(1);
+  }
+  
+  /**
+   * Returns the transaction identifier of the interaction.
+   */
+  public Long getTransactionId() {
+    return transactionId;
+  }
+  
+  void setTransactionId(Long transactionId) {
+    this.transactionId = transactionId;
+  }
+  
+  synchronized void setTimeoutTask(ScheduledFuture<?> timeoutTask) {
+    if (done) {
+      timeoutTask.cancel(false);
+    } else {
+      this.timeoutTask = timeoutTask;
+    }
+  }
+  
+  /**
+   * Returns the header of the last message received, null if the future is
+   * not completed or has failed without receiving an error message.
+   */
+  public synchronized MALMessageHeader getHeader() {
+    return header;
+  }
+  
+  boolean complete(MALMessageHeader header, MALMessageBody body) {
+    return setResult(header, body, null, false);
+  }
+  
+  boolean fail(MALMessageHeader header, Exception error) {
+    return setResult(header, null, error, false);
+  }
+  
+  private boolean setResult(MALMessageHeader header, MALMessageBody body, 
+      Exception error, boolean cancelled) {
+    List<MALFutureListener> toNotify;
+    synchronized (this) {
+      if (done) return false;
+      done = true;
+      this.header = header;
+      this.body = body;
+      this.error = error;
+      this.cancelled = cancelled;
+      toNotify = listeners;
+      listeners = null;
+      if (timeoutTask != null) {
+        timeoutTask.cancel(false);
+        timeoutTask = null;
+      }
+    }
+    latch.countDown();
+    if (toNotify != null) {
+      for (MALFutureListener listener : toNotify) {
+        notifyListener(listener);
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Adds a listener notified when the future completes. If the future is
+   * already completed, the listener is immediately notified by the calling
+   * thread.
+   * 
+   * @param listener the listener to notify
+   */
+  public void addListener(MALFutureListener listener) {
+    synchronized (this) {
+      if (! done) {
+        if (listeners == null) {
+          listeners = new LinkedList<MALFutureListener>();
+        }
+        listeners.add(listener);
+        return;
+      }
+    }
+    notifyListener(listener);
+  }
+  
+  private void notifyListener(MALFutureListener listener) {
+    try {
+      if (error == null) {
+        listener.completed(header, body);
+      } else {
+        listener.failed(error);
+      }
+    } catch (Throwable exc) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "MALFuture listener failed", exc);
+    }
+  }
+  
+  /**
+   * Releases the interaction in the consumer so that a late response is
+   * ignored.
+   */
+  void release() {
+    Long tid = transactionId;
+    if (tid != null) {
+      consumer.cancelInteraction(tid);
+    }
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (setResult(null, null, new CancellationException(), true)) {
+      release();
+      return true;
+    }
+    return false;
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  public MALMessageBody get() throws InterruptedException, ExecutionException {
+    latch.await();
+    return getResult();
+  }
+
+  public MALMessageBody get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (! latch.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return getResult();
+  }
+  
+  private synchronized MALMessageBody getResult() throws ExecutionException {
+    if (cancelled) {
+      throw (CancellationException) error;
+    } else if (error != null) {
+      throw new ExecutionException(error);
+    }
+    return body;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "MALFuture [transactionId=" + transactionId + ", done=" + done
+        + ", cancelled=" + cancelled + ", error=" + error + "]";
+  }
+}
@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.consumer;
+
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Callback notified when a {@link MALFuture} completes. The callback is called
+ * by the thread delivering the last message of the interaction (or the timer
+ * thread if the interaction times out) so it must not block.
+ */
+public interface MALFutureListener {
+  
+  /**
+   * Called when the interaction completes successfully.
+   * 
+   * @param header the header of the last message of the interaction
+   * @param body the body of the last message of the interaction
+   */
+  public void completed(MALMessageHeader header, MALMessageBody body);
+  
+  /**
+   * Called when the interaction fails, is cancelled or times out.
+   * 
+   * @param error a MALInteractionException if an error message has been
+   * received or the interaction timed out, a CancellationException if the
+   * future has been cancelled
+   */
+  public void failed(Exception error);
+
+}
@@ -74,6 +74,7 @@ import fr.cnes.mal.MessageDispatcher;
 import fr.cnes.mal.MessageSender;
 import fr.cnes.mal.Binding;
 import fr.cnes.mal.SyncInteraction;
+import fr.cnes.mal.Task;
 import fr.cnes.mal.broker.BrokerAdapter;
 import fr.cnes.mal.broker.internal.Broker;
 import fr.cnes.mal.broker.internal.BrokerNotification;
@@ -339,9 +340,11 @@ public class CNESMALProvider extends Binding implements MALProvider, CNESMALProv
             }
           } else {
             MALPublishBody publishBody = (MALPublishBody) msg.getBody();
+            List[] updateLists = BrokerAdapter.getUpdateLists(
+                (MALPubSubOperation) operation, publishBody);
             handlePublish((MALPubSubOperation) operation, header,
                 msg.getQoSProperties(), publishBody.getUpdateHeaderList(),
-                publishBody.getUpdateLists());
+                updateLists);
           }
         } else if (header.getInteractionStage().getValue() == MALPubSubOperation._PUBLISH_REGISTER_STAGE) {
           CNESMALPublishRegister register = new CNESMALPublishRegister(header,
@@ -384,6 +387,10 @@ public class CNESMALProvider extends Binding implements MALProvider, CNESMALProv
       }
     }
 
+    public Object getSchedulingKey() {
+      return Task.CONCURRENT;
+    }
+
     public boolean runnable() {
       return true;
     }
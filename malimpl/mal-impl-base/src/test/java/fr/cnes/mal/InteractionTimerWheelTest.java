@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.Test;
+
+/**
+ * Checks the expiry of the interactions scheduled in an InteractionTimerWheel.
+ * The wheel is driven with dates relative to the creation of the
+ * interactions instead of the clock.
+ */
+public class InteractionTimerWheelTest {
+  
+  private static final int TIMEOUT = 800;
+  
+  static class TestInteraction extends Interaction {
+    
+    TestInteraction() {
+      super(null, null);
+    }
+    
+    void complete() {
+      setStatus(DONE);
+    }
+
+    protected void onError(MALOperation operation, MALMessageHeader header,
+        MALErrorBody body, Map qosProperties) {}
+
+    protected void onMessage(MALOperation operation, MALMessageHeader header,
+        MALMessageBody body, Map qosProperties) {}
+
+    public boolean consumerIsActive() {
+      return true;
+    }
+  }
+  
+  /**
+   * Calls expire every millisecond from the specified date until the end
+   * date, the interactions are expected to expire once.
+   * 
+   * @return the dates at which each interaction expired, -1 if it did not.
+   */
+  private static long[] expire(InteractionTimerWheel wheel, long start, long end,
+      Interaction... interactions) {
+    long[] dates = new long[interactions.length];
+    for (int i = 0; i < dates.length; i++) dates[i] = -1;
+    List<Interaction> expired = new ArrayList<Interaction>();
+    for (long time = start; time <= end; time++) {
+      wheel.expire(time, expired);
+      for (Interaction interaction : expired) {
+        for (int i = 0; i < interactions.length; i++) {
+          if (interactions[i] == interaction) {
+            assertEquals("expired twice", -1, dates[i]);
+            dates[i] = time;
+          }
+        }
+      }
+      expired.clear();
+    }
+    return dates;
+  }
+  
+  @Test
+  public void testExpiryWithinOneTick() {
+    TestInteraction interaction = new TestInteraction();
+    long start = interaction.getTimestamp();
+    InteractionTimerWheel wheel = new InteractionTimerWheel(TIMEOUT, start);
+    long tick = wheel.getTickDuration();
+    assertEquals(TIMEOUT / InteractionTimerWheel.TICKS_PER_TIMEOUT, tick);
+    wheel.add(interaction);
+    
+    long expiry = expire(wheel, start, start + 3 * TIMEOUT, interaction)[0];
+    // Expired once the timeout is exceeded, at the next tick at the latest
+    assertTrue("expired at " + (expiry - start), expiry > start + TIMEOUT);
+    assertTrue("expired at " + (expiry - start), expiry <= start + TIMEOUT + tick);
+  }
+  
+  @Test
+  public void testExpiryAfterSkippedTicks() {
+    TestInteraction interaction = new TestInteraction();
+    long start = interaction.getTimestamp();
+    InteractionTimerWheel wheel = new InteractionTimerWheel(TIMEOUT, start);
+    wheel.add(interaction);
+    wheel.expire(start, new ArrayList<Interaction>());
+    
+    // The checks may be delayed by more than a rotation of the wheel
+    List<Interaction> expired = new ArrayList<Interaction>();
+    wheel.expire(start + 100 * TIMEOUT, expired);
+    assertEquals(1, expired.size());
+    assertSame(interaction, expired.get(0));
+  }
+  
+  @Test
+  public void testCompletedInteraction() {
+    TestInteraction completed = new TestInteraction();
+    TestInteraction running = new TestInteraction();
+    long start = Math.max(completed.getTimestamp(), running.getTimestamp());
+    InteractionTimerWheel wheel = new InteractionTimerWheel(TIMEOUT, start);
+    wheel.add(completed);
+    wheel.add(running);
+    
+    long[] dates = expire(wheel, start, start + TIMEOUT / 2, completed, running);
+    assertEquals(-1, dates[0]);
+    assertEquals(-1, dates[1]);
+    
+    // A completed interaction is dropped instead of expiring
+    completed.complete();
+    dates = expire(wheel, start + TIMEOUT / 2 + 1, start + 3 * TIMEOUT, completed, running);
+    assertEquals(-1, dates[0]);
+    assertTrue(dates[1] > 0);
+  }
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the execution order of the tasks of a ThreadPool.
+ */
+public class ThreadPoolTest {
+  
+  private static final long TIMEOUT = 5000;
+  
+  private ThreadPool pool;
+  
+  /**
+   * Names of the executed tasks, in their execution order.
+   */
+  private final List<String> executed = new ArrayList<String>();
+  
+  @After
+  public void tearDown() {
+    if (pool != null) pool.stop();
+  }
+  
+  private ThreadPool start(int size) {
+    pool = new ThreadPool("ThreadPoolTest", size);
+    pool.start();
+    return pool;
+  }
+  
+  private synchronized List<String> executed() {
+    return new ArrayList<String>(executed);
+  }
+  
+  /**
+   * Task recording its execution, runnable by default.
+   */
+  class TestTask implements Task {
+    
+    final Object key;
+    
+    final String name;
+    
+    final CountDownLatch done;
+    
+    TestTask(Object key, String name, CountDownLatch done) {
+      this.key = key;
+      this.name = name;
+      this.done = done;
+    }
+
+    public Object getSchedulingKey() {
+      return key;
+    }
+
+    public boolean runnable() {
+      return true;
+    }
+
+    public MALMessage getMessage() {
+      return null;
+    }
+
+    public void init() {}
+
+    public void run() {
+      synchronized (ThreadPoolTest.this) {
+        executed.add(name);
+      }
+    }
+
+    public void abort() {}
+
+    public void finalizeTask() {
+      done.countDown();
+    }
+
+    public void free() {}
+
+    public void setExecutorIndex(int index) {}
+
+    public int getExecutorIndex() {
+      return 0;
+    }
+    
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+  
+  @Test
+  public void testKeyFifo() throws Exception {
+    start(4);
+    final int keys = 5;
+    final int count = 200;
+    CountDownLatch done = new CountDownLatch(keys * count);
+    final AtomicInteger[] running = new AtomicInteger[keys];
+    final AtomicInteger overlaps = new AtomicInteger();
+    for (int i = 0; i < keys; i++) running[i] = new AtomicInteger();
+    
+    for (int j = 0; j < count; j++) {
+      for (int i = 0; i < keys; i++) {
+        final int k = i;
+        pool.push(new TestTask("key" + i, i + ":" + j, done) {
+          public void run() {
+            if (running[k].incrementAndGet() > 1) overlaps.incrementAndGet();
+            super.run();
+            Thread.yield();
+            running[k].decrementAndGet();
+          }
+        });
+      }
+    }
+    assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    
+    // The tasks of a key are executed one at a time, in their push order
+    assertEquals(0, overlaps.get());
+    int[] next = new int[keys];
+    for (String name : executed()) {
+      String[] parts = name.split(":");
+      int k = Integer.parseInt(parts[0]);
+      assertEquals(name, next[k]++, Integer.parseInt(parts[1]));
+    }
+    for (int i = 0; i < keys; i++) assertEquals(count, next[i]);
+    assertEquals(0, pool.getTaskQueueSize());
+  }
+  
+  @Test
+  public void testBlockedTasksOrder() throws Exception {
+    start(1);
+    CountDownLatch done = new CountDownLatch(6);
+    final CountDownLatch checked = new CountDownLatch(3);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean open = new AtomicBoolean();
+    
+    // Tasks without key waiting for the first keyed task
+    for (int i = 1; i <= 3; i++) {
+      pool.push(new TestTask(null, "blocked" + i, done) {
+        public boolean runnable() {
+          checked.countDown();
+          return open.get();
+        }
+      });
+    }
+    assertTrue(checked.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    
+    // The single worker runs this task while the next ones are pushed
+    pool.push(new TestTask("key", "gate", done) {
+      public void run() {
+        try {
+          release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exc) {
+          Thread.currentThread().interrupt();
+        }
+        open.set(true);
+        super.run();
+      }
+    });
+    pool.push(new TestTask(Task.CONCURRENT, "next1", done));
+    pool.push(new TestTask("other", "next2", done));
+    release.countDown();
+    assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    
+    // The blocked tasks are executed before the tasks pushed after them
+    assertEquals(Arrays.asList("gate", "blocked1", "blocked2", "blocked3", "next1", "next2"), executed());
+    assertEquals(0, pool.getTaskQueueSize());
+  }
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the platform threads used by VirtualThreadPool when the JVM does
+ * not support virtual threads.
+ */
+public class VirtualThreadPoolTest {
+  
+  private static final long TIMEOUT = 5000;
+  
+  private ExecutorService executor;
+  
+  private VirtualThreadPool pool;
+  
+  /**
+   * Names of the executed tasks, in their execution order.
+   */
+  private final List<String> executed = new ArrayList<String>();
+  
+  @Before
+  public void setUp() {
+    boolean virtual;
+    try {
+      Thread.class.getMethod("ofVirtual");
+      virtual = true;
+    } catch (NoSuchMethodException exc) {
+      virtual = false;
+    }
+    assumeFalse("Virtual threads are supported", virtual);
+  }
+  
+  @After
+  public void tearDown() {
+    if (executor != null) executor.shutdownNow();
+    if (pool != null) pool.stop();
+  }
+  
+  private synchronized List<String> executed() {
+    return new ArrayList<String>(executed);
+  }
+  
+  /**
+   * Task recording its execution.
+   */
+  class TestTask implements Task {
+    
+    final Object key;
+    
+    final String name;
+    
+    final CountDownLatch done;
+    
+    TestTask(Object key, String name, CountDownLatch done) {
+      this.key = key;
+      this.name = name;
+      this.done = done;
+    }
+
+    public Object getSchedulingKey() {
+      return key;
+    }
+
+    public boolean runnable() {
+      return true;
+    }
+
+    public MALMessage getMessage() {
+      return null;
+    }
+
+    public void init() {}
+
+    public void run() {
+      synchronized (VirtualThreadPoolTest.this) {
+        executed.add(name);
+      }
+    }
+
+    public void abort() {}
+
+    public void finalizeTask() {
+      done.countDown();
+    }
+
+    public void free() {}
+
+    public void setExecutorIndex(int index) {}
+
+    public int getExecutorIndex() {
+      return 0;
+    }
+  }
+  
+  @Test
+  public void testBoundedPlatformThreads() throws Exception {
+    executor = VirtualThreadPool.newExecutor("VirtualThreadPoolTest#", 2);
+    assertTrue(executor instanceof ThreadPoolExecutor);
+    
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(10);
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 10; i++) {
+      executor.execute(new Runnable() {
+        public void run() {
+          synchronized (threads) {
+            threads.add(Thread.currentThread());
+          }
+          int count = running.incrementAndGet();
+          int max;
+          while (count > (max = maxRunning.get()) && ! maxRunning.compareAndSet(max, count));
+          try {
+            release.await(TIMEOUT, TimeUnit.MILLISECONDS);
+          } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+          }
+          running.decrementAndGet();
+          done.countDown();
+        }
+      });
+    }
+    
+    // The tasks exceeding the number of threads wait in the queue
+    Thread.sleep(100);
+    assertEquals(2, running.get());
+    assertEquals(8, ((ThreadPoolExecutor) executor).getQueue().size());
+    release.countDown();
+    assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(2, maxRunning.get());
+    synchronized (threads) {
+      for (Thread thread : threads) {
+        assertTrue(thread.isDaemon());
+        assertTrue(thread.getName(), thread.getName().startsWith("VirtualThreadPoolTest#"));
+      }
+    }
+  }
+  
+  @Test
+  public void testKeyFifo() throws Exception {
+    pool = new VirtualThreadPool("VirtualThreadPoolTest", 4);
+    pool.start();
+    int count = 100;
+    CountDownLatch done = new CountDownLatch(2 * count);
+    for (int i = 0; i < count; i++) {
+      pool.push(new TestTask("a", "a" + i, done));
+      pool.push(new TestTask("b", "b" + i, done));
+    }
+    assertTrue(done.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    
+    int a = 0;
+    int b = 0;
+    for (String name : executed()) {
+      if (name.startsWith("a")) {
+        assertEquals("a" + a++, name);
+      } else {
+        assertEquals("b" + b++, name);
+      }
+    }
+    assertEquals(count, a);
+    assertEquals(count, b);
+  }
+  
+  @Test
+  public void testRestart() throws Exception {
+    pool = new VirtualThreadPool("VirtualThreadPoolTest", 2);
+    pool.start();
+    CountDownLatch first = new CountDownLatch(1);
+    pool.push(new TestTask(Task.CONCURRENT, "first", first));
+    assertTrue(first.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    
+    // The tasks pushed while the pool is stopped wait for the restart
+    pool.stop();
+    CountDownLatch delayed = new CountDownLatch(2);
+    pool.push(new TestTask("key", "delayed1", delayed));
+    pool.push(new TestTask(Task.CONCURRENT, "delayed2", delayed));
+    assertFalse(delayed.await(100, TimeUnit.MILLISECONDS));
+    assertEquals(1, executed().size());
+    
+    pool.start();
+    assertTrue(delayed.await(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(3, executed().size());
+  }
+}
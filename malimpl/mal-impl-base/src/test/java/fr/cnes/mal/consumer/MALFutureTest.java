@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.Test;
+
+/**
+ * Checks the completion of a MALFuture by its timeout, a response or a
+ * cancellation. The futures have no transaction identifier, so releasing them
+ * does not need a consumer.
+ */
+public class MALFutureTest {
+  
+  private static final long TIMEOUT = 5000;
+  
+  /**
+   * Listener counting its notifications.
+   */
+  static class CountingListener implements MALFutureListener {
+    
+    final AtomicInteger completed = new AtomicInteger();
+    
+    final AtomicInteger failed = new AtomicInteger();
+    
+    volatile Exception error;
+
+    public void completed(MALMessageHeader header, MALMessageBody body) {
+      completed.incrementAndGet();
+    }
+
+    public void failed(Exception error) {
+      this.error = error;
+      failed.incrementAndGet();
+    }
+  }
+  
+  @Test
+  public void testTimeoutFiresOnce() throws Exception {
+    MALFuture future = new MALFuture(null);
+    CountingListener listener = new CountingListener();
+    future.addListener(listener);
+    FutureConsumer.scheduleTimeout(future, 50);
+    
+    try {
+      future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+      fail("ExecutionException expected");
+    } catch (ExecutionException exc) {
+      MALInteractionException cause = (MALInteractionException) exc.getCause();
+      assertEquals(MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER, cause.getStandardError().getErrorNumber());
+    }
+    assertTrue(future.isDone());
+    assertFalse(future.isCancelled());
+    
+    // A late response is ignored
+    assertFalse(future.complete(null, null));
+    Thread.sleep(100);
+    assertEquals(1, listener.failed.get());
+    assertEquals(0, listener.completed.get());
+    assertTrue(listener.error instanceof MALInteractionException);
+  }
+  
+  @Test
+  public void testCompletionCancelsTimeout() throws Exception {
+    MALFuture future = new MALFuture(null);
+    CountingListener listener = new CountingListener();
+    future.addListener(listener);
+    FutureConsumer.scheduleTimeout(future, 100);
+    
+    assertTrue(future.complete(null, null));
+    assertNull(future.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    Thread.sleep(300);
+    assertEquals(1, listener.completed.get());
+    assertEquals(0, listener.failed.get());
+    assertFalse(future.isCancelled());
+  }
+  
+  @Test
+  public void testTimeoutOfCompletedFuture() throws Exception {
+    MALFuture future = new MALFuture(null);
+    assertTrue(future.complete(null, null));
+    // The task is cancelled as soon as it is set
+    FutureConsumer.scheduleTimeout(future, 10);
+    Thread.sleep(100);
+    assertNull(future.get());
+  }
+  
+  @Test
+  public void testCancelRacesCompletion() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      final MALFuture future = new MALFuture(null);
+      CountingListener listener = new CountingListener();
+      future.addListener(listener);
+      final CyclicBarrier barrier = new CyclicBarrier(2);
+      final AtomicBoolean completed = new AtomicBoolean();
+      Thread responder = new Thread() {
+        public void run() {
+          try {
+            barrier.await();
+            completed.set(future.complete(null, null));
+          } catch (Exception exc) {
+            // The barrier is broken, the test fails on the cancellation
+          }
+        }
+      };
+      responder.start();
+      barrier.await(TIMEOUT, TimeUnit.MILLISECONDS);
+      boolean cancelled = future.cancel(false);
+      responder.join(TIMEOUT);
+      
+      // Only one of them completes the future and notifies the listener
+      assertTrue(cancelled != completed.get());
+      assertEquals(cancelled, future.isCancelled());
+      assertTrue(future.isDone());
+      assertEquals(1, listener.completed.get() + listener.failed.get());
+      assertEquals(cancelled ? 1 : 0, listener.failed.get());
+      try {
+        assertNull(future.get(0, TimeUnit.MILLISECONDS));
+        assertFalse(cancelled);
+      } catch (CancellationException exc) {
+        assertTrue(cancelled);
+      }
+    }
+  }
+}
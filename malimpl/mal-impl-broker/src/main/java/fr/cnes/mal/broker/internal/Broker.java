@@ -25,6 +25,7 @@ package fr.cnes.mal.broker.internal;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -403,13 +404,13 @@ public class Broker implements Serializable {
             updateHeadersToNotify, udpatesToNotify, i);
         }
       }
-      List<EntityRequestContext> uncheckedEntityRequestContexts = entityPublishContext
-          .getUncheckedEntityRequestContexts();
+      List<EntityRequestContext> uncheckedEntityRequestContexts = new ArrayList<EntityRequestContext>();
+      entityPublishContext.getUncheckedEntityRequestContexts(updateHeader.getKey(),
+          uncheckedEntityRequestContexts);
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "uncheckedEntityRequestContexts=" + uncheckedEntityRequestContexts);
       for (EntityRequestContext entityRequestContext : uncheckedEntityRequestContexts) {
-        if (entityRequestContext.matchUpdateType(updateHeader.getUpdateType().getOrdinal()) &&
-            entityRequestContext.matchEntityKey(updateHeader.getKey())) {
+        if (entityRequestContext.matchUpdateType(updateHeader.getUpdateType().getOrdinal())) {
           publish(publication, entityRequestContext, notifications,
               updateHeadersToNotify, udpatesToNotify, i);
         }
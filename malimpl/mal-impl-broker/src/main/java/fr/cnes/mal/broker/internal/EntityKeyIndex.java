@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.broker.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+
+/**
+ * Index of values registered with an entity key pattern.
+ * 
+ * The index is a trie with one level per sub-key: at each level the
+ * patterns having a defined sub-key are stored in a hash map by sub-key and
+ * the ones having a wildcard in a separate branch. A lookup only follows the
+ * branches that can match, at most two per level, so its cost is
+ * proportional to the number of matching values and not to the number of
+ * registered patterns.
+ * 
+ * The sub-keys are compared as in MALPattern: the identifiers by value and
+ * the numeric sub-keys by int value, 0 and "*" being the wildcards and null
+ * only matching null.
+ */
+class EntityKeyIndex<T> {
+  
+  /**
+   * Branch of the null sub-keys.
+   */
+  private static final Object NULL = new Object();
+  
+  /**
+   * Search modes, see MALPattern for the corresponding relations.
+   */
+  private static final int MATCH = 0;
+  private static final int INCLUDED = 1;
+  private static final int POTENTIAL = 2;
+  
+  static final class Node<T> {
+    HashMap<Object, Node<T>> children;
+    Node<T> wildcard;
+    List<T> values;
+    
+    boolean isEmpty() {
+      return (children == null || children.isEmpty()) && wildcard == null
+          && (values == null || values.isEmpty());
+    }
+  }
+  
+  private Node<T> root;
+  
+  private int size;
+  
+  EntityKeyIndex() {
+    root = new Node<T>();
+  }
+  
+  int size() {
+    return size;
+  }
+  
+  private static Object getSubKey(EntityKey key, int level) {
+    switch (level) {
+    case 0:
+      Identifier id = key.getFirstSubKey();
+      if (id == null) return NULL;
+      if (MALPattern.isAll(id)) return null;
+      return id.getValue();
+    case 1:
+      return getSubKey(key.getSecondSubKey());
+    case 2:
+      return getSubKey(key.getThirdSubKey());
+    default:
+      return getSubKey(key.getFourthSubKey());
+    }
+  }
+  
+  /**
+   * Returns the branch key of a numeric sub-key, null for the wildcard.
+   */
+  private static Object getSubKey(Long subKey) {
+    if (subKey == null) return NULL;
+    if (MALPattern.isAll(subKey)) return null;
+    return new Integer(subKey.intValue());
+  }
+  
+  /**
+   * Registers a value with a pattern.
+   * 
+   * @param pattern the entity key pattern
+   * @param value the value
+   */
+  void put(EntityKey pattern, T value) {
+    Node<T> node = root;
+    for (int level = 0; level < 4; level++) {
+      Object subKey = getSubKey(pattern, level);
+      Node<T> child;
+      if (subKey == null) {
+        child = node.wildcard;
+        if (child == null) {
+          child = new Node<T>();
+          node.wildcard = child;
+        }
+      } else {
+        if (node.children == null) {
+          node.children = new HashMap<Object, Node<T>>();
+        }
+        child = node.children.get(subKey);
+        if (child == null) {
+          child = new Node<T>();
+          node.children.put(subKey, child);
+        }
+      }
+      node = child;
+    }
+    if (node.values == null) {
+      node.values = new ArrayList<T>(1);
+    }
+    node.values.add(value);
+    size++;
+  }
+  
+  /**
+   * Unregisters a value, the empty branches are pruned.
+   * 
+   * @param pattern the pattern the value has been registered with
+   * @param value the value
+   * @return true if the value was registered
+   */
+  boolean remove(EntityKey pattern, T value) {
+    if (remove(root, pattern, 0, value)) {
+      size--;
+      return true;
+    }
+    return false;
+  }
+  
+  private boolean remove(Node<T> node, EntityKey pattern, int level, T value) {
+    if (level == 4) {
+      return node.values != null && node.values.remove(value);
+    }
+    Object subKey = getSubKey(pattern, level);
+    Node<T> child;
+    if (subKey == null) {
+      child = node.wildcard;
+    } else {
+      child = (node.children == null) ? null : node.children.get(subKey);
+    }
+    if (child == null || ! remove(child, pattern, level + 1, value)) return false;
+    if (child.isEmpty()) {
+      if (subKey == null) {
+        node.wildcard = null;
+      } else {
+        node.children.remove(subKey);
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Returns the values registered with exactly the same pattern.
+   * 
+   * @param pattern the pattern
+   * @param result the list receiving the values
+   */
+  void get(EntityKey pattern, List<T> result) {
+    Node<T> node = root;
+    for (int level = 0; node != null && level < 4; level++) {
+      Object subKey = getSubKey(pattern, level);
+      if (subKey == null) {
+        node = node.wildcard;
+      } else {
+        node = (node.children == null) ? null : node.children.get(subKey);
+      }
+    }
+    if (node != null && node.values != null) {
+      result.addAll(node.values);
+    }
+  }
+  
+  /**
+   * Returns the values whose pattern matches the key, see
+   * {@link MALPattern#match(EntityKey, EntityKey)}.
+   * 
+   * @param key the entity key
+   * @param result the list receiving the values
+   */
+  void match(EntityKey key, List<T> result) {
+    search(root, key, 0, MATCH, result);
+  }
+  
+  /**
+   * Returns the values whose pattern is included in the specified pattern,
+   * see {@link MALPattern#includes(EntityKey, EntityKey)}.
+   * 
+   * @param pattern the including pattern
+   * @param result the list receiving the values
+   */
+  void included(EntityKey pattern, List<T> result) {
+    search(root, pattern, 0, INCLUDED, result);
+  }
+  
+  /**
+   * Returns the values whose pattern potentially matches the specified
+   * pattern, see {@link MALPattern#potentialMatch(EntityKey, EntityKey)}.
+   * 
+   * @param pattern the pattern
+   * @param result the list receiving the values
+   */
+  void potentialMatch(EntityKey pattern, List<T> result) {
+    search(root, pattern, 0, POTENTIAL, result);
+  }
+  
+  private void search(Node<T> node, EntityKey key, int level, int mode, List<T> result) {
+    if (level == 4) {
+      if (node.values != null) {
+        result.addAll(node.values);
+      }
+      return;
+    }
+    Object subKey = getSubKey(key, level);
+    if (subKey == null && mode != MATCH) {
+      // A wildcard in the searched pattern includes every sub-key
+      if (node.children != null) {
+        Iterator<Node<T>> children = node.children.values().iterator();
+        while (children.hasNext()) {
+          search(children.next(), key, level + 1, mode, result);
+        }
+      }
+      if (node.wildcard != null) {
+        search(node.wildcard, key, level + 1, mode, result);
+      }
+      return;
+    }
+    if (subKey != null && node.children != null) {
+      Node<T> child = node.children.get(subKey);
+      if (child != null) {
+        search(child, key, level + 1, mode, result);
+      }
+    }
+    if (mode != INCLUDED && node.wildcard != null) {
+      search(node.wildcard, key, level + 1, mode, result);
+    }
+  }
+
+}
@@ -40,6 +40,11 @@ public class EntityPublishContext implements Serializable, EntityPublishContextM
   private List<EntityRequestContext> checkedEntityRequestContexts;
   
   private List<EntityRequestContext> uncheckedEntityRequestContexts;
+  
+  /**
+   * Unchecked entity requests indexed by pattern, built on demand.
+   */
+  private transient EntityKeyIndex<EntityRequestContext> uncheckedIndex;
 
   private void readObject(java.io.ObjectInputStream is) throws IOException,
       ClassNotFoundException {
@@ -84,21 +89,41 @@ public class EntityPublishContext implements Serializable, EntityPublishContextM
     return uncheckedEntityRequestContexts;
   }
 
+  /**
+   * Returns the unchecked entity requests whose pattern matches the
+   * specified key.
+   * 
+   * @param updateKey the key of the update
+   * @param result the list receiving the matching entity requests
+   */
+  public void getUncheckedEntityRequestContexts(EntityKey updateKey,
+      List<EntityRequestContext> result) {
+    if (uncheckedIndex == null) {
+      uncheckedIndex = new EntityKeyIndex<EntityRequestContext>();
+      for (EntityRequestContext entityRequestContext : uncheckedEntityRequestContexts) {
+        uncheckedIndex.put(entityRequestContext.getPattern(), entityRequestContext);
+      }
+    }
+    uncheckedIndex.match(updateKey, result);
+  }
+
   public boolean match(EntityKey updateKey) {
     return MALPattern.match(updateKey, pattern);
   }
   
-  private boolean alreadyRegistered(SubscriptionContext subscriptionCtx, List<EntityRequestContext> contexts) {
-    for (EntityRequestContext erc : contexts) {
-      if (erc.getSubscriptionContext() == subscriptionCtx) {
-        return true;
-      }
-    }
-    return false;
+  EntityKey getPatternKey() {
+    return pattern;
   }
 
+  /**
+   * Registers the entity request as checked if its pattern is the pattern of
+   * this context. The caller is responsible for not registering twice the
+   * same subscription.
+   * 
+   * @param entityRequestContext the entity request
+   * @return true if the entity request has been registered
+   */
   public boolean checkEntityRequestEquals(EntityRequestContext entityRequestContext) {
-    if (alreadyRegistered(entityRequestContext.getSubscriptionContext(), checkedEntityRequestContexts)) return true;
     if (entityRequestContext.getPattern().equals(pattern)) {
       checkedEntityRequestContexts.add(entityRequestContext);
       return true;
@@ -106,23 +131,45 @@ public class EntityPublishContext implements Serializable, EntityPublishContextM
       return false;
     }
   }
-    
-  public void checkEntityRequestIncludes(EntityRequestContext entityRequestContext) {
-    if (alreadyRegistered(entityRequestContext.getSubscriptionContext(), checkedEntityRequestContexts)) return;
+  
+  /**
+   * Registers the entity request as checked if its pattern includes the
+   * pattern of this context. The caller is responsible for not registering
+   * twice the same subscription.
+   * 
+   * @param entityRequestContext the entity request
+   * @return true if the entity request has been registered
+   */
+  public boolean checkEntityRequestIncludes(EntityRequestContext entityRequestContext) {
     if (MALPattern.includes(entityRequestContext.getPattern(), pattern)) {
       checkedEntityRequestContexts.add(entityRequestContext);
+      return true;
+    } else {
+      return false;
     }
   }
   
   public void checkEntityRequestPotentialMatch(EntityRequestContext entityRequestContext) {
     if (MALPattern.potentialMatch(entityRequestContext.getPattern(), pattern)) {
       uncheckedEntityRequestContexts.add(entityRequestContext);
+      if (uncheckedIndex != null) {
+        uncheckedIndex.put(entityRequestContext.getPattern(), entityRequestContext);
+      }
     }
   }
   
-  public void removeEntityRequest(EntityRequestContext entityRequestContext) {
-    checkedEntityRequestContexts.remove(entityRequestContext);
-    uncheckedEntityRequestContexts.remove(entityRequestContext);
+  /**
+   * Removes the entity request from this context.
+   * 
+   * @param entityRequestContext the entity request
+   * @return true if the entity request was checked by this context
+   */
+  public boolean removeEntityRequest(EntityRequestContext entityRequestContext) {
+    if (uncheckedEntityRequestContexts.remove(entityRequestContext)
+        && uncheckedIndex != null) {
+      uncheckedIndex.remove(entityRequestContext.getPattern(), entityRequestContext);
+    }
+    return checkedEntityRequestContexts.remove(entityRequestContext);
   }
 
   @Override
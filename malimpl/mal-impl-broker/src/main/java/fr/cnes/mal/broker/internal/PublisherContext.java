@@ -26,7 +26,9 @@ package fr.cnes.mal.broker.internal;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.TreeSet;
 
 import org.ccsds.moims.mo.mal.MALArea;
 import org.ccsds.moims.mo.mal.MALContextFactory;
@@ -59,6 +61,18 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
 
   private String jmxName;
   
+  /**
+   * Positions of the entity publish contexts in the list indexed by pattern,
+   * built on demand.
+   */
+  private transient EntityKeyIndex<Integer> patternIndex;
+  
+  /**
+   * Positions of the entity publish contexts where a subscription has a
+   * checked entity request, built with the pattern index.
+   */
+  private transient HashMap<SubscriptionContext, TreeSet<Integer>> checkedPositions;
+  
   private void readObject(java.io.ObjectInputStream is) throws IOException,
       ClassNotFoundException {
     key = (PublisherKey) is.readObject();
@@ -216,6 +230,8 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
       unregisterMBeans();
     }
     this.entityPublishContextList = new ArrayList<EntityPublishContext>(patterns.size());
+    this.patternIndex = null;
+    this.checkedPositions = null;
     patterns = (EntityKeyList) patterns.clone();
     insertPatternsWithoutWildcard(patterns);
     insertPatternsWithWildcardAtFourth(patterns);
@@ -252,23 +268,34 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
 
   public void checkUpdates(UpdateCheckReport report,
       UpdateHeaderList updateHeaderList, List... updateLists) {
+    buildIndexes();
+    List<Integer> positions = new ArrayList<Integer>();
     updateLoop: 
     for (int j = 0; j < updateHeaderList.size(); j++) {
       UpdateHeader updateHeader = updateHeaderList.get(j);
       EntityKey updateKey = updateHeader.getKey();
-      for (int i = 0; i < entityPublishContextList.size(); i++) {
+      // The first matching pattern of the list is selected.
+      int first = -1;
+      positions.clear();
+      patternIndex.match(updateKey, positions);
+      for (int i = 0; i < positions.size(); i++) {
+        int position = positions.get(i).intValue();
+        if ((first < 0 || position < first)
+            && entityPublishContextList.get(position).match(updateKey)) {
+          first = position;
+        }
+      }
+      if (first >= 0) {
         EntityPublishContext entityPublishContext = entityPublishContextList
-            .get(i);
-        if (entityPublishContext.match(updateKey)) {
-          report.addEntityPublishContext(entityPublishContext);
-          report.addUpdateHeaderToNotify(updateHeader);
-          for (int k = 0; k < updateLists.length; k++) {
-            if (updateLists[k] != null) {
-              report.addUpdateToNotify(k, updateLists[k].get(j));
-            }
+            .get(first);
+        report.addEntityPublishContext(entityPublishContext);
+        report.addUpdateHeaderToNotify(updateHeader);
+        for (int k = 0; k < updateLists.length; k++) {
+          if (updateLists[k] != null) {
+            report.addUpdateToNotify(k, updateLists[k].get(j));
           }
-          continue updateLoop;
         }
+        continue updateLoop;
       }
 
       report.addFailedUpdateHeader(updateHeader);
@@ -286,7 +313,8 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
     SubscriberContext subscriberContext = subscriptionContext.getSubscriberContext();
     DomainKey domainKey = key.getDomainKey();
     List<EntityRequestContext> entityRequests = subscriptionContext.getEntityRequestContexts();
-    loop:
+    buildIndexes();
+    List<Integer> positions = new ArrayList<Integer>();
     for (EntityRequestContext entityRequestContext : entityRequests) {
       if (subscriberContext.match(domainKey.getDomain(),
           domainKey.getNetworkZone(), domainKey.getSessionType(),
@@ -295,14 +323,44 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
           && entityRequestContext.matchService(domainKey.getService())
           && entityRequestContext.matchOperation(domainKey.getOperation())
           && entityRequestContext.matchDomain(domainKey.getDomain())) {
-        for (EntityPublishContext entityPublishContext : entityPublishContextList) {
-          if (entityPublishContext.checkEntityRequestEquals(entityRequestContext)) continue loop;
+        EntityKey requestPattern = entityRequestContext.getPattern();
+        
+        // The entity request is checked by the first publish context having
+        // the same pattern, unless the subscription is already registered by
+        // a previous publish context.
+        int first = -1;
+        positions.clear();
+        patternIndex.get(requestPattern, positions);
+        for (int i = 0; i < positions.size(); i++) {
+          int position = positions.get(i).intValue();
+          if ((first < 0 || position < first)
+              && requestPattern.equals(entityPublishContextList.get(position).getPatternKey())) {
+            first = position;
+          }
         }
-        for (EntityPublishContext entityPublishContext : entityPublishContextList) {
-          entityPublishContext.checkEntityRequestIncludes(entityRequestContext);
+        TreeSet<Integer> registered = checkedPositions.get(subscriptionContext);
+        if (registered != null
+            && (first < 0 || registered.first().intValue() <= first)) continue;
+        if (first >= 0) {
+          entityPublishContextList.get(first).checkEntityRequestEquals(entityRequestContext);
+          addCheckedPosition(subscriptionContext, first);
+          continue;
         }
-        for (EntityPublishContext entityPublishContext : entityPublishContextList) {
-          entityPublishContext.checkEntityRequestPotentialMatch(entityRequestContext);
+        
+        positions.clear();
+        patternIndex.included(requestPattern, positions);
+        for (int i = 0; i < positions.size(); i++) {
+          Integer position = positions.get(i);
+          if (entityPublishContextList.get(position.intValue()).checkEntityRequestIncludes(entityRequestContext)) {
+            addCheckedPosition(subscriptionContext, position);
+          }
+        }
+        
+        positions.clear();
+        patternIndex.potentialMatch(requestPattern, positions);
+        for (int i = 0; i < positions.size(); i++) {
+          entityPublishContextList.get(positions.get(i).intValue())
+              .checkEntityRequestPotentialMatch(entityRequestContext);
         }
       }
     }
@@ -311,9 +369,51 @@ public class PublisherContext implements Serializable, PublisherContextMBean {
   }
   
   public void removeEntityRequest(EntityRequestContext entityRequestContext) {
+    buildIndexes();
+    // An entity request can only be registered by the publish contexts
+    // potentially matching its pattern.
+    List<Integer> positions = new ArrayList<Integer>();
+    patternIndex.potentialMatch(entityRequestContext.getPattern(), positions);
+    for (int i = 0; i < positions.size(); i++) {
+      Integer position = positions.get(i);
+      EntityPublishContext entityPublishContext = entityPublishContextList.get(position.intValue());
+      if (entityPublishContext.removeEntityRequest(entityRequestContext)) {
+        removeCheckedPosition(entityRequestContext.getSubscriptionContext(), position);
+      }
+    }
+  }
+  
+  private void buildIndexes() {
+    if (patternIndex != null) return;
+    patternIndex = new EntityKeyIndex<Integer>();
+    checkedPositions = new HashMap<SubscriptionContext, TreeSet<Integer>>();
     for (int i = 0; i < entityPublishContextList.size(); i++) {
       EntityPublishContext entityPublishContext = entityPublishContextList.get(i);
-      entityPublishContext.removeEntityRequest(entityRequestContext);
+      Integer position = new Integer(i);
+      patternIndex.put(entityPublishContext.getPatternKey(), position);
+      List<EntityRequestContext> entityRequestContexts = entityPublishContext.getEntityRequestContexts();
+      for (EntityRequestContext entityRequestContext : entityRequestContexts) {
+        addCheckedPosition(entityRequestContext.getSubscriptionContext(), position);
+      }
+    }
+  }
+  
+  private void addCheckedPosition(SubscriptionContext subscriptionContext, Integer position) {
+    TreeSet<Integer> registered = checkedPositions.get(subscriptionContext);
+    if (registered == null) {
+      registered = new TreeSet<Integer>();
+      checkedPositions.put(subscriptionContext, registered);
+    }
+    registered.add(position);
+  }
+  
+  private void removeCheckedPosition(SubscriptionContext subscriptionContext, Integer position) {
+    TreeSet<Integer> registered = checkedPositions.get(subscriptionContext);
+    if (registered != null) {
+      registered.remove(position);
+      if (registered.isEmpty()) {
+        checkedPositions.remove(subscriptionContext);
+      }
     }
   }
   
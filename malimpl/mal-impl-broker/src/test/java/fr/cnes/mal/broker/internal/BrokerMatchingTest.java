@@ -0,0 +1,430 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.broker.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.junit.Test;
+
+/**
+ * Checks the notifications of the broker against a model scanning the
+ * publisher patterns and the entity requests in list order, as the broker
+ * did before its patterns were indexed.
+ */
+public class BrokerMatchingTest {
+  
+  private static final IdentifierList DOMAIN = new IdentifierList();
+  
+  private static final Identifier NETWORK_ZONE = new Identifier("Network");
+  
+  private static final Identifier SESSION_NAME = new Identifier("LIVE");
+  
+  private static final UShort AREA = new UShort(1);
+  
+  private static final UShort SERVICE = new UShort(1);
+  
+  private static final UShort OPERATION = new UShort(1);
+  
+  private static final UOctet VERSION = new UOctet((short) 1);
+  
+  private static final URI PUBLISHER_URI = new URI("maltcp://publisher");
+  
+  static {
+    DOMAIN.add(new Identifier("spacecraft"));
+  }
+  
+  private static int brokerCount = 0;
+  
+  /**
+   * Entity request of the model.
+   */
+  static final class Request {
+    final String subscription;
+    final EntityKey pattern;
+    final boolean onlyOnChange;
+    
+    Request(String subscription, EntityKey pattern, boolean onlyOnChange) {
+      this.subscription = subscription;
+      this.pattern = pattern;
+      this.onlyOnChange = onlyOnChange;
+    }
+  }
+  
+  /**
+   * Publisher of the model, the entity requests of each pattern are kept in
+   * lists scanned in order.
+   */
+  static final class ListScanPublisher {
+    final List<EntityKey> patterns = new ArrayList<EntityKey>();
+    final List<List<Request>> checked = new ArrayList<List<Request>>();
+    final List<List<Request>> unchecked = new ArrayList<List<Request>>();
+    
+    ListScanPublisher(EntityKeyList keys) {
+      // Same order as PublisherContext.setPatterns
+      for (int rank = 0; rank < 5; rank++) {
+        for (EntityKey key : keys) {
+          if (rank(key) == rank) {
+            patterns.add(key);
+            checked.add(new ArrayList<Request>());
+            unchecked.add(new ArrayList<Request>());
+          }
+        }
+      }
+    }
+    
+    private static int rank(EntityKey key) {
+      boolean first = PublisherContext.ALL_ID.equals(key.getFirstSubKey());
+      boolean second = PublisherContext.ALL_INT.equals(key.getSecondSubKey());
+      boolean third = PublisherContext.ALL_INT.equals(key.getThirdSubKey());
+      boolean fourth = PublisherContext.ALL_INT.equals(key.getFourthSubKey());
+      if (first) return 4;
+      if (second) return 3;
+      if (third) return 2;
+      if (fourth) return 1;
+      return 0;
+    }
+    
+    private boolean isChecked(int position, String subscription) {
+      for (Request request : checked.get(position)) {
+        if (request.subscription.equals(subscription)) return true;
+      }
+      return false;
+    }
+    
+    void register(List<Request> requests) {
+      loop:
+      for (Request request : requests) {
+        for (int i = 0; i < patterns.size(); i++) {
+          if (isChecked(i, request.subscription)) continue loop;
+          if (request.pattern.equals(patterns.get(i))) {
+            checked.get(i).add(request);
+            continue loop;
+          }
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+          if (! isChecked(i, request.subscription)
+              && MALPattern.includes(request.pattern, patterns.get(i))) {
+            checked.get(i).add(request);
+          }
+        }
+        for (int i = 0; i < patterns.size(); i++) {
+          if (MALPattern.potentialMatch(request.pattern, patterns.get(i))) {
+            unchecked.get(i).add(request);
+          }
+        }
+      }
+    }
+    
+    void deregister(String subscription) {
+      for (int i = 0; i < patterns.size(); i++) {
+        remove(checked.get(i), subscription);
+        remove(unchecked.get(i), subscription);
+      }
+    }
+    
+    private static void remove(List<Request> requests, String subscription) {
+      Iterator<Request> iterator = requests.iterator();
+      while (iterator.hasNext()) {
+        if (iterator.next().subscription.equals(subscription)) iterator.remove();
+      }
+    }
+    
+    /**
+     * Returns the number of update headers notified to each subscription,
+     * null if the key does not match any pattern.
+     */
+    Map<String, Integer> publish(EntityKey key, UpdateType updateType) {
+      for (int i = 0; i < patterns.size(); i++) {
+        if (MALPattern.match(key, patterns.get(i))) {
+          Map<String, Integer> notified = new TreeMap<String, Integer>();
+          for (Request request : checked.get(i)) {
+            if (matchUpdateType(request, updateType)) notify(notified, request);
+          }
+          for (Request request : unchecked.get(i)) {
+            if (matchUpdateType(request, updateType)
+                && MALPattern.match(key, request.pattern)) notify(notified, request);
+          }
+          return notified;
+        }
+      }
+      return null;
+    }
+    
+    private static boolean matchUpdateType(Request request, UpdateType updateType) {
+      return ! (request.onlyOnChange && updateType == UpdateType.UPDATE);
+    }
+    
+    private static void notify(Map<String, Integer> notified, Request request) {
+      Integer count = notified.get(request.subscription);
+      notified.put(request.subscription,
+          new Integer((count == null) ? 1 : count.intValue() + 1));
+    }
+  }
+  
+  /**
+   * Creates a broker, each one has its own MBean names.
+   */
+  private static Broker broker() {
+    return new Broker("MAL:type=BrokerMatchingTest,id=" + (brokerCount++));
+  }
+  
+  private static EntityKey key(String id, long second, long third, long fourth) {
+    return new EntityKey((id == null) ? null : new Identifier(id),
+        new Long(second), new Long(third), new Long(fourth));
+  }
+  
+  private static void registerPublisher(Broker broker, EntityKeyList patterns) {
+    broker.registerPublisher(PUBLISHER_URI, new Long(1), DOMAIN, NETWORK_ZONE,
+        SessionType.LIVE, SESSION_NAME, QoSLevel.BESTEFFORT, new UInteger(1),
+        patterns, AREA, SERVICE, OPERATION, VERSION);
+  }
+  
+  /**
+   * Registers a subscription, named subscriber/id.
+   */
+  private static void register(Broker broker, String subscription,
+      List<Request> requests) throws Exception {
+    String[] names = subscription.split("/");
+    BrokerEntityRequest[] entityRequests = new BrokerEntityRequest[requests.size()];
+    for (int i = 0; i < entityRequests.length; i++) {
+      Request request = requests.get(i);
+      entityRequests[i] = new BrokerEntityRequest(null, Boolean.FALSE, Boolean.FALSE,
+          Boolean.FALSE, request.pattern, Boolean.valueOf(request.onlyOnChange));
+    }
+    broker.register(new URI("maltcp://" + names[0]), new Long(1), DOMAIN,
+        NETWORK_ZONE, SessionType.LIVE, SESSION_NAME, QoSLevel.BESTEFFORT,
+        new HashMap(), new UInteger(1), new Identifier(names[1]),
+        entityRequests, AREA, SERVICE, OPERATION, VERSION);
+  }
+  
+  private static void deregister(Broker broker, String subscription) throws Exception {
+    String[] names = subscription.split("/");
+    IdentifierList ids = new IdentifierList();
+    ids.add(new Identifier(names[1]));
+    broker.deregister(new URI("maltcp://" + names[0]), DOMAIN, NETWORK_ZONE,
+        SessionType.LIVE, SESSION_NAME, ids, AREA, SERVICE, OPERATION, VERSION);
+  }
+  
+  /**
+   * Publishes one update, returns the number of update headers notified to
+   * each subscription, null if the key is rejected.
+   */
+  private static Map<String, Integer> publish(Broker broker, EntityKey key,
+      UpdateType updateType) throws Exception {
+    UpdateHeaderList updateHeaders = new UpdateHeaderList();
+    updateHeaders.add(new UpdateHeader(new Time(0), PUBLISHER_URI, updateType, key));
+    BrokerPublication publication = new BrokerPublication(PUBLISHER_URI,
+        DOMAIN, NETWORK_ZONE, SessionType.LIVE, SESSION_NAME, updateHeaders,
+        new List[0], AREA, SERVICE, OPERATION, VERSION);
+    BrokerNotification[] notifications;
+    try {
+      notifications = broker.publish(publication);
+    } catch (UnknownEntityException exc) {
+      return null;
+    }
+    Map<String, Integer> notified = new TreeMap<String, Integer>();
+    for (BrokerNotification notification : notifications) {
+      String subscriber = notification.getSubscriberUri().getValue().substring("maltcp://".length());
+      for (BrokerSubscriptionUpdate update : notification.getSubscriptionUpdateList()) {
+        String subscription = subscriber + '/' + update.getSubscriptionId().getValue();
+        if (notified.containsKey(subscription)) fail("Subscription notified twice: " + subscription);
+        notified.put(subscription, new Integer(update.getUpdateHeaders().size()));
+      }
+    }
+    return notified;
+  }
+  
+  private static List<Request> requests(String subscription, EntityKey... patterns) {
+    List<Request> requests = new ArrayList<Request>();
+    for (EntityKey pattern : patterns) {
+      requests.add(new Request(subscription, pattern, false));
+    }
+    return requests;
+  }
+  
+  private static Map<String, Integer> notified(String... subscriptions) {
+    Map<String, Integer> notified = new TreeMap<String, Integer>();
+    for (String subscription : subscriptions) {
+      notified.put(subscription, new Integer(1));
+    }
+    return notified;
+  }
+  
+  @Test
+  public void testAgainstListScan() throws Exception {
+    Random random = new Random(0);
+    for (int round = 0; round < 20; round++) {
+      Broker broker = broker();
+      
+      EntityKeyList patterns = new EntityKeyList();
+      for (int i = 0; i < 10; i++) {
+        patterns.add(EntityKeyIndexTest.randomKey(random));
+      }
+      // Identical patterns
+      patterns.add(patterns.get(0));
+      patterns.add(patterns.get(1));
+      registerPublisher(broker, patterns);
+      ListScanPublisher model = new ListScanPublisher(patterns);
+      
+      List<String> registered = new ArrayList<String>();
+      for (int step = 0; step < 300; step++) {
+        int action = random.nextInt(10);
+        if (action < 3) {
+          String subscription = "subscriber" + random.nextInt(3) + "/sub" + random.nextInt(10);
+          List<Request> requests = new ArrayList<Request>();
+          int count = 1 + random.nextInt(3);
+          for (int i = 0; i < count; i++) {
+            EntityKey pattern;
+            if (i > 0 && random.nextInt(4) == 0) {
+              // Duplicate entity request
+              pattern = requests.get(0).pattern;
+            } else if (random.nextInt(3) == 0) {
+              pattern = patterns.get(random.nextInt(patterns.size()));
+            } else {
+              pattern = EntityKeyIndexTest.randomKey(random);
+            }
+            requests.add(new Request(subscription, pattern, random.nextBoolean()));
+          }
+          register(broker, subscription, requests);
+          // A registered subscription is replaced
+          model.deregister(subscription);
+          model.register(requests);
+          if (! registered.contains(subscription)) registered.add(subscription);
+        } else if (action < 4 && ! registered.isEmpty()) {
+          String subscription = registered.remove(random.nextInt(registered.size()));
+          deregister(broker, subscription);
+          model.deregister(subscription);
+        } else {
+          EntityKey key = EntityKeyIndexTest.randomKey(random);
+          UpdateType updateType = random.nextBoolean() ? UpdateType.UPDATE : UpdateType.CREATION;
+          assertEquals("round " + round + ", step " + step + ", key " + key,
+              model.publish(key, updateType), publish(broker, key, updateType));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testWildcardFirstSubKey() throws Exception {
+    Broker broker = broker();
+    EntityKeyList patterns = new EntityKeyList();
+    patterns.add(key("*", 1, 1, 1));
+    patterns.add(key("A", 1, 1, 1));
+    registerPublisher(broker, patterns);
+    register(broker, "s1/all", requests("s1/all", key("*", 1, 1, 1)));
+    register(broker, "s1/a", requests("s1/a", key("A", 1, 1, 1)));
+    register(broker, "s2/b", requests("s2/b", key("B", 1, 1, 1)));
+    
+    // The update is only notified through the first matching pattern
+    assertEquals(notified("s1/a"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified("s1/all", "s2/b"), publish(broker, key("B", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified("s1/all"), publish(broker, key("C", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(null, publish(broker, key("A", 2, 1, 1), UpdateType.UPDATE));
+  }
+  
+  @Test
+  public void testNullSubKeys() throws Exception {
+    Broker broker = broker();
+    EntityKeyList patterns = new EntityKeyList();
+    patterns.add(new EntityKey(null, new Long(1), null, null));
+    patterns.add(key("*", 0, 0, 0));
+    registerPublisher(broker, patterns);
+    register(broker, "s1/null", requests("s1/null", new EntityKey(null, new Long(1), null, null)));
+    register(broker, "s1/all", requests("s1/all", key("*", 0, 0, 0)));
+    register(broker, "s2/one", requests("s2/one", key("A", 1, 1, 1)));
+    
+    assertEquals(notified("s1/null"),
+        publish(broker, new EntityKey(null, new Long(1), null, null), UpdateType.UPDATE));
+    assertEquals(notified("s1/all", "s2/one"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified("s1/all"),
+        publish(broker, new EntityKey(new Identifier("A"), new Long(1), null, null), UpdateType.UPDATE));
+  }
+  
+  @Test
+  public void testDuplicateEntityRequests() throws Exception {
+    Broker broker = broker();
+    EntityKeyList patterns = new EntityKeyList();
+    patterns.add(key("A", 1, 1, 1));
+    patterns.add(key("*", 0, 0, 0));
+    registerPublisher(broker, patterns);
+    register(broker, "s1/dup", requests("s1/dup", key("A", 1, 1, 1), key("A", 1, 1, 1)));
+    register(broker, "s2/dup", requests("s2/dup", key("A", 1, 1, 1), key("*", 0, 0, 0)));
+    
+    // The subscription is only registered by the first entity request
+    assertEquals(notified("s1/dup", "s2/dup"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified(), publish(broker, key("B", 1, 1, 1), UpdateType.UPDATE));
+    
+    // Re-registering replaces the entity requests
+    register(broker, "s1/dup", requests("s1/dup", key("B", 1, 1, 1)));
+    assertEquals(notified("s2/dup"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified("s1/dup"), publish(broker, key("B", 1, 1, 1), UpdateType.UPDATE));
+  }
+  
+  @Test
+  public void testDeregisterIdenticalPatterns() throws Exception {
+    Broker broker = broker();
+    EntityKeyList patterns = new EntityKeyList();
+    patterns.add(key("A", 1, 1, 1));
+    patterns.add(key("A", 1, 1, 1));
+    patterns.add(key("*", 0, 0, 0));
+    registerPublisher(broker, patterns);
+    register(broker, "s1/x", requests("s1/x", key("A", 1, 1, 1)));
+    register(broker, "s1/y", requests("s1/y", key("A", 1, 1, 1)));
+    register(broker, "s2/x", requests("s2/x", key("A", 1, 1, 1)));
+    register(broker, "s2/y", requests("s2/y", key("B", 1, 1, 1)));
+    register(broker, "s3/y", requests("s3/y", key("B", 1, 1, 1)));
+    
+    deregister(broker, "s1/x");
+    deregister(broker, "s2/y");
+    assertEquals(notified("s1/y", "s2/x"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    assertEquals(notified("s3/y"), publish(broker, key("B", 1, 1, 1), UpdateType.UPDATE));
+    deregister(broker, "s2/x");
+    assertEquals(notified("s1/y"), publish(broker, key("A", 1, 1, 1), UpdateType.UPDATE));
+    deregister(broker, "s3/y");
+    assertEquals(notified(), publish(broker, key("B", 1, 1, 1), UpdateType.UPDATE));
+  }
+}
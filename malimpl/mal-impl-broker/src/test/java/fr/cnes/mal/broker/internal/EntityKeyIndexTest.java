@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.mal.broker.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.junit.Test;
+
+/**
+ * Checks the lookups of EntityKeyIndex against a scan of the registered
+ * patterns with MALPattern.
+ */
+public class EntityKeyIndexTest {
+  
+  private static final String[] IDS = { "A", "B", MALPattern.ALL, null };
+  
+  private static final Long[] NUMS = { new Long(1), new Long(2), new Long(0), null };
+  
+  static EntityKey randomKey(Random random) {
+    String id = IDS[random.nextInt(IDS.length)];
+    return new EntityKey((id == null) ? null : new Identifier(id),
+        NUMS[random.nextInt(NUMS.length)], NUMS[random.nextInt(NUMS.length)],
+        NUMS[random.nextInt(NUMS.length)]);
+  }
+  
+  private static EntityKey key(String id, long second, long third, long fourth) {
+    return new EntityKey((id == null) ? null : new Identifier(id),
+        new Long(second), new Long(third), new Long(fourth));
+  }
+  
+  private static List<Integer> sorted(List<Integer> list) {
+    Collections.sort(list);
+    return list;
+  }
+  
+  @Test
+  public void testAgainstPatternScan() {
+    Random random = new Random(0);
+    for (int round = 0; round < 20; round++) {
+      EntityKeyIndex<Integer> index = new EntityKeyIndex<Integer>();
+      List<EntityKey> patterns = new ArrayList<EntityKey>();
+      List<Integer> values = new ArrayList<Integer>();
+      for (int i = 0; i < 100; i++) {
+        EntityKey pattern = randomKey(random);
+        patterns.add(pattern);
+        values.add(new Integer(i));
+        index.put(pattern, new Integer(i));
+      }
+      // Some values are unregistered
+      for (int i = 0; i < 30; i++) {
+        int position = random.nextInt(patterns.size());
+        assertTrue(index.remove(patterns.remove(position), values.remove(position)));
+      }
+      assertEquals(patterns.size(), index.size());
+      
+      for (int i = 0; i < 200; i++) {
+        EntityKey key = randomKey(random);
+        List<Integer> match = new ArrayList<Integer>();
+        List<Integer> included = new ArrayList<Integer>();
+        List<Integer> potential = new ArrayList<Integer>();
+        List<Integer> equal = new ArrayList<Integer>();
+        for (int j = 0; j < patterns.size(); j++) {
+          EntityKey pattern = patterns.get(j);
+          if (MALPattern.match(key, pattern)) match.add(values.get(j));
+          if (MALPattern.includes(key, pattern)) included.add(values.get(j));
+          if (MALPattern.potentialMatch(key, pattern)) potential.add(values.get(j));
+          if (key.equals(pattern)) equal.add(values.get(j));
+        }
+        
+        List<Integer> result = new ArrayList<Integer>();
+        index.match(key, result);
+        assertEquals(key.toString(), match, sorted(result));
+        result.clear();
+        index.included(key, result);
+        assertEquals(key.toString(), included, sorted(result));
+        result.clear();
+        index.potentialMatch(key, result);
+        assertEquals(key.toString(), potential, sorted(result));
+        result.clear();
+        index.get(key, result);
+        assertEquals(key.toString(), equal, sorted(result));
+      }
+    }
+  }
+  
+  @Test
+  public void testWildcardFirstSubKey() {
+    EntityKeyIndex<String> index = new EntityKeyIndex<String>();
+    index.put(key("*", 1, 1, 1), "all");
+    index.put(key("A", 1, 1, 1), "A");
+    
+    List<String> result = new ArrayList<String>();
+    index.match(key("B", 1, 1, 1), result);
+    assertEquals(Collections.singletonList("all"), result);
+    result.clear();
+    index.included(key("*", 1, 1, 1), result);
+    assertEquals(2, result.size());
+    result.clear();
+    index.included(key("A", 1, 1, 1), result);
+    assertEquals(Collections.singletonList("A"), result);
+  }
+  
+  @Test
+  public void testNullSubKeys() {
+    EntityKeyIndex<String> index = new EntityKeyIndex<String>();
+    index.put(new EntityKey(null, new Long(1), null, new Long(1)), "null");
+    
+    List<String> result = new ArrayList<String>();
+    // A null sub-key only matches null, not the wildcard value
+    index.match(new EntityKey(null, new Long(1), null, new Long(1)), result);
+    assertEquals(Collections.singletonList("null"), result);
+    result.clear();
+    index.match(new EntityKey(new Identifier("*"), new Long(1), null, new Long(1)), result);
+    assertTrue(result.isEmpty());
+    index.match(key("A", 1, 1, 1), result);
+    assertTrue(result.isEmpty());
+    index.potentialMatch(key("*", 1, 0, 1), result);
+    assertEquals(Collections.singletonList("null"), result);
+  }
+  
+  @Test
+  public void testRemoveIdenticalPatterns() {
+    EntityKeyIndex<String> index = new EntityKeyIndex<String>();
+    index.put(key("A", 1, 1, 1), "first");
+    index.put(key("A", 1, 1, 1), "second");
+    assertTrue(index.remove(key("A", 1, 1, 1), "first"));
+    assertFalse(index.remove(key("A", 1, 1, 1), "first"));
+    assertFalse(index.remove(key("A", 1, 2, 1), "second"));
+    
+    List<String> result = new ArrayList<String>();
+    index.match(key("A", 1, 1, 1), result);
+    assertEquals(Collections.singletonList("second"), result);
+    assertTrue(index.remove(key("A", 1, 1, 1), "second"));
+    assertEquals(0, index.size());
+    result.clear();
+    index.match(key("A", 1, 1, 1), result);
+    assertTrue(result.isEmpty());
+  }
+}
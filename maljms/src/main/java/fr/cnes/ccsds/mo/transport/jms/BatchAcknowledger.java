@@ -0,0 +1,201 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+import org.objectweb.util.monolog.api.BasicLevel;
+import org.objectweb.util.monolog.api.Logger;
+
+/**
+ * Acknowledges by batches the messages received by a CLIENT_ACKNOWLEDGE
+ * session.
+ *
+ * The freed messages are only counted and the last one is acknowledged when
+ * the batch size is reached or the batch window elapsed. In JMS the
+ * acknowledgement of a message acknowledges all the messages consumed by its
+ * session, including the delivered messages that are not freed yet: such a
+ * message is not redelivered if the connection fails afterwards. A freed
+ * message that is not acknowledged yet is redelivered.
+ *
+ * The acknowledgement is done by the thread delivering the messages of the
+ * session (see acknowledgeDue), a session used by a message listener cannot
+ * be used by other threads. When no message is delivered anymore, a timer
+ * wakes the delivery thread up once the batch window of a pending batch
+ * expired (see Waker), so the freed messages are acknowledged even if the
+ * stream stops.
+ */
+public class BatchAcknowledger {
+
+  public final static Logger logger =
+    fr.dyade.aaa.common.Debug.getLogger(BatchAcknowledger.class.getName());
+
+  private final int batchSize;
+
+  private final long batchWindow;
+
+  private final Timer timer;
+
+  private final Waker waker;
+
+  /**
+   * Last freed message, null if all the freed messages are acknowledged.
+   */
+  private Message last;
+
+  private int count;
+
+  private long batchStart;
+
+  /**
+   * Number of the current batch, a wake-up is only needed if the batch it
+   * was scheduled for is still pending.
+   */
+  private long batchNumber;
+
+  /**
+   * Wakes up the delivery thread of the session, which then calls
+   * acknowledgeDue, e.g. by sending a message to a consumer of the session.
+   * The wake-up is called by the timer thread, it must not block.
+   */
+  public interface Waker {
+    /**
+     * @return false if the delivery thread cannot be woken up now, the
+     *    wake-up is retried after the batch window
+     */
+    boolean wakeUp() throws Exception;
+  }
+
+  /**
+   * Constructor, the freed messages are only acknowledged when a message is
+   * delivered or when the acknowledger is flushed.
+   *
+   * @param batchSize the number of messages acknowledged together
+   * @param batchWindow the delay in milliseconds after which the freed
+   *    messages are acknowledged
+   */
+  public BatchAcknowledger(int batchSize, long batchWindow) {
+    this(batchSize, batchWindow, null, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param batchSize the number of messages acknowledged together
+   * @param batchWindow the delay in milliseconds after which the freed
+   *    messages are acknowledged
+   * @param timer the timer scheduling the wake-ups, null if none
+   * @param waker wakes up the delivery thread of the session when the batch
+   *    window of a pending batch expired
+   */
+  public BatchAcknowledger(int batchSize, long batchWindow, Timer timer,
+      Waker waker) {
+    this.batchSize = batchSize;
+    this.batchWindow = batchWindow;
+    this.timer = timer;
+    this.waker = waker;
+  }
+
+  /**
+   * Counts a freed message, it is acknowledged by the delivery thread of the
+   * session. May be called by any thread.
+   *
+   * @param jmsMsg the freed message
+   */
+  public synchronized void acknowledge(Message jmsMsg) {
+    last = jmsMsg;
+    if (count++ == 0) {
+      batchStart = System.currentTimeMillis();
+      batchNumber++;
+      if (timer != null && batchWindow > 0) {
+        timer.schedule(new WakeUpTask(batchNumber), batchWindow);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the specified batch is not acknowledged yet.
+   */
+  private synchronized boolean isPending(long number) {
+    return last != null && batchNumber == number;
+  }
+
+  /**
+   * Returns the last freed message and resets the batch.
+   *
+   * @param due true if only a complete batch is returned
+   * @return the message to acknowledge, null if none
+   */
+  private synchronized Message takeLast(boolean due) {
+    if (last == null) return null;
+    if (due && count < batchSize &&
+        (batchWindow <= 0 || System.currentTimeMillis() - batchStart < batchWindow)) {
+      return null;
+    }
+    Message jmsMsg = last;
+    last = null;
+    count = 0;
+    return jmsMsg;
+  }
+
+  /**
+   * Acknowledges the freed messages if the batch size is reached or the
+   * batch window elapsed. Must be called by the delivery thread of the
+   * session, e.g. at the end of MessageListener.onMessage.
+   */
+  public void acknowledgeDue() {
+    Message jmsMsg = takeLast(true);
+    if (jmsMsg == null) return;
+    try {
+      jmsMsg.acknowledge();
+    } catch (JMSException exc) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "", exc);
+    }
+  }
+
+  /**
+   * Acknowledges the freed messages. Must be called when no message is
+   * delivered by the session, e.g. before closing it.
+   *
+   * @throws JMSException if the acknowledgement fails
+   */
+  public void flush() throws JMSException {
+    Message jmsMsg = takeLast(false);
+    if (jmsMsg == null) return;
+    if (logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "BatchAcknowledger.flush()");
+    jmsMsg.acknowledge();
+  }
+
+  /**
+   * Wakes up the delivery thread once the batch window of a batch expired,
+   * unless the batch has been acknowledged meanwhile.
+   */
+  class WakeUpTask extends TimerTask {
+    private final long number;
+
+    WakeUpTask(long number) {
+      this.number = number;
+    }
+
+    public void run() {
+      if (! isPending(number)) return;
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "BatchAcknowledger.wakeUp()");
+      try {
+        if (! waker.wakeUp()) {
+          if (logger.isLoggable(BasicLevel.DEBUG))
+            logger.log(BasicLevel.DEBUG, "BatchAcknowledger.wakeUp(), retried");
+          timer.schedule(new WakeUpTask(number), batchWindow);
+        }
+      } catch (Exception exc) {
+        // The timer is shared, it must not be stopped
+        if (logger.isLoggable(BasicLevel.WARN))
+          logger.log(BasicLevel.WARN, "", exc);
+      }
+    }
+  }
+}
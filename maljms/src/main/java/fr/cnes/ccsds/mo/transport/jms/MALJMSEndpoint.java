@@ -3,20 +3,22 @@ package fr.cnes.ccsds.mo.transport.jms;
 import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.BytesMessage;
 import javax.jms.DeliveryMode;
-import javax.jms.Destination;
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.Session;
+import javax.jms.TemporaryQueue;
 import javax.jms.Topic;
 
 import org.ccsds.moims.mo.mal.MALArea;
@@ -47,6 +49,7 @@ import org.ccsds.moims.mo.mal.structures.UShort;
 import org.ccsds.moims.mo.mal.structures.Union;
 import org.ccsds.moims.mo.mal.structures.UpdateHeader;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
@@ -60,6 +63,7 @@ import org.objectweb.util.monolog.api.BasicLevel;
 import org.objectweb.util.monolog.api.Logger;
 
 import fr.cnes.ccsds.mo.transport.gen.body.GENDeregisterBody;
+import fr.cnes.ccsds.mo.transport.gen.body.GENMessageBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishBody;
 import fr.dyade.aaa.common.Strings;
 
@@ -73,27 +77,52 @@ public class MALJMSEndpoint implements MALEndpoint {
   private String queueName;
   private String consumerId;
   private Session session;
-  private Session transactedSession;
   private Hashtable subscriptions;
   private MALJMSMessageConsumer consumer;
   private Hashtable publishRegisterContexts;
   private Map endPointProperties;
   private MALMessageListener listener;
   
-  private HashMap<URI, MessageProducer> producerCache;
-  
-  private HashMap<URI, Topic> topicCache;
+  private ConcurrentHashMap<URI, Topic> topicCache;
   
   private Queue endpointQueue;
   
   private MessageConsumer jmsConsumer;
   
+  /**
+   * True if the updates of a PUBLISH are grouped into batched JMS messages,
+   * see MALJMSTransport.BATCH_PUBLISH.
+   */
+  private boolean batchPublish;
+  
+  /**
+   * Acknowledges the messages received by the endpoint session by batches,
+   * null if each message is acknowledged when freed, see
+   * MALJMSTransport.ACK_BATCH_SIZE.
+   */
+  private BatchAcknowledger acknowledger;
+  
+  private int ackBatchSize = 1;
+  
+  private long ackBatchWindow;
+  
+  /**
+   * True if the entity keys of the subscriptions are checked by this
+   * endpoint, see MALJMSTransport.LOCAL_FILTERING.
+   */
+  private boolean localFiltering;
+  
+  /**
+   * True if the headers of the sent messages are mapped in the compact way
+   * by default, see MALJMSTransport.COMPACT_HEADER.
+   */
+  private boolean compactHeader;
+  
   public MALJMSEndpoint(MALJMSTransport transport,
     String localName,
     String queueName,
     String consumerId,
     Session session,
-    Session transactedSession,
     Queue endpointQueue,
     boolean noack,
     Map endPointProperties) throws Exception {
@@ -102,15 +131,53 @@ public class MALJMSEndpoint implements MALEndpoint {
     this.queueName = queueName;
     this.consumerId = consumerId;
     this.session = session;
-    this.transactedSession = transactedSession;
     this.endpointQueue = endpointQueue;
     this.endPointProperties = endPointProperties;
     subscriptions = new Hashtable();
     consumer = null;
     //malEncoder = new MALByteArrayEncoder(transport.getElementStreamFactory());
     publishRegisterContexts = new Hashtable();
-    producerCache = new HashMap<URI, MessageProducer>();
-    topicCache = new HashMap<URI, Topic>();
+    topicCache = new ConcurrentHashMap<URI, Topic>();
+    if (endPointProperties != null) {
+      Object batchPublishProp = endPointProperties.get(MALJMSTransport.BATCH_PUBLISH);
+      batchPublish = Boolean.parseBoolean(String.valueOf(batchPublishProp));
+      Object localFilteringProp = endPointProperties.get(MALJMSTransport.LOCAL_FILTERING);
+      localFiltering = Boolean.parseBoolean(String.valueOf(localFilteringProp));
+      Object compactHeaderProp = endPointProperties.get(MALJMSTransport.COMPACT_HEADER);
+      compactHeader = Boolean.parseBoolean(String.valueOf(compactHeaderProp));
+      ackBatchSize = (int) MALJMSTransport.getLongProperty(endPointProperties, 
+          MALJMSTransport.ACK_BATCH_SIZE, 1);
+      ackBatchWindow = MALJMSTransport.getLongProperty(endPointProperties, 
+          MALJMSTransport.ACK_BATCH_WINDOW, 100);
+    }
+    acknowledger = createAcknowledger(session);
+  }
+  
+  /**
+   * Creates the acknowledger of the messages received by a session. The
+   * session also consumes a temporary queue, a message is sent to it when
+   * the batch window of a pending batch expires so that the delivery thread
+   * of the session acknowledges the batch even if the stream stopped.
+   * 
+   * @param session the session receiving the messages
+   * @return null if each message is acknowledged when freed
+   */
+  private BatchAcknowledger createAcknowledger(Session session) throws JMSException {
+    if (ackBatchSize <= 1) return null;
+    if (ackBatchWindow <= 0) return new BatchAcknowledger(ackBatchSize, ackBatchWindow);
+    TemporaryQueue wakeUpQueue = session.createTemporaryQueue();
+    final BatchAcknowledger acknowledger = new BatchAcknowledger(ackBatchSize,
+        ackBatchWindow, transport.getTimer(), new WakeUpSender(
+            transport.getSessionPool(),
+            MALJMSHelper.getQueueUri(wakeUpQueue.getQueueName())));
+    MessageConsumer wakeUpConsumer = session.createConsumer(wakeUpQueue);
+    wakeUpConsumer.setMessageListener(new MessageListener() {
+      public void onMessage(Message msg) {
+        // Delivery thread of the session
+        acknowledger.acknowledgeDue();
+      }
+    });
+    return acknowledger;
   }
   
   final Session getSession() {
@@ -128,6 +195,14 @@ public class MALJMSEndpoint implements MALEndpoint {
   final Map getQoSProperties() {
     return endPointProperties;
   }
+  
+  /**
+   * @return the acknowledger of the messages received by the endpoint
+   * session, null if they are acknowledged when freed
+   */
+  final BatchAcknowledger getAcknowledger() {
+    return acknowledger;
+  }
 
   public void close() throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
@@ -138,8 +213,12 @@ public class MALJMSEndpoint implements MALEndpoint {
         // TODO: not possible in JMS
         // channel.queueDelete(queueName);
       }
+      Enumeration enumer = subscriptions.elements();
+      while (enumer.hasMoreElements()) {
+        ((SubscriptionContext) enumer.nextElement()).close();
+      }
+      if (acknowledger != null) acknowledger.flush();
       session.close();
-      transactedSession.close();
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.ERROR))
         logger.log(BasicLevel.ERROR, "", e);
@@ -155,61 +234,59 @@ public class MALJMSEndpoint implements MALEndpoint {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendMessage(" +
           msg + ')');
+    SessionPool pool = transport.getSessionPool();
+    SessionPool.PooledSession ps = null;
     try {
+      ps = pool.lease();
+      dispatchMessage(msg, ps);
+      ps.commit();
+      pool.release(ps);
+    } catch (Exception exc) {
+      if (ps != null) {
+        // The session may be broken
+        pool.discard(ps);
+      }
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "", exc);
+      throw createTransmitError(msg, exc);
+    }
+  }
+  
+  private void dispatchMessage(MALMessage msg, SessionPool.PooledSession ps) 
+    throws MALException {
     int interactionType = msg.getHeader().getInteractionType().getOrdinal();
     if (interactionType == InteractionType._PUBSUB_INDEX) {
       short interactionStage = msg.getHeader().getInteractionStage().getValue();
       if (interactionStage == MALPubSubOperation._REGISTER_STAGE) {
-        sendRegisterMessage(msg);
+        sendRegisterMessage(msg, ps);
       } else if (interactionStage == MALPubSubOperation._PUBLISH_STAGE) {
-        sendPublishMessage(msg);
+        sendPublishMessage(msg, ps);
       } else if (interactionStage == MALPubSubOperation._DEREGISTER_STAGE) {
-        sendDeregisterMessage(msg);
+        sendDeregisterMessage(msg, ps);
       } else if (interactionStage == MALPubSubOperation._PUBLISH_REGISTER_STAGE) {
-        sendPublishRegisterMessage(msg);
+        sendPublishRegisterMessage(msg, ps);
       } else if (interactionStage == MALPubSubOperation._PUBLISH_DEREGISTER_STAGE) {
-        sendPublishDeregisterMessage(msg);
+        sendPublishDeregisterMessage(msg, ps);
       } else {
-        URI uriTo = msg.getHeader().getURITo();
-        MessageProducer pTo = getProducer(uriTo);
-        defaultSendMessage(msg, pTo);
+        defaultSendMessage(msg, ps);
       }
     } else {
-      URI uriTo = msg.getHeader().getURITo();
-      MessageProducer pTo = getProducer(uriTo);
-        defaultSendMessage(msg, pTo);
-      }
-    } catch (Exception exc) {
-      if (logger.isLoggable(BasicLevel.WARN))
-        logger.log(BasicLevel.WARN, "", exc);
-      throw new MALTransmitErrorException(msg.getHeader(), 
-          new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, new Union(exc.toString())), 
-          msg.getQoSProperties());
+      defaultSendMessage(msg, ps);
     }
   }
   
-  private MessageProducer getProducer(URI uriTo) throws Exception {
-    MessageProducer p = producerCache.get(uriTo);
-    if (p == null) {
-      String destName;
-      Destination dest;
-      if (MALJMSHelper.isTransportLevelBroker(uriTo)) {
-        destName = MALJMSHelper.getTopicName(uriTo);
-        //dest = transactedSession.createTopic(destName);
-        dest = session.createTopic(destName);
-      } else {
-        destName = MALJMSHelper.getQueueName(uriTo);
-        //dest = transactedSession.createQueue(destName);
-        dest = session.createQueue(destName);
-      }
-      //p = transactedSession.createProducer(dest);
-      p = session.createProducer(dest);
-      producerCache.put(uriTo, p);
-    }
-    return p;
+  private static MALTransmitErrorException createTransmitError(MALMessage msg, 
+      Exception exc) {
+    return new MALTransmitErrorException(msg.getHeader(), 
+        new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, new Union(exc.toString())), 
+        msg.getQoSProperties());
   }
   
-  private Topic getTopic(URI uriTo) throws Exception {
+  /**
+   * Returns the topic of a shared broker, created with the given session at
+   * first use.
+   */
+  private Topic getTopic(URI uriTo, Session session) throws Exception {
     Topic t = topicCache.get(uriTo);
     if (t == null) {
       String routingKey = MALJMSHelper.getTopicName(uriTo);
@@ -219,7 +296,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     return t;
   }
   
-  public Message mapToJms(MALMessage msg) throws MALException {
+  public Message mapToJms(MALMessage msg, Session jmsSession) throws MALException {
     Map qosProperties = msg.getQoSProperties();
 
     MALArea messageArea = MALContextFactory.lookupArea(msg.getHeader().getServiceArea(), msg.getHeader().getAreaVersion());
@@ -236,7 +313,13 @@ public class MALJMSEndpoint implements MALEndpoint {
     
     // Resolve all the message header fields
     int areaId = messageService.getArea().getNumber().getValue();
-    byte[] authenticationId = msg.getHeader().getAuthenticationId().getValue();
+    byte[] authenticationId;
+    Blob authenticationIdB = msg.getHeader().getAuthenticationId();
+    if (authenticationIdB == null) {
+      authenticationId = null;
+    } else {
+      authenticationId = authenticationIdB.getValue();
+    }
     IdentifierList domainId = msg.getHeader().getDomain();
     short interactionStage;
     UOctet interactionStageB = msg.getHeader().getInteractionStage();
@@ -246,10 +329,23 @@ public class MALJMSEndpoint implements MALEndpoint {
       interactionStage = interactionStageB.getValue();
     }
     int interactionType = msg.getHeader().getInteractionType().getOrdinal();
-    String networkZone = msg.getHeader().getNetworkZone().getValue();
+    String networkZone;
+    Identifier networkZoneI = msg.getHeader().getNetworkZone();
+    if (networkZoneI == null) {
+      networkZone = null;
+    } else {
+      networkZone = networkZoneI.getValue();
+    }
     int operation = msg.getHeader().getOperation().getValue();
     int priority = (int) msg.getHeader().getPriority().getValue();
-    int qosLevel = msg.getHeader().getQoSlevel().getOrdinal();
+    int qosLevel;
+    QoSLevel qosLevelE = msg.getHeader().getQoSlevel();
+    if (qosLevelE == null) {
+      // Not mapped, the message is persistent
+      qosLevel = -1;
+    } else {
+      qosLevel = qosLevelE.getOrdinal();
+    }
     int serviceId = messageService.getNumber().getValue();
     int sessionType = msg.getHeader().getSession().getOrdinal();
     Identifier sessionNameI = msg.getHeader().getSessionName();
@@ -259,13 +355,24 @@ public class MALJMSEndpoint implements MALEndpoint {
     } else {
       sessionName = "";
     }
-    long timeStamp = msg.getHeader().getTimestamp().getValue();
+    Long timeStamp;
+    Time timeStampT = msg.getHeader().getTimestamp();
+    if (timeStampT == null) {
+      timeStamp = null;
+    } else {
+      timeStamp = new Long(timeStampT.getValue());
+    }
     Long transactionId = msg.getHeader().getTransactionId();
     short version = msg.getHeader().getAreaVersion().getValue();
     boolean isError = msg.getHeader().getIsErrorMessage().booleanValue();
     
     Integer ttl;
+    boolean compact = compactHeader;
     if (qosProperties != null) {
+      Object compactHeaderProp = qosProperties.get(MALJMSTransport.COMPACT_HEADER);
+      if (compactHeaderProp != null) {
+        compact = Boolean.parseBoolean(String.valueOf(compactHeaderProp));
+      }
       // Resolve the QoS property time-to-live
       ttl = (Integer) qosProperties.get("timeToLive");
     } else {
@@ -273,36 +380,16 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
     
     try {
-      //BytesMessage jmsMsg = transactedSession.createBytesMessage();
-      BytesMessage jmsMsg = session.createBytesMessage();
+      BytesMessage jmsMsg = jmsSession.createBytesMessage();
 
-      if (authenticationId != null && authenticationId.length != 0) {
-        jmsMsg.setStringProperty(
-            MALJMSHelper.AUTHENTICATION_ID_HEADER_FIELD_NAME, new String(
-                authenticationId));
-      }
       if (domainId != null) {
         jmsMsg.setStringProperty(MALJMSHelper.DOMAIN_HEADER_FIELD_NAME,
             MALJMSHelper.domainToString(domainId));
       }
-      if (networkZone != null) {
-        jmsMsg.setStringProperty(MALJMSHelper.NETWORK_ZONE_HEADER_FIELD_NAME,
-            networkZone);
-      }
-      
-      jmsMsg.setStringProperty(MALJMSHelper.FROM_HEADER_FIELD_NAME,
-          queueName);
-      
       jmsMsg.setIntProperty(MALJMSHelper.SESSION_HEADER_FIELD_NAME,
           new Integer(sessionType));
       jmsMsg.setStringProperty(MALJMSHelper.SESSION_NAME_HEADER_FIELD_NAME,
           sessionName);
-      jmsMsg.setIntProperty(MALJMSHelper.INTERACTION_TYPE_HEADER_FIELD_NAME,
-          new Integer(interactionType));
-      jmsMsg.setIntProperty(MALJMSHelper.INTERACTION_STAGE_HEADER_FIELD_NAME,
-          new Integer(interactionStage));
-      jmsMsg
-          .setLongProperty(MALJMSHelper.TRANSACTION_ID_HEADER_FIELD_NAME, transactionId);
       jmsMsg.setIntProperty(MALJMSHelper.AREA_HEADER_FIELD_NAME, new Integer(
           areaId));
       jmsMsg.setIntProperty(MALJMSHelper.SERVICE_HEADER_FIELD_NAME,
@@ -311,18 +398,48 @@ public class MALJMSEndpoint implements MALEndpoint {
           new Integer(version));
       jmsMsg.setIntProperty(MALJMSHelper.OPERATION_HEADER_FIELD_NAME,
           new Integer(operation));
-      jmsMsg.setIntProperty(MALJMSHelper.QOS_LEVEL_HEADER_FIELD_NAME,
-          new Integer(qosLevel));
-      jmsMsg.setLongProperty(MALJMSHelper.TIMESTAMP_HEADER_FIELD_NAME,
-          timeStamp);
-      int isErrorI;
-      if (isError) {
-        isErrorI = 1;
+
+      if (compact) {
+        MALJMSHelper.writeCompactHeader(msg.getHeader(), queueName, jmsMsg);
       } else {
-        isErrorI = 0;
+        if (authenticationId != null && authenticationId.length != 0) {
+          jmsMsg.setStringProperty(
+              MALJMSHelper.AUTHENTICATION_ID_HEADER_FIELD_NAME, new String(
+                  authenticationId));
+        }
+        if (networkZone != null) {
+          jmsMsg.setStringProperty(MALJMSHelper.NETWORK_ZONE_HEADER_FIELD_NAME,
+              networkZone);
+        }
+      
+        jmsMsg.setStringProperty(MALJMSHelper.FROM_HEADER_FIELD_NAME,
+            queueName);
+      
+        jmsMsg.setIntProperty(MALJMSHelper.INTERACTION_TYPE_HEADER_FIELD_NAME,
+            new Integer(interactionType));
+        jmsMsg.setIntProperty(MALJMSHelper.INTERACTION_STAGE_HEADER_FIELD_NAME,
+            new Integer(interactionStage));
+        if (transactionId != null) {
+          jmsMsg.setLongProperty(MALJMSHelper.TRANSACTION_ID_HEADER_FIELD_NAME,
+              transactionId.longValue());
+        }
+        if (qosLevel >= 0) {
+          jmsMsg.setIntProperty(MALJMSHelper.QOS_LEVEL_HEADER_FIELD_NAME,
+              new Integer(qosLevel));
+        }
+        if (timeStamp != null) {
+          jmsMsg.setLongProperty(MALJMSHelper.TIMESTAMP_HEADER_FIELD_NAME,
+              timeStamp.longValue());
+        }
+        int isErrorI;
+        if (isError) {
+          isErrorI = 1;
+        } else {
+          isErrorI = 0;
+        }
+        jmsMsg.setIntProperty(MALJMSHelper.IS_ERROR_HEADER_FIELD_NAME,
+            new Integer(isErrorI));
       }
-      jmsMsg.setIntProperty(MALJMSHelper.IS_ERROR_HEADER_FIELD_NAME,
-          new Integer(isErrorI));
 
       jmsMsg.setJMSPriority(new Integer(priority));
 
@@ -346,16 +463,22 @@ public class MALJMSEndpoint implements MALEndpoint {
       boolean immediate = (qosLevel != QoSLevel.QUEUED.getOrdinal());
       // Encode the body
       MALMessageBody body = msg.getBody();
-      int bodySize = body.getElementCount();
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      MALElementOutputStream meos = transport.getElementStreamFactory()
-          .createOutputStream(baos);
-      for (int i = 0; i < bodySize; i++) {
-        msgCtx.setBodyElementIndex(i);
-        meos.writeElement((Element) body.getBodyElement(i, null), msgCtx);
+      byte[] encodedBody;
+      if ((body instanceof GENMessageBody) && ((GENMessageBody) body).isEncoded()) {
+        // Already encoded body (forwarded message), sent as is
+        encodedBody = GENMessageBody.getBytes(body.getEncodedBody());
+      } else {
+        int bodySize = body.getElementCount();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        MALElementOutputStream meos = transport.getElementStreamFactory()
+            .createOutputStream(baos);
+        for (int i = 0; i < bodySize; i++) {
+          msgCtx.setBodyElementIndex(i);
+          meos.writeElement((Element) body.getBodyElement(i, null), msgCtx);
+        }
+        meos.flush();
+        encodedBody = baos.toByteArray();
       }
-      meos.flush();
-      byte[] encodedBody = baos.toByteArray();
 
       jmsMsg.writeInt(encodedBody.length);
       jmsMsg.writeBytes(encodedBody);
@@ -368,18 +491,19 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
-  public void defaultSendMessage(MALMessage msg, MessageProducer mp) 
+  public void defaultSendMessage(MALMessage msg, SessionPool.PooledSession ps) 
     throws MALException {
-    defaultSendMessage(msg, mp, endpointQueue);
+    defaultSendMessage(msg, ps, endpointQueue);
   }
 
-  public void defaultSendMessage(MALMessage msg, MessageProducer mp, Queue replyToQ) 
+  public void defaultSendMessage(MALMessage msg, SessionPool.PooledSession ps, Queue replyToQ) 
     throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.defaultSendMessage(" +
           msg + ')');
     try {
-      Message jmsMsg = mapToJms(msg);
+      MessageProducer mp = ps.getProducer(msg.getHeader().getURITo());
+      Message jmsMsg = mapToJms(msg, ps.getSession());
       jmsMsg.setJMSReplyTo(replyToQ);
       
       if (jmsMsg.getJMSDeliveryMode() == DeliveryMode.NON_PERSISTENT) {
@@ -388,10 +512,7 @@ public class MALJMSEndpoint implements MALEndpoint {
         mp.setDeliveryMode(DeliveryMode.PERSISTENT);
       }
       
-      mp.send(jmsMsg);
-      
-      //transactedSession.commit();
-      
+      ps.send(mp, jmsMsg);
     } catch (Exception exc) {
       if (logger.isLoggable(BasicLevel.ERROR))
         logger.log(BasicLevel.ERROR, "", exc);
@@ -399,7 +520,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
-  private void sendRegisterMessage(MALMessage msg) throws MALException {
+  private void sendRegisterMessage(MALMessage msg, SessionPool.PooledSession ps) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendRegisterMessage(" +
           msg + ')');
@@ -427,8 +548,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     boolean isShared = MALJMSHelper.isTransportLevelBroker(uriTo);
     if (isShared) {
       try {
-        Topic topic = getTopic(uriTo);
-        createSubscription(msg.getHeader(), topic, subscriptionCtx);
+        createSubscription(msg.getHeader(), uriTo, subscriptionCtx);
         sendAcknowledge(msg.getHeader(),
             MALPubSubOperation._REGISTER_ACK_STAGE, qosProperties);
       } catch (Exception exc) {
@@ -441,7 +561,7 @@ public class MALJMSEndpoint implements MALEndpoint {
       // Queue replyToQ = subscriptionCtx.getSubscriptionQueue();
       
       try {
-        defaultSendMessage(msg, getProducer(uriTo));
+        defaultSendMessage(msg, ps);
       } catch (Exception exc) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", exc);
@@ -450,7 +570,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
-  private void sendDeregisterMessage(MALMessage msg)
+  private void sendDeregisterMessage(MALMessage msg, SessionPool.PooledSession ps)
   throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendDeregisterMessage(" +
@@ -490,12 +610,11 @@ public class MALJMSEndpoint implements MALEndpoint {
           subscriptionCtx.delete();
         }
         
-        MessageProducer mp = getProducer(uriTo);
         List<Element> deregisterBody = new ArrayList<Element>();
         deregisterBody.add(idList);
         MALMessage deregisterMsg = new MALJMSMessage(msg.getHeader(),
             new GENDeregisterBody(deregisterBody), msg.getQoSProperties());
-        defaultSendMessage(deregisterMsg, mp);
+        defaultSendMessage(deregisterMsg, ps);
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -538,12 +657,29 @@ public class MALJMSEndpoint implements MALEndpoint {
   }
   */
   private void createSubscription(MALMessageHeader header,
-      Topic topic, SubscriptionContext ctx) throws MALException {
+      URI uriTo, SubscriptionContext ctx) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.createSubscription(" +
-          topic + ',' + ctx + ')');
+          uriTo + ',' + ctx + ')');
     try {
-      String selector = MALJMSHelper.getMessageSelector(header, ctx.getSubscription());
+      // The endpoint session delivers the messages of the endpoint queue
+      // and cannot be used by this thread
+      Session session = ctx.getSession();
+      if (session == null) {
+        session = transport.createConsumerSession();
+        ctx.setSession(session);
+        ctx.setAcknowledger(createAcknowledger(session));
+      } else {
+        // Registered again, the session is not used by a listener anymore
+        ctx.closeJmsConsumer();
+      }
+      Topic topic = getTopic(uriTo, session);
+      String selector;
+      if (localFiltering) {
+        selector = MALJMSHelper.getCoarseMessageSelector(header, ctx.getSubscription());
+      } else {
+        selector = MALJMSHelper.getMessageSelector(header, ctx.getSubscription());
+      }
       MessageConsumer jmsConsumer;
       if (header.getQoSlevel().getOrdinal() == QoSLevel._QUEUED_INDEX) {
         String subscriptionName = consumerId + '.'
@@ -555,6 +691,9 @@ public class MALJMSEndpoint implements MALEndpoint {
         jmsConsumer = session.createConsumer(topic, selector);
       }
       ctx.setJmsConsumer(jmsConsumer);
+      ctx.setRegisterHeader(header);
+      ctx.setMatcher(new SubscriptionMatcher(header, ctx.getSubscription()));
+      ctx.setLocalFiltering(localFiltering);
       ctx.activate(consumer.getListener());
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.ERROR))
@@ -563,7 +702,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
-  private void sendPublishMessage(MALMessage msg)
+  private void sendPublishMessage(MALMessage msg, SessionPool.PooledSession ps)
     throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendPublishMessage(" +
@@ -610,7 +749,7 @@ public class MALJMSEndpoint implements MALEndpoint {
       
       MessageProducer jmsProducer;
       try {
-        jmsProducer = getProducer(uriTo);
+        jmsProducer = ps.getProducer(uriTo);
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -618,57 +757,28 @@ public class MALJMSEndpoint implements MALEndpoint {
       }
       
       try {
-        for (int j = 0; j < updateHeaderList.size(); j++) {
-          UpdateHeader updateHeader = (UpdateHeader) updateHeaderList.get(j);
-
-          //if (logger.isLoggable(BasicLevel.ERROR))
-          //  logger.log(BasicLevel.ERROR, "jmsMsg=" + jmsMsg);
-          
-          Map qosProperties = msg.getQoSProperties();
-          UpdateHeaderList updateHeaderList2 = new UpdateHeaderList();
-          updateHeaderList2.add(updateHeader);
-
-          List[] updateLists2 = new List[updateLists.length];
-          for (int k = 0; k < updateLists.length; k++) {
-            updateLists2[k] = (List) ((Element) updateLists[k]).createElement();
-            updateLists2[k].add(updateLists[k].get(j));
-          }
-
-          List<Element> publishElements = new ArrayList<Element>(
-              publishBody.getElementCount());
-          publishElements.add(updateHeaderList2);
-          for (int k = 0; k < updateLists.length; k++) {
-            publishElements.add((Element) updateLists2[k]);
-          }
-
-          MALMessage publishMsg = new MALJMSMessage(msg.getHeader(),
-              new GENPublishBody(publishElements), qosProperties);
-          
-          Message jmsMsg = mapToJms(publishMsg);
-
-          MALJMSHelper.setPublishJmsProperties(msg.getHeader(), updateHeader,
-              jmsMsg);
-          jmsMsg.setStringProperty(MALJMSHelper.TOPIC_URI, uriTo.getValue());
+        if (batchPublish) {
+          sendBatchPublishMessages(msg, uriTo, ps, jmsProducer, 
+              updateHeaderList, updateLists);
+        } else {
+          for (int j = 0; j < updateHeaderList.size(); j++) {
+            UpdateHeader updateHeader = (UpdateHeader) updateHeaderList.get(j);
+            UpdateHeaderList updateHeaderList2 = new UpdateHeaderList();
+            updateHeaderList2.add(updateHeader);
 
-          try {
-            jmsMsg.setJMSReplyTo(endpointQueue);
-            
-            if (jmsMsg.getJMSDeliveryMode() == DeliveryMode.NON_PERSISTENT) {
-              jmsProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
-            } else {
-              jmsProducer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            List[] updateLists2 = new List[updateLists.length];
+            for (int k = 0; k < updateLists.length; k++) {
+              updateLists2[k] = (List) ((Element) updateLists[k]).createElement();
+              updateLists2[k].add(updateLists[k].get(j));
             }
             
-            jmsProducer.send(jmsMsg);
-          } catch (Exception exc) {
-            if (logger.isLoggable(BasicLevel.ERROR))
-              logger.log(BasicLevel.ERROR, "", exc);
-            throw MALJMSHelper.createMALException(exc.toString());
+            Message jmsMsg = mapPublishToJms(msg, ps.getSession(), 
+                updateHeaderList2, updateLists2);
+            MALJMSHelper.setPublishJmsProperties(msg.getHeader(), updateHeader,
+                jmsMsg);
+            sendPublishMessage(jmsMsg, uriTo, ps, jmsProducer);
           }
         }
-        
-        //transactedSession.commit();
-        
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -676,8 +786,7 @@ public class MALJMSEndpoint implements MALEndpoint {
       }
     } else {
       try {
-        MessageProducer mp = getProducer(uriTo);
-        defaultSendMessage(msg, mp);
+        defaultSendMessage(msg, ps);
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -686,6 +795,75 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
+  /**
+   * Sends the updates of a PUBLISH grouped by update type: each group is
+   * mapped to a single JMS message whose entity keys are checked by the
+   * subscribers.
+   */
+  private void sendBatchPublishMessages(MALMessage msg, URI uriTo, 
+      SessionPool.PooledSession ps, MessageProducer jmsProducer, UpdateHeaderList updateHeaderList, 
+      List[] updateLists) throws Exception {
+    int size = updateHeaderList.size();
+    if (size == 0) return;
+    boolean[] sent = new boolean[size];
+    for (int j = 0; j < size; j++) {
+      if (sent[j]) continue;
+      UpdateType updateType = ((UpdateHeader) updateHeaderList.get(j)).getUpdateType();
+      UpdateHeaderList updateHeaderList2 = new UpdateHeaderList();
+      List[] updateLists2 = new List[updateLists.length];
+      for (int k = 0; k < updateLists.length; k++) {
+        updateLists2[k] = (List) ((Element) updateLists[k]).createElement();
+      }
+      for (int l = j; l < size; l++) {
+        UpdateHeader updateHeader = (UpdateHeader) updateHeaderList.get(l);
+        if (! sent[l] && updateHeader.getUpdateType().equals(updateType)) {
+          updateHeaderList2.add(updateHeader);
+          for (int k = 0; k < updateLists.length; k++) {
+            updateLists2[k].add(updateLists[k].get(l));
+          }
+          sent[l] = true;
+        }
+      }
+      
+      Message jmsMsg = mapPublishToJms(msg, ps.getSession(), updateHeaderList2, updateLists2);
+      MALJMSHelper.setBatchPublishJmsProperties(msg.getHeader(), updateType, jmsMsg);
+      sendPublishMessage(jmsMsg, uriTo, ps, jmsProducer);
+    }
+  }
+  
+  private Message mapPublishToJms(MALMessage msg, Session jmsSession,
+      UpdateHeaderList updateHeaderList, List[] updateLists) throws MALException {
+    List<Element> publishElements = new ArrayList<Element>(updateLists.length + 1);
+    publishElements.add(updateHeaderList);
+    for (int k = 0; k < updateLists.length; k++) {
+      publishElements.add((Element) updateLists[k]);
+    }
+    MALMessage publishMsg = new MALJMSMessage(msg.getHeader(),
+        new GENPublishBody(publishElements), msg.getQoSProperties());
+    return mapToJms(publishMsg, jmsSession);
+  }
+  
+  private void sendPublishMessage(Message jmsMsg, URI uriTo, 
+      SessionPool.PooledSession ps, MessageProducer jmsProducer) throws Exception {
+    jmsMsg.setStringProperty(MALJMSHelper.TOPIC_URI, uriTo.getValue());
+    try {
+      jmsMsg.setJMSReplyTo(endpointQueue);
+      
+      if (jmsMsg.getJMSDeliveryMode() == DeliveryMode.NON_PERSISTENT) {
+        jmsProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+      } else {
+        jmsProducer.setDeliveryMode(DeliveryMode.PERSISTENT);
+      }
+      
+      // Committed with the whole PUBLISH, a failed PUBLISH is rolled back
+      ps.send(jmsProducer, jmsMsg);
+    } catch (Exception exc) {
+      if (logger.isLoggable(BasicLevel.ERROR))
+        logger.log(BasicLevel.ERROR, "", exc);
+      throw MALJMSHelper.createMALException(exc.toString());
+    }
+  }
+  
   private void sendAcknowledge(MALMessageHeader initialHeader, short stage,
       Map qosProperties) {
     sendAcknowledge(initialHeader, stage, null, null, qosProperties, Boolean.FALSE, null);
@@ -793,16 +971,21 @@ public class MALJMSEndpoint implements MALEndpoint {
 
   public void sendMessages(MALMessage[] msgList) throws MALTransmitMultipleErrorException {
     Vector transmitExceptionList = null; 
-    for (int i = 0; i < msgList.length; i++) {
-      try {
-        sendMessage(msgList[i]);
-      } catch (MALTransmitErrorException exc) {
-        if (logger.isLoggable(BasicLevel.ERROR))
-          logger.log(BasicLevel.ERROR, "", exc);
-        if (transmitExceptionList == null) {
-          transmitExceptionList = new Vector();
+    SessionPool pool = transport.getSessionPool();
+    if (pool.isTransacted()) {
+      transmitExceptionList = sendTransactedMessages(pool, msgList);
+    } else {
+      for (int i = 0; i < msgList.length; i++) {
+        try {
+          sendMessage(msgList[i]);
+        } catch (MALTransmitErrorException exc) {
+          if (logger.isLoggable(BasicLevel.ERROR))
+            logger.log(BasicLevel.ERROR, "", exc);
+          if (transmitExceptionList == null) {
+            transmitExceptionList = new Vector();
+          }
+          transmitExceptionList.addElement(exc);
         }
-        transmitExceptionList.addElement(exc);
       }
     }
     if (transmitExceptionList != null) {
@@ -812,8 +995,68 @@ public class MALJMSEndpoint implements MALEndpoint {
       throw new MALTransmitMultipleErrorException(transmitExceptions);
     }
   }
+  
+  /**
+   * Sends the messages through a single transacted session, committed once
+   * per batch and after the last message. If a transaction fails, all the
+   * messages sent in it are reported as not transmitted.
+   * 
+   * @return the transmit errors, null if all the messages are sent
+   */
+  private Vector sendTransactedMessages(SessionPool pool, MALMessage[] msgList) {
+    Vector transmitExceptionList = null;
+    // Messages sent in the current transaction
+    List<MALMessage> batch = new ArrayList<MALMessage>();
+    SessionPool.PooledSession ps = null;
+    for (int i = 0; i < msgList.length; i++) {
+      MALMessage msg = msgList[i];
+      long commits = -1;
+      try {
+        if (ps == null) ps = pool.lease();
+        commits = ps.getCommitCount();
+        int uncommitted = ps.getUncommitted();
+        dispatchMessage(msg, ps);
+        if (ps.getCommitCount() != commits) {
+          // The previous messages have been committed with a part of this one
+          batch.clear();
+          if (ps.getUncommitted() > 0) batch.add(msg);
+        } else if (ps.getUncommitted() > uncommitted) {
+          batch.add(msg);
+        }
+        boolean committed;
+        if (i == msgList.length - 1) {
+          committed = ps.commit();
+        } else {
+          committed = ps.commitIfDue();
+        }
+        if (committed) batch.clear();
+      } catch (Exception exc) {
+        if (logger.isLoggable(BasicLevel.ERROR))
+          logger.log(BasicLevel.ERROR, "", exc);
+        List<MALMessage> failed = new ArrayList<MALMessage>();
+        if (ps != null && ps.getCommitCount() == commits) {
+          // The current transaction is rolled back
+          failed.addAll(batch);
+        }
+        if (! failed.contains(msg)) failed.add(msg);
+        batch.clear();
+        if (ps != null) {
+          pool.discard(ps);
+          ps = null;
+        }
+        if (transmitExceptionList == null) {
+          transmitExceptionList = new Vector();
+        }
+        for (MALMessage failedMsg : failed) {
+          transmitExceptionList.addElement(createTransmitError(failedMsg, exc));
+        }
+      }
+    }
+    if (ps != null) pool.release(ps);
+    return transmitExceptionList;
+  }
 
-  private void sendPublishRegisterMessage(MALMessage msg) throws MALException {
+  private void sendPublishRegisterMessage(MALMessage msg, SessionPool.PooledSession ps) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendPublishRegisterMessage(" + msg + ')');
     URI uriTo = msg.getHeader().getURITo();
@@ -843,7 +1086,7 @@ public class MALJMSEndpoint implements MALEndpoint {
           ackQos, ackPriority);
     } else {
       try {
-        defaultSendMessage(msg, getProducer(uriTo));
+        defaultSendMessage(msg, ps);
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -852,7 +1095,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     }
   }
   
-  private void sendPublishDeregisterMessage(MALMessage msg) throws MALException {
+  private void sendPublishDeregisterMessage(MALMessage msg, SessionPool.PooledSession ps) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALJMSEndpoint.sendPublishDeregisterMessage(" + msg + ')');
     URI uriTo = msg.getHeader().getURITo();
@@ -881,7 +1124,7 @@ public class MALJMSEndpoint implements MALEndpoint {
         ackQos, ackPriority);
     } else {
       try {
-        defaultSendMessage(msg, getProducer(uriTo));
+        defaultSendMessage(msg, ps);
       } catch (Exception e) {
         if (logger.isLoggable(BasicLevel.ERROR))
           logger.log(BasicLevel.ERROR, "", e);
@@ -958,7 +1201,7 @@ public class MALJMSEndpoint implements MALEndpoint {
     public static boolean match(Long patternSubKey, Long subKey) {
       if (patternSubKey == null) {
         if (subKey != null) return false;
-      } else if (patternSubKey.intValue() != 0) {
+      } else if (patternSubKey.longValue() != 0) {
         if (! patternSubKey.equals(subKey)) return false;
       }
       return true;
@@ -1044,6 +1287,39 @@ public class MALJMSEndpoint implements MALEndpoint {
           + ", sessionName=" + sessionName + "]";
     }
   }
+  
+  /**
+   * Wakes up the delivery thread of a session by sending a message to a
+   * temporary queue consumed by the session. The message is sent with a
+   * pooled session, the session itself cannot be used by the timer thread.
+   * The shared timer thread does not wait for a pooled session: the wake-up
+   * is retried later if the pool is exhausted.
+   */
+  static class WakeUpSender implements BatchAcknowledger.Waker {
+    private SessionPool pool;
+    private URI wakeUpQueue;
+    
+    WakeUpSender(SessionPool pool, URI wakeUpQueue) {
+      this.pool = pool;
+      this.wakeUpQueue = wakeUpQueue;
+    }
+    
+    public boolean wakeUp() throws Exception {
+      SessionPool.PooledSession ps = pool.tryLease();
+      if (ps == null) return false;
+      try {
+        MessageProducer producer = ps.getProducer(wakeUpQueue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        ps.send(producer, ps.getSession().createMessage());
+        ps.commit();
+      } catch (Exception exc) {
+        pool.discard(ps);
+        throw exc;
+      }
+      pool.release(ps);
+      return true;
+    }
+  }
 
   public void startMessageDelivery() throws MALException {
     activate(listener);
@@ -1098,7 +1374,13 @@ public class MALJMSEndpoint implements MALEndpoint {
       Identifier sessionName, Long transactionId, Boolean isErrorMessage,
       MALOperation op, UOctet interactionStage, Map qosProperties,
       MALEncodedBody encodedBody) throws IllegalArgumentException, MALException { 
-    throw new MALException("Not yet implemented");
+    return createMessage(authenticationId, uriTo,
+      timestamp, qoSlevel, priority,
+      domain, networkZone, session,
+      sessionName, op.getInteractionType(),
+      interactionStage, transactionId, op.getService().getArea().getNumber(),
+      op.getService().getNumber(), op.getNumber(), op.getService().getArea().getVersion(),
+      isErrorMessage, qosProperties, encodedBody);
   }
 
   public MALMessage createMessage(Blob authenticationId, URI uriTo,
@@ -1109,7 +1391,32 @@ public class MALJMSEndpoint implements MALEndpoint {
       UShort service, UShort operation, UOctet areaVersion,
       Boolean isErrorMessage, Map qosProperties, MALEncodedBody encodedBody)
       throws IllegalArgumentException, MALException {
-    throw new MALException("Not yet implemented");
+    MALJMSMessageHeader header = new MALJMSMessageHeader(
+        getURI(), authenticationId, uriTo, timestamp, qoSlevel, priority, 
+        domain, networkZone, session, sessionName, 
+        interactionType, interactionStage, transactionId,
+        serviceArea, service, operation, areaVersion,
+        isErrorMessage);
+    MALArea messageArea = MALContextFactory.lookupArea(serviceArea, areaVersion);
+    if (messageArea == null) {
+      throw MALJMSHelper.createMALException("Unknown area: " + serviceArea + " version: " + areaVersion);
+    }
+    MALService messageService = messageArea.getServiceByNumber(service);
+    if (messageService == null) {
+      throw MALJMSHelper.createMALException("Unknown service: " + service);
+    }
+    MALOperation messageOperation = messageService.getOperationByNumber(operation);
+    if (messageOperation == null) {
+      throw MALJMSHelper.createMALException("Unknown operation: " + operation);
+    }
+    // The body is kept encoded, it is decoded if the transport needs to
+    // read it, e.g. to dispatch the updates of a PUBLISH.
+    MALEncodingContext msgCtx = new MALEncodingContext(header,
+        messageOperation, 0, endPointProperties, qosProperties);
+    MALMessageBody messageBody = MALJMSHelper.createMessageBody(
+        GENMessageBody.getBytes(encodedBody), msgCtx,
+        transport.getElementStreamFactory());
+    return new MALJMSMessage(header, messageBody, qosProperties);
   }
   
 }
@@ -2,10 +2,12 @@ package fr.cnes.ccsds.mo.transport.jms;
 
 import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
+import javax.jms.BytesMessage;
 import javax.jms.Message;
 
 import org.ccsds.moims.mo.mal.MALArea;
@@ -46,6 +48,9 @@ import fr.cnes.ccsds.mo.transport.gen.body.GENNotifyBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENPublishRegisterBody;
 import fr.cnes.ccsds.mo.transport.gen.body.GENRegisterBody;
+import fr.cnes.encoding.binary.BufferDecoder;
+import fr.cnes.encoding.binary.BufferEncoder;
+import fr.cnes.encoding.binary.BufferReader;
 
 public class MALJMSHelper {
   
@@ -69,6 +74,11 @@ public class MALJMSHelper {
   public static final String IS_ERROR_HEADER_FIELD_NAME = "isError";
   public static final String FROM_HEADER_FIELD_NAME = "from";
   
+  /**
+   * Set if the header is mapped in the compact way, see writeCompactHeader.
+   */
+  public static final String COMPACT_HEADER_FIELD_NAME = "compactHeader";
+  
   public static final String TOPIC_URI = "topic";
   
   public static final String FIRST_SUBKEY_FIELD_NAME = "first";
@@ -77,6 +87,8 @@ public class MALJMSHelper {
   public static final String FOURTH_SUBKEY_FIELD_NAME = "fourth";
   
   public static final String UPDATE_TYPE_FIELD_NAME = "update";
+  
+  public static final String BATCH_FIELD_NAME = "batch";
 
   public static final String QUEUE_URI_PREFIX = "maljms://queue.";
   public static final String TOPIC_URI_PREFIX = "maljms://topic.";
@@ -144,12 +156,82 @@ public class MALJMSHelper {
     return buf.toString();
   }
   
+  /**
+   * Returns a message selector only checking the domain, the session, the
+   * area and the service of the entity requests, the updates are then
+   * checked by the subscriber (see SubscriptionMatcher). The cost of the
+   * selector does not depend on the number of entity keys.
+   * 
+   * @param header the header of the REGISTER message
+   * @param subscription the subscription
+   * @return the message selector
+   */
+  public static String getCoarseMessageSelector(MALMessageHeader header, Subscription subscription) {
+    EntityRequestList entityRequests = subscription.getEntities();
+    // The entity requests differing only by their keys have the same selector
+    LinkedHashSet<String> selectors = new LinkedHashSet<String>();
+    for (int i = 0; i < entityRequests.size(); i++) {
+      EntityRequest entityRequest = (EntityRequest) entityRequests.get(i);
+      StringBuffer buf = new StringBuffer();
+      buf.append(DOMAIN_HEADER_FIELD_NAME);
+      buf.append(" LIKE '");
+      buf.append(MALJMSHelper.domainToString(header.getDomain()));
+      if (entityRequest.getSubDomain() != null) {
+        appendSubdomainIdentifier(entityRequest.getSubDomain(), buf);
+      }
+      buf.append("'");
+      
+      buf.append(" AND ");
+      
+      buf.append(SESSION_HEADER_FIELD_NAME);
+      buf.append(" = ");
+      buf.append(header.getSession().getOrdinal());
+      
+      buf.append(" AND ");
+      
+      buf.append(SESSION_NAME_HEADER_FIELD_NAME);
+      buf.append(" = '");
+      buf.append(header.getSessionName().getValue());
+      buf.append("'");
+      
+      if (! entityRequest.getAllAreas().booleanValue()) {
+        buf.append(" AND ");
+        
+        buf.append(AREA_HEADER_FIELD_NAME);
+        buf.append(" = ");
+        buf.append(header.getServiceArea());
+      }
+      
+      if (! entityRequest.getAllServices().booleanValue()) {
+        buf.append(" AND ");
+        
+        buf.append(SERVICE_HEADER_FIELD_NAME);
+        buf.append(" = ");
+        buf.append(header.getService());
+      }
+      selectors.add(buf.toString());
+    }
+    StringBuffer buf = new StringBuffer();
+    buf.append("(");
+    int i = 0;
+    for (String selector : selectors) {
+      if (i++ > 0) buf.append(" OR ");
+      buf.append("(");
+      buf.append(selector);
+      buf.append(")");
+    }
+    buf.append(")");
+    return buf.toString();
+  }
+  
   public static void setPublishJmsProperties(MALMessageHeader header,
       UpdateHeader update, Message jmsMsg) throws Exception {
     jmsMsg.setIntProperty(UPDATE_TYPE_FIELD_NAME, update.getUpdateType()
         .getOrdinal());
+    if (update.getKey().getFirstSubKey() != null) {
     jmsMsg.setStringProperty(FIRST_SUBKEY_FIELD_NAME, update.getKey()
         .getFirstSubKey().getValue());
+    }
     if (update.getKey().getSecondSubKey() != null) {
     jmsMsg.setLongProperty(SECOND_SUBKEY_FIELD_NAME, update.getKey()
         .getSecondSubKey());
@@ -164,6 +246,17 @@ public class MALJMSHelper {
     }
   }
   
+  /**
+   * Sets the properties of a batched PUBLISH message: the updates of the
+   * message have the same update type, their entity keys are not mapped and
+   * are checked by the subscribers, see SubscriptionMatcher.
+   */
+  public static void setBatchPublishJmsProperties(MALMessageHeader header,
+      UpdateType updateType, Message jmsMsg) throws Exception {
+    jmsMsg.setIntProperty(UPDATE_TYPE_FIELD_NAME, updateType.getOrdinal());
+    jmsMsg.setBooleanProperty(BATCH_FIELD_NAME, true);
+  }
+  
   public static String getMessageSelector(MALMessageHeader header, 
       EntityKeyList keys, 
       IdentifierList subDomain,
@@ -228,6 +321,11 @@ public class MALJMSHelper {
     
     buf.append(" AND ");
     
+    // The keys of a batched PUBLISH are checked by the subscriber
+    buf.append('(');
+    buf.append(BATCH_FIELD_NAME);
+    buf.append(" = TRUE OR ");
+    
     buf.append('(');
     
     int keyIndex = 0;
@@ -237,38 +335,48 @@ public class MALJMSHelper {
       
       buf.append('(');
 
-      if (!key.getFirstSubKey().getValue().equals("*")) {
+      // The sub-keys matching any value, null included as in
+      // SubscriptionMatcher, have no term
+      int terms = 0;
+      if (key.getFirstSubKey() == null ||
+          !key.getFirstSubKey().getValue().equals("*")) {
         buf.append(FIRST_SUBKEY_FIELD_NAME);
         appendKeyValue(key.getFirstSubKey(), buf);
+        terms++;
       }
 
       if (key.getSecondSubKey() == null || key.getSecondSubKey() != 0L) {
-        buf.append(" AND ");
+        if (terms++ > 0) buf.append(" AND ");
 
         buf.append(SECOND_SUBKEY_FIELD_NAME);
         appendKeyValue(key.getSecondSubKey(), buf);
       }
 
       if (key.getThirdSubKey() == null || key.getThirdSubKey() != 0L) {
-        buf.append(" AND ");
+        if (terms++ > 0) buf.append(" AND ");
 
         buf.append(THIRD_SUBKEY_FIELD_NAME);
         appendKeyValue(key.getThirdSubKey(), buf);
       }
 
       if (key.getFourthSubKey() == null || key.getFourthSubKey() != 0L) {
-        buf.append(" AND ");
+        if (terms++ > 0) buf.append(" AND ");
 
         buf.append(FOURTH_SUBKEY_FIELD_NAME);
         appendKeyValue(key.getFourthSubKey(), buf);
       }
       
+      if (terms == 0) {
+        // Any entity key
+        buf.append("TRUE");
+      }
+      
       buf.append(')');
       
       keyIndex++;
     }
     
-    buf.append(')');
+    buf.append("))");
     
     return buf.toString();
   }
@@ -325,32 +433,88 @@ public class MALJMSHelper {
     }
   }
 
+  /**
+   * Writes at the beginning of the body of a message the header fields that
+   * are not mapped to JMS properties in the compact mapping (see
+   * MALJMSTransport.COMPACT_HEADER): the authentication id, the network zone,
+   * the URI from, the interaction type and stage, the transaction id, the
+   * QoS level, the timestamp and the error flag. The fields that may be null
+   * are preceded by a presence flag. The domain, the session,
+   * the area, the service, the version and the operation are still mapped
+   * to properties as they are used by the message selectors and by the
+   * consumers before the header is read, the priority is the JMS priority.
+   * 
+   * @param header the header of the MAL message
+   * @param from the name of the queue of the sending endpoint
+   * @param jmsMsg the JMS message, its body is empty
+   */
+  public static void writeCompactHeader(MALMessageHeader header, String from,
+      BytesMessage jmsMsg) throws Exception {
+    BufferEncoder encoder = new BufferEncoder(null, 64);
+    Blob authenticationId = header.getAuthenticationId();
+    if (authenticationId == null) {
+      encoder.writeNullableByteArray(null);
+    } else {
+      encoder.writeNullableByteArray(authenticationId.getValue());
+    }
+    Identifier networkZone = header.getNetworkZone();
+    if (networkZone == null) {
+      encoder.writeNullableString(null);
+    } else {
+      encoder.writeNullableString(networkZone.getValue());
+    }
+    encoder.writeString(from);
+    encoder.writeByte((byte) header.getInteractionType().getOrdinal());
+    UOctet interactionStage = header.getInteractionStage();
+    if (interactionStage == null) {
+      encoder.writeByte((byte) 0);
+    } else {
+      encoder.writeByte((byte) interactionStage.getValue());
+    }
+    Long transactionId = header.getTransactionId();
+    if (transactionId == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeSignedLong(transactionId.longValue());
+    }
+    QoSLevel qosLevel = header.getQoSlevel();
+    if (qosLevel == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeByte((byte) qosLevel.getOrdinal());
+    }
+    Time timestamp = header.getTimestamp();
+    if (timestamp == null) {
+      encoder.writeNull();
+    } else {
+      encoder.writeNotNull();
+      encoder.writeSignedLong(timestamp.getValue());
+    }
+    encoder.writeBoolean(header.getIsErrorMessage().booleanValue());
+    
+    jmsMsg.setBooleanProperty(COMPACT_HEADER_FIELD_NAME, true);
+    jmsMsg.writeInt(encoder.getIndex());
+    jmsMsg.writeBytes(encoder.getBuffer(), 0, encoder.getIndex());
+  }
+  
+  /**
+   * Translates the JMS properties of a message into a MAL header. If the
+   * header is mapped in the compact way, the fields written by
+   * writeCompactHeader are read from the body, which must be read after.
+   */
   public static MALMessageHeader getMALHeader(Message msg, MALService service, URI uriTo) throws Exception {
     MALJMSMessageHeader header = new MALJMSMessageHeader();
-    String authenticationIdS = msg.getStringProperty(AUTHENTICATION_ID_HEADER_FIELD_NAME);
-    if (authenticationIdS != null) {
-      byte[] authenticationId = authenticationIdS.getBytes();
-      header.setAuthenticationId(new Blob(authenticationId));
-    }
     String domainIdS = msg.getStringProperty(DOMAIN_HEADER_FIELD_NAME);
     if (domainIdS != null) {
       IdentifierList domainId = MALJMSHelper.stringToDomain(domainIdS.toString());
       header.setDomain(domainId);
     }
-    String networkZoneS = msg.getStringProperty(NETWORK_ZONE_HEADER_FIELD_NAME);
-    if (networkZoneS != null) {
-      header.setNetworkZone(new Identifier(networkZoneS.toString()));
-    }
     Integer sessionTypeI = msg.getIntProperty(SESSION_HEADER_FIELD_NAME);
     header.setSession(SessionType.fromOrdinal(sessionTypeI.intValue()));
     String sessionNameS = msg.getStringProperty(SESSION_NAME_HEADER_FIELD_NAME);
     header.setSessionName(new Identifier(sessionNameS.toString()));
-    Integer interactionTypeI = msg.getIntProperty(INTERACTION_TYPE_HEADER_FIELD_NAME);
-    header.setInteractionType(InteractionType.fromOrdinal(interactionTypeI.intValue()));
-    Integer interactionStageI = msg.getIntProperty(INTERACTION_STAGE_HEADER_FIELD_NAME);
-    header.setInteractionStage(new UOctet(interactionStageI.byteValue()));
-    Long transactionId = msg.getLongProperty(TRANSACTION_ID_HEADER_FIELD_NAME);
-    header.setTransactionId(transactionId);
     
     if (service == null) {
       Integer areaI = msg.getIntProperty(AREA_HEADER_FIELD_NAME);
@@ -365,15 +529,48 @@ public class MALJMSHelper {
     header.setAreaVersion(service.getArea().getVersion());
     Integer operationI = msg.getIntProperty(MALJMSHelper.OPERATION_HEADER_FIELD_NAME);
     header.setOperation(service.getOperationByNumber(new UShort(operationI.intValue())).getNumber());
-    Integer qosI = msg.getIntProperty(QOS_LEVEL_HEADER_FIELD_NAME);
-    header.setQoSlevel(QoSLevel.fromOrdinal(qosI.intValue()));
-    header.setURIFrom(MALJMSHelper.getQueueUri(msg.getStringProperty(MALJMSHelper.FROM_HEADER_FIELD_NAME)));
-    String timestampS = msg.getStringProperty(MALJMSHelper.TIMESTAMP_HEADER_FIELD_NAME);
-    header.setTimestamp(new Time((Long.parseLong(timestampS.toString()))));
-    //header.setTimestamp(new Time(props.timestamp.getTime()));
+    header.setPriority(new UInteger(msg.getJMSPriority()));
+    
+    if (msg.propertyExists(COMPACT_HEADER_FIELD_NAME)) {
+      readCompactHeader((BytesMessage) msg, header);
+    } else {
+      String authenticationIdS = msg.getStringProperty(AUTHENTICATION_ID_HEADER_FIELD_NAME);
+      if (authenticationIdS != null) {
+        byte[] authenticationId = authenticationIdS.getBytes();
+        header.setAuthenticationId(new Blob(authenticationId));
+      }
+      String networkZoneS = msg.getStringProperty(NETWORK_ZONE_HEADER_FIELD_NAME);
+      if (networkZoneS != null) {
+        header.setNetworkZone(new Identifier(networkZoneS.toString()));
+      }
+      Integer interactionTypeI = msg.getIntProperty(INTERACTION_TYPE_HEADER_FIELD_NAME);
+      header.setInteractionType(InteractionType.fromOrdinal(interactionTypeI.intValue()));
+      Integer interactionStageI = msg.getIntProperty(INTERACTION_STAGE_HEADER_FIELD_NAME);
+      header.setInteractionStage(new UOctet(interactionStageI.byteValue()));
+      if (msg.propertyExists(TRANSACTION_ID_HEADER_FIELD_NAME)) {
+        Long transactionId = msg.getLongProperty(TRANSACTION_ID_HEADER_FIELD_NAME);
+        header.setTransactionId(transactionId);
+      }
+      if (msg.propertyExists(QOS_LEVEL_HEADER_FIELD_NAME)) {
+        Integer qosI = msg.getIntProperty(QOS_LEVEL_HEADER_FIELD_NAME);
+        header.setQoSlevel(QoSLevel.fromOrdinal(qosI.intValue()));
+      }
+      header.setURIFrom(MALJMSHelper.getQueueUri(msg.getStringProperty(MALJMSHelper.FROM_HEADER_FIELD_NAME)));
+      String timestampS = msg.getStringProperty(MALJMSHelper.TIMESTAMP_HEADER_FIELD_NAME);
+      if (timestampS != null) {
+        header.setTimestamp(new Time((Long.parseLong(timestampS.toString()))));
+      }
+      //header.setTimestamp(new Time(props.timestamp.getTime()));
+      Integer isErrorI = msg.getIntProperty(MALJMSHelper.IS_ERROR_HEADER_FIELD_NAME);
+      if (isErrorI.intValue() == 0) {
+        header.setIsErrorMessage(Boolean.FALSE);
+      } else {
+        header.setIsErrorMessage(Boolean.TRUE);
+      }
+    }
     
-    if (interactionTypeI.intValue() == InteractionType._PUBSUB_INDEX) {
-      if (interactionStageI.intValue() == MALPubSubOperation._PUBLISH_STAGE) {
+    if (header.getInteractionType().getOrdinal() == InteractionType._PUBSUB_INDEX) {
+      if (header.getInteractionStage().getValue() == MALPubSubOperation._PUBLISH_STAGE) {
         String topicUri = msg.getStringProperty(TOPIC_URI);
         if (topicUri != null) {
           uriTo = new URI(topicUri);
@@ -382,14 +579,41 @@ public class MALJMSHelper {
     }
     
     header.setURITo(uriTo);
-    header.setPriority(new UInteger(msg.getJMSPriority()));
-    Integer isErrorI = msg.getIntProperty(MALJMSHelper.IS_ERROR_HEADER_FIELD_NAME);
-    if (isErrorI.intValue() == 0) {
-      header.setIsErrorMessage(Boolean.FALSE);
+    return header;
+  }
+  
+  private static void readCompactHeader(BytesMessage msg,
+      MALMessageHeader header) throws Exception {
+    byte[] encodedHeader = new byte[msg.readInt()];
+    msg.readBytes(encodedHeader);
+    BufferDecoder decoder = new BufferDecoder(new BufferReader(encodedHeader, 0));
+    byte[] authenticationId = decoder.readNullableByteArray();
+    if (authenticationId != null) {
+      header.setAuthenticationId(new Blob(authenticationId));
+    }
+    String networkZone = decoder.readNullableString();
+    if (networkZone != null) {
+      header.setNetworkZone(new Identifier(networkZone));
+    }
+    header.setURIFrom(MALJMSHelper.getQueueUri(decoder.readString()));
+    header.setInteractionType(InteractionType.fromOrdinal(decoder.readByte()));
+    header.setInteractionStage(new UOctet(decoder.readByte()));
+    if (decoder.isNull()) {
+      header.setTransactionId(null);
     } else {
-      header.setIsErrorMessage(Boolean.TRUE);
+      header.setTransactionId(new Long(decoder.readSignedLong()));
     }
-    return header;
+    if (decoder.isNull()) {
+      header.setQoSlevel(null);
+    } else {
+      header.setQoSlevel(QoSLevel.fromOrdinal(decoder.readByte()));
+    }
+    if (decoder.isNull()) {
+      header.setTimestamp(null);
+    } else {
+      header.setTimestamp(new Time(decoder.readSignedLong()));
+    }
+    header.setIsErrorMessage(Boolean.valueOf(decoder.readBoolean()));
   }
   
   public static Hashtable getMALQoSProperties(Message msg) throws Exception {
@@ -18,7 +18,11 @@ public class MALJMSMessage implements MALMessage {
   
   private Message jmsMsg;
   
-  private MALJMSEndpoint endpoint;
+  /**
+   * Acknowledges the received message by batches, null if it is acknowledged
+   * when freed.
+   */
+  private BatchAcknowledger acknowledger;
   
   private Map qosProperties;
   
@@ -29,9 +33,9 @@ public class MALJMSMessage implements MALMessage {
   }
   
   public MALJMSMessage(MALMessageHeader header, MALMessageBody body, Map qosProperties,
-     MALJMSEndpoint endpoint, Message jmsMsg) {
+     BatchAcknowledger acknowledger, Message jmsMsg) {
     this(header, body, qosProperties);
-    this.endpoint = endpoint;
+    this.acknowledger = acknowledger;
     this.jmsMsg = jmsMsg;
   }
 
@@ -55,9 +59,13 @@ public class MALJMSMessage implements MALMessage {
   }
 
   public void free() throws MALException {
-    if (endpoint != null) {
+    if (jmsMsg != null) {
       try {
-        jmsMsg.acknowledge();
+        if (acknowledger == null) {
+          jmsMsg.acknowledge();
+        } else {
+          acknowledger.acknowledge(jmsMsg);
+        }
       } catch (Exception exc) {
         throw MALJMSHelper.createMALException(exc.toString());
       }
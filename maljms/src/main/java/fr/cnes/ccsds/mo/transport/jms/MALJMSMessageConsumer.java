@@ -121,12 +121,16 @@ public class MALJMSMessageConsumer implements MessageListener {
           msgCtx, endpoint.getTransport().getElementStreamFactory());
 
       MALMessage malMsg = new MALJMSMessage(header, body, qosProperties,
-          endpoint, msg);
+          endpoint.getAcknowledger(), msg);
       listener.onMessage(endpoint, malMsg);
 
     } catch (Exception e) {
       if (logger.isLoggable(BasicLevel.ERROR))
         logger.log(BasicLevel.ERROR, "", e);
+    } finally {
+      // Delivery thread of the endpoint session
+      BatchAcknowledger acknowledger = endpoint.getAcknowledger();
+      if (acknowledger != null) acknowledger.acknowledgeDue();
     }
   }
 
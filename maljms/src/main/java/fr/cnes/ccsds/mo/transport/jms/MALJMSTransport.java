@@ -2,6 +2,7 @@ package fr.cnes.ccsds.mo.transport.jms;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Timer;
 
 import javax.jms.Connection;
 import javax.jms.JMSException;
@@ -34,6 +35,78 @@ public class MALJMSTransport implements MALTransport {
   
   public final static String MAL_NAME = "fr.cnes.mal.name";
   
+  /**
+   * Endpoint property selecting the batched PUBLISH mapping: the updates of
+   * a PUBLISH having the same update type are sent in a single JMS message,
+   * the entity keys are then checked by the subscribers.
+   */
+  public final static String BATCH_PUBLISH = "fr.cnes.maljms.publish.batch";
+  
+  /**
+   * Endpoint property selecting the local filtering of the subscriptions:
+   * the message selector only checks the domain, the session, the area and
+   * the service (see MALJMSHelper.getCoarseMessageSelector), the entity keys
+   * are checked by the subscriber with a SubscriptionMatcher.
+   */
+  public final static String LOCAL_FILTERING = "fr.cnes.maljms.subscription.local.filtering";
+  
+  /**
+   * Endpoint or message QoS property selecting the compact mapping of the
+   * MAL header: only the fields needed by the message selectors and by the
+   * dispatch of the received messages are JMS properties, the other fields
+   * are encoded with the binary encoder at the beginning of the body (see
+   * MALJMSHelper.writeCompactHeader). Both mappings are always accepted on
+   * reception.
+   */
+  public final static String COMPACT_HEADER = "fr.cnes.maljms.header.compact";
+  
+  /**
+   * Maximum number of JMS sessions used concurrently to send messages, by
+   * default 8, see SessionPool.
+   */
+  public final static String SESSION_POOL_SIZE = "fr.cnes.maljms.session.pool.size";
+  
+  /**
+   * Delay in milliseconds after which an idle sending session is closed, by
+   * default 60000.
+   */
+  public final static String SESSION_POOL_IDLE_TIMEOUT = "fr.cnes.maljms.session.pool.idle.timeout";
+  
+  /**
+   * Transport property selecting the transacted send: the messages of a
+   * sendMessages call and of a PUBLISH are sent in transactions committed
+   * once per batch, so persistent messages are synchronized once per batch
+   * by the JMS provider.
+   */
+  public final static String TRANSACTED_SEND = "fr.cnes.maljms.send.transacted";
+  
+  /**
+   * Number of JMS messages after which a transaction is committed, by default
+   * 100. The transaction is committed between two MAL messages, so it may
+   * hold more JMS messages, e.g. the fan-out of a PUBLISH.
+   */
+  public final static String SEND_BATCH_SIZE = "fr.cnes.maljms.send.batch.size";
+  
+  /**
+   * Delay in milliseconds after which a transaction is committed even if the
+   * batch is not full, by default 100.
+   */
+  public final static String SEND_BATCH_WINDOW = "fr.cnes.maljms.send.batch.window";
+  
+  /**
+   * Endpoint property giving the number of received messages acknowledged
+   * together, by default 1, i.e. each message is acknowledged when freed.
+   */
+  public final static String ACK_BATCH_SIZE = "fr.cnes.maljms.ack.batch.size";
+  
+  /**
+   * Delay in milliseconds after which the freed messages are acknowledged
+   * even if the batch is not full, by default 100. If no message is delivered
+   * meanwhile, the delivery thread of the session is woken up by a message
+   * sent to a temporary queue it consumes.
+   */
+  public final static String ACK_BATCH_WINDOW = "fr.cnes.maljms.ack.batch.window";
+  
   public static final Blob DEFAULT_AUTHENTICATION_ID = new Blob(new byte[0]);
   
   private MALElementStreamFactory elementStreamFactory;
@@ -43,6 +116,10 @@ public class MALJMSTransport implements MALTransport {
   private Session session;
   
   private boolean sharedBrokerCreation;
+  
+  private SessionPool sessionPool;
+  
+  private Timer timer;
 
   public MALJMSTransport(Connection connection) {
     this.connection = connection;
@@ -56,6 +133,32 @@ public class MALJMSTransport implements MALTransport {
     return elementStreamFactory;
   }
   
+  final SessionPool getSessionPool() {
+    return sessionPool;
+  }
+  
+  /**
+   * Returns the timer of the transport, created at first use.
+   */
+  final synchronized Timer getTimer() {
+    if (timer == null) timer = new Timer("MALJMSTransport.Timer", true);
+    return timer;
+  }
+  
+  /**
+   * Creates a session consuming the messages of an endpoint or of a
+   * subscription, the received messages are acknowledged when freed.
+   */
+  final Session createConsumerSession() throws JMSException {
+    return connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+  }
+  
+  static long getLongProperty(Map properties, String name, long defaultValue) {
+    Object value = properties.get(name);
+    if (value == null) return defaultValue;
+    return Long.parseLong(value.toString());
+  }
+  
   public void init(String protocol, Map properties) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALAMQPTransport.init(" + protocol + ','+ properties + ')');
@@ -75,6 +178,13 @@ public class MALJMSTransport implements MALTransport {
       connection.setClientID(malName);
       connection.start();
       session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      sessionPool = new SessionPool(connection, 
+          (int) getLongProperty(properties, SESSION_POOL_SIZE, 8),
+          getLongProperty(properties, SESSION_POOL_IDLE_TIMEOUT, 60000),
+          Boolean.parseBoolean(String.valueOf(properties.get(TRANSACTED_SEND))),
+          (int) getLongProperty(properties, SEND_BATCH_SIZE, 100),
+          getLongProperty(properties, SEND_BATCH_WINDOW, 100));
+      sessionPool.scheduleEviction(getTimer());
     } catch (JMSException exc) {
       throw new MALException("setClientID", exc);
     }
@@ -86,8 +196,7 @@ public class MALJMSTransport implements MALTransport {
       logger.log(BasicLevel.DEBUG, "MALAMQPEndPoint.createEndPoint(" +
           localName + ',' + qosProperties + ')');
     try {
-      Session epSession = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
-      Session transactedSession = connection.createSession(true, Session.CLIENT_ACKNOWLEDGE);
+      Session epSession = createConsumerSession();
       boolean durable = (localName != null);
       boolean exclusive = !durable;
       boolean passive = false;
@@ -117,7 +226,7 @@ public class MALJMSTransport implements MALTransport {
       }
 
       return new MALJMSEndpoint(this, localName, queueName, 
-          consumerId, epSession, transactedSession, queue, noack, qosProperties);
+          consumerId, epSession, queue, noack, qosProperties);
     } catch (Exception exc) {
       throw MALJMSHelper.createMALException(exc.toString());
     }
@@ -127,6 +236,10 @@ public class MALJMSTransport implements MALTransport {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "MALAMQPTransport.close()");
     try {
+      sessionPool.close();
+      synchronized (this) {
+        if (timer != null) timer.cancel();
+      }
       session.close();
       connection.close();
     } catch (Exception exc) {
@@ -0,0 +1,463 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.objectweb.util.monolog.api.BasicLevel;
+import org.objectweb.util.monolog.api.Logger;
+
+/**
+ * Pool of the JMS sessions used to send messages.
+ *
+ * A JMS session must not be used by several threads at the same time: each
+ * sending thread leases a session with its own producers and releases it once
+ * the message is sent, so concurrent senders use distinct sessions. A thread
+ * leasing again before releasing gets back the same session, e.g. when a
+ * message is sent from a listener called during a send.
+ *
+ * The number of sessions is bounded, a thread waits for a session to be
+ * released when they are all leased. The sessions are reused in LIFO order
+ * and those left idle for longer than the idle timeout are closed, when a
+ * session is released or by the eviction task (see scheduleEviction).
+ *
+ * A session discarded in a nested lease cannot be used anymore by the outer
+ * one and is closed when the outer lease ends.
+ *
+ * The sessions of a transacted pool group the sent messages into
+ * transactions: the sender commits between two MAL messages when the batch
+ * size is reached or the batch window elapsed (see PooledSession.commitIfDue)
+ * and before releasing the session, so a transaction never outlives a send
+ * call and never holds a part of a MAL message.
+ */
+public class SessionPool {
+
+  public final static Logger logger =
+    fr.dyade.aaa.common.Debug.getLogger(SessionPool.class.getName());
+
+  private final Connection connection;
+
+  private final int maxSize;
+
+  private final long idleTimeout;
+
+  private final boolean transacted;
+
+  private final int batchSize;
+
+  private final long batchWindow;
+
+  /**
+   * Idle sessions, the most recently released first.
+   */
+  private final LinkedList<PooledSession> idle = new LinkedList<PooledSession>();
+
+  /**
+   * Session leased by the current thread.
+   */
+  private final ThreadLocal<PooledSession> leased = new ThreadLocal<PooledSession>();
+
+  /**
+   * Number of open sessions, leased or idle.
+   */
+  private int size = 0;
+
+  private boolean closed = false;
+
+  /**
+   * Constructor.
+   *
+   * @param connection the connection the sessions are created with
+   * @param maxSize the maximum number of sessions
+   * @param idleTimeout the delay in milliseconds after which an idle session
+   *    is closed
+   */
+  public SessionPool(Connection connection, int maxSize, long idleTimeout) {
+    this(connection, maxSize, idleTimeout, false, 1, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param connection the connection the sessions are created with
+   * @param maxSize the maximum number of sessions
+   * @param idleTimeout the delay in milliseconds after which an idle session
+   *    is closed
+   * @param transacted true if the sessions are transacted
+   * @param batchSize the maximum number of messages sent in a transaction
+   * @param batchWindow the delay in milliseconds after which a transaction is
+   *    committed, 0 if there is no time limit
+   */
+  public SessionPool(Connection connection, int maxSize, long idleTimeout,
+      boolean transacted, int batchSize, long batchWindow) {
+    if (maxSize < 1) throw new IllegalArgumentException("Pool size: " + maxSize);
+    if (batchSize < 1) throw new IllegalArgumentException("Batch size: " + batchSize);
+    this.connection = connection;
+    this.maxSize = maxSize;
+    this.idleTimeout = idleTimeout;
+    this.transacted = transacted;
+    this.batchSize = batchSize;
+    this.batchWindow = batchWindow;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public boolean isTransacted() {
+    return transacted;
+  }
+
+  /**
+   * Leases a session, waits for a session to be released if the pool is
+   * exhausted.
+   *
+   * @return the leased session
+   * @throws JMSException if the pool is closed or the session cannot be created
+   */
+  public PooledSession lease() throws JMSException {
+    return lease(true);
+  }
+
+  /**
+   * Leases a session if one is idle or can be created, does not wait if the
+   * pool is exhausted.
+   *
+   * @return the leased session, null if the pool is exhausted
+   * @throws JMSException if the pool is closed or the session cannot be created
+   */
+  public PooledSession tryLease() throws JMSException {
+    return lease(false);
+  }
+
+  private PooledSession lease(boolean wait) throws JMSException {
+    PooledSession ps = leased.get();
+    if (ps != null) {
+      ps.checkDiscarded();
+      ps.depth++;
+      return ps;
+    }
+    synchronized (this) {
+      while (ps == null) {
+        if (closed) throw new JMSException("Session pool closed");
+        if (! idle.isEmpty()) {
+          ps = idle.removeFirst();
+        } else if (size < maxSize) {
+          size++;
+          break;
+        } else if (! wait) {
+          return null;
+        } else {
+          try {
+            wait();
+          } catch (InterruptedException exc) {
+            throw new JMSException("Interrupted while waiting for a session");
+          }
+        }
+      }
+    }
+    if (ps == null) {
+      try {
+        ps = new PooledSession(createSession());
+      } catch (JMSException exc) {
+        synchronized (this) {
+          size--;
+          notify();
+        }
+        throw exc;
+      }
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "SessionPool.lease: new session " + ps);
+    }
+    ps.depth = 1;
+    leased.set(ps);
+    return ps;
+  }
+
+  private Session createSession() throws JMSException {
+    if (transacted) {
+      return connection.createSession(true, Session.SESSION_TRANSACTED);
+    } else {
+      return connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+  }
+
+  /**
+   * Releases a session leased by the current thread, then closes the sessions
+   * whose idle timeout expired. A session discarded in a nested lease is
+   * closed.
+   *
+   * @param ps the leased session
+   */
+  public void release(PooledSession ps) {
+    if (--ps.depth > 0) return;
+    leased.remove();
+    if (ps.discarded) {
+      remove(ps);
+      return;
+    }
+    List<PooledSession> expired;
+    synchronized (this) {
+      if (closed) {
+        size--;
+        expired = new ArrayList<PooledSession>(1);
+        expired.add(ps);
+      } else {
+        long now = System.currentTimeMillis();
+        ps.lastUse = now;
+        idle.addFirst(ps);
+        expired = removeExpired(now);
+        notify();
+      }
+    }
+    close(expired);
+  }
+
+  /**
+   * Closes a session leased by the current thread instead of releasing it,
+   * e.g. after a send failure. The uncommitted messages are rolled back.
+   * In a nested lease the session is only marked as discarded: the outer
+   * lease cannot use it anymore and closes it when it ends.
+   *
+   * @param ps the leased session
+   */
+  public void discard(PooledSession ps) {
+    ps.discarded = true;
+    if (--ps.depth > 0) return;
+    leased.remove();
+    remove(ps);
+  }
+
+  /**
+   * Closes a session that is not returned to the pool.
+   */
+  private void remove(PooledSession ps) {
+    synchronized (this) {
+      size--;
+      notify();
+    }
+    ps.close();
+  }
+
+  /**
+   * Removes the idle sessions whose idle timeout expired, must be called
+   * under the lock of the pool.
+   *
+   * @return the sessions to close, null if none
+   */
+  private List<PooledSession> removeExpired(long now) {
+    List<PooledSession> expired = null;
+    while (! idle.isEmpty() && now - idle.getLast().lastUse > idleTimeout) {
+      if (expired == null) expired = new ArrayList<PooledSession>();
+      expired.add(idle.removeLast());
+      size--;
+    }
+    return expired;
+  }
+
+  private void close(List<PooledSession> sessions) {
+    if (sessions != null) {
+      for (PooledSession session : sessions) {
+        session.close();
+      }
+    }
+  }
+
+  /**
+   * Closes the sessions whose idle timeout expired, even if no session is
+   * released.
+   */
+  public void evictIdle() {
+    List<PooledSession> expired;
+    synchronized (this) {
+      expired = removeExpired(System.currentTimeMillis());
+    }
+    if (expired != null && logger.isLoggable(BasicLevel.DEBUG))
+      logger.log(BasicLevel.DEBUG, "SessionPool.evictIdle: " + expired.size());
+    close(expired);
+  }
+
+  /**
+   * Schedules the eviction of the idle sessions every idle timeout, the task
+   * ends when the timer is cancelled.
+   *
+   * @param timer the timer running the eviction
+   */
+  public void scheduleEviction(Timer timer) {
+    if (idleTimeout <= 0) return;
+    timer.schedule(new TimerTask() {
+      public void run() {
+        evictIdle();
+      }
+    }, idleTimeout, idleTimeout);
+  }
+
+  /**
+   * Closes the idle sessions, the leased sessions are closed when released.
+   */
+  public void close() {
+    List<PooledSession> sessions;
+    synchronized (this) {
+      closed = true;
+      sessions = new ArrayList<PooledSession>(idle);
+      size -= idle.size();
+      idle.clear();
+      notifyAll();
+    }
+    close(sessions);
+  }
+
+  /**
+   * A pooled JMS session and the producers created with it.
+   */
+  public class PooledSession {
+    private final Session session;
+    private final HashMap<URI, MessageProducer> producers;
+    private int depth;
+    private long lastUse;
+
+    /**
+     * True if the session has been discarded, it is closed when its lease
+     * ends.
+     */
+    private boolean discarded;
+
+    /**
+     * Number of messages sent in the current transaction.
+     */
+    private int uncommitted;
+
+    /**
+     * Time of the first message sent in the current transaction.
+     */
+    private long batchStart;
+
+    /**
+     * Number of committed transactions.
+     */
+    private long commits;
+
+    PooledSession(Session session) {
+      this.session = session;
+      producers = new HashMap<URI, MessageProducer>();
+    }
+
+    public Session getSession() {
+      return session;
+    }
+
+    /**
+     * Throws an exception if the session has been discarded by a nested
+     * lease.
+     */
+    void checkDiscarded() throws JMSException {
+      if (discarded) throw new JMSException("Session discarded");
+    }
+
+    /**
+     * Returns the producer of the destination, creates it at first use.
+     *
+     * @param uriTo the URI of the destination, a queue or a topic
+     * @return the producer
+     * @throws JMSException if the producer cannot be created
+     */
+    public MessageProducer getProducer(URI uriTo) throws JMSException {
+      checkDiscarded();
+      MessageProducer p = producers.get(uriTo);
+      if (p == null) {
+        Destination dest;
+        if (MALJMSHelper.isTransportLevelBroker(uriTo)) {
+          dest = session.createTopic(MALJMSHelper.getTopicName(uriTo));
+        } else {
+          dest = session.createQueue(MALJMSHelper.getQueueName(uriTo));
+        }
+        p = session.createProducer(dest);
+        producers.put(uriTo, p);
+      }
+      return p;
+    }
+
+    /**
+     * Sends a message, the message is part of the current transaction if the
+     * session is transacted.
+     *
+     * @param producer a producer of this session
+     * @param jmsMsg the message to send
+     * @throws JMSException if the message cannot be sent
+     */
+    public void send(MessageProducer producer, Message jmsMsg) throws JMSException {
+      checkDiscarded();
+      producer.send(jmsMsg);
+      if (transacted && uncommitted++ == 0) {
+        batchStart = System.currentTimeMillis();
+      }
+    }
+
+    /**
+     * Returns the number of messages sent in the current transaction.
+     */
+    public int getUncommitted() {
+      return uncommitted;
+    }
+
+    /**
+     * Returns the number of transactions committed with this session.
+     */
+    public long getCommitCount() {
+      return commits;
+    }
+
+    /**
+     * Commits the current transaction if the batch size is reached or the
+     * batch window elapsed. Only called between two MAL messages, e.g. the
+     * JMS messages of a PUBLISH fan-out are committed together. Does nothing
+     * in a nested lease, the transaction is committed by the outer one.
+     *
+     * @return true if the transaction has been committed
+     * @throws JMSException if the commit fails
+     */
+    public boolean commitIfDue() throws JMSException {
+      if (uncommitted == 0 || depth > 1) return false;
+      if (uncommitted >= batchSize ||
+          (batchWindow > 0 && System.currentTimeMillis() - batchStart >= batchWindow)) {
+        return commit();
+      }
+      return false;
+    }
+
+    /**
+     * Commits the current transaction, does nothing in a nested lease.
+     *
+     * @return true if the transaction has been committed
+     * @throws JMSException if the commit fails
+     */
+    public boolean commit() throws JMSException {
+      if (uncommitted == 0 || depth > 1) return false;
+      checkDiscarded();
+      uncommitted = 0;
+      session.commit();
+      commits++;
+      return true;
+    }
+
+    void close() {
+      try {
+        session.close();
+      } catch (Exception exc) {
+        if (logger.isLoggable(BasicLevel.WARN))
+          logger.log(BasicLevel.WARN, "", exc);
+      }
+    }
+  }
+}
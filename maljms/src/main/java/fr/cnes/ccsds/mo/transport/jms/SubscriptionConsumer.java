@@ -19,6 +19,7 @@ import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.UOctet;
 import org.ccsds.moims.mo.mal.structures.URI;
 import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
@@ -59,6 +60,14 @@ public class SubscriptionConsumer implements MessageListener {
       MALPublishBody publishBody = (MALPublishBody) msg.getBody();
       UpdateHeaderList updateHeaderList = publishBody.getUpdateHeaderList();
       List[] updateLists = publishBody.getUpdateLists();
+      if (subscriptionCtx.isLocalFiltering() || isBatch(msg)) {
+        filterUpdates(msg.getHeader(), updateHeaderList, updateLists);
+        if (updateHeaderList.size() == 0) {
+          // No update matches the subscription
+          msg.free();
+          return;
+        }
+      }
       
       List notifyBodyElements = new ArrayList();
       notifyBodyElements.add(subscriptionCtx.getSubscription().getSubscriptionId());
@@ -70,7 +79,7 @@ public class SubscriptionConsumer implements MessageListener {
       MALNotifyBody notifyBody = new GENNotifyBody(notifyBodyElements);
       
       MALJMSMessage notifyMsg = new MALJMSMessage(msg.getHeader(), notifyBody, 
-          msg.getQoSProperties(), endpoint, msg.getJmsMsg());
+          msg.getQoSProperties(), subscriptionCtx.getAcknowledger(), msg.getJmsMsg());
       msg.getHeader().setInteractionStage(MALPubSubOperation.NOTIFY_STAGE);
       msg.getHeader().setQoSlevel(subscriptionCtx.getQos());
       msg.getHeader().setTransactionId(subscriptionCtx.getTransactionId());
@@ -82,6 +91,35 @@ public class SubscriptionConsumer implements MessageListener {
     }
   }
   
+  private boolean isBatch(MALJMSMessage msg) throws MALException {
+    try {
+      return msg.getJmsMsg().propertyExists(MALJMSHelper.BATCH_FIELD_NAME);
+    } catch (Exception exc) {
+      throw MALJMSHelper.createMALException(exc.toString());
+    }
+  }
+  
+  /**
+   * Removes the updates of a PUBLISH that do not match the subscription, the
+   * entity keys of a batched PUBLISH or of a subscription filtered locally
+   * are not checked by the message selector.
+   */
+  private void filterUpdates(MALMessageHeader publishHeader,
+      UpdateHeaderList updateHeaderList, List[] updateLists) {
+    int i = 0;
+    while (i < updateHeaderList.size()) {
+      UpdateHeader updateHeader = (UpdateHeader) updateHeaderList.get(i);
+      if (subscriptionCtx.getMatcher().match(publishHeader, updateHeader)) {
+        i++;
+      } else {
+        updateHeaderList.remove(i);
+        for (int j = 0; j < updateLists.length; j++) {
+          updateLists[j].remove(i);
+        }
+      }
+    }
+  }
+  
   private void handleMessageFromBroker(MALMessage msg) {
     // Change the 'URIto' assigned with the subscription queue URI
     // and assign it with the endpoint URI
@@ -211,26 +249,26 @@ public class SubscriptionConsumer implements MessageListener {
         GENPublishBody publishBody = new GENPublishBody(encodedBody,
             msgCtx, endpoint.getTransport().getElementStreamFactory());
         MALJMSMessage malMsg = new MALJMSMessage(header, publishBody,
-            qosProperties, endpoint, msg);
+            qosProperties, subscriptionCtx.getAcknowledger(), msg);
         handlePublish(malMsg);
       } else if (stage == MALPubSubOperation._NOTIFY_STAGE) {
         GENNotifyBody notifyBody = new GENNotifyBody(encodedBody,
             msgCtx, endpoint.getTransport().getElementStreamFactory());
         MALJMSMessage malMsg = new MALJMSMessage(header, notifyBody,
-            qosProperties, endpoint, msg);
+            qosProperties, subscriptionCtx.getAcknowledger(), msg);
         handleNotify(malMsg);
       } else if (stage == MALPubSubOperation._REGISTER_ACK_STAGE) {
         GENRegisterBody registerBody = new GENRegisterBody(encodedBody,
             msgCtx, endpoint.getTransport().getElementStreamFactory());
         MALJMSMessage malMsg = new MALJMSMessage(header, registerBody,
-            qosProperties, endpoint, msg);
+            qosProperties, subscriptionCtx.getAcknowledger(), msg);
         handleRegisterAck(malMsg);
       } else if (stage == MALPubSubOperation._DEREGISTER_ACK_STAGE) {
         GENDeregisterBody deregisterBody = new GENDeregisterBody(
             encodedBody, msgCtx, endpoint.getTransport()
                 .getElementStreamFactory());
         MALJMSMessage malMsg = new MALJMSMessage(header, deregisterBody,
-            qosProperties, endpoint, msg);
+            qosProperties, subscriptionCtx.getAcknowledger(), msg);
         handleDeregisterAck(malMsg);
       } else {
         if (logger.isLoggable(BasicLevel.WARN))
@@ -239,6 +277,10 @@ public class SubscriptionConsumer implements MessageListener {
     } catch (Exception exc) {
       if (logger.isLoggable(BasicLevel.WARN))
         logger.log(BasicLevel.WARN, "", exc);
+    } finally {
+      // Delivery thread of the subscription session
+      BatchAcknowledger acknowledger = subscriptionCtx.getAcknowledger();
+      if (acknowledger != null) acknowledger.acknowledgeDue();
     }
   }
 
@@ -1,10 +1,12 @@
 package fr.cnes.ccsds.mo.transport.jms;
 
 import javax.jms.MessageConsumer;
+import javax.jms.Session;
 
 import org.ccsds.moims.mo.mal.structures.Identifier;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
 import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALMessageListener;
 import org.objectweb.util.monolog.api.BasicLevel;
 import org.objectweb.util.monolog.api.Logger;
@@ -18,13 +20,25 @@ public class SubscriptionContext {
   private Identifier networkZone;
   private QoSLevel qos;
   private Subscription subscription;
+  private MALMessageHeader registerHeader;
+  private SubscriptionMatcher matcher;
+  private boolean localFiltering;
 
   private String subscriptionName;
 
   private boolean activated;
   private MALJMSEndpoint endpoint;
   
+  /**
+   * Session of the subscription consumer, the messages of a subscription
+   * are delivered by their own session as a session used by a message
+   * listener cannot be used by the sender threads.
+   */
+  private Session session;
+  
   private MessageConsumer jmsConsumer;
+  
+  private BatchAcknowledger acknowledger;
 
   public SubscriptionContext(Long transactionId, 
       Identifier networkZone,
@@ -75,6 +89,40 @@ public class SubscriptionContext {
     this.subscription = subscription;
   }
   
+  /**
+   * @return the header of the REGISTER message the message selector is built from
+   */
+  public MALMessageHeader getRegisterHeader() {
+    return registerHeader;
+  }
+
+  public void setRegisterHeader(MALMessageHeader registerHeader) {
+    this.registerHeader = registerHeader;
+  }
+  
+  /**
+   * @return the matcher compiled from the subscription and the REGISTER header
+   */
+  public SubscriptionMatcher getMatcher() {
+    return matcher;
+  }
+
+  public void setMatcher(SubscriptionMatcher matcher) {
+    this.matcher = matcher;
+  }
+  
+  /**
+   * @return true if the message selector does not check the entity keys,
+   * see MALJMSTransport.LOCAL_FILTERING
+   */
+  public boolean isLocalFiltering() {
+    return localFiltering;
+  }
+
+  public void setLocalFiltering(boolean localFiltering) {
+    this.localFiltering = localFiltering;
+  }
+  
   public String getSubscriptionName() {
     return subscriptionName;
   }
@@ -83,6 +131,26 @@ public class SubscriptionContext {
     this.subscriptionName = subscriptionName;
   }
   
+  public Session getSession() {
+    return session;
+  }
+
+  public void setSession(Session session) {
+    this.session = session;
+  }
+  
+  /**
+   * @return the acknowledger of the messages received by the subscription,
+   * null if they are acknowledged when freed
+   */
+  public BatchAcknowledger getAcknowledger() {
+    return acknowledger;
+  }
+
+  public void setAcknowledger(BatchAcknowledger acknowledger) {
+    this.acknowledger = acknowledger;
+  }
+  
   public MessageConsumer getJmsConsumer() {
     return jmsConsumer;
   }
@@ -118,10 +186,41 @@ public class SubscriptionContext {
     activated = false;
   }
   
+  /**
+   * Closes the consumer if it is not deactivated, e.g. when the subscription
+   * is registered again, no message is delivered after.
+   */
+  public void closeJmsConsumer() throws Exception {
+    deactivate();
+    if (jmsConsumer != null) {
+      jmsConsumer.close();
+      jmsConsumer = null;
+    }
+  }
+  
+  /**
+   * Removes the durable subscription and closes the session.
+   */
   public void delete() throws Exception {
-    if (subscriptionName != null) {
-      endpoint.getSession().unsubscribe(subscriptionName);
+    closeJmsConsumer();
+    if (session == null) return;
+    try {
+      if (subscriptionName != null) {
+        session.unsubscribe(subscriptionName);
+      }
+    } finally {
+      close();
     }
   }
+  
+  /**
+   * Closes the session, the durable subscription is kept.
+   */
+  public void close() throws Exception {
+    if (session == null) return;
+    if (acknowledger != null) acknowledger.flush();
+    session.close();
+    session = null;
+  }
 
 }
@@ -0,0 +1,142 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Checks the updates of the PUBLISH messages received by a subscription as
+ * the message selector returned by MALJMSHelper.getMessageSelector does.
+ *
+ * The subscription is compiled once: the domain pattern of each entity
+ * request is resolved and its entity keys are indexed by first sub-key, so
+ * checking an update only tests the keys having the same first sub-key and
+ * the keys whose first sub-key is a wildcard.
+ */
+public class SubscriptionMatcher {
+
+  private final RequestMatcher[] requests;
+
+  /**
+   * Constructor.
+   *
+   * @param registerHeader the header of the REGISTER message
+   * @param subscription the subscription
+   */
+  public SubscriptionMatcher(MALMessageHeader registerHeader,
+      Subscription subscription) {
+    EntityRequestList entityRequests = subscription.getEntities();
+    requests = new RequestMatcher[entityRequests.size()];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = new RequestMatcher(registerHeader,
+          (EntityRequest) entityRequests.get(i));
+    }
+  }
+
+  /**
+   * Checks an update.
+   *
+   * @param publishHeader the header of the PUBLISH message
+   * @param update the update to check
+   * @return true if the update matches one of the entity requests
+   */
+  public boolean match(MALMessageHeader publishHeader, UpdateHeader update) {
+    String domain = MALJMSHelper.domainToString(publishHeader.getDomain());
+    for (int i = 0; i < requests.length; i++) {
+      if (requests[i].match(publishHeader, domain, update)) return true;
+    }
+    return false;
+  }
+
+  static class RequestMatcher {
+    private final String domain;
+    private final boolean domainPrefix;
+    private final UShort area;
+    private final UShort service;
+    private final UShort operation;
+    private final boolean onlyOnChange;
+
+    /**
+     * Keys indexed by first sub-key.
+     */
+    private final HashMap<Identifier, List<EntityKey>> keys;
+
+    /**
+     * Keys whose first sub-key is '*' or null.
+     */
+    private final List<EntityKey> otherKeys;
+
+    RequestMatcher(MALMessageHeader registerHeader, EntityRequest entityRequest) {
+      StringBuffer buf = new StringBuffer();
+      buf.append(MALJMSHelper.domainToString(registerHeader.getDomain()));
+      if (entityRequest.getSubDomain() != null) {
+        MALJMSHelper.appendSubdomainIdentifier(entityRequest.getSubDomain(), buf);
+      }
+      int last = buf.length() - 1;
+      domainPrefix = (last >= 0 && buf.charAt(last) == '%');
+      if (domainPrefix) {
+        domain = buf.substring(0, last);
+      } else {
+        domain = buf.toString();
+      }
+      area = entityRequest.getAllAreas().booleanValue() ? null : registerHeader.getServiceArea();
+      service = entityRequest.getAllServices().booleanValue() ? null : registerHeader.getService();
+      operation = entityRequest.getAllOperations().booleanValue() ? null : registerHeader.getOperation();
+      onlyOnChange = entityRequest.getOnlyOnChange().booleanValue();
+
+      keys = new HashMap<Identifier, List<EntityKey>>();
+      otherKeys = new ArrayList<EntityKey>();
+      EntityKeyList entityKeys = entityRequest.getEntityKeys();
+      for (int i = 0; i < entityKeys.size(); i++) {
+        EntityKey key = (EntityKey) entityKeys.get(i);
+        Identifier firstSubKey = key.getFirstSubKey();
+        if (firstSubKey == null || firstSubKey.getValue().equals("*")) {
+          otherKeys.add(key);
+        } else {
+          List<EntityKey> list = keys.get(firstSubKey);
+          if (list == null) {
+            list = new ArrayList<EntityKey>(1);
+            keys.put(firstSubKey, list);
+          }
+          list.add(key);
+        }
+      }
+    }
+
+    boolean match(MALMessageHeader publishHeader, String publishDomain,
+        UpdateHeader update) {
+      if (domainPrefix) {
+        if (! publishDomain.startsWith(domain)) return false;
+      } else {
+        if (! publishDomain.equals(domain)) return false;
+      }
+      if (area != null && ! area.equals(publishHeader.getServiceArea())) return false;
+      if (service != null && ! service.equals(publishHeader.getService())) return false;
+      if (operation != null && ! operation.equals(publishHeader.getOperation())) return false;
+      if (onlyOnChange &&
+          update.getUpdateType().getOrdinal() == UpdateType._UPDATE_INDEX) return false;
+      EntityKey key = update.getKey();
+      List<EntityKey> list = keys.get(key.getFirstSubKey());
+      if (list != null && matchKeys(list, key)) return true;
+      return matchKeys(otherKeys, key);
+    }
+
+    private static boolean matchKeys(List<EntityKey> patterns, EntityKey key) {
+      for (int i = 0; i < patterns.size(); i++) {
+        if (MALJMSEndpoint.PublishRegisterContext.match(patterns.get(i), key)) return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,195 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.jms.Message;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks when a BatchAcknowledger acknowledges the freed messages. The
+ * delivery thread of the session is a single thread executor, the messages
+ * are dynamic proxies recording their acknowledgement.
+ */
+public class BatchAcknowledgerTest {
+
+  private static final long TIMEOUT = 5000;
+
+  private static final String DELIVERY_THREAD = "delivery";
+
+  private final ExecutorService delivery = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          return new Thread(r, DELIVERY_THREAD);
+        }
+      });
+
+  private final Timer timer = new Timer(true);
+
+  /**
+   * Acknowledged messages with the name of the acknowledging thread.
+   */
+  private final List<String> acknowledged = new ArrayList<String>();
+
+  private int wakeUps = 0;
+
+  /**
+   * Number of the wake-ups failing before the delivery thread is woken up.
+   */
+  private int failedWakeUps = 0;
+
+  @After
+  public void tearDown() {
+    timer.cancel();
+    delivery.shutdownNow();
+  }
+
+  private Message message(final String name) {
+    return (Message) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class[] { Message.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("acknowledge")) {
+              synchronized (BatchAcknowledgerTest.this) {
+                acknowledged.add(name + '@' + Thread.currentThread().getName());
+                BatchAcknowledgerTest.this.notifyAll();
+              }
+            }
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Returns an acknowledger woken up by the timer, the wake-up calls
+   * acknowledgeDue from the delivery thread.
+   */
+  private BatchAcknowledger wokenUpAcknowledger(int batchSize, long batchWindow) {
+    final BatchAcknowledger[] acknowledger = new BatchAcknowledger[1];
+    acknowledger[0] = new BatchAcknowledger(batchSize, batchWindow, timer,
+        new BatchAcknowledger.Waker() {
+          public boolean wakeUp() {
+            synchronized (BatchAcknowledgerTest.this) {
+              wakeUps++;
+              if (failedWakeUps > 0) {
+                failedWakeUps--;
+                return false;
+              }
+            }
+            delivery.execute(new Runnable() {
+              public void run() {
+                acknowledger[0].acknowledgeDue();
+              }
+            });
+            return true;
+          }
+        });
+    return acknowledger[0];
+  }
+
+  private synchronized List<String> awaitAcknowledged(int count) throws InterruptedException {
+    long end = System.currentTimeMillis() + TIMEOUT;
+    while (acknowledged.size() < count) {
+      long delay = end - System.currentTimeMillis();
+      if (delay <= 0) break;
+      wait(delay);
+    }
+    return new ArrayList<String>(acknowledged);
+  }
+
+  private synchronized int getWakeUps() {
+    return wakeUps;
+  }
+
+  @Test
+  public void testBatchSize() throws Exception {
+    BatchAcknowledger acknowledger = new BatchAcknowledger(3, 0);
+    acknowledger.acknowledge(message("m1"));
+    acknowledger.acknowledge(message("m2"));
+    acknowledger.acknowledgeDue();
+    assertEquals(0, awaitAcknowledged(0).size());
+    acknowledger.acknowledge(message("m3"));
+    acknowledger.acknowledgeDue();
+    // The last message acknowledges the batch
+    assertEquals(1, awaitAcknowledged(1).size());
+    assertEquals("m3@" + Thread.currentThread().getName(), awaitAcknowledged(1).get(0));
+  }
+
+  @Test
+  public void testBatchWindowAtDelivery() throws Exception {
+    BatchAcknowledger acknowledger = new BatchAcknowledger(100, 50);
+    acknowledger.acknowledge(message("m1"));
+    acknowledger.acknowledgeDue();
+    assertEquals(0, awaitAcknowledged(0).size());
+    Thread.sleep(100);
+    acknowledger.acknowledgeDue();
+    assertEquals(1, awaitAcknowledged(1).size());
+  }
+
+  @Test
+  public void testStalledStream() throws Exception {
+    BatchAcknowledger acknowledger = wokenUpAcknowledger(100, 50);
+    // The messages are freed then no message is delivered anymore
+    acknowledger.acknowledge(message("m1"));
+    acknowledger.acknowledge(message("m2"));
+    List<String> res = awaitAcknowledged(1);
+    assertEquals(1, res.size());
+    assertEquals("m2@" + DELIVERY_THREAD, res.get(0));
+    assertEquals(1, getWakeUps());
+
+    // A new batch is woken up again
+    acknowledger.acknowledge(message("m3"));
+    res = awaitAcknowledged(2);
+    assertEquals(2, res.size());
+    assertEquals("m3@" + DELIVERY_THREAD, res.get(1));
+    assertEquals(2, getWakeUps());
+  }
+
+  @Test
+  public void testFailedWakeUpRetried() throws Exception {
+    BatchAcknowledger acknowledger = wokenUpAcknowledger(100, 50);
+    synchronized (this) {
+      failedWakeUps = 2;
+    }
+    acknowledger.acknowledge(message("m1"));
+    List<String> res = awaitAcknowledged(1);
+    assertEquals(1, res.size());
+    assertEquals("m1@" + DELIVERY_THREAD, res.get(0));
+    assertEquals(3, getWakeUps());
+  }
+
+  @Test
+  public void testNoWakeUpForAcknowledgedBatch() throws Exception {
+    BatchAcknowledger acknowledger = wokenUpAcknowledger(2, 50);
+    acknowledger.acknowledge(message("m1"));
+    acknowledger.acknowledge(message("m2"));
+    acknowledger.acknowledgeDue();
+    assertEquals(1, awaitAcknowledged(1).size());
+    Thread.sleep(150);
+    assertEquals(0, getWakeUps());
+    assertEquals(1, awaitAcknowledged(1).size());
+  }
+
+  @Test
+  public void testFlush() throws Exception {
+    BatchAcknowledger acknowledger = wokenUpAcknowledger(100, 50);
+    acknowledger.acknowledge(message("m1"));
+    acknowledger.flush();
+    assertEquals(1, awaitAcknowledged(1).size());
+    acknowledger.flush();
+    Thread.sleep(150);
+    // The flushed batch is not woken up
+    assertEquals(0, getWakeUps());
+    assertEquals(1, awaitAcknowledged(1).size());
+  }
+}
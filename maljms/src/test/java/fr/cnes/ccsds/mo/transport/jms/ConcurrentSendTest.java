@@ -0,0 +1,105 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Sends SEND messages from several threads through a single endpoint and
+ * checks that the JMS sessions are never used by two threads at the same
+ * time, and that the number of sending sessions is bounded by the size of
+ * the session pool.
+ */
+public class ConcurrentSendTest {
+
+  private static final int THREADS = 8;
+
+  private static final int MESSAGES = 500;
+
+  private static final Blob AUTHENTICATION_ID = new Blob(new byte[0]);
+
+  private static final Identifier NETWORK_ZONE = new Identifier("Network");
+
+  private static final Identifier SESSION_NAME = new Identifier("LIVE");
+
+  @BeforeClass
+  public static void initArea() throws Exception {
+    TestArea.init();
+  }
+
+  private void send(int poolSize) throws Exception {
+    // Each send is blocked for 20us, so the senders overlap
+    InVMConnectionFactory cf = new InVMConnectionFactory(20000);
+    MALJMSTransport transport = new MALJMSTransport(cf.createConnection());
+    Map properties = new HashMap();
+    properties.put(MALJMSTransport.SESSION_POOL_SIZE, Integer.toString(poolSize));
+    transport.init(TestArea.PROTOCOL, properties);
+
+    final MALEndpoint endpoint = transport.createEndpoint(null, new HashMap());
+    final URI uriTo = MALJMSHelper.getQueueUri("destination");
+    final Blob body = new Blob(new byte[256]);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(THREADS);
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    for (int i = 0; i < THREADS; i++) {
+      new Thread("sender" + i) {
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < MESSAGES; j++) {
+              MALMessage msg = endpoint.createMessage(AUTHENTICATION_ID, uriTo,
+                  new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT,
+                  new UInteger(1), SubscriptionMatcherTest.domain("test"),
+                  NETWORK_ZONE, SessionType.LIVE, SESSION_NAME, new Long(j),
+                  Boolean.FALSE, TestArea.SEND_OPERATION, TestArea.SEND_STAGE,
+                  null, body);
+              endpoint.sendMessage(msg);
+            }
+          } catch (Exception exc) {
+            failure.compareAndSet(null, exc);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    assertTrue(done.await(60, TimeUnit.SECONDS));
+    endpoint.close();
+    transport.close();
+
+    if (failure.get() != null) throw failure.get();
+    assertEquals(THREADS * MESSAGES, cf.getSent());
+    assertEquals(0, cf.getViolations());
+    // The session of the transport and the consumer session of the endpoint
+    // are not pooled
+    assertTrue(cf.getSessions() <= poolSize + 2);
+  }
+
+  @Test
+  public void testSerializedSenders() throws Exception {
+    send(1);
+  }
+
+  @Test
+  public void testConcurrentSenders() throws Exception {
+    send(4);
+  }
+}
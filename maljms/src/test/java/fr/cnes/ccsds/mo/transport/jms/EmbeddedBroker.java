@@ -0,0 +1,54 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.ConnectionFactory;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+
+/**
+ * Non-persistent ActiveMQ broker running in the JVM of the tests, used as
+ * JMS provider by the transports.
+ */
+class EmbeddedBroker {
+
+  private final BrokerService broker;
+
+  private final ConnectionFactory cf;
+
+  EmbeddedBroker(String name) throws Exception {
+    broker = new BrokerService();
+    broker.setBrokerName(name);
+    broker.setPersistent(false);
+    broker.setUseJmx(false);
+    broker.setUseShutdownHook(false);
+    broker.setAdvisorySupport(false);
+    broker.start();
+    broker.waitUntilStarted();
+    cf = new ActiveMQConnectionFactory("vm://" + name + "?create=false");
+  }
+
+  ConnectionFactory getConnectionFactory() {
+    return cf;
+  }
+
+  /**
+   * Creates and initializes a transport, each transport connected to the
+   * broker needs its own MAL name as it is the JMS client identifier.
+   */
+  MALJMSTransport createTransport(String malName, Map properties) throws Exception {
+    MALJMSTransport transport = new MALJMSTransport(cf.createConnection());
+    Map transportProperties = new HashMap();
+    if (properties != null) transportProperties.putAll(properties);
+    transportProperties.put(MALJMSTransport.MAL_NAME, malName);
+    transport.init(TestArea.PROTOCOL, transportProperties);
+    return transport;
+  }
+
+  void stop() throws Exception {
+    broker.stop();
+    broker.waitUntilStopped();
+  }
+}
@@ -0,0 +1,178 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Maps MAL headers to JMS messages with the default and the compact mapping
+ * (see MALJMSTransport.COMPACT_HEADER), then reads them back, with all the
+ * fields set and with the optional fields null.
+ */
+public class HeaderMappingTest {
+
+  private static final URI URI_TO = MALJMSHelper.getQueueUri("destination");
+
+  private static MALJMSTransport transport;
+
+  private static MALJMSEndpoint endpoint;
+
+  /**
+   * Session creating the JMS messages of ActiveMQ.
+   */
+  private static Session session;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    TestArea.init();
+    transport = new MALJMSTransport(new InVMConnectionFactory(0).createConnection());
+    transport.init(TestArea.PROTOCOL, new HashMap());
+    endpoint = (MALJMSEndpoint) transport.createEndpoint(null, new HashMap());
+    session = (Session) Proxy.newProxyInstance(HeaderMappingTest.class.getClassLoader(),
+        new Class[] { Session.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("createBytesMessage")) {
+              return new ActiveMQBytesMessage();
+            }
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @AfterClass
+  public static void close() throws Exception {
+    endpoint.close();
+    transport.close();
+  }
+
+  private MALMessage createMessage(Blob authenticationId, Time timestamp,
+      QoSLevel qosLevel, Identifier networkZone, Long transactionId,
+      boolean compact) throws Exception {
+    Map qosProperties = new HashMap();
+    qosProperties.put(MALJMSTransport.COMPACT_HEADER, Boolean.toString(compact));
+    return endpoint.createMessage(authenticationId, URI_TO, timestamp, qosLevel,
+        new UInteger(4), SubscriptionMatcherTest.domain("test", "header"),
+        networkZone, SessionType.SIMULATION, new Identifier("SIM"), transactionId,
+        Boolean.FALSE, TestArea.SEND_OPERATION, TestArea.SEND_STAGE,
+        qosProperties, new Blob(new byte[16]));
+  }
+
+  /**
+   * Maps the header of a message and reads it back.
+   */
+  private MALMessageHeader roundTrip(MALMessage msg, boolean compact) throws Exception {
+    ActiveMQBytesMessage jmsMsg = (ActiveMQBytesMessage) endpoint.mapToJms(msg, session);
+    assertEquals(compact, jmsMsg.propertyExists(MALJMSHelper.COMPACT_HEADER_FIELD_NAME));
+    jmsMsg.reset();
+    MALMessageHeader header = MALJMSHelper.getMALHeader(jmsMsg,
+        TestArea.SEND_OPERATION.getService(), URI_TO);
+    // The body follows the header
+    byte[] body = new byte[jmsMsg.readInt()];
+    assertEquals(body.length, jmsMsg.readBytes(body));
+    assertEquals(-1, jmsMsg.readBytes(new byte[1]));
+    return header;
+  }
+
+  private void checkAllFields(boolean compact) throws Exception {
+    Time timestamp = new Time(System.currentTimeMillis());
+    MALMessage msg = createMessage(new Blob("user".getBytes()), timestamp,
+        QoSLevel.QUEUED, new Identifier("Network"), Long.valueOf(1L << 40), compact);
+    MALMessageHeader header = roundTrip(msg, compact);
+
+    assertArrayEquals("user".getBytes(), header.getAuthenticationId().getValue());
+    assertEquals(endpoint.getURI(), header.getURIFrom());
+    assertEquals(URI_TO, header.getURITo());
+    assertEquals(timestamp, header.getTimestamp());
+    assertEquals(QoSLevel.QUEUED, header.getQoSlevel());
+    assertEquals(new UInteger(4), header.getPriority());
+    assertEquals(SubscriptionMatcherTest.domain("test", "header"), header.getDomain());
+    assertEquals(new Identifier("Network"), header.getNetworkZone());
+    assertEquals(SessionType.SIMULATION, header.getSession());
+    assertEquals(new Identifier("SIM"), header.getSessionName());
+    assertEquals(TestArea.SEND_OPERATION.getInteractionType(), header.getInteractionType());
+    assertEquals(TestArea.SEND_STAGE, header.getInteractionStage());
+    assertEquals(Long.valueOf(1L << 40), header.getTransactionId());
+    assertEquals(TestArea.SEND_OPERATION.getService().getArea().getNumber(), header.getServiceArea());
+    assertEquals(TestArea.SEND_OPERATION.getService().getNumber(), header.getService());
+    assertEquals(TestArea.SEND_OPERATION.getNumber(), header.getOperation());
+    assertFalse(header.getIsErrorMessage().booleanValue());
+  }
+
+  private void checkNullFields(boolean compact) throws Exception {
+    MALMessage msg = createMessage(null, null, null, null, null, compact);
+    Message jmsMsg = endpoint.mapToJms(msg, session);
+    // A message without QoS level is persistent
+    assertEquals(DeliveryMode.PERSISTENT, jmsMsg.getJMSDeliveryMode());
+    MALMessageHeader header = roundTrip(msg, compact);
+
+    assertNull(header.getAuthenticationId());
+    assertNull(header.getTimestamp());
+    assertNull(header.getQoSlevel());
+    assertNull(header.getNetworkZone());
+    assertNull(header.getTransactionId());
+    assertEquals(endpoint.getURI(), header.getURIFrom());
+    assertEquals(SessionType.SIMULATION, header.getSession());
+    assertEquals(TestArea.SEND_STAGE, header.getInteractionStage());
+    assertFalse(header.getIsErrorMessage().booleanValue());
+  }
+
+  @Test
+  public void testDefaultMapping() throws Exception {
+    checkAllFields(false);
+  }
+
+  @Test
+  public void testCompactMapping() throws Exception {
+    checkAllFields(true);
+  }
+
+  @Test
+  public void testDefaultMappingNullFields() throws Exception {
+    checkNullFields(false);
+  }
+
+  @Test
+  public void testCompactMappingNullFields() throws Exception {
+    checkNullFields(true);
+  }
+
+  @Test
+  public void testCompactMappingProperties() throws Exception {
+    MALMessage msg = createMessage(new Blob("user".getBytes()),
+        new Time(System.currentTimeMillis()), QoSLevel.ASSURED,
+        new Identifier("Network"), Long.valueOf(1), true);
+    ActiveMQBytesMessage jmsMsg = (ActiveMQBytesMessage) endpoint.mapToJms(msg, session);
+    // Only the fields used by the selectors are properties
+    assertFalse(jmsMsg.propertyExists(MALJMSHelper.TIMESTAMP_HEADER_FIELD_NAME));
+    assertFalse(jmsMsg.propertyExists(MALJMSHelper.QOS_LEVEL_HEADER_FIELD_NAME));
+    assertFalse(jmsMsg.propertyExists(MALJMSHelper.FROM_HEADER_FIELD_NAME));
+    assertTrue(jmsMsg.propertyExists(MALJMSHelper.DOMAIN_HEADER_FIELD_NAME));
+    assertTrue(jmsMsg.propertyExists(MALJMSHelper.OPERATION_HEADER_FIELD_NAME));
+  }
+}
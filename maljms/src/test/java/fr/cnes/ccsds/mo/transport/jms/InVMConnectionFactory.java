@@ -0,0 +1,244 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.Topic;
+
+/**
+ * In-VM stand-in of a JMS provider measuring the send path of the transport.
+ *
+ * The connections, sessions, producers and messages are dynamic proxies: the
+ * messages are not delivered, a send only blocks for a configurable delay
+ * simulating the round trip to a remote provider. In a transacted session the
+ * sends are buffered and the commit blocks instead. The synchronizations of the
+ * provider storage are counted: one per persistent message sent outside a
+ * transaction, one per commit.
+ *
+ * Each call to a session, or to a producer or a message created by a session,
+ * checks that no other thread is using the session at the same time (a JMS
+ * session is single-threaded) and counts the violations.
+ */
+class InVMConnectionFactory implements ConnectionFactory {
+
+  private final long sendNanos;
+
+  private final AtomicLong sent = new AtomicLong();
+
+  private final AtomicLong sessions = new AtomicLong();
+
+  private final AtomicLong violations = new AtomicLong();
+
+  private final AtomicLong syncs = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param sendNanos the time in nanoseconds each send is blocked
+   */
+  public InVMConnectionFactory(long sendNanos) {
+    this.sendNanos = sendNanos;
+  }
+
+  public long getSent() {
+    return sent.get();
+  }
+
+  public long getSessions() {
+    return sessions.get();
+  }
+
+  public long getViolations() {
+    return violations.get();
+  }
+
+  public long getSyncs() {
+    return syncs.get();
+  }
+
+  public Connection createConnection() throws JMSException {
+    return (Connection) newProxy(Connection.class, new ConnectionHandler());
+  }
+
+  public Connection createConnection(String user, String password)
+      throws JMSException {
+    return createConnection();
+  }
+
+  static Object newProxy(Class itf, InvocationHandler handler) {
+    return Proxy.newProxyInstance(InVMConnectionFactory.class.getClassLoader(),
+        new Class[] { itf }, handler);
+  }
+
+  static Object defaultValue(Class type) {
+    if (! type.isPrimitive() || type == Void.TYPE) return null;
+    if (type == Boolean.TYPE) return Boolean.FALSE;
+    if (type == Character.TYPE) return new Character((char) 0);
+    if (type == Byte.TYPE) return new Byte((byte) 0);
+    if (type == Short.TYPE) return new Short((short) 0);
+    if (type == Integer.TYPE) return new Integer(0);
+    if (type == Long.TYPE) return new Long(0);
+    if (type == Float.TYPE) return new Float(0);
+    return new Double(0);
+  }
+
+  /**
+   * Handles the methods of java.lang.Object, returns null if the method is
+   * not one of them.
+   */
+  static Object objectMethod(Object proxy, Method method, Object[] args) {
+    String name = method.getName();
+    if (name.equals("equals") && args != null && args.length == 1) {
+      return Boolean.valueOf(proxy == args[0]);
+    } else if (name.equals("hashCode") && args == null) {
+      return new Integer(System.identityHashCode(proxy));
+    } else if (name.equals("toString") && args == null) {
+      return method.getDeclaringClass().getSimpleName() + '@' +
+        Integer.toHexString(System.identityHashCode(proxy));
+    }
+    return null;
+  }
+
+  class ConnectionHandler implements InvocationHandler {
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      Object res = objectMethod(proxy, method, args);
+      if (res != null) return res;
+      if (method.getName().equals("createSession")) {
+        sessions.incrementAndGet();
+        return newProxy(Session.class,
+            new SessionHandler(((Boolean) args[0]).booleanValue()));
+      }
+      return defaultValue(method.getReturnType());
+    }
+  }
+
+  class SessionHandler implements InvocationHandler {
+    private final AtomicReference<Thread> owner = new AtomicReference<Thread>();
+    private final boolean transacted;
+    private int uncommitted;
+
+    SessionHandler(boolean transacted) {
+      this.transacted = transacted;
+    }
+
+    /**
+     * Enters the session, returns false if it was already entered by the
+     * current thread.
+     */
+    boolean enter() {
+      Thread current = Thread.currentThread();
+      if (owner.get() == current) return false;
+      if (! owner.compareAndSet(null, current)) {
+        violations.incrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    void exit(boolean entered) {
+      if (entered) owner.set(null);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      Object res = objectMethod(proxy, method, args);
+      if (res != null) return res;
+      boolean entered = enter();
+      try {
+        String name = method.getName();
+        if (name.equals("createBytesMessage")) {
+          return newProxy(BytesMessage.class, new ChildHandler(this, false));
+        } else if (name.equals("createProducer")) {
+          return newProxy(MessageProducer.class, new ChildHandler(this, true));
+        } else if (name.equals("createQueue")) {
+          return newProxy(Queue.class, new DestinationHandler((String) args[0]));
+        } else if (name.equals("createTemporaryQueue")) {
+          return newProxy(TemporaryQueue.class, new DestinationHandler("tmp-" + sessions.get()));
+        } else if (name.equals("createTopic")) {
+          return newProxy(Topic.class, new DestinationHandler((String) args[0]));
+        } else if (name.equals("commit")) {
+          if (uncommitted > 0) {
+            LockSupport.parkNanos(sendNanos);
+            sent.addAndGet(uncommitted);
+            syncs.incrementAndGet();
+            uncommitted = 0;
+          }
+        } else if (name.equals("rollback") || name.equals("close")) {
+          uncommitted = 0;
+        } else if (name.equals("getTransacted")) {
+          return Boolean.valueOf(transacted);
+        }
+        return defaultValue(method.getReturnType());
+      } finally {
+        exit(entered);
+      }
+    }
+  }
+
+  /**
+   * Producer or message, checked as a part of its session.
+   */
+  class ChildHandler implements InvocationHandler {
+    private final SessionHandler session;
+    private final boolean producer;
+    private int deliveryMode = DeliveryMode.PERSISTENT;
+
+    ChildHandler(SessionHandler session, boolean producer) {
+      this.session = session;
+      this.producer = producer;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      Object res = objectMethod(proxy, method, args);
+      if (res != null) return res;
+      boolean entered = session.enter();
+      try {
+        String name = method.getName();
+        if (producer && name.equals("setDeliveryMode")) {
+          deliveryMode = ((Integer) args[0]).intValue();
+        } else if (producer && name.equals("send")) {
+          if (session.transacted) {
+            session.uncommitted++;
+          } else {
+            LockSupport.parkNanos(sendNanos);
+            sent.incrementAndGet();
+            if (deliveryMode == DeliveryMode.PERSISTENT) syncs.incrementAndGet();
+          }
+        }
+        return defaultValue(method.getReturnType());
+      } finally {
+        session.exit(entered);
+      }
+    }
+  }
+
+  static class DestinationHandler implements InvocationHandler {
+    private final String name;
+
+    DestinationHandler(String name) {
+      this.name = name;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      String methodName = method.getName();
+      if (methodName.equals("getQueueName") || methodName.equals("getTopicName")) {
+        return name;
+      }
+      Object res = objectMethod(proxy, method, args);
+      if (res != null) return res;
+      return defaultValue(method.getReturnType());
+    }
+  }
+}
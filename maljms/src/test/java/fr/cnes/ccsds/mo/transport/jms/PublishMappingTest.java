@@ -0,0 +1,274 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Publishes updates through a shared broker of an embedded ActiveMQ broker
+ * and checks that a subscriber receives the same updates with one JMS
+ * message per update, with the batched mapping and with the local filtering.
+ */
+public class PublishMappingTest {
+
+  private static final long TIMEOUT = 10000;
+
+  private static final IdentifierList DOMAIN = SubscriptionMatcherTest.domain("test");
+
+  private static final Identifier NETWORK_ZONE = new Identifier("Network");
+
+  private static final Identifier SESSION_NAME = new Identifier("LIVE");
+
+  private static final Blob AUTHENTICATION_ID = new Blob(new byte[0]);
+
+  private static final int PUBLISHES = 20;
+
+  private static final int UPDATES = 30;
+
+  private static EmbeddedBroker broker;
+
+  private static long transactionId = 0;
+
+  @BeforeClass
+  public static void startBroker() throws Exception {
+    TestArea.init();
+    broker = new EmbeddedBroker("publish");
+  }
+
+  @AfterClass
+  public static void stopBroker() throws Exception {
+    broker.stop();
+  }
+
+  static MALMessage createMessage(MALEndpoint endpoint, URI uriTo,
+      UOctet stage, Object... body) throws Exception {
+    return endpoint.createMessage(AUTHENTICATION_ID, uriTo,
+        new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT, new UInteger(1),
+        DOMAIN, NETWORK_ZONE, SessionType.LIVE, SESSION_NAME, Long.valueOf(++transactionId),
+        Boolean.FALSE, TestArea.MONITOR_OPERATION, stage, null, body);
+  }
+
+  /**
+   * Returns the key of the n-th update of a PUBLISH.
+   */
+  static EntityKey updateKey(int n) {
+    return new EntityKey(new Identifier("ABC".substring(n % 3, n % 3 + 1)),
+        Long.valueOf(n % 5), null, null);
+  }
+
+  /**
+   * Returns true if the n-th update of a PUBLISH matches the subscription.
+   */
+  static boolean expected(int n, UpdateType updateType) {
+    EntityKey key = updateKey(n);
+    String first = key.getFirstSubKey().getValue();
+    long second = key.getSecondSubKey().longValue();
+    return first.equals("A") || (first.equals("B") && second == 2) ||
+        (second == 3 && ! updateType.equals(UpdateType.UPDATE));
+  }
+
+  static UpdateType updateType(int n) {
+    return ((n & 1) == 0) ? UpdateType.UPDATE : UpdateType.MODIFICATION;
+  }
+
+  /**
+   * Publishes the updates and returns the NOTIFY messages received by the
+   * subscriber.
+   */
+  private NotifyRecorder publish(String name, Map publisherProperties,
+      Map subscriberProperties, List<String> expected) throws Exception {
+    MALJMSTransport transport = broker.createTransport(name, null);
+    try {
+      URI brokerURI = transport.createBroker(name, AUTHENTICATION_ID,
+          new QoSLevel[] { QoSLevel.BESTEFFORT }, new UInteger(1), null).getURI();
+
+      NotifyRecorder recorder = new NotifyRecorder();
+      MALEndpoint subscriber = transport.createEndpoint(null, subscriberProperties);
+      subscriber.setMessageListener(recorder);
+      subscriber.startMessageDelivery();
+
+      EntityKeyList keys = new EntityKeyList();
+      keys.add(new EntityKey(new Identifier("A"), Long.valueOf(0), Long.valueOf(0), Long.valueOf(0)));
+      keys.add(new EntityKey(new Identifier("B"), Long.valueOf(2), Long.valueOf(0), Long.valueOf(0)));
+      EntityKeyList oocKeys = new EntityKeyList();
+      oocKeys.add(new EntityKey(new Identifier("*"), Long.valueOf(3), Long.valueOf(0), Long.valueOf(0)));
+      EntityRequestList entities = new EntityRequestList();
+      entities.add(new EntityRequest(null, Boolean.FALSE, Boolean.FALSE, Boolean.FALSE, Boolean.FALSE, keys));
+      entities.add(new EntityRequest(null, Boolean.FALSE, Boolean.FALSE, Boolean.FALSE, Boolean.TRUE, oocKeys));
+      subscriber.sendMessage(createMessage(subscriber, brokerURI, MALPubSubOperation.REGISTER_STAGE,
+          new Subscription(new Identifier("sub"), entities)));
+
+      MALEndpoint publisher = transport.createEndpoint(null, publisherProperties);
+      publisher.setMessageListener(new NotifyRecorder());
+      publisher.startMessageDelivery();
+      EntityKeyList allKeys = new EntityKeyList();
+      allKeys.add(new EntityKey(new Identifier("*"), Long.valueOf(0), Long.valueOf(0), Long.valueOf(0)));
+      publisher.sendMessage(createMessage(publisher, brokerURI, MALPubSubOperation.PUBLISH_REGISTER_STAGE,
+          allKeys));
+
+      URI source = publisher.getURI();
+      for (int i = 0; i < PUBLISHES; i++) {
+        UpdateHeaderList updateHeaders = new UpdateHeaderList();
+        IdentifierList values = new IdentifierList();
+        for (int j = 0; j < UPDATES; j++) {
+          UpdateType updateType = updateType(j);
+          updateHeaders.add(new UpdateHeader(new Time(0), source, updateType, updateKey(j)));
+          values.add(new Identifier("V" + i + "-" + j));
+          if (expected != null && expected(j, updateType)) {
+            expected.add("V" + i + "-" + j);
+          }
+        }
+        publisher.sendMessage(createMessage(publisher, brokerURI, MALPubSubOperation.PUBLISH_STAGE,
+            updateHeaders, values));
+      }
+      recorder.await(expected.size());
+      // No other update is received
+      Thread.sleep(200);
+
+      publisher.close();
+      subscriber.close();
+      return recorder;
+    } finally {
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testPublishMappings() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    NotifyRecorder single = publish("single", new HashMap(), new HashMap(), expected);
+    assertEquals(expected, single.getValues());
+    assertEquals(expected.size(), single.getMessages());
+
+    Map batchProperties = new HashMap();
+    batchProperties.put(MALJMSTransport.BATCH_PUBLISH, "true");
+    NotifyRecorder batch = publish("batch", batchProperties, new HashMap(),
+        new ArrayList<String>());
+    assertEquals(expected, batch.getValues());
+    // One JMS message per update type of a PUBLISH
+    assertEquals(2 * PUBLISHES, batch.getMessages());
+
+    Map localProperties = new HashMap();
+    localProperties.put(MALJMSTransport.LOCAL_FILTERING, "true");
+    NotifyRecorder local = publish("local", new HashMap(), localProperties,
+        new ArrayList<String>());
+    assertEquals(expected, local.getValues());
+    assertEquals(expected.size(), local.getMessages());
+
+    Map bothProperties = new HashMap();
+    bothProperties.put(MALJMSTransport.BATCH_PUBLISH, "true");
+    bothProperties.put(MALJMSTransport.LOCAL_FILTERING, "true");
+    NotifyRecorder both = publish("both", bothProperties, bothProperties,
+        new ArrayList<String>());
+    assertEquals(expected, both.getValues());
+    assertEquals(2 * PUBLISHES, both.getMessages());
+  }
+
+  /**
+   * Records the values of the updates of the NOTIFY messages.
+   */
+  static class NotifyRecorder implements MALMessageListener {
+    private final List<String> values = new ArrayList<String>();
+    private int messages = 0;
+    private Throwable error = null;
+
+    public synchronized void onMessage(MALEndpoint callingEndpoint, MALMessage msg) {
+      try {
+        if (msg.getHeader().getInteractionStage().getValue() == MALPubSubOperation._NOTIFY_STAGE) {
+          messages++;
+          MALNotifyBody body = (MALNotifyBody) msg.getBody();
+          List updates = body.getUpdateList(0, new IdentifierList());
+          for (int i = 0; i < updates.size(); i++) {
+            values.add(((Identifier) updates.get(i)).getValue());
+          }
+          notifyAll();
+        }
+        msg.free();
+      } catch (Throwable exc) {
+        error = exc;
+      }
+    }
+
+    public void onMessages(MALEndpoint callingEndpoint, MALMessage[] msgList) {
+      for (int i = 0; i < msgList.length; i++) {
+        onMessage(callingEndpoint, msgList[i]);
+      }
+    }
+
+    public synchronized void onInternalError(MALEndpoint callingEndpoint, Throwable error) {
+      this.error = error;
+    }
+
+    public synchronized void onTransmitError(MALEndpoint callingEndpoint,
+        MALMessageHeader header, MALStandardError standardError, Map qosProperties) {
+      error = new Exception(standardError.toString());
+    }
+
+    synchronized void await(int count) throws Exception {
+      long end = System.currentTimeMillis() + TIMEOUT;
+      while (values.size() < count && error == null) {
+        long delay = end - System.currentTimeMillis();
+        if (delay <= 0) break;
+        wait(delay);
+      }
+    }
+
+    /**
+     * @return the received values sorted in publishing order
+     */
+    synchronized List<String> getValues() throws Exception {
+      if (error instanceof Exception) throw (Exception) error;
+      if (error != null) throw new Exception(error);
+      List<String> res = new ArrayList<String>(values);
+      Collections.sort(res, new java.util.Comparator<String>() {
+        public int compare(String s1, String s2) {
+          return order(s1) - order(s2);
+        }
+      });
+      return res;
+    }
+
+    private static int order(String value) {
+      int sep = value.indexOf('-');
+      return Integer.parseInt(value.substring(1, sep)) * UPDATES +
+          Integer.parseInt(value.substring(sep + 1));
+    }
+
+    synchronized int getMessages() {
+      return messages;
+    }
+  }
+}
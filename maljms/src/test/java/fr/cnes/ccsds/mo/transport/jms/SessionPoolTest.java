@@ -0,0 +1,334 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the leasing and the eviction of the sessions of a SessionPool, the
+ * connection and the sessions are dynamic proxies recording their use.
+ */
+public class SessionPoolTest {
+
+  private static final long TIMEOUT = 5000;
+
+  private final RecordingConnection connection = new RecordingConnection();
+
+  private final Leaser other = new Leaser();
+
+  @After
+  public void tearDown() {
+    other.shutdown();
+  }
+
+  @Test
+  public void testNestedLease() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 2, 60000);
+    SessionPool.PooledSession ps = pool.lease();
+    assertSame(ps, pool.lease());
+    pool.release(ps);
+    // Still leased by this thread
+    SessionPool.PooledSession ps2 = other.lease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    assertNotSame(ps, ps2);
+    pool.release(ps);
+    other.release(pool, ps2);
+    assertEquals(2, connection.getCreated());
+    assertEquals(0, connection.getClosed());
+  }
+
+  @Test
+  public void testLifoReuse() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 2, 60000);
+    SessionPool.PooledSession ps1 = pool.lease();
+    SessionPool.PooledSession ps2 = other.lease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    other.release(pool, ps2);
+    pool.release(ps1);
+    assertSame(ps1, pool.lease());
+    pool.release(ps1);
+    assertEquals(2, connection.getCreated());
+  }
+
+  @Test
+  public void testWaitWhenExhausted() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    SessionPool.PooledSession ps = pool.lease();
+    Future<SessionPool.PooledSession> waiting = other.lease(pool);
+    try {
+      waiting.get(200, TimeUnit.MILLISECONDS);
+      fail("Lease of an exhausted pool");
+    } catch (TimeoutException exc) {
+    }
+    pool.release(ps);
+    assertSame(ps, waiting.get(TIMEOUT, TimeUnit.MILLISECONDS));
+    assertEquals(1, connection.getCreated());
+  }
+
+  @Test
+  public void testTryLeaseWhenExhausted() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    SessionPool.PooledSession ps = other.tryLease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    assertNotNull(ps);
+    assertNull(pool.tryLease());
+    other.release(pool, ps);
+    assertSame(ps, pool.tryLease());
+    pool.release(ps);
+    assertEquals(1, connection.getCreated());
+  }
+
+  @Test
+  public void testWakeUpWhenExhausted() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    MALJMSEndpoint.WakeUpSender sender = new MALJMSEndpoint.WakeUpSender(pool,
+        MALJMSHelper.getQueueUri("wakeup"));
+    SessionPool.PooledSession ps = other.lease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    // The timer thread is not blocked, the wake-up is retried later
+    assertFalse(sender.wakeUp());
+    other.release(pool, ps);
+    assertTrue(sender.wakeUp());
+    assertEquals(1, connection.getCreated());
+  }
+
+  @Test
+  public void testFailedCreationFreesSlot() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    connection.fail = true;
+    try {
+      pool.lease();
+      fail("Session created");
+    } catch (JMSException exc) {
+    }
+    connection.fail = false;
+    pool.release(pool.lease());
+    assertEquals(1, connection.getCreated());
+  }
+
+  @Test
+  public void testIdleEviction() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 2, 50);
+    SessionPool.PooledSession ps1 = pool.lease();
+    SessionPool.PooledSession ps2 = other.lease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    other.release(pool, ps2);
+    Thread.sleep(100);
+    // The expired session is closed when another one is released
+    pool.release(ps1);
+    assertEquals(1, connection.getClosed());
+    assertTrue(connection.isClosed(ps2.getSession()));
+
+    Thread.sleep(100);
+    pool.evictIdle();
+    assertEquals(2, connection.getClosed());
+    SessionPool.PooledSession ps3 = pool.lease();
+    assertNotSame(ps1, ps3);
+    pool.release(ps3);
+    assertEquals(3, connection.getCreated());
+  }
+
+  @Test
+  public void testScheduledEviction() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 2, 50);
+    Timer timer = new Timer(true);
+    try {
+      pool.scheduleEviction(timer);
+      pool.release(pool.lease());
+      long end = System.currentTimeMillis() + TIMEOUT;
+      while (connection.getClosed() == 0 && System.currentTimeMillis() < end) {
+        Thread.sleep(10);
+      }
+      assertEquals(1, connection.getClosed());
+    } finally {
+      timer.cancel();
+    }
+  }
+
+  @Test
+  public void testDiscardInNestedLease() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    SessionPool.PooledSession ps = pool.lease();
+    assertSame(ps, pool.lease());
+    pool.discard(ps);
+    assertFalse(connection.isClosed(ps.getSession()));
+    try {
+      ps.getProducer(MALJMSHelper.getQueueUri("queue"));
+      fail("Discarded session used");
+    } catch (JMSException exc) {
+    }
+    try {
+      pool.lease();
+      fail("Discarded session leased");
+    } catch (JMSException exc) {
+    }
+    // The failed nested lease did not increase the depth
+    pool.release(ps);
+    assertTrue(connection.isClosed(ps.getSession()));
+
+    // The slot of the discarded session is free
+    SessionPool.PooledSession ps2 = pool.lease();
+    assertNotSame(ps, ps2);
+    pool.release(ps2);
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 2, 60000);
+    SessionPool.PooledSession ps1 = pool.lease();
+    SessionPool.PooledSession ps2 = other.lease(pool).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    other.release(pool, ps2);
+
+    pool.close();
+    // The idle sessions are closed, the leased ones when released
+    assertTrue(connection.isClosed(ps2.getSession()));
+    assertFalse(connection.isClosed(ps1.getSession()));
+    pool.release(ps1);
+    assertTrue(connection.isClosed(ps1.getSession()));
+    try {
+      pool.lease();
+      fail("Lease of a closed pool");
+    } catch (JMSException exc) {
+    }
+  }
+
+  @Test
+  public void testCloseWakesWaitingThreads() throws Exception {
+    SessionPool pool = new SessionPool(connection.proxy, 1, 60000);
+    SessionPool.PooledSession ps = pool.lease();
+    Future<SessionPool.PooledSession> waiting = other.lease(pool);
+    Thread.sleep(100);
+    pool.close();
+    try {
+      waiting.get(TIMEOUT, TimeUnit.MILLISECONDS);
+      fail("Lease of a closed pool");
+    } catch (ExecutionException exc) {
+      assertTrue(exc.getCause() instanceof JMSException);
+    }
+    pool.release(ps);
+    assertEquals(1, connection.getClosed());
+  }
+
+  /**
+   * Thread leasing and releasing sessions, a session must be released by the
+   * thread that leased it.
+   */
+  static class Leaser {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    Future<SessionPool.PooledSession> tryLease(final SessionPool pool) {
+      return executor.submit(new Callable<SessionPool.PooledSession>() {
+        public SessionPool.PooledSession call() throws Exception {
+          return pool.tryLease();
+        }
+      });
+    }
+
+    Future<SessionPool.PooledSession> lease(final SessionPool pool) {
+      return executor.submit(new Callable<SessionPool.PooledSession>() {
+        public SessionPool.PooledSession call() throws Exception {
+          return pool.lease();
+        }
+      });
+    }
+
+    void release(final SessionPool pool, final SessionPool.PooledSession ps)
+        throws Exception {
+      executor.submit(new Callable<Object>() {
+        public Object call() {
+          pool.release(ps);
+          return null;
+        }
+      }).get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    void shutdown() {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Connection whose sessions only create queues and producers, and record
+   * whether they are closed.
+   */
+  static class RecordingConnection implements InvocationHandler {
+    final Connection proxy = (Connection) newProxy(Connection.class, this);
+
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    private final List<Session> closed = new ArrayList<Session>();
+
+    volatile boolean fail = false;
+
+    static Object newProxy(Class itf, InvocationHandler handler) {
+      return Proxy.newProxyInstance(SessionPoolTest.class.getClassLoader(),
+          new Class[] { itf }, handler);
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Exception {
+      if (method.getName().equals("createSession")) {
+        if (fail) throw new JMSException("Cannot create session");
+        final Session session = (Session) newProxy(Session.class, new InvocationHandler() {
+          public Object invoke(Object sessionProxy, Method m, Object[] a) {
+            if (m.getName().equals("close")) {
+              closed((Session) sessionProxy);
+            } else if (m.getName().equals("createQueue")) {
+              return newProxy(Queue.class, this);
+            } else if (m.getName().equals("createProducer")) {
+              return newProxy(MessageProducer.class, this);
+            } else if (m.getName().equals("equals")) {
+              return Boolean.valueOf(sessionProxy == a[0]);
+            } else if (m.getName().equals("hashCode")) {
+              return Integer.valueOf(System.identityHashCode(sessionProxy));
+            }
+            return null;
+          }
+        });
+        synchronized (this) {
+          sessions.add(session);
+        }
+        return session;
+      }
+      return null;
+    }
+
+    synchronized void closed(Session session) {
+      closed.add(session);
+    }
+
+    synchronized int getCreated() {
+      return sessions.size();
+    }
+
+    synchronized int getClosed() {
+      return closed.size();
+    }
+
+    synchronized boolean isClosed(Session session) {
+      return closed.contains(session);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Receives fewer messages than the acknowledgement batch size then stops the
+ * stream, and checks after a reconnection that the freed messages have been
+ * acknowledged once the batch window expired.
+ */
+public class StalledStreamTest {
+
+  private static final long TIMEOUT = 10000;
+
+  private static final int MESSAGES = 3;
+
+  private static EmbeddedBroker broker;
+
+  @BeforeClass
+  public static void startBroker() throws Exception {
+    TestArea.init();
+    broker = new EmbeddedBroker("stalled");
+  }
+
+  @AfterClass
+  public static void stopBroker() throws Exception {
+    broker.stop();
+  }
+
+  /**
+   * Receives and frees messages with a first connection closed without
+   * closing the endpoint, then counts the messages redelivered to a second
+   * connection.
+   */
+  private int receiveAfterReconnect(String queueName, long ackBatchWindow) throws Exception {
+    Map properties = new HashMap();
+    properties.put(MALJMSTransport.ACK_BATCH_SIZE, "10");
+    properties.put(MALJMSTransport.ACK_BATCH_WINDOW, Long.toString(ackBatchWindow));
+
+    MALJMSTransport transport = broker.createTransport(queueName + "-1", null);
+    MALEndpoint receiver = transport.createEndpoint(queueName, properties);
+    Counter counter = new Counter();
+    receiver.setMessageListener(counter);
+    receiver.startMessageDelivery();
+    MALEndpoint sender = transport.createEndpoint(null, null);
+    for (int i = 0; i < MESSAGES; i++) {
+      sender.sendMessage(sender.createMessage(new Blob(new byte[0]), receiver.getURI(),
+          new Time(System.currentTimeMillis()), QoSLevel.ASSURED, new UInteger(1),
+          SubscriptionMatcherTest.domain("test"), new Identifier("Network"),
+          SessionType.LIVE, new Identifier("LIVE"), Long.valueOf(i), Boolean.FALSE,
+          TestArea.SEND_OPERATION, TestArea.SEND_STAGE, null, new Blob(new byte[16])));
+    }
+    assertEquals(MESSAGES, counter.await(MESSAGES));
+    // The stream stops for longer than the batch window
+    Thread.sleep(500);
+    // The acknowledger is not flushed
+    transport.close();
+
+    transport = broker.createTransport(queueName + "-2", null);
+    try {
+      receiver = transport.createEndpoint(queueName, properties);
+      counter = new Counter();
+      receiver.setMessageListener(counter);
+      receiver.startMessageDelivery();
+      return counter.await(MESSAGES);
+    } finally {
+      receiver.close();
+      transport.close();
+    }
+  }
+
+  @Test
+  public void testStalledBatchAcknowledged() throws Exception {
+    assertEquals(0, receiveAfterReconnect("stalled", 100));
+  }
+
+  @Test
+  public void testStalledBatchWithoutWindow() throws Exception {
+    // Without batch window the freed messages wait for a full batch
+    assertEquals(MESSAGES, receiveAfterReconnect("unbounded", 0));
+  }
+
+  /**
+   * Counts and frees the received messages.
+   */
+  static class Counter implements MALMessageListener {
+    private int count = 0;
+
+    public synchronized void onMessage(MALEndpoint callingEndpoint, MALMessage msg) {
+      try {
+        msg.free();
+      } catch (MALException exc) {
+        return;
+      }
+      count++;
+      notifyAll();
+    }
+
+    public void onMessages(MALEndpoint callingEndpoint, MALMessage[] msgList) {
+      for (int i = 0; i < msgList.length; i++) {
+        onMessage(callingEndpoint, msgList[i]);
+      }
+    }
+
+    public void onInternalError(MALEndpoint callingEndpoint, Throwable error) {}
+
+    public void onTransmitError(MALEndpoint callingEndpoint,
+        MALMessageHeader header, MALStandardError standardError, Map qosProperties) {}
+
+    /**
+     * Waits for the specified number of messages, at most 1s if no message
+     * is expected anymore.
+     */
+    synchronized int await(int expected) throws InterruptedException {
+      long end = System.currentTimeMillis() + ((count == 0) ? 1000 : TIMEOUT);
+      while (count < expected) {
+        long delay = end - System.currentTimeMillis();
+        if (delay <= 0) break;
+        wait(delay);
+      }
+      return count;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import javax.jms.Message;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.selector.SelectorParser;
+import org.ccsds.moims.mo.mal.structures.EntityKey;
+import org.ccsds.moims.mo.mal.structures.EntityKeyList;
+import org.ccsds.moims.mo.mal.structures.EntityRequest;
+import org.ccsds.moims.mo.mal.structures.EntityRequestList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateType;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.Test;
+
+/**
+ * Checks that a SubscriptionMatcher accepts the same updates as the message
+ * selector of the subscription, evaluated by the ActiveMQ selector engine:
+ * directly for the updates sent one per JMS message, combined with the
+ * selector for the batched PUBLISH messages and with the coarse selector for
+ * the local filtering.
+ */
+public class SubscriptionMatcherTest {
+
+  private static final UpdateType[] UPDATE_TYPES = new UpdateType[] {
+    UpdateType.CREATION, UpdateType.UPDATE, UpdateType.MODIFICATION, UpdateType.DELETION
+  };
+
+  private static final Long BIG = Long.valueOf(1L << 32);
+
+  static IdentifierList domain(String... ids) {
+    IdentifierList domain = new IdentifierList();
+    for (int i = 0; i < ids.length; i++) domain.add(new Identifier(ids[i]));
+    return domain;
+  }
+
+  static Identifier id(String id) {
+    return (id == null) ? null : new Identifier(id);
+  }
+
+  static EntityKey key(String first, Long second, Long third, Long fourth) {
+    return new EntityKey(id(first), second, third, fourth);
+  }
+
+  static MALMessageHeader header(IdentifierList domain, SessionType session,
+      String sessionName, int area, int service, int operation) {
+    MALMessageHeader header = new MALJMSMessageHeader();
+    header.setDomain(domain);
+    header.setSession(session);
+    header.setSessionName(new Identifier(sessionName));
+    header.setServiceArea(new UShort(area));
+    header.setService(new UShort(service));
+    header.setOperation(new UShort(operation));
+    header.setAreaVersion(new UOctet((short) 1));
+    return header;
+  }
+
+  static MALMessageHeader header(IdentifierList domain) {
+    return header(domain, SessionType.LIVE, "LIVE", 201, 1, 1);
+  }
+
+  static Subscription subscription(IdentifierList subDomain, boolean ooc,
+      EntityKey... keys) {
+    EntityKeyList keyList = new EntityKeyList();
+    for (int i = 0; i < keys.length; i++) keyList.add(keys[i]);
+    EntityRequestList entities = new EntityRequestList();
+    entities.add(new EntityRequest(subDomain, Boolean.FALSE, Boolean.FALSE,
+        Boolean.FALSE, Boolean.valueOf(ooc), keyList));
+    return new Subscription(new Identifier("sub"), entities);
+  }
+
+  static UpdateHeader update(UpdateType updateType, EntityKey key) {
+    return new UpdateHeader(new Time(0), new URI("source"), updateType, key);
+  }
+
+  /**
+   * Sets the properties mapping the header fields used by the selectors, as
+   * MALJMSEndpoint.mapToJms does.
+   */
+  static void setHeaderProperties(MALMessageHeader header, Message jmsMsg) throws Exception {
+    jmsMsg.setStringProperty(MALJMSHelper.DOMAIN_HEADER_FIELD_NAME,
+        MALJMSHelper.domainToString(header.getDomain()));
+    jmsMsg.setIntProperty(MALJMSHelper.SESSION_HEADER_FIELD_NAME,
+        header.getSession().getOrdinal());
+    jmsMsg.setStringProperty(MALJMSHelper.SESSION_NAME_HEADER_FIELD_NAME,
+        header.getSessionName().getValue());
+    jmsMsg.setIntProperty(MALJMSHelper.AREA_HEADER_FIELD_NAME,
+        header.getServiceArea().getValue());
+    jmsMsg.setIntProperty(MALJMSHelper.SERVICE_HEADER_FIELD_NAME,
+        header.getService().getValue());
+    jmsMsg.setIntProperty(MALJMSHelper.VERSION_HEADER_FIELD_NAME,
+        header.getAreaVersion().getValue());
+    jmsMsg.setIntProperty(MALJMSHelper.OPERATION_HEADER_FIELD_NAME,
+        header.getOperation().getValue());
+  }
+
+  static Message singleMessage(MALMessageHeader header, UpdateHeader update) throws Exception {
+    Message jmsMsg = new ActiveMQBytesMessage();
+    setHeaderProperties(header, jmsMsg);
+    MALJMSHelper.setPublishJmsProperties(header, update, jmsMsg);
+    return jmsMsg;
+  }
+
+  static Message batchMessage(MALMessageHeader header, UpdateHeader update) throws Exception {
+    Message jmsMsg = new ActiveMQBytesMessage();
+    setHeaderProperties(header, jmsMsg);
+    MALJMSHelper.setBatchPublishJmsProperties(header, update.getUpdateType(), jmsMsg);
+    return jmsMsg;
+  }
+
+  static boolean matches(String selector, Message jmsMsg) throws Exception {
+    BooleanExpression expression = SelectorParser.parse(selector);
+    MessageEvaluationContext context = new MessageEvaluationContext();
+    context.setMessageReference((ActiveMQBytesMessage) jmsMsg);
+    return expression.matches(context);
+  }
+
+  /**
+   * Checks an update with the selectors and with the matcher of a
+   * subscription, the three ways of filtering must agree.
+   *
+   * @return true if the update is delivered
+   */
+  static boolean check(MALMessageHeader registerHeader, Subscription subscription,
+      MALMessageHeader publishHeader, UpdateHeader update) throws Exception {
+    String selector = MALJMSHelper.getMessageSelector(registerHeader, subscription);
+    String coarseSelector = MALJMSHelper.getCoarseMessageSelector(registerHeader, subscription);
+    SubscriptionMatcher matcher = new SubscriptionMatcher(registerHeader, subscription);
+
+    boolean single = matches(selector, singleMessage(publishHeader, update));
+    boolean matched = matcher.match(publishHeader, update);
+    String msg = "selector=" + selector + ", header=" + publishHeader + ", update=" + update;
+    assertEquals(msg, single,
+        matches(selector, batchMessage(publishHeader, update)) && matched);
+    assertEquals(msg, single,
+        matches(coarseSelector, singleMessage(publishHeader, update)) && matched);
+    // The matcher does not check the session, already checked by the selectors
+    boolean sameSession = publishHeader.getSession().equals(registerHeader.getSession()) &&
+        publishHeader.getSessionName().equals(registerHeader.getSessionName());
+    assertEquals(msg, single, sameSession && matched);
+    return single;
+  }
+
+  @Test
+  public void testWildcardFirstSubKey() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    Subscription subscription = subscription(null, false, key("*", 0L, 0L, 0L));
+    assertTrue(MALJMSHelper.getMessageSelector(header, subscription).contains("(TRUE)"));
+    assertTrue(check(header, subscription, header, update(UpdateType.UPDATE, key("A", 1L, null, null))));
+    assertTrue(check(header, subscription, header, update(UpdateType.UPDATE, key(null, null, null, null))));
+
+    subscription = subscription(null, false, key("*", 2L, 0L, 0L));
+    assertTrue(check(header, subscription, header, update(UpdateType.UPDATE, key("B", 2L, 5L, null))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key("B", 3L, 5L, null))));
+  }
+
+  @Test
+  public void testNullSubKeys() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    Subscription subscription = subscription(null, false, key(null, null, 0L, 0L));
+    assertTrue(check(header, subscription, header, update(UpdateType.UPDATE, key(null, null, 1L, null))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key("A", null, 1L, null))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key(null, 1L, 1L, null))));
+  }
+
+  @Test
+  public void testLongWildcard() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    // A sub-key whose 32 low bits are zero is not a wildcard
+    Subscription subscription = subscription(null, false, key("A", BIG, 0L, 0L));
+    assertTrue(check(header, subscription, header, update(UpdateType.UPDATE, key("A", BIG, null, 7L))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key("A", 1L, null, 7L))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key("A", null, null, 7L))));
+  }
+
+  @Test
+  public void testBatchFlag() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    Subscription subscription = subscription(null, true, key("A", 0L, 0L, 0L));
+    // The batch flag only skips the entity keys
+    assertTrue(matches(MALJMSHelper.getMessageSelector(header, subscription),
+        batchMessage(header, update(UpdateType.CREATION, key("B", 1L, null, null)))));
+    assertFalse(matches(MALJMSHelper.getMessageSelector(header, subscription),
+        batchMessage(header, update(UpdateType.UPDATE, key("A", 1L, null, null)))));
+    assertFalse(matches(MALJMSHelper.getMessageSelector(header, subscription),
+        batchMessage(header(domain("b")), update(UpdateType.CREATION, key("A", 1L, null, null)))));
+    assertTrue(check(header, subscription, header, update(UpdateType.CREATION, key("A", 1L, null, null))));
+    assertFalse(check(header, subscription, header, update(UpdateType.UPDATE, key("A", 1L, null, null))));
+    assertFalse(check(header, subscription, header, update(UpdateType.CREATION, key("B", 1L, null, null))));
+  }
+
+  @Test
+  public void testSubDomain() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    EntityKey all = key("*", 0L, 0L, 0L);
+    UpdateHeader update = update(UpdateType.UPDATE, key("A", 1L, null, null));
+    Subscription subscription = subscription(domain("b", "*"), false, all);
+    assertTrue(check(header, subscription, header(domain("a", "b", "c")), update));
+    assertTrue(check(header, subscription, header(domain("a", "b")), update));
+    assertFalse(check(header, subscription, header(domain("a", "c")), update));
+    subscription = subscription(domain("b"), false, all);
+    assertTrue(check(header, subscription, header(domain("a", "b")), update));
+    assertFalse(check(header, subscription, header(domain("a", "b", "c")), update));
+    assertFalse(check(header, subscription, header, update));
+  }
+
+  @Test
+  public void testManyKeys() throws Exception {
+    MALMessageHeader header = header(domain("a"));
+    int coarseLength = -1;
+    int[] keyCounts = new int[] { 1, 10, 100, 1000 };
+    for (int k = 0; k < keyCounts.length; k++) {
+      int keys = keyCounts[k];
+      EntityKey[] entityKeys = new EntityKey[keys];
+      for (int i = 0; i < keys; i++) entityKeys[i] = key("PARAM_" + i, 0L, null, null);
+      Subscription subscription = subscription(null, false, entityKeys);
+      String coarseSelector = MALJMSHelper.getCoarseMessageSelector(header, subscription);
+      // The coarse selector does not depend on the entity keys
+      if (coarseLength < 0) coarseLength = coarseSelector.length();
+      assertEquals(coarseLength, coarseSelector.length());
+      BooleanExpression selector = SelectorParser.parse(
+          MALJMSHelper.getMessageSelector(header, subscription));
+      BooleanExpression coarse = SelectorParser.parse(coarseSelector);
+      SubscriptionMatcher matcher = new SubscriptionMatcher(header, subscription);
+
+      int matched = 0;
+      for (int i = 0; i < 200; i++) {
+        // One update out of two matches
+        String first = "PARAM_" + ((i % 2 == 0) ? (i / 2) % keys : keys + i);
+        UpdateHeader update = update(UpdateType.UPDATE, key(first, 1L, null, null));
+        MessageEvaluationContext context = new MessageEvaluationContext();
+        context.setMessageReference((ActiveMQBytesMessage) singleMessage(header, update));
+        boolean single = selector.matches(context);
+        assertTrue(coarse.matches(context));
+        assertEquals(first, single, matcher.match(header, update));
+        if (single) matched++;
+      }
+      assertEquals(100, matched);
+    }
+  }
+
+  @Test
+  public void testRandomSubscriptions() throws Exception {
+    Random random = new Random(1);
+    String[] firstSubKeys = new String[] { "A", "B", "*", null };
+    String[] updateFirstSubKeys = new String[] { "A", "B", null };
+    // The wildcard is more frequent in the patterns than the other values
+    Long[] subKeys = new Long[] { Long.valueOf(1), Long.valueOf(2), BIG, null,
+      Long.valueOf(0), Long.valueOf(0), Long.valueOf(0) };
+    IdentifierList[] domains = new IdentifierList[] {
+      domain("a"), domain("a", "b"), domain("a", "b", "c"), domain("a", "c"), domain("b")
+    };
+    IdentifierList[] subDomains = new IdentifierList[] {
+      null, null, domain("*"), domain("b"), domain("b", "*"), domain("c")
+    };
+    int delivered = 0;
+    for (int n = 0; n < 2000; n++) {
+      IdentifierList registerDomain = domains[random.nextInt(2)];
+      MALMessageHeader registerHeader = header(registerDomain,
+          SessionType.LIVE, "LIVE", 201, 1, 1);
+      EntityRequestList entities = new EntityRequestList();
+      int requests = 1 + random.nextInt(2);
+      for (int i = 0; i < requests; i++) {
+        EntityKeyList keys = new EntityKeyList();
+        int keyCount = 1 + random.nextInt(3);
+        for (int j = 0; j < keyCount; j++) {
+          keys.add(key(firstSubKeys[random.nextInt(firstSubKeys.length)],
+              subKeys[random.nextInt(subKeys.length)],
+              subKeys[random.nextInt(subKeys.length)],
+              subKeys[random.nextInt(subKeys.length)]));
+        }
+        entities.add(new EntityRequest(subDomains[random.nextInt(subDomains.length)],
+            Boolean.valueOf(random.nextBoolean()), Boolean.valueOf(random.nextBoolean()),
+            Boolean.valueOf(random.nextBoolean()), Boolean.valueOf(random.nextBoolean()), keys));
+      }
+      Subscription subscription = new Subscription(new Identifier("sub"), entities);
+
+      for (int k = 0; k < 10; k++) {
+        MALMessageHeader publishHeader = header(
+            random.nextBoolean() ? registerDomain : domains[random.nextInt(domains.length)],
+            random.nextInt(8) == 0 ? SessionType.SIMULATION : SessionType.LIVE,
+            random.nextInt(8) == 0 ? "OTHER" : "LIVE",
+            random.nextInt(8) == 0 ? 202 : 201,
+            random.nextInt(8) == 0 ? 2 : 1,
+            random.nextInt(8) == 0 ? 2 : 1);
+        // No wildcard in the entity keys of an update
+        UpdateHeader update = update(UPDATE_TYPES[random.nextInt(UPDATE_TYPES.length)],
+            key(updateFirstSubKeys[random.nextInt(updateFirstSubKeys.length)],
+                subKeys[random.nextInt(4)], subKeys[random.nextInt(4)], subKeys[random.nextInt(4)]));
+        if (check(registerHeader, subscription, publishHeader, update)) delivered++;
+      }
+    }
+    // Both outcomes are covered
+    assertTrue(delivered > 500);
+    assertTrue(delivered < 19000);
+  }
+}
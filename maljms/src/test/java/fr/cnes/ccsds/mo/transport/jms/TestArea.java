@@ -0,0 +1,59 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+
+/**
+ * MAL area of the tests, registered once per JVM with the binary encoding
+ * of the maljms protocol.
+ */
+class TestArea {
+
+  static final String PROTOCOL = "maljms";
+
+  static final UOctet SEND_STAGE = new UOctet((short) 1);
+
+  /**
+   * PUBSUB operation whose updates are identifiers.
+   */
+  static final MALPubSubOperation MONITOR_OPERATION = new MALPubSubOperation(
+      new UShort(1), new Identifier("monitor"), Boolean.FALSE, new UShort(1),
+      new Object[] { IdentifierList.SHORT_FORM }, new Object[0]);
+
+  /**
+   * SEND operation whose body is a blob.
+   */
+  static final MALSendOperation SEND_OPERATION = new MALSendOperation(
+      new UShort(2), new Identifier("send"), Boolean.FALSE, new UShort(1),
+      new MALOperationStage(SEND_STAGE, new Object[] { Blob.BLOB_SHORT_FORM },
+          new Object[0]));
+
+  private static boolean registered = false;
+
+  static synchronized void init() throws MALException {
+    if (registered) return;
+    System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+        "fr.cnes.encoding.binary.BinaryElementStreamFactory");
+    MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+    MALService service = new MALService(new UShort(1), new Identifier("TestService"));
+    service.addOperation(MONITOR_OPERATION);
+    service.addOperation(SEND_OPERATION);
+    MALArea area = new MALArea(new UShort(201), new Identifier("TestArea"),
+        new UOctet((short) 1));
+    area.addService(service);
+    MALContextFactory.registerArea(area);
+    registered = true;
+  }
+}
@@ -0,0 +1,94 @@
+package fr.cnes.ccsds.mo.transport.jms;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Sends ASSURED messages, i.e. persistent JMS messages, given by lists to
+ * sendMessages and counts the storage synchronizations of the provider,
+ * simulated by an InVMConnectionFactory.
+ */
+public class TransactedSendTest {
+
+  private static final int MESSAGES = 1000;
+
+  private static final int LIST_SIZE = 150;
+
+  private static final int BATCH_SIZE = 100;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    TestArea.init();
+  }
+
+  /**
+   * Sends the messages and returns the factory counting the sent messages
+   * and the synchronizations.
+   */
+  private InVMConnectionFactory send(boolean transacted) throws Exception {
+    InVMConnectionFactory cf = new InVMConnectionFactory(0);
+    MALJMSTransport transport = new MALJMSTransport(cf.createConnection());
+    Map properties = new HashMap();
+    properties.put(MALJMSTransport.TRANSACTED_SEND, Boolean.toString(transacted));
+    properties.put(MALJMSTransport.SEND_BATCH_SIZE, Integer.toString(BATCH_SIZE));
+    // Only the batch size closes a transaction
+    properties.put(MALJMSTransport.SEND_BATCH_WINDOW, "0");
+    transport.init(TestArea.PROTOCOL, properties);
+
+    MALEndpoint endpoint = transport.createEndpoint(null, new HashMap());
+    URI uriTo = MALJMSHelper.getQueueUri("destination");
+    Blob body = new Blob(new byte[256]);
+    int count = 0;
+    while (count < MESSAGES) {
+      MALMessage[] msgList = new MALMessage[Math.min(LIST_SIZE, MESSAGES - count)];
+      for (int i = 0; i < msgList.length; i++) {
+        msgList[i] = endpoint.createMessage(new Blob(new byte[0]), uriTo,
+            new Time(System.currentTimeMillis()), QoSLevel.ASSURED,
+            new UInteger(1), SubscriptionMatcherTest.domain("test"),
+            new Identifier("Network"), SessionType.LIVE, new Identifier("LIVE"),
+            Long.valueOf(count++), Boolean.FALSE, TestArea.SEND_OPERATION,
+            TestArea.SEND_STAGE, null, body);
+      }
+      endpoint.sendMessages(msgList);
+    }
+    endpoint.close();
+    transport.close();
+    return cf;
+  }
+
+  @Test
+  public void testNonTransacted() throws Exception {
+    InVMConnectionFactory cf = send(false);
+    assertEquals(MESSAGES, cf.getSent());
+    // One synchronization per persistent message
+    assertEquals(MESSAGES, cf.getSyncs());
+  }
+
+  @Test
+  public void testTransacted() throws Exception {
+    InVMConnectionFactory cf = send(true);
+    assertEquals(MESSAGES, cf.getSent());
+    // A list is committed every BATCH_SIZE messages and at its end
+    int commits = 0;
+    for (int count = 0; count < MESSAGES; count += LIST_SIZE) {
+      int listSize = Math.min(LIST_SIZE, MESSAGES - count);
+      commits += (listSize + BATCH_SIZE - 1) / BATCH_SIZE;
+    }
+    assertEquals(13, commits);
+    assertEquals(commits, cf.getSyncs());
+  }
+}
@@ -26,7 +26,6 @@ package fr.cnes.malspp.transport;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.Hashtable;
-import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
@@ -88,7 +87,7 @@ public class MALSPPEndpoint implements MALEndpoint {
 
   private Map qosProperties;
 
-  private MALMessageListener listener;
+  private volatile MALMessageListener listener;
 
   private Integer packetType;
 
@@ -278,6 +277,12 @@ public class MALSPPEndpoint implements MALEndpoint {
   }
 
   void onException(MALException exc) {
+    MALMessageListener listener = this.listener;
+    if (listener == null) {
+      if (logger.isLoggable(BasicLevel.WARN))
+        logger.log(BasicLevel.WARN, "SPPMALEndpoint.onException, no listener: " + exc);
+      return;
+    }
     listener.onInternalError(null, exc);
   }
 
@@ -372,102 +377,22 @@ public class MALSPPEndpoint implements MALEndpoint {
       logger.log(BasicLevel.DEBUG, "SPPMALEndpoint.segmentReceived(" + secHeader + ')');
     long arrivalTime = System.currentTimeMillis();
     
-    segmentContext.addSegment(new Segment(sequenceFlags, secHeader
-        .getSegmentCounter(), content, offset, length, arrivalTime));
+    // 1- Remove timed out segments
+    segmentContext.expire(arrivalTime, transport.getTimeout());
     
-    List<Segment> segments = segmentContext.getSegments();
+    // 2- Index the arrived segment, a sequence is complete when its last
+    // segment is appended
+    SegmentationContext.Sequence sequence = segmentContext.addSegment(
+        malHeader, new Segment(sequenceFlags, secHeader.getSegmentCounter(),
+            content, offset, length, arrivalTime));
+    if (sequence == null) return;
     
-    // 1- Remove timed out packets
-    int i = 0;
-    while (i < segments.size()) {
-      Segment s = segments.get(i);
-      if (s.getArrivalTime() + transport.getTimeout() < arrivalTime) {
-        segments.remove(i);
-      } else {
-        i++;
-      }
-    }
-
-    // 2- Insert the arrived packet in the sequence
-    int start = -1;
-    i = 0;
-    Segment previousSegment = null;
-    boolean startFound = false;
-    while (i < segments.size()) {
-      Segment s = segments.get(i);
-      
-      if (logger.isLoggable(BasicLevel.DEBUG))
-        logger.log(BasicLevel.DEBUG, "segment=" + s);
-
-      if (startFound) {
-        long previousIndex = previousSegment.getSegmentIndex();
-        if (s.getSequenceFlags() == 0) {
-          if (s.getSegmentIndex() != (previousIndex + 1)) {
-            if (logger.isLoggable(BasicLevel.DEBUG))
-              logger.log(BasicLevel.DEBUG,
-                  "Missing segment: " + s.getSegmentIndex() + " != "
-                      + (previousIndex + 1));
-            startFound = false;
-          }
-          // Else this is the continuation of a sequence: continue...
-        } else if (s.getSequenceFlags() == 2) {
-          // This is the end of a sequence
-          if (s.getSegmentIndex() == (previousIndex + 1)) {
-            // A full sequence has been detected
-            deliverSegmentSequence(segmentContext, start, i, appConf, secHeader);
-          } else if (logger.isLoggable(BasicLevel.DEBUG)) {
-            logger.log(BasicLevel.DEBUG,
-                "Missing final segment: " + s.getSegmentIndex() + " != "
-                    + (previousIndex + 1));
-          }
-          // Try to find a new start in both cases
-          startFound = false;
-        } else if (s.getSequenceFlags() == 1) {
-          // This is a new start
-          start = i;
-        }
-      } else {
-        if (s.getSequenceFlags() == 1) {
-          // This is the start of a sequence
-          start = i;
-          startFound = true;
-        }
-      }
-      
-      previousSegment = s;
-      i++;
-    }
-  }
-  
-  private void deliverSegmentSequence(SegmentationContext segmentContext,
-      int start, int end, AppConfiguration appConf,
-      MALSPPSecondaryHeader secHeader) throws Exception {
+    byte[] encodedBody = sequence.getEncodedBody();
     if (logger.isLoggable(BasicLevel.DEBUG))
-      logger.log(BasicLevel.DEBUG, "SPPMALEndpoint.deliverSegmentSequence(" + secHeader + ')');
-    
-    List<Segment> segments = segmentContext.getSegments();
-
-    int encodedBodySize = 0;
-    for (int i = start; i <= end; i++) {
-      Segment s = segments.get(i);
-      encodedBodySize += s.getLength();
-    }
+      logger.log(BasicLevel.DEBUG, "encodedBodySize=" + encodedBody.length);
     
-    if (logger.isLoggable(BasicLevel.DEBUG))
-      logger.log(BasicLevel.DEBUG, "encodedBodySize=" + encodedBodySize);
-
-    byte[] encodedBody = new byte[encodedBodySize];
-    int position = 0;
-    for (int i = start; i <= end; i++) {
-      Segment s = segments.remove(start);
-      System.arraycopy(s.getContent(), s.getOffset(), encodedBody, position,
-          s.getLength());
-      position += s.getLength();
-    }
-
-    deliverMessage(segmentContext.getMalHeader(), encodedBody, 0,
-        encodedBodySize, appConf);
-    segmentContext.clear();
+    deliverMessage(sequence.getMalHeader(), encodedBody, 0,
+        encodedBody.length, appConf);
   }
   
   public void deliverMessage(MALSPPMessageHeader malHeader,
@@ -571,8 +571,8 @@ public class MALSPPHelper {
     
     // Need to decode 'seqFlags' in the fixed part
     if (seqFlags != 3) {
-      // TODO: Should be a long (unsigned int)
-      int segmentCounter = secondaryHeaderDecoder.read32();
+      // Unsigned int
+      long segmentCounter = secondaryHeaderDecoder.read32() & 0xFFFFFFFFL;
       ssh.setSegmentCounter(segmentCounter);
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "segmentCounter=" + segmentCounter);
@@ -31,6 +31,7 @@ import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
 import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 public class MALSPPPublishBody extends MALSPPMessageBody implements MALPublishBody {
@@ -49,11 +50,16 @@ public class MALSPPPublishBody extends MALSPPMessageBody implements MALPublishBo
     return (UpdateHeaderList) getBodyElement(0, new UpdateHeaderList());
   }
 
+  /**
+   * Returns the decoded update lists. The encoded element lists given by the
+   * broker to keep the updates encoded are ignored as MAL/SPP always decodes
+   * the updates.
+   */
   public List[] getUpdateLists(List... updateLists) throws MALException {
     List[] res = new List[getElementCount() - 1];
     for (int i = 0; i < res.length; i++) {
       List toDecode;
-      if (updateLists.length > i) {
+      if ((updateLists.length > i) && ! (updateLists[i] instanceof MALEncodedElementList)) {
         toDecode = updateLists[i];
       } else {
         toDecode = null;
@@ -28,7 +28,11 @@ import java.io.File;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.ccsds.moims.mo.mal.MALArea;
 import org.ccsds.moims.mo.mal.MALContextFactory;
@@ -66,7 +70,6 @@ import fr.cnes.encoding.base.TimeDecoder;
 import fr.cnes.encoding.base.TimeEncoder;
 import fr.cnes.encoding.binary.BufferOutputStream;
 import fr.cnes.encoding.binary.OutputStreamEncoder;
-import fr.cnes.malspp.transport.MALSPPEndpoint.PacketCounter;
 import fr.dyade.aaa.common.Daemon;
 
 public class MALSPPTransport implements MALTransport {
@@ -104,6 +107,13 @@ public class MALSPPTransport implements MALTransport {
   
   public final static String TIMEOUT = "fr.cnes.malspp.transport.timeout";
   
+  /**
+   * If true the space packet socket supports concurrent sends, the packets
+   * of different APIDs are then sent in parallel. By default the calls to
+   * the socket are serialized.
+   */
+  public final static String CONCURRENT_SOCKET = "fr.cnes.malspp.transport.socket.concurrent";
+  
   public static final int DEFAULT_APID_QUALIFIER = 247;
   
   public static final int DEFAULT_APID = 0;
@@ -163,11 +173,19 @@ public class MALSPPTransport implements MALTransport {
   
   private Integer timeout;
   
-  private Hashtable<QualifiedAPID, PacketCounter> sequenceCounters;
+  private boolean concurrentSocket;
+  
+  private final Object socketLock = new Object();
   
-  private Hashtable<SegmentationKey, PacketCounter> segmentCounters;
+  private ConcurrentHashMap<QualifiedAPID, PacketSequencer> sequencers;
   
-  private Hashtable<SegmentationKey, SegmentationContext> segmentContexts;
+  private ConcurrentHashMap<SegmentationKey, AtomicLong> segmentCounters;
+  
+  /**
+   * Contexts of the messages being reassembled, in access order so that the
+   * idle contexts are evicted from the head. Only used by the reader daemon.
+   */
+  private LinkedHashMap<SegmentationKey, SegmentationContext> segmentContexts;
   
   public void init(String protocol, Map properties) throws MALException {
     if (logger.isLoggable(BasicLevel.DEBUG))
@@ -185,10 +203,10 @@ public class MALSPPTransport implements MALTransport {
     uriToEndpoints = new Hashtable<URI, MALSPPEndpoint>();
     nameToEndpoints = new Hashtable<String, MALSPPEndpoint>();
     
-    sequenceCounters = new Hashtable<MALSPPTransport.QualifiedAPID, PacketCounter>();
+    sequencers = new ConcurrentHashMap<QualifiedAPID, PacketSequencer>();
     
-    segmentCounters = new Hashtable<SegmentationKey, PacketCounter>();
-    segmentContexts = new Hashtable<SegmentationKey, SegmentationContext>();
+    segmentCounters = new ConcurrentHashMap<SegmentationKey, AtomicLong>();
+    segmentContexts = new LinkedHashMap<SegmentationKey, SegmentationContext>(16, 0.75f, true);
     
     qosConfigurations = new HashMap<QualifiedAPID, AppConfiguration>();
     
@@ -255,17 +273,49 @@ public class MALSPPTransport implements MALTransport {
     if (timeout == null) {
       timeout = DEFAULT_TIMEOUT;
     }
+    
+    Boolean concurrent = MALSPPHelper.getBooleanProperty(properties, CONCURRENT_SOCKET);
+    concurrentSocket = (concurrent != null) && concurrent.booleanValue();
 
     readerDaemon = new ReaderDaemon(spacePacketSocket);
     readerDaemon.start();
   }
   
-  private PacketCounter getSequenceCount(QualifiedAPID primaryQApid) {
-    PacketCounter sequenceCount = sequenceCounters.get(primaryQApid);
-    if (sequenceCount == null) {
-      sequenceCount = new PacketCounter(0);
+  private PacketSequencer getSequencer(QualifiedAPID primaryQApid) {
+    PacketSequencer sequencer = sequencers.get(primaryQApid);
+    if (sequencer == null) {
+      sequencer = new PacketSequencer();
+      PacketSequencer previous = sequencers.putIfAbsent(primaryQApid, sequencer);
+      if (previous != null) sequencer = previous;
+    }
+    return sequencer;
+  }
+  
+  private AtomicLong getSegmentCounter(SegmentationKey sk) {
+    AtomicLong segmentCounter = segmentCounters.get(sk);
+    if (segmentCounter == null) {
+      segmentCounter = new AtomicLong(0);
+      AtomicLong previous = segmentCounters.putIfAbsent(sk, segmentCounter);
+      if (previous != null) segmentCounter = previous;
+    }
+    return segmentCounter;
+  }
+
+  /**
+   * Removes the segmentation contexts that received no segment during the
+   * timeout. As the contexts are in access order, only the expired ones are
+   * visited.
+   */
+  private void expireSegmentContexts(long now) {
+    Iterator<SegmentationContext> iterator = segmentContexts.values().iterator();
+    while (iterator.hasNext()) {
+      SegmentationContext segmentContext = iterator.next();
+      if (segmentContext.getLastArrival() + timeout >= now) break;
+      if (logger.isLoggable(BasicLevel.DEBUG))
+        logger.log(BasicLevel.DEBUG, "SPPMALTransport: segmentation context expired: "
+            + segmentContext.getMalHeader());
+      iterator.remove();
     }
-    return sequenceCount;
   }
 
   public Integer getTimeout() {
@@ -397,7 +447,13 @@ public class MALSPPTransport implements MALTransport {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "SPPMALTransport.send("
           + packet + ')');
-    spacePacketSocket.send(packet);
+    if (concurrentSocket) {
+      spacePacketSocket.send(packet);
+    } else {
+      synchronized (socketLock) {
+        spacePacketSocket.send(packet);
+      }
+    }
   }
 
   public String getMBeanName() {
@@ -445,6 +501,10 @@ public class MALSPPTransport implements MALTransport {
 
           SpacePacket packet = spacePacketSocket.receive();
           
+          // The idle segmentation contexts are removed on every read, not
+          // only when a segment arrives
+          expireSegmentContexts(System.currentTimeMillis());
+          
           // Check size and trim if necessary
           int packetDataLength = packet.getLength();
           if (packet.getBody().length > packetDataLength) {
@@ -585,9 +645,19 @@ public class MALSPPTransport implements MALTransport {
                 packet.getHeader().getSequenceFlags(), secHeader,
                 segmentContext, packet.getBody(), offset, packet.getLength()
                     - offset, appConf);
+            if (segmentContext.isEmpty()) {
+              segmentContexts.remove(sk);
+            }
           }
         }
       } catch (Exception exc) {
+        if (!running) {
+          // Stopped by the transport close: the receive is interrupted or
+          // fails on the closed socket, nothing to report to the endpoints
+          if (logger.isLoggable(BasicLevel.DEBUG))
+            logger.log(BasicLevel.DEBUG, "SPPMALTransport.ReaderDaemon, stopped: " + exc);
+          return;
+        }
         if (logger.isLoggable(BasicLevel.WARN))
           logger.log(BasicLevel.WARN, "SPPMALTransport.ReaderDaemon", exc);
         try {
@@ -600,8 +670,8 @@ public class MALSPPTransport implements MALTransport {
           ep.onException(malExc);
         }
       } finally {
-        if (logger.isLoggable(BasicLevel.WARN))
-          logger.log(BasicLevel.WARN, ", exited");
+        if (logger.isLoggable(BasicLevel.DEBUG))
+          logger.log(BasicLevel.DEBUG, "SPPMALTransport.ReaderDaemon, exited");
         finish();
       }
     }
@@ -634,7 +704,13 @@ public class MALSPPTransport implements MALTransport {
     return null;
   }
   
-  synchronized void sendSpacePacket(MALMessageHeader malHeader, int packetType, Map qosProperties,
+  /**
+   * Encodes and sends a message. The message is encoded and segmented by the
+   * calling thread without lock, then its packets get their segment counters
+   * and are sent under the lock of the sequencer of its primary APID, see
+   * PacketSequencer.
+   */
+  void sendSpacePacket(MALMessageHeader malHeader, int packetType, Map qosProperties,
       Map messageProperties, MALMessageBody body) throws MALTransmitErrorException {
     if (logger.isLoggable(BasicLevel.DEBUG))
       logger.log(BasicLevel.DEBUG, "SPPMALEndpoint.sendSpacePacket("
@@ -700,17 +776,6 @@ public class MALSPPTransport implements MALTransport {
       
       int packetDataFieldSizeLimit = appConf.getPacketDataFieldSizeLimit();
 
-      // Binary 11 means "stand-alone packet"
-      int sequenceFlag = 3;
-      
-      PacketCounter sequenceCount = getSequenceCount(primaryQApid);
-      
-      SpacePacketHeader sph = new SpacePacketHeader(packetVersionNumber,
-          packetType, dataFieldHeaderFlag, primaryApid, sequenceFlag,
-          (int) sequenceCount.getValue());
-      
-      // Sequence counter is incremented later
-      
       MALSPPSecondaryHeader spsh = new MALSPPSecondaryHeader();
       spsh.setArea(service.getArea().getNumber().getValue());
       spsh.setSduType(sduType);
@@ -807,9 +872,12 @@ public class MALSPPTransport implements MALTransport {
       if (logger.isLoggable(BasicLevel.DEBUG))
         logger.log(BasicLevel.DEBUG, "wholeSize=" + wholeSize);
       
+      byte[][] packetData;
+      int[] sequenceFlags;
+      SegmentationKey sk = null;
       if (wholeSize > packetDataFieldSizeLimit) {
         // Segmentation
-        SegmentationKey sk = new SegmentationKey(
+        sk = new SegmentationKey(
             malHeader.getInteractionType(), malHeader.getTransactionId(),
             malHeader.getURIFrom(), malHeader.getURITo(),
             malHeader.getSession(), malHeader.getSessionName(),
@@ -817,15 +885,6 @@ public class MALSPPTransport implements MALTransport {
             malHeader.getServiceArea(), malHeader.getService(),
             malHeader.getOperation());
         
-        // Get the segment counter
-        // TODO: should be synchronized in case of parallel execution for the
-        // same segmentation context
-        PacketCounter segmentCounter = segmentCounters.get(sk);
-        if (segmentCounter == null) {
-          segmentCounter = new PacketCounter(0);
-          segmentCounters.put(sk, segmentCounter);
-        }
-        
         // Add the segment counter field
         secHeaderSize += 4;
         if (!(secHeaderSize < packetDataFieldSizeLimit))
@@ -833,15 +892,19 @@ public class MALSPPTransport implements MALTransport {
               MALHelper.INTERNAL_ERROR_NUMBER, null), messageProperties);
 
         int maxEncodedLength = packetDataFieldSizeLimit - secHeaderSize;
+        int segmentCount = (encodedBody.length + maxEncodedLength - 1) / maxEncodedLength;
+        
+        packetData = new byte[segmentCount][];
+        sequenceFlags = new int[segmentCount];
         int bodyOffset = 0;
         int remainingToEncode = encodedBody.length;
-        while (remainingToEncode > 0) { 
+        for (int i = 0; i < segmentCount; i++) { 
           if (bodyOffset == 0) {
-            sph.setSequenceFlags(1);
+            sequenceFlags[i] = 1;
           } else if (remainingToEncode > maxEncodedLength) {
-            sph.setSequenceFlags(0);
+            sequenceFlags[i] = 0;
           } else {
-            sph.setSequenceFlags(2);
+            sequenceFlags[i] = 2;
           }
           
           // TODO: length should be remainingToEncode + secHeaderSize
@@ -853,9 +916,8 @@ public class MALSPPTransport implements MALTransport {
           
           buffer.write(encodedSecHeaderFixedPart);
           
-          // TODO: Segment counter should be typed long (unsigned int)
-          encoder.write32((int) segmentCounter.getValue());
-          segmentCounter.increment();
+          // The segment counter is set when the packet is sent
+          encoder.write32(0);
           
           buffer.write(encodedSecHeaderVarPart);
           
@@ -870,18 +932,8 @@ public class MALSPPTransport implements MALTransport {
             logger.log(BasicLevel.DEBUG, "encodedBodyLength=" + encodedBodyLength);
           
           buffer.write(encodedBody, bodyOffset, encodedBodyLength);
+          packetData[i] = data;
           
-          // Create a new header for every packet
-          SpacePacketHeader sph2 = new SpacePacketHeader(sph.getPacketVersionNumber(),
-              sph.getPacketType(), sph.getSecondaryHeaderFlag(), sph.getApid(), sph.getSequenceFlags(),
-              (int) sequenceCount.getValue());
-          
-          SpacePacket packet = new SpacePacket(sph2, primaryApidQualifier, data, 0,
-              data.length);
-          packet.setQosProperties(qosProperties);
-          send(packet);
-          
-          sequenceCount.increment();
           bodyOffset += encodedBodyLength;
           remainingToEncode -= encodedBodyLength;
           if (logger.isLoggable(BasicLevel.DEBUG))
@@ -889,7 +941,6 @@ public class MALSPPTransport implements MALTransport {
         }
       } else {
         // No segmentation
-        sph.setSequenceFlags(3);
         data = new byte[wholeSize];
         BufferOutputStream buffer = new BufferOutputStream(data);
         buffer.write(encodedSecHeaderFixedPart);
@@ -897,10 +948,36 @@ public class MALSPPTransport implements MALTransport {
         buffer.write(encodedSecHeaderVarPart);
         buffer.write(encodedBody);
         buffer.close();
-        SpacePacket packet = new SpacePacket(sph, primaryApidQualifier, data, 0, data.length);
-        packet.setQosProperties(qosProperties);
-        send(packet);
-        sequenceCount.increment();
+        packetData = new byte[][] { data };
+        // Binary 11 means "stand-alone packet"
+        sequenceFlags = new int[] { 3 };
+      }
+      
+      // Sends the packets in order with consecutive sequence counts, the
+      // messages of the other APIDs are not blocked.
+      PacketSequencer sequencer = getSequencer(primaryQApid);
+      synchronized (sequencer) {
+        if (sk != null) {
+          // The segment counters are reserved under the same lock than the
+          // sequence counts: the messages with the same segmentation key, so
+          // the same APID, are sent in the order of their counters.
+          long segmentCounter = getSegmentCounter(sk).getAndAdd(packetData.length);
+          for (int i = 0; i < packetData.length; i++) {
+            // TODO: Segment counter should be typed long (unsigned int)
+            setSegmentCounter(packetData[i], encodedSecHeaderFixedPart.length,
+                (int) segmentCounter++);
+          }
+        }
+        for (int i = 0; i < packetData.length; i++) {
+          // Create a new header for every packet
+          SpacePacketHeader sph = new SpacePacketHeader(packetVersionNumber,
+              packetType, dataFieldHeaderFlag, primaryApid, sequenceFlags[i],
+              sequencer.nextSequenceCount());
+          SpacePacket packet = new SpacePacket(sph, primaryApidQualifier,
+              packetData[i], 0, packetData[i].length);
+          packet.setQosProperties(qosProperties);
+          send(packet);
+        }
       }
    
     } catch (Exception exc) {
@@ -910,6 +987,16 @@ public class MALSPPTransport implements MALTransport {
     }
   }
 
+  /**
+   * Writes the segment counter of a packet, as encoded by write32.
+   */
+  static void setSegmentCounter(byte[] data, int offset, int segmentCounter) {
+    data[offset] = (byte) (segmentCounter >>> 24);
+    data[offset + 1] = (byte) (segmentCounter >>> 16);
+    data[offset + 2] = (byte) (segmentCounter >>> 8);
+    data[offset + 3] = (byte) segmentCounter;
+  }
+
   static class QualifiedAPID {
 
     private int qualifier;
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.malspp.transport;
+
+/**
+ * Sequencing state of the space packets sent with a primary qualified APID.
+ * 
+ * The packets of a message are sent while holding the lock of this object,
+ * so that the sequence counts of the segments are consecutive and the packets
+ * of an APID are sent in order. The messages of different APIDs are encoded
+ * and sent concurrently.
+ */
+class PacketSequencer {
+  
+  /**
+   * The packet sequence count is a 14-bit field of the primary header.
+   */
+  static final int SEQUENCE_COUNT_MODULO = 1 << 14;
+  
+  private int sequenceCount;
+  
+  PacketSequencer() {
+    sequenceCount = 0;
+  }
+  
+  /**
+   * Returns the sequence count of the next packet, the caller must hold the
+   * lock of this sequencer.
+   */
+  int nextSequenceCount() {
+    int value = sequenceCount;
+    sequenceCount = (value + 1) & (SEQUENCE_COUNT_MODULO - 1);
+    return value;
+  }
+}
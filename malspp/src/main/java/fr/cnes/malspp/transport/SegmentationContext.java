@@ -23,46 +23,328 @@
   *******************************************************************************/
 package fr.cnes.malspp.transport;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Vector;
 
+/**
+ * Reassembly state of the segmented messages sharing a segmentation key.
+ * 
+ * The segments are indexed by their segment counter in a ring covering the
+ * window of retained counters. Each open sequence, started by a first
+ * segment, records the counter of the next expected segment: the completion
+ * of a message is detected when its last segment is appended, so each segment
+ * is visited once whatever the arrival order. The body is then copied into a
+ * buffer of the accumulated size.
+ * 
+ * The segment counters are unsigned 32-bit integers wrapping to zero. Each
+ * counter is mapped to the index nearest to the window, so the window moves
+ * across the wrap as it moves between two consecutive counters.
+ * 
+ * This class is not synchronized, it is only used by the reader thread of the
+ * transport.
+ */
 public class SegmentationContext {
   
+  private static final int INITIAL_CAPACITY = 16;
+  
+  /**
+   * Maximum number of segment counters covered by the window, a segment out
+   * of this window resets the context (e.g. the sender has been restarted).
+   */
+  public static final int MAX_WINDOW = 1 << 20;
+  
+  /**
+   * A sequence of segments started by a first segment.
+   */
+  public static class Sequence {
+    
+    private MALSPPMessageHeader malHeader;
+    
+    private long start;
+    
+    /**
+     * Counter of the next segment to append.
+     */
+    private long next;
+    
+    private int size;
+    
+    private long lastArrival;
+    
+    private byte[] encodedBody;
+    
+    Sequence(MALSPPMessageHeader malHeader, long start, long arrivalTime) {
+      this.malHeader = malHeader;
+      this.start = start;
+      this.next = start;
+      this.size = 0;
+      this.lastArrival = arrivalTime;
+    }
+
+    /**
+     * Returns the header of the first segment.
+     */
+    public MALSPPMessageHeader getMalHeader() {
+      return malHeader;
+    }
+
+    /**
+     * Returns the reassembled body, null until the sequence is complete.
+     */
+    public byte[] getEncodedBody() {
+      return encodedBody;
+    }
+    
+    @Override
+    public String toString() {
+      return "Sequence [start=" + start + ", next=" + next + ", size=" + size
+          + "]";
+    }
+  }
+  
   private MALSPPMessageHeader malHeader;
   
   /**
-   * Segments listed in ascending order.
+   * Segments indexed by their counter modulo the capacity of the ring.
+   */
+  private Segment[] ring;
+  
+  /**
+   * Lowest counter of the window, the segment at this counter is present
+   * unless the window is empty.
+   */
+  private long low;
+  
+  /**
+   * Counter following the highest counter of the window.
+   */
+  private long high;
+  
+  private int count;
+  
+  /**
+   * Open sequences in ascending order of their first segment.
    */
-  private List<Segment> segments;
+  private List<Sequence> sequences;
+  
+  private long lastArrival;
 
   public SegmentationContext(MALSPPMessageHeader malHeader) {
     super();
     this.malHeader = malHeader;
-    segments = new Vector<Segment>();
+    ring = new Segment[INITIAL_CAPACITY];
+    sequences = new ArrayList<Sequence>();
   }
   
   public MALSPPMessageHeader getMalHeader() {
     return malHeader;
   }
-
-  public List<Segment> getSegments() {
-    return segments;
+  
+  /**
+   * Returns the arrival time of the last added segment.
+   */
+  public long getLastArrival() {
+    return lastArrival;
+  }
+  
+  public boolean isEmpty() {
+    return count == 0;
   }
   
   public void clear() {
-    segments.clear();
+    if (count > 0) {
+      for (long i = low; i < high; i++) {
+        ring[slot(i)] = null;
+      }
+    }
+    count = 0;
+    low = high;
+    sequences.clear();
   }
 
-  public void addSegment(Segment segment) {
-    int index = 0;
-    for (Segment s : segments) {
-      if (segment.getSegmentIndex() < s.getSegmentIndex()) {
-        break;
-      } else {
-        index++;
+  /**
+   * Indexes a received segment.
+   * 
+   * @param header the MAL header of the segment.
+   * @param segment the segment.
+   * @return the sequence completed by this segment, null if none.
+   */
+  public Sequence addSegment(MALSPPMessageHeader header, Segment segment) {
+    lastArrival = segment.getArrivalTime();
+    long index = unwrap(segment.getSegmentIndex());
+    if (! store(segment, index)) {
+      // Duplicate segment
+      return null;
+    }
+    if (segment.getSequenceFlags() == 1) {
+      int i = sequences.size();
+      while (i > 0 && sequences.get(i - 1).start > index) {
+        i--;
       }
+      if (i > 0 && sequences.get(i - 1).next == index) {
+        // The previous sequence is missing its last segment
+        drop(sequences.get(i - 1));
+        i--;
+      }
+      Sequence sequence = new Sequence(header, index, lastArrival);
+      sequences.add(i, sequence);
+      return append(sequence);
+    }
+    for (int i = 0; i < sequences.size(); i++) {
+      Sequence sequence = sequences.get(i);
+      if (sequence.next == index) {
+        return append(sequence);
+      }
+    }
+    // Either a segment arrived before the previous one or an orphan segment
+    // whose first segment has been lost
+    return null;
+  }
+  
+  /**
+   * Removes the sequences that did not progress and the orphan segments that
+   * arrived before the given timeout.
+   * 
+   * @param now the current time.
+   * @param timeout the timeout in milliseconds.
+   */
+  public void expire(long now, long timeout) {
+    Iterator<Sequence> iterator = sequences.iterator();
+    while (iterator.hasNext()) {
+      Sequence sequence = iterator.next();
+      if (sequence.lastArrival + timeout < now) {
+        iterator.remove();
+        release(sequence.start, sequence.next);
+      }
+    }
+    long limit = sequences.isEmpty() ? high : sequences.get(0).start;
+    while (low < limit) {
+      int slot = slot(low);
+      Segment s = ring[slot];
+      if (s != null) {
+        if (s.getArrivalTime() + timeout >= now) break;
+        ring[slot] = null;
+        count--;
+      }
+      low++;
+    }
+  }
+  
+  private int slot(long index) {
+    return (int) index & (ring.length - 1);
+  }
+  
+  /**
+   * Returns the index of a segment counter, the one whose distance to the
+   * window is less than 2^31.
+   */
+  private long unwrap(long segmentCounter) {
+    return high + (int) (segmentCounter - high);
+  }
+  
+  /**
+   * Stores the segment in the ring, enlarging the window if needed.
+   * 
+   * @return false if a segment with the same counter is already present.
+   */
+  private boolean store(Segment segment, long index) {
+    if (count == 0) {
+      low = index;
+      high = index + 1;
+    } else {
+      long newLow = Math.min(low, index);
+      long newHigh = Math.max(high, index + 1);
+      if (newHigh - newLow > MAX_WINDOW) {
+        clear();
+        newLow = index;
+        newHigh = index + 1;
+      } else if (newHigh - newLow > ring.length) {
+        grow(newHigh - newLow);
+      }
+      low = newLow;
+      high = newHigh;
+    }
+    int slot = slot(index);
+    if (ring[slot] != null) return false;
+    ring[slot] = segment;
+    count++;
+    return true;
+  }
+  
+  private void grow(long span) {
+    int capacity = ring.length;
+    while (capacity < span) {
+      capacity <<= 1;
+    }
+    Segment[] newRing = new Segment[capacity];
+    for (long i = low; i < high; i++) {
+      newRing[(int) i & (capacity - 1)] = ring[slot(i)];
+    }
+    ring = newRing;
+  }
+  
+  /**
+   * Appends the contiguous segments following the end of the sequence.
+   */
+  private Sequence append(Sequence sequence) {
+    sequence.lastArrival = lastArrival;
+    while (sequence.next < high) {
+      Segment s = ring[slot(sequence.next)];
+      if (s == null) return null;
+      int flags = s.getSequenceFlags();
+      if (flags == 1 && sequence.next != sequence.start) {
+        // The sequence is missing its last segment
+        drop(sequence);
+        return null;
+      }
+      sequence.size += s.getLength();
+      if (flags == 2) {
+        complete(sequence);
+        return sequence;
+      }
+      sequence.next++;
+    }
+    return null;
+  }
+  
+  private void complete(Sequence sequence) {
+    byte[] encodedBody = new byte[sequence.size];
+    int position = 0;
+    for (long i = sequence.start; i <= sequence.next; i++) {
+      int slot = slot(i);
+      Segment s = ring[slot];
+      System.arraycopy(s.getContent(), s.getOffset(), encodedBody, position,
+          s.getLength());
+      position += s.getLength();
+      ring[slot] = null;
+      count--;
+    }
+    sequence.encodedBody = encodedBody;
+    sequences.remove(sequence);
+    shrink();
+  }
+  
+  private void drop(Sequence sequence) {
+    sequences.remove(sequence);
+    release(sequence.start, sequence.next);
+  }
+  
+  private void release(long start, long end) {
+    for (long i = start; i < end; i++) {
+      int slot = slot(i);
+      if (ring[slot] != null) {
+        ring[slot] = null;
+        count--;
+      }
+    }
+    shrink();
+  }
+  
+  private void shrink() {
+    while (low < high && ring[slot(low)] == null) {
+      low++;
     }
-    segments.add(index, segment);
   }
     
 }
\ No newline at end of file
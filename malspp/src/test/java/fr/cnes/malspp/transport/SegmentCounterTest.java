@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package fr.cnes.malspp.transport;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+import junit.framework.Assert;
+
+/**
+ * Checks that the segmented messages sent concurrently with the same
+ * segmentation key get consecutive segment counters in the order of their
+ * packets.
+ */
+public class SegmentCounterTest {
+
+  private static final String PROTOCOL = "malspp";
+
+  private static final int APID_QUALIFIER = 247;
+
+  private static final int DESTINATION_APID = 100;
+
+  private static final int PACKET_DATA_FIELD_SIZE_LIMIT = 256;
+
+  private static final Blob AUTHENTICATION_ID = new Blob(new byte[] { 0 });
+
+  private static final IdentifierList DOMAIN = new IdentifierList();
+
+  private static final Identifier NETWORK_ZONE = new Identifier("Network");
+
+  private static final Identifier SESSION_NAME = new Identifier("LIVE");
+
+  static {
+    DOMAIN.add(new Identifier("test"));
+  }
+
+  static MALSendOperation op;
+
+  static File conf;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    System.setProperty(SPPSocketFactory.FACTORY_CLASS,
+        RecordingSPPSocketFactory.class.getName());
+    System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + '.' + PROTOCOL,
+        BinaryElementStreamFactory.class.getName());
+
+    op = new MALSendOperation(new UShort(1),
+        new Identifier("send"), Boolean.FALSE, new UShort(1),
+        new MALOperationStage(new UOctet((short) 1),
+            new Object[] { Blob.BLOB_SHORT_FORM }, new Object[0]));
+    MALService service = new MALService(new UShort(1), new Identifier("SegmentCounterService"));
+    service.addOperation(op);
+    MALArea area = new MALArea(new UShort(221), new Identifier("SegmentCounterArea"),
+        new UOctet((short) 1));
+    area.addService(service);
+    MALContextFactory.registerArea(area);
+
+    conf = File.createTempFile("malspp-test", ".xml");
+    conf.deleteOnExit();
+    FileWriter writer = new FileWriter(conf);
+    try {
+      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+          + "<conf xmlns=\"http://www.cnes.fr/schema/MalSppSchema\">\n"
+          + "  <app apidQualifier=\"" + APID_QUALIFIER + "\" apid=\"" + DESTINATION_APID + "\">\n"
+          + "    <authenticationId value=\"00\"/>\n"
+          + "    <domain value=\"test\"/>\n"
+          + "    <duration codeFormat=\"1E\"><unit value=\"second\"/></duration>\n"
+          + "    <time codeFormat=\"2E\"><unit value=\"second\"/>"
+          + "<epoch value=\"2010-01-01T00:00:00\" timeScale=\"TAI\"/></time>\n"
+          + "    <fineTime codeFormat=\"2F\"><unit value=\"second\"/>"
+          + "<epoch value=\"2010-01-01T00:00:00\" timeScale=\"TAI\"/></fineTime>\n"
+          + "    <networkZone value=\"Network\"/>\n"
+          + "    <packetDataFieldSizeLimit value=\"" + PACKET_DATA_FIELD_SIZE_LIMIT + "\"/>\n"
+          + "    <priority value=\"1\"/>\n"
+          + "    <sessionName value=\"LIVE\"/>\n"
+          + "    <varintSupported value=\"true\"/>\n"
+          + "  </app>\n"
+          + "</conf>\n");
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentSegmentedMessages() throws Exception {
+    final int threads = 8;
+    final int messages = 200;
+
+    Map properties = new HashMap();
+    properties.put(MALSPPTransport.CONF_FILE, conf.getPath());
+    properties.put(MALSPPTransport.CONCURRENT_SOCKET, "true");
+    MALSPPTransport transport = new MALSPPTransport();
+    transport.init(PROTOCOL, properties);
+    RecordingSPPSocket socket = RecordingSPPSocketFactory.lastSocket;
+
+    Map qos = new HashMap();
+    qos.put(MALSPPTransport.APID_QUALIFIER, Integer.toString(APID_QUALIFIER));
+    qos.put(MALSPPTransport.APID, "1");
+    final MALEndpoint endpoint = transport.createEndpoint("sender", qos);
+    RecordingListener listener = new RecordingListener();
+    endpoint.setMessageListener(listener);
+    final URI uriTo = new URI(MALSPPHelper.toUri(PROTOCOL, APID_QUALIFIER,
+        DESTINATION_APID, new Integer(0)));
+    // Several segments per message
+    final Blob body = new Blob(new byte[3 * PACKET_DATA_FIELD_SIZE_LIMIT]);
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    for (int i = 0; i < threads; i++) {
+      new Thread("sender" + i) {
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < messages; j++) {
+              // Same transaction: all the messages have the same segmentation key
+              MALMessage msg = endpoint.createMessage(AUTHENTICATION_ID, uriTo,
+                  new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT,
+                  new UInteger(1), DOMAIN, NETWORK_ZONE, SessionType.LIVE,
+                  SESSION_NAME, new Long(1), Boolean.FALSE, op,
+                  MALSPPHelper.INITIATION_STAGE, null, body);
+              endpoint.sendMessage(msg);
+            }
+          } catch (Throwable exc) {
+            failures.add(exc);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+    endpoint.close();
+    transport.close();
+
+    checkNoFailure("sender failure(s)", failures);
+    listener.checkNoInternalError();
+    List<SpacePacket> packets = socket.getPackets();
+    Assert.assertTrue(packets.size() > threads * messages);
+
+    AppConfiguration appConf = new AppConfiguration(new BinaryElementStreamFactory());
+    long previous = -1;
+    for (SpacePacket packet : packets) {
+      int seqFlags = packet.getHeader().getSequenceFlags();
+      Assert.assertTrue(seqFlags != 3);
+      MALSPPSecondaryHeader secHeader = new MALSPPSecondaryHeader();
+      MALSPPHelper.decodeSecondaryHeaderFixedPart(secHeader, packet.getBody(),
+          packet.getOffset(), seqFlags, appConf);
+      if (previous >= 0) {
+        Assert.assertEquals(previous + 1, secHeader.getSegmentCounter());
+      }
+      previous = secHeader.getSegmentCounter();
+    }
+  }
+
+  @Test
+  public void testSequenceCountsSerializedSocket() throws Exception {
+    checkSequenceCounts(false);
+  }
+
+  @Test
+  public void testSequenceCountsConcurrentSocket() throws Exception {
+    checkSequenceCounts(true);
+  }
+
+  /**
+   * Sends messages from several endpoints to several APIDs, some of them
+   * segmented, and checks that the packets sent to each APID have consecutive
+   * sequence counts in the order they are passed to the socket.
+   */
+  private void checkSequenceCounts(boolean concurrentSocket) throws Exception {
+    final int threads = 8;
+    final int apids = 3;
+    final int messages = 200;
+
+    Map properties = new HashMap();
+    properties.put(MALSPPTransport.CONF_FILE, conf.getPath());
+    properties.put(MALSPPTransport.CONCURRENT_SOCKET, Boolean.toString(concurrentSocket));
+    MALSPPTransport transport = new MALSPPTransport();
+    transport.init(PROTOCOL, properties);
+    RecordingSPPSocket socket = RecordingSPPSocketFactory.lastSocket;
+    RecordingListener listener = new RecordingListener();
+    List<MALEndpoint> endpoints = new ArrayList<MALEndpoint>();
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    for (int i = 0; i < threads; i++) {
+      Map qos = new HashMap();
+      qos.put(MALSPPTransport.APID_QUALIFIER, Integer.toString(APID_QUALIFIER));
+      qos.put(MALSPPTransport.APID, Integer.toString(i + 1));
+      final MALEndpoint endpoint = transport.createEndpoint("sender" + i, qos);
+      endpoint.setMessageListener(listener);
+      endpoints.add(endpoint);
+      final URI uriTo = new URI(MALSPPHelper.toUri(PROTOCOL, APID_QUALIFIER,
+          DESTINATION_APID + (i % apids), new Integer(0)));
+      // One message out of 4 is segmented
+      final Blob smallBody = new Blob(new byte[16]);
+      final Blob largeBody = new Blob(new byte[2 * PACKET_DATA_FIELD_SIZE_LIMIT]);
+      new Thread("sender" + i) {
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < messages; j++) {
+              MALMessage msg = endpoint.createMessage(AUTHENTICATION_ID, uriTo,
+                  new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT,
+                  new UInteger(1), DOMAIN, NETWORK_ZONE, SessionType.LIVE,
+                  SESSION_NAME, new Long(j), Boolean.FALSE, op,
+                  MALSPPHelper.INITIATION_STAGE, null,
+                  (j % 4 == 0) ? largeBody : smallBody);
+              endpoint.sendMessage(msg);
+            }
+          } catch (Throwable exc) {
+            failures.add(exc);
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    start.countDown();
+    done.await();
+    for (MALEndpoint endpoint : endpoints) {
+      endpoint.close();
+    }
+    transport.close();
+
+    checkNoFailure("sender failure(s)", failures);
+    listener.checkNoInternalError();
+    List<SpacePacket> packets = socket.getPackets();
+    Assert.assertTrue(packets.size() > threads * messages);
+
+    Map<Integer, Integer> lastCounts = new HashMap<Integer, Integer>();
+    for (SpacePacket packet : packets) {
+      Integer key = new Integer((packet.getApidQualifier() << 16) | packet.getHeader().getApid());
+      int sequenceCount = packet.getHeader().getSequenceCount();
+      Integer previous = lastCounts.put(key, new Integer(sequenceCount));
+      if (previous != null) {
+        Assert.assertEquals((previous.intValue() + 1) & 0x3FFF, sequenceCount);
+      }
+    }
+    // The packets are sequenced by destination APID
+    Assert.assertEquals(apids, lastCounts.size());
+  }
+
+  private static void checkNoFailure(String what, List<Throwable> failures) {
+    if (!failures.isEmpty()) {
+      AssertionError error = new AssertionError(failures.size() + ' ' + what);
+      error.initCause(failures.get(0));
+      throw error;
+    }
+  }
+
+  /**
+   * Message listener recording the internal errors, no message is expected.
+   */
+  static class RecordingListener implements MALMessageListener {
+
+    private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    public void onInternalError(MALEndpoint callingEndpoint, Throwable err) {
+      errors.add(err);
+    }
+
+    public void onTransmitError(MALEndpoint callingEndpoint,
+        MALMessageHeader srcMessageHeader, MALStandardError err, Map qosMap) {
+      errors.add(new MALException(err.toString()));
+    }
+
+    public void onMessage(MALEndpoint callingEndpoint, MALMessage msg) {
+      errors.add(new IllegalStateException("Unexpected message: " + msg));
+    }
+
+    public void onMessages(MALEndpoint callingEndpoint, MALMessage[] msgList) {
+      errors.add(new IllegalStateException("Unexpected messages: " + msgList.length));
+    }
+
+    void checkNoInternalError() {
+      checkNoFailure("listener error(s)", errors);
+    }
+  }
+
+  /**
+   * Creates RecordingSPPSocket instances.
+   */
+  public static class RecordingSPPSocketFactory extends SPPSocketFactory {
+
+    static volatile RecordingSPPSocket lastSocket;
+
+    public SPPSocket createSocket(Map properties) throws Exception {
+      lastSocket = new RecordingSPPSocket();
+      return lastSocket;
+    }
+  }
+
+  /**
+   * Space packet socket keeping the sent packets in their order, nothing is
+   * ever received.
+   */
+  static class RecordingSPPSocket implements SPPSocket {
+
+    private final List<SpacePacket> packets = new ArrayList<SpacePacket>();
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    public synchronized void send(SpacePacket packet) throws Exception {
+      packets.add(packet);
+    }
+
+    public synchronized List<SpacePacket> getPackets() {
+      return new ArrayList<SpacePacket>(packets);
+    }
+
+    public SpacePacket receive() throws Exception {
+      closed.await();
+      throw new IOException("Socket closed");
+    }
+
+    public void close() throws Exception {
+      closed.countDown();
+    }
+
+    public String getDescription() {
+      return "recording";
+    }
+  }
+}
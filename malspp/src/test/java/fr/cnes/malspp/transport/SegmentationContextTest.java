@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *******************************************************************************/
+package fr.cnes.malspp.transport;
+
+import org.junit.Test;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+import junit.framework.Assert;
+
+/**
+ * Checks the reassembly of the segmented messages by SegmentationContext.
+ */
+public class SegmentationContextTest {
+
+  private static final int FIRST = 1;
+
+  private static final int CONTINUATION = 0;
+
+  private static final int LAST = 2;
+
+  private static final long TIMEOUT = 1000;
+
+  private static final long NOW = 1000000;
+
+  private static SegmentationContext.Sequence add(SegmentationContext context,
+      MALSPPMessageHeader header, int sequenceFlags, long segmentCounter,
+      String content) {
+    byte[] bytes = content.getBytes();
+    return context.addSegment(header, new Segment(sequenceFlags, segmentCounter,
+        bytes, 0, bytes.length, NOW));
+  }
+
+  private static String getBody(SegmentationContext.Sequence sequence) {
+    return new String(sequence.getEncodedBody());
+  }
+
+  @Test
+  public void testOutOfOrderCompletion() {
+    MALSPPMessageHeader header = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header);
+    Assert.assertNull(add(context, header, LAST, 13, "d"));
+    Assert.assertNull(add(context, header, CONTINUATION, 11, "b"));
+    Assert.assertNull(add(context, header, FIRST, 10, "a"));
+    SegmentationContext.Sequence sequence = add(context, header, CONTINUATION, 12, "c");
+    Assert.assertNotNull(sequence);
+    Assert.assertSame(header, sequence.getMalHeader());
+    Assert.assertEquals("abcd", getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testDuplicateSegment() {
+    MALSPPMessageHeader header = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header);
+    Assert.assertNull(add(context, header, FIRST, 0, "a"));
+    Assert.assertNull(add(context, header, CONTINUATION, 1, "b"));
+    Assert.assertNull(add(context, header, CONTINUATION, 1, "x"));
+    SegmentationContext.Sequence sequence = add(context, header, LAST, 2, "c");
+    Assert.assertEquals("abc", getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+
+    // Duplicate of a delivered segment, kept until it expires
+    Assert.assertNull(add(context, header, LAST, 2, "c"));
+    Assert.assertFalse(context.isEmpty());
+    context.expire(NOW + TIMEOUT + 1, TIMEOUT);
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testNewFirstSegmentDropsSequence() {
+    MALSPPMessageHeader header1 = new MALSPPMessageHeader();
+    MALSPPMessageHeader header2 = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header1);
+    Assert.assertNull(add(context, header1, FIRST, 0, "a"));
+    Assert.assertNull(add(context, header1, CONTINUATION, 1, "b"));
+    // The last segment of the first message is lost
+    Assert.assertNull(add(context, header2, FIRST, 2, "c"));
+    SegmentationContext.Sequence sequence = add(context, header2, LAST, 3, "d");
+    Assert.assertSame(header2, sequence.getMalHeader());
+    Assert.assertEquals("cd", getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testRingGrowth() {
+    MALSPPMessageHeader header = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header);
+    int segments = 100;
+    StringBuffer expected = new StringBuffer();
+    for (int i = 0; i < segments; i++) {
+      expected.append((char) ('a' + i % 26));
+    }
+    Assert.assertNull(add(context, header, LAST, segments - 1,
+        expected.substring(segments - 1)));
+    for (int i = segments - 2; i > 0; i--) {
+      Assert.assertNull(add(context, header, CONTINUATION, i,
+          expected.substring(i, i + 1)));
+    }
+    SegmentationContext.Sequence sequence = add(context, header, FIRST, 0,
+        expected.substring(0, 1));
+    Assert.assertEquals(expected.toString(), getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testMaxWindowReset() {
+    MALSPPMessageHeader header1 = new MALSPPMessageHeader();
+    MALSPPMessageHeader header2 = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header1);
+    Assert.assertNull(add(context, header1, FIRST, 0, "a"));
+    // E.g. the sender has been restarted
+    long start = SegmentationContext.MAX_WINDOW;
+    Assert.assertNull(add(context, header2, FIRST, start, "b"));
+    SegmentationContext.Sequence sequence = add(context, header2, LAST, start + 1, "c");
+    Assert.assertSame(header2, sequence.getMalHeader());
+    Assert.assertEquals("bc", getBody(sequence));
+
+    // The first message has been dropped by the reset
+    Assert.assertNull(add(context, header1, LAST, 1, "z"));
+  }
+
+  @Test
+  public void testSignedCounterWrap() {
+    MALSPPMessageHeader header1 = new MALSPPMessageHeader();
+    MALSPPMessageHeader header2 = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header1);
+    // The first message is still in flight when the counter crosses 2^31
+    Assert.assertNull(add(context, header1, FIRST, 0x7FFFFFFEL, "a"));
+    Assert.assertNull(add(context, header2, FIRST, 0x80000000L, "c"));
+    SegmentationContext.Sequence sequence = add(context, header2, LAST, 0x80000001L, "d");
+    Assert.assertSame(header2, sequence.getMalHeader());
+    Assert.assertEquals("cd", getBody(sequence));
+    sequence = add(context, header1, LAST, 0x7FFFFFFFL, "b");
+    Assert.assertSame(header1, sequence.getMalHeader());
+    Assert.assertEquals("ab", getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testUnsignedCounterWrap() {
+    MALSPPMessageHeader header = new MALSPPMessageHeader();
+    SegmentationContext context = new SegmentationContext(header);
+    Assert.assertNull(add(context, header, LAST, 1, "c"));
+    Assert.assertNull(add(context, header, FIRST, 0xFFFFFFFFL, "a"));
+    SegmentationContext.Sequence sequence = add(context, header, CONTINUATION, 0, "b");
+    Assert.assertEquals("abc", getBody(sequence));
+    Assert.assertTrue(context.isEmpty());
+  }
+
+  @Test
+  public void testUnsignedCounterDecoding() throws Exception {
+    AppConfiguration appConf = new AppConfiguration(new BinaryElementStreamFactory());
+    int fixedPartSize = MALSPPHelper.getSecondaryHeaderFixedPartSize(
+        new MALSPPSecondaryHeader(), appConf);
+    byte[] bytes = new byte[fixedPartSize + 4];
+    MALSPPTransport.setSegmentCounter(bytes, fixedPartSize, 0x80000000);
+    MALSPPSecondaryHeader secHeader = new MALSPPSecondaryHeader();
+    MALSPPHelper.decodeSecondaryHeaderFixedPart(secHeader, bytes, 0, FIRST, appConf);
+    Assert.assertEquals(0x80000000L, secHeader.getSegmentCounter());
+  }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte arrays used to receive the MALTCP messages.
+ * 
+ * The buffers are sorted in power of two size classes, from 256 bytes up to
+ * a maximum size. A request larger than the maximum size is satisfied by a
+ * new array that is not pooled. A buffer leased from the pool may be larger
+ * than the requested size, the actual length of the message is given by its
+ * header.
+ * 
+ * The buffers are heap arrays as the body decoders only work with byte arrays.
+ */
+public class TCPBufferPool {
+	private static final int MIN_SHIFT = 8;
+
+	private final ConcurrentLinkedQueue<byte[]>[] buffers;
+	private final AtomicInteger[] counts;
+	private final int maxCount;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxSize	The maximum size of the pooled buffers.
+	 * @param maxCount	The maximum number of free buffers kept by size class.
+	 */
+	@SuppressWarnings("unchecked")
+	public TCPBufferPool(int maxSize, int maxCount) {
+		int nbClasses = Math.max(1, sizeClass(maxSize) + 1);
+		this.buffers = new ConcurrentLinkedQueue[nbClasses];
+		this.counts = new AtomicInteger[nbClasses];
+		for (int i=0; i<nbClasses; i++) {
+			buffers[i] = new ConcurrentLinkedQueue<byte[]>();
+			counts[i] = new AtomicInteger();
+		}
+		this.maxCount = maxCount;
+	}
+
+	private static int sizeClass(int size) {
+		if (size <= (1 << MIN_SHIFT)) return 0;
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	/**
+	 * Returns a buffer of at least the requested size.
+	 * 
+	 * @param size	The requested size.
+	 * @return a buffer of at least the requested size.
+	 */
+	public byte[] lease(int size) {
+		int idx = sizeClass(size);
+		if (idx >= buffers.length) return new byte[size];
+
+		byte[] buf = buffers[idx].poll();
+		if (buf != null) {
+			counts[idx].decrementAndGet();
+			return buf;
+		}
+		return new byte[1 << (idx + MIN_SHIFT)];
+	}
+
+	/**
+	 * Gives back a buffer to the pool, the buffer must not be used any more
+	 * by the caller.
+	 * 
+	 * @param buf	The buffer previously returned by lease.
+	 */
+	public void release(byte[] buf) {
+		int idx = sizeClass(buf.length);
+		if ((idx >= buffers.length) || (buf.length != (1 << (idx + MIN_SHIFT))))
+			return;
+
+		if (counts[idx].incrementAndGet() <= maxCount) {
+			buffers[idx].offer(buf);
+		} else {
+			counts[idx].decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * This class handles a TCP connection driven by a selector thread (NIO engine).
+ * It frames the incoming MALTCP messages without blocking and forwards them
+ * to the transport.
+ * 
+ * Outgoing messages are queued, the first sending thread finding no write in
+ * progress drains the queue with gathering writes of at most maxBatchBytes, so
+ * the messages queued by concurrent senders are coalesced. Data that cannot be
+ * written immediately is left to the selector thread until the channel becomes
+ * writable. If a linger delay is defined, a message is not written until the
+ * delay expires or enough data is queued to fill a batch.
+ */
+public class TCPChannelHandler extends TCPConnectionHandler implements TCPReceptionHandler {
+	/**
+	 * Reference to the transport
+	 */
+	protected final TCPTransport transport;
+	/**
+	 * The non-blocking channel of this connection.
+	 */
+	protected final SocketChannel channel;
+	/**
+	 * The selector thread this channel is registered with.
+	 */
+	protected final TCPSelectorThread selector;
+	/**
+	 * The selection key of the channel, set by the selector thread at
+	 * registration. This is volatile as it is read by the threads cancelling
+	 * the connection.
+	 */
+	volatile SelectionKey key = null;
+	/**
+	 * the remote URI (client) this connection is associated to. This is
+	 * volatile as it is potentially set by a different thread after its
+	 * creation
+	 */
+	private volatile String remoteURI = null;
+
+	/**
+	 * Buffer used to read the fixed part of the MALTCP header.
+	 */
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_FIXED_SIZE);
+	/**
+	 * Buffer used to read the current message, null while reading the header.
+	 */
+	private ByteBuffer data = null;
+
+	/**
+	 * Queue of outgoing packets waiting to be written.
+	 */
+	private final LinkedList<ByteBuffer> outgoing = new LinkedList<ByteBuffer>();
+	/**
+	 * True if a thread owns the write side of the channel, either a sending
+	 * thread or the selector thread waiting for the channel to become writable.
+	 * Guarded by outgoing.
+	 */
+	private boolean writing = false;
+	/**
+	 * True if a delayed flush is scheduled on the selector thread, guarded by
+	 * outgoing.
+	 */
+	private boolean lingering = false;
+	/**
+	 * Number of bytes waiting in the outgoing queue, guarded by outgoing.
+	 */
+	private long pendingBytes = 0;
+	/**
+	 * Array of buffers of the current gathering write, only used by the thread
+	 * owning the write side.
+	 */
+	private ByteBuffer[] batch = new ByteBuffer[16];
+
+	/**
+	 * Maximum number of bytes of a gathering write.
+	 */
+	private final int maxBatchBytes;
+	/**
+	 * Delay during which a message may wait for other messages, in nanoseconds.
+	 */
+	private final long lingerNanos;
+	
+	private volatile boolean closed = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param transport		The MALTCP transport.
+	 * @param channel		The connected socket channel.
+	 * @param selector		The selector thread handling this channel.
+	 * @param remoteBaseURI	The base URI of the remote peer.
+	 * @throws IOException	if the channel cannot be configured.
+	 */
+	public TCPChannelHandler(TCPTransport transport,
+			SocketChannel channel,
+			TCPSelectorThread selector,
+			String remoteBaseURI) throws IOException {
+		super(channel.socket(), remoteBaseURI, null, null, transport.getBufferPool());
+		this.transport = transport;
+		this.channel = channel;
+		this.selector = selector;
+		this.maxBatchBytes = transport.getBatchMaxBytes();
+		this.lingerNanos = transport.getBatchLingerMicros() * 1000L;
+		
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public void sendEncodedMessage(byte[] packet) throws IOException {
+		prepareEncodedMessage(packet);
+		send(new ByteBuffer[] { ByteBuffer.wrap(packet) });
+	}
+
+	@Override
+	public void sendEncodedMessages(List<byte[]> packets) throws IOException {
+		ByteBuffer[] bufs = new ByteBuffer[packets.size()];
+		for (int i = 0; i < bufs.length; i++) {
+			byte[] packet = packets.get(i);
+			prepareEncodedMessage(packet);
+			bufs[i] = ByteBuffer.wrap(packet);
+		}
+		send(bufs);
+	}
+
+	/**
+	 * Queues the packets then writes the queue if no other thread is writing.
+	 */
+	private void send(ByteBuffer[] bufs) throws IOException {
+		synchronized (outgoing) {
+			if (closed) throw new EOFException();
+
+			for (int i = 0; i < bufs.length; i++) {
+				outgoing.addLast(bufs[i]);
+				pendingBytes += bufs[i].remaining();
+			}
+			// The owner of the write side will send the packets.
+			if (writing) return;
+			
+			if ((lingerNanos > 0) && (pendingBytes < maxBatchBytes)) {
+				// Waits for other messages to fill the batch.
+				if (! lingering) {
+					lingering = true;
+					selector.schedule(this, System.nanoTime() + lingerNanos);
+				}
+				return;
+			}
+			writing = true;
+		}
+		if (! flush()) selector.interestWrite(this);
+	}
+
+	/**
+	 * Writes the outgoing queue using gathering writes, the calling thread
+	 * must own the write side of the channel. The ownership is released if
+	 * the queue is emptied.
+	 * 
+	 * @return true if all pending packets have been written, false if the
+	 * 	channel is full and the caller must wait for it to become writable.
+	 * @throws IOException	if the connection is broken.
+	 */
+	private boolean flush() throws IOException {
+		try {
+			while (true) {
+				int count = 0;
+				synchronized (outgoing) {
+					if (closed || outgoing.isEmpty()) {
+						writing = false;
+						return true;
+					}
+
+					long size = 0;
+					for (ByteBuffer buf : outgoing) {
+						if ((count > 0) && (size + buf.remaining() > maxBatchBytes)) break;
+						if (count == batch.length) {
+							ByteBuffer[] newBatch = new ByteBuffer[batch.length * 2];
+							System.arraycopy(batch, 0, newBatch, 0, count);
+							batch = newBatch;
+						}
+						batch[count++] = buf;
+						size += buf.remaining();
+					}
+				}
+
+				long written = channel.write(batch, 0, count);
+
+				synchronized (outgoing) {
+					pendingBytes -= written;
+					int done = 0;
+					while ((done < count) && ! batch[done].hasRemaining()) {
+						batch[done] = null;
+						done++;
+						if (! outgoing.isEmpty()) outgoing.removeFirst();
+					}
+					if (stats != null) stats.flushed(done, written);
+					if (done < count) {
+						// The channel is full, keeps the ownership until it becomes writable.
+						for (int i = done; i < count; i++) batch[i] = null;
+						return false;
+					}
+				}
+			}
+		} catch (IOException exc) {
+			synchronized (outgoing) {
+				writing = false;
+			}
+			throw exc;
+		}
+	}
+
+	/**
+	 * Called by the selector thread when the channel is readable. Reads all
+	 * available data and forwards each complete message to the transport.
+	 *
+	 * @throws IOException	if the connection is broken or closed by the peer.
+	 */
+	void handleRead() throws IOException {
+		while (true) {
+			if (data == null) {
+				if (channel.read(header) < 0) throw new EOFException();
+				if (header.hasRemaining()) return;
+
+				// get the packet size then allocates the buffer for the whole message
+				int length = getReceivedMessageLength(header.array());
+				data = ByteBuffer.wrap(allocate(length), 0, length);
+				data.put(header.array());
+				header.clear();
+			}
+			
+			if (data.hasRemaining()) {
+				if (channel.read(data) < 0) throw new EOFException();
+				if (data.hasRemaining()) return;
+			}
+			
+			byte[] msg = data.array();
+			data = null;
+
+			if (TCPTransport.RLOGGER.isLoggable(Level.FINE)) {
+				StringBuffer strbuf = new StringBuffer();
+				strbuf.append("readEncodedMessage: buf=");
+				for (int i = 0; i <getEncodedMessageLength(msg); i++)
+					strbuf.append(msg[i] & 0xFF).append(' ');
+				TCPTransport.RLOGGER.fine(strbuf.toString());
+			}
+
+			transport.receiveMessage(this, msg);
+			// The transport closes the connection if the message cannot be decoded.
+			if (closed) return;
+		}
+	}
+
+	/**
+	 * Called by the selector thread when the channel is writable. Writes the
+	 * pending packets.
+	 *
+	 * @return true if all pending packets have been written.
+	 * @throws IOException	if the connection is broken.
+	 */
+	boolean handleWrite() throws IOException {
+		return flush();
+	}
+
+	/**
+	 * Called by the selector thread when the linger delay of the outgoing
+	 * queue expires. Writes the pending packets if no other thread is writing.
+	 *
+	 * @return true if all pending packets have been written.
+	 * @throws IOException	if the connection is broken.
+	 */
+	boolean handleLinger() throws IOException {
+		synchronized (outgoing) {
+			lingering = false;
+			if (writing || outgoing.isEmpty()) return true;
+			writing = true;
+		}
+		return flush();
+	}
+
+	@Override
+	public void close() {
+		synchronized (outgoing) {
+			closed = true;
+			outgoing.clear();
+			pendingBytes = 0;
+		}
+		selector.cancel(this);
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * @return true if this connection has been closed.
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	public String getRemoteURI() {
+		return remoteURI;
+	}
+
+	public void setRemoteURI(String remoteURI) {
+		this.remoteURI = remoteURI;
+	}
+
+	public TCPConnectionHandler getConnectionHandler() {
+		return this;
+	}
+}
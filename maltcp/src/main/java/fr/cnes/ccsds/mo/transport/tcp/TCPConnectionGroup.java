@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+/**
+ * The set of connections used to send messages to a remote MAL, identified
+ * by its root URI.
+ * 
+ * The group has a fixed number of lanes, each lane is associated to at most
+ * one connection. Connections opened by this transport are created lazily in
+ * the lane selected for the message to send. Connections accepted from the
+ * remote MAL fill the free lanes, if the remote MAL cannot be connected (e.g.
+ * a client) the messages of an unconnected lane are sent on the next
+ * connected one.
+ */
+public class TCPConnectionGroup {
+	private final String remoteRootURI;
+	private final TCPConnectionHandler[] lanes;
+	/**
+	 * True if this transport may open connections to the remote MAL, false if
+	 * the group only contains accepted connections.
+	 */
+	private final boolean connectable;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param remoteRootURI	the root URI of the remote MAL.
+	 * @param size			the number of lanes.
+	 * @param connectable	true if new connections may be opened to the remote MAL.
+	 */
+	TCPConnectionGroup(String remoteRootURI, int size, boolean connectable) {
+		this.remoteRootURI = remoteRootURI;
+		this.lanes = new TCPConnectionHandler[size];
+		this.connectable = connectable;
+	}
+
+	public String getRemoteRootURI() {
+		return remoteRootURI;
+	}
+
+	/**
+	 * @return the number of lanes of this group.
+	 */
+	public int size() {
+		return lanes.length;
+	}
+
+	/**
+	 * Returns the connection to use for a lane.
+	 * 
+	 * @param lane	the selected lane, between 0 and size() - 1.
+	 * @return the connection of the lane, null if a connection needs to be
+	 * 	opened for this lane.
+	 */
+	synchronized TCPConnectionHandler get(int lane) {
+		if ((lanes[lane] != null) || connectable)
+			return lanes[lane];
+		
+		for (int i = 1; i < lanes.length; i++) {
+			TCPConnectionHandler handler = lanes[(lane + i) % lanes.length];
+			if (handler != null) return handler;
+		}
+		return null;
+	}
+
+	/**
+	 * Associates a new connection to a lane.
+	 * 
+	 * @param lane		the lane.
+	 * @param handler	the connection.
+	 * @return the connection of the lane, it is not the given one if the lane
+	 * 	is already connected.
+	 */
+	synchronized TCPConnectionHandler register(int lane, TCPConnectionHandler handler) {
+		if (lanes[lane] == null)
+			lanes[lane] = handler;
+		return lanes[lane];
+	}
+
+	/**
+	 * Associates an accepted connection to the first free lane.
+	 * 
+	 * @param handler	the connection.
+	 * @return the connection of the lane, or the one of the first lane if all
+	 * 	the lanes are connected.
+	 */
+	synchronized TCPConnectionHandler add(TCPConnectionHandler handler) {
+		for (int i = 0; i < lanes.length; i++) {
+			if (lanes[i] == null) {
+				lanes[i] = handler;
+				return handler;
+			}
+		}
+		return lanes[0];
+	}
+
+	/**
+	 * Removes a connection from this group.
+	 * 
+	 * @param handler	the connection.
+	 * @return true if the group is empty.
+	 */
+	synchronized boolean remove(TCPConnectionHandler handler) {
+		boolean empty = true;
+		for (int i = 0; i < lanes.length; i++) {
+			if (lanes[i] == handler) lanes[i] = null;
+			if (lanes[i] != null) empty = false;
+		}
+		return empty;
+	}
+
+	/**
+	 * Closes all the connections of this group.
+	 */
+	void close() {
+		TCPConnectionHandler[] handlers;
+		synchronized (this) {
+			handlers = lanes.clone();
+			for (int i = 0; i < lanes.length; i++) lanes[i] = null;
+		}
+		for (TCPConnectionHandler handler : handlers) {
+			if (handler != null) handler.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "TCPConnectionGroup [" + remoteRootURI + ", lanes=" + lanes.length + ", connectable=" + connectable + "]";
+	}
+}
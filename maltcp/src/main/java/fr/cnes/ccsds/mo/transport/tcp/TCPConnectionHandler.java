@@ -23,10 +23,12 @@
   *******************************************************************************/
 package fr.cnes.ccsds.mo.transport.tcp;
 
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.util.List;
 import java.util.logging.Level;
 
 /**
@@ -37,6 +39,18 @@ public class TCPConnectionHandler {
 	protected final Socket socket;
 	protected final DataOutputStream dos;
 	protected final DataInputStream dis;
+	/**
+	 * The pool used to allocate the receive buffers, null if the buffers are not pooled.
+	 */
+	protected final TCPBufferPool pool;
+	/**
+	 * The counters of the outgoing writes, may be null.
+	 */
+	protected TCPWriteStatistics stats = null;
+	/**
+	 * The maximum size of a received message.
+	 */
+	protected int maxMessageSize = Integer.MAX_VALUE;
 
 	private String remoteBaseURI = null;
 
@@ -49,11 +63,42 @@ public class TCPConnectionHandler {
 	 *             if there is an error.
 	 */
 	public TCPConnectionHandler(Socket socket, String remoteBaseURI) throws IOException {
+		this(socket, remoteBaseURI, null);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param socket		the TCPIP socket.
+	 * @param remoteBaseURI	the base URI of the remote peer.
+	 * @param pool			the pool of receive buffers, may be null.
+	 * @throws IOException
+	 *             if there is an error.
+	 */
+	public TCPConnectionHandler(Socket socket, String remoteBaseURI, TCPBufferPool pool) throws IOException {
+		this(socket, remoteBaseURI,
+				new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())),
+				new DataInputStream(socket.getInputStream()),
+				pool);
+	}
+
+	/**
+	 * Constructor for subclasses that do not use the blocking streams of the
+	 * socket, in this case dos and dis may be null.
+	 *
+	 * @param socket		the TCPIP socket.
+	 * @param remoteBaseURI	the base URI of the remote peer.
+	 * @param dos			the output stream of the connection, may be null.
+	 * @param dis			the input stream of the connection, may be null.
+	 * @param pool			the pool of receive buffers, may be null.
+	 */
+	protected TCPConnectionHandler(Socket socket, String remoteBaseURI,
+			DataOutputStream dos, DataInputStream dis, TCPBufferPool pool) {
 		this.socket = socket;
 		this.remoteBaseURI = remoteBaseURI;
-		
-		dos = new DataOutputStream(socket.getOutputStream());
-		dis = new DataInputStream(socket.getInputStream());
+		this.dos = dos;
+		this.dis = dis;
+		this.pool = pool;
 
 		TCPTransport.RLOGGER.fine("Creates TCPConnectionHandler: " + this);
 	}
@@ -68,13 +113,80 @@ public class TCPConnectionHandler {
 		data[offset + 3] = (byte) (value >> 0);
 	}
 
-	int MalBinaryRead32(byte[] data, int offset) {
+	static int MalBinaryRead32(byte[] data, int offset) {
 		return (((int) (data[0 + offset] & 255) << 24)
 				+ ((int) (data[1 + offset] & 255) << 16)
 				+ ((int) (data[2 + offset] & 255) << 8) + ((int) (data[3 + offset] & 255) << 0));
 	}
 
-	public void sendEncodedMessage(byte[] packet) throws IOException {
+	/**
+	 * Returns the total length of the encoded message contained in the buffer.
+	 * The buffer may be larger than the message if it is leased from a pool.
+	 * 
+	 * @param data	the buffer containing the encoded message.
+	 * @return the length of the message.
+	 */
+	static int getEncodedMessageLength(byte[] data) {
+		return HEADER_FIXED_SIZE + MalBinaryRead32(data, MESSAGE_LENGTH_OFFSET);
+	}
+
+	/**
+	 * Returns the total length of a received message from its MALTCP header,
+	 * checking the length announced by the peer.
+	 * 
+	 * @param header	the fixed part of the MALTCP header.
+	 * @return the length of the message.
+	 * @throws IOException	if the announced length is negative or greater
+	 * 	than the maximum size of a message.
+	 */
+	int getReceivedMessageLength(byte[] header) throws IOException {
+		int length = MalBinaryRead32(header, MESSAGE_LENGTH_OFFSET);
+		if ((length < 0) || (length > maxMessageSize - HEADER_FIXED_SIZE)) {
+			TCPTransport.RLOGGER.log(Level.SEVERE,
+					"Rejects MALTCP message of {0} bytes from {1}, maximum size is {2} bytes ("
+							+ TCPTransport.MAX_MESSAGE_SIZE_PROPERTY + ')',
+					new Object[] { Long.valueOf(HEADER_FIXED_SIZE + (long) length), remoteBaseURI, Integer.valueOf(maxMessageSize) });
+			throw new IOException("Invalid MALTCP message length: " + length);
+		}
+		return HEADER_FIXED_SIZE + length;
+	}
+
+	/**
+	 * Allocates the buffer used to receive a message.
+	 * 
+	 * @param size	the length of the message.
+	 * @return a buffer of at least the requested size.
+	 */
+	protected byte[] allocate(int size) {
+		if (pool != null)
+			return pool.lease(size);
+		return new byte[size];
+	}
+
+	/**
+	 * Sets the counters updated by the outgoing writes of this connection.
+	 * 
+	 * @param stats	the counters, may be null.
+	 */
+	void setWriteStatistics(TCPWriteStatistics stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * Sets the maximum size of a message received by this connection.
+	 * 
+	 * @param maxMessageSize	the maximum size in bytes.
+	 */
+	void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Completes the MALTCP header of an encoded message before sending it.
+	 * 
+	 * @param packet	the encoded message.
+	 */
+	protected void prepareEncodedMessage(byte[] packet) {
 		if (TCPTransport.RLOGGER.isLoggable(Level.FINE)) {
 			StringBuffer strbuf = new StringBuffer();
 			strbuf.append("sendEncodedMessage: buf=");
@@ -84,27 +196,78 @@ public class TCPConnectionHandler {
 		}
 		
 		MalBinaryWrite32(packet, MESSAGE_LENGTH_OFFSET, packet.length - HEADER_FIXED_SIZE);
+	}
+
+	public void sendEncodedMessage(byte[] packet) throws IOException {
+		prepareEncodedMessage(packet);
 		
 		synchronized (dos) {
 			// Writes the packet
 			dos.write(packet);
 			dos.flush();
 		}
+		if (stats != null) stats.flushed(1, packet.length);
 	}
 
+	/**
+	 * Sends a batch of encoded messages. The messages are written in order
+	 * and flushed once, small messages are thus coalesced in the output
+	 * buffer of the connection.
+	 * 
+	 * @param packets	the encoded messages.
+	 * @throws IOException	if the connection is broken.
+	 */
+	public void sendEncodedMessages(List<byte[]> packets) throws IOException {
+		long length = 0;
+		for (byte[] packet : packets) {
+			prepareEncodedMessage(packet);
+			length += packet.length;
+		}
+		
+		synchronized (dos) {
+			// Writes the packets
+			for (byte[] packet : packets)
+				dos.write(packet);
+			dos.flush();
+		}
+		if (stats != null) stats.flushed(packets.size(), length);
+	}
+
+	/**
+	 * @return true if a message may be encoded directly to the output stream
+	 * 	of this connection, see TCPTransport.streamEncodedMessage.
+	 */
+	boolean isStreamable() {
+		return dos != null;
+	}
+
+	/**
+	 * Reads a complete message from the connection, in a new array of the
+	 * exact length of the message.
+	 * 
+	 * @return the encoded message.
+	 * @throws IOException	if the connection is broken or if the announced
+	 * 	length of the message is invalid.
+	 * @deprecated The messages are read by TCPMessagePoller, in buffers leased
+	 * 	from the pool of the connection. This method does not use the pool and
+	 * 	is not supported by the connections of the NIO engine, which have no
+	 * 	input stream.
+	 */
+	@Deprecated
 	public byte[] readEncodedMessage() throws IOException {
+		if (dis == null)
+			throw new UnsupportedOperationException("No input stream: " + this);
 		try {
 			synchronized (dis) {
 				// read the header
 				byte[] header = new byte[HEADER_FIXED_SIZE];
 				dis.readFully(header);
 				// get the packet size then read the remaining bytes
-				
-				int length = MalBinaryRead32(header, MESSAGE_LENGTH_OFFSET);
-				byte[] data = new byte[HEADER_FIXED_SIZE+length];
+				int length = getReceivedMessageLength(header);
+				byte[] data = new byte[length];
 				System.arraycopy(header, 0, data, 0, HEADER_FIXED_SIZE);
-				dis.readFully(data, HEADER_FIXED_SIZE, length);
-				
+				dis.readFully(data, HEADER_FIXED_SIZE, length - HEADER_FIXED_SIZE);
+
 				if (TCPTransport.RLOGGER.isLoggable(Level.FINE)) {
 					StringBuffer strbuf = new StringBuffer();
 					strbuf.append("readEncodedMessage: buf=");
@@ -23,8 +23,6 @@
   *******************************************************************************/
 package fr.cnes.ccsds.mo.transport.tcp;
 
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -207,25 +205,19 @@ public class TCPEndPoint extends Thread implements MALEndpoint {
 	public void sendMessages(final MALMessage[] msgList) throws MALTransmitMultipleErrorException {
 		TCPTransport.RLOGGER.log(Level.FINE, "TCPEndpoint ({0}) Send messages", localName);
 		
-		final List<MALTransmitErrorException> v = new LinkedList<MALTransmitErrorException>();
-
 		try {
+			final TCPMessage[] tcpMsgList = new TCPMessage[msgList.length];
 			for (int idx = 0; idx < msgList.length; idx++) {
-				try {
-					transport.sendMessage((TCPMessage) msgList[idx]);
-				} catch (MALTransmitErrorException ex) {
-					v.add(ex);
-				}
+				tcpMsgList[idx] = (TCPMessage) msgList[idx];
 			}
-
+			// The messages are sent as a batch for each destination.
+			transport.sendMessages(tcpMsgList);
+		} catch (MALTransmitMultipleErrorException ex) {
+			throw ex;
 		} catch (Exception ex) {
-			v.add(new MALTransmitErrorException(null,
-					new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, new Union(ex.getMessage())), null));
-		}
-
-		if (!v.isEmpty()) {
-			throw new MALTransmitMultipleErrorException(
-					v.toArray(new MALTransmitErrorException[v.size()]));
+			throw new MALTransmitMultipleErrorException(new MALTransmitErrorException[] {
+					new MALTransmitErrorException(null,
+							new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, new Union(ex.getMessage())), null) });
 		}
 	}
 
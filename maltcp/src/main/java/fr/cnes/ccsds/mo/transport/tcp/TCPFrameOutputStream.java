@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream receiving an encoded MALTCP frame without keeping it in
+ * memory. The stream counts the bytes of the frame and, if it has a target
+ * stream, copies them to it, replacing the message length of the fixed header
+ * (written as 0 by TCPMessageHeader) by the given body length.
+ * 
+ * A message is thus streamed to a connection in two encoding passes: the
+ * first one, without target, computes the length of the frame; the second
+ * one writes the frame to the connection.
+ */
+final class TCPFrameOutputStream extends OutputStream {
+	private static final int LENGTH_END = TCPConnectionHandler.MESSAGE_LENGTH_OFFSET + 4;
+
+	private final OutputStream out;
+	private final int bodyLength;
+	private long count = 0;
+
+	/**
+	 * Creates a stream only counting the bytes of the frame.
+	 */
+	TCPFrameOutputStream() {
+		this(null, 0);
+	}
+
+	/**
+	 * Creates a stream writing the frame to the target stream.
+	 * 
+	 * @param out			the target stream.
+	 * @param bodyLength	the message length written in the fixed header.
+	 */
+	TCPFrameOutputStream(OutputStream out, int bodyLength) {
+		this.out = out;
+		this.bodyLength = bodyLength;
+	}
+
+	/**
+	 * @return the number of bytes written so far.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (out != null) {
+			if ((count >= TCPConnectionHandler.MESSAGE_LENGTH_OFFSET) && (count < LENGTH_END)) {
+				b = bodyLength >> (8 * (LENGTH_END - 1 - (int) count));
+			}
+			out.write(b);
+		}
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if ((out != null) && (count < LENGTH_END) && (count + len > TCPConnectionHandler.MESSAGE_LENGTH_OFFSET)) {
+			// The message length is in this chunk of the header.
+			for (int i = 0; i < len; i++) write(b[off + i]);
+			return;
+		}
+		if (out != null) out.write(b, off, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) out.flush();
+	}
+
+	/**
+	 * Does not close the target stream, it is the connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
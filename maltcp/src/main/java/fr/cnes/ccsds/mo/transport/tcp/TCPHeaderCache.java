@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+/**
+ * Cache of the values decoded from the MALTCP message headers: URIs,
+ * identifiers and domains. As the headers received by a transport come from
+ * a small set of peers, most of these values are repeated; the cache maps
+ * their encoded bytes to a shared instance, avoiding the UTF-8 decoding and
+ * the allocations, and making the equality tests on these values cheaper.
+ * 
+ * The cache is a fixed size direct-mapped table, a new value replaces the
+ * one stored in its slot. The entries are immutable so the table can be
+ * read and written without lock: a thread may just miss an entry recently
+ * stored by another one. Values longer than MAX_KEY_LENGTH are not cached.
+ * 
+ * The cached URIs and identifiers are immutable and shared between the
+ * messages. The cached domains are lists, they are copied for each message
+ * so that a message cannot modify the domain of another one.
+ */
+final class TCPHeaderCache {
+	static final int URI = 0;
+	static final int IDENTIFIER = 1;
+	static final int DOMAIN = 2;
+
+	static final int MAX_KEY_LENGTH = 256;
+
+	private static final class Entry {
+		final int hash;
+		final int kind;
+		final String prefix;
+		final byte[] key;
+		final Object value;
+
+		Entry(int hash, int kind, String prefix, byte[] key, Object value) {
+			this.hash = hash;
+			this.kind = kind;
+			this.prefix = prefix;
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	private final Entry[] entries;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity	The number of entries, rounded up to a power of 2.
+	 */
+	TCPHeaderCache(int capacity) {
+		int size = (capacity <= 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		entries = new Entry[size];
+	}
+
+	/**
+	 * Computes the hash of an encoded value.
+	 * 
+	 * @param kind		The kind of value.
+	 * @param prefix	The prefix applied to a relative URI, null otherwise.
+	 * @param buf		The buffer holding the encoded value.
+	 * @param off		The offset of the value in the buffer.
+	 * @param len		The length of the encoded value.
+	 * @return the hash of the value.
+	 */
+	static int hash(int kind, String prefix, byte[] buf, int off, int len) {
+		int h = (prefix == null) ? kind : (prefix.hashCode() * 31 + kind);
+		for (int i = off; i < off + len; i++) {
+			h = h * 31 + buf[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the value cached for the encoded bytes, null if none.
+	 */
+	Object get(int hash, int kind, String prefix, byte[] buf, int off, int len) {
+		Entry e = entries[hash & (entries.length - 1)];
+		if ((e == null) || (e.hash != hash) || (e.kind != kind) || (e.key.length != len))
+			return null;
+		if ((e.prefix != prefix) && ((prefix == null) || ! prefix.equals(e.prefix)))
+			return null;
+		for (int i = 0; i < len; i++) {
+			if (e.key[i] != buf[off + i]) return null;
+		}
+		return e.value;
+	}
+
+	/**
+	 * Caches the value decoded from the encoded bytes.
+	 */
+	void put(int hash, int kind, String prefix, byte[] buf, int off, int len, Object value) {
+		if (len > MAX_KEY_LENGTH) return;
+		byte[] key = new byte[len];
+		System.arraycopy(buf, off, key, 0, len);
+		entries[hash & (entries.length - 1)] = new Entry(hash, kind, prefix, key, value);
+	}
+}
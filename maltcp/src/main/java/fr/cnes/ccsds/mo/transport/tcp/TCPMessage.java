@@ -23,7 +23,6 @@
   *******************************************************************************/
 package fr.cnes.ccsds.mo.transport.tcp;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.util.Map;
@@ -63,6 +62,12 @@ public class TCPMessage implements MALMessage, java.io.Serializable {
 	protected final TCPMessageBody body;
 	protected final Map qosProperties;
 	protected MALOperation operation = null;
+	/**
+	 * The buffer holding the encoded message if it has been leased from a pool,
+	 * it is given back to the pool when the message is freed.
+	 */
+	private transient byte[] packet = null;
+	private transient TCPBufferPool pool = null;
 	private static final long serialVersionUID = 0L;
 
 	/**
@@ -119,26 +124,53 @@ public class TCPMessage implements MALMessage, java.io.Serializable {
 	 * 
 	 * @throws MALException	On decoding error.
 	 */
-	
 	public TCPMessage(
 			final boolean readHeader,
 			final TCPMessageHeader header,
 			final Map qosProperties,
 			final byte[] packet, final MALElementStreamFactory encFactory) throws MALException {
+		this(readHeader, header, qosProperties, packet, encFactory, null);
+	}
+
+	/**
+	 * Constructor.
+	 * The header is decoded in place and the body is decoded directly from the
+	 * packet, so the packet must not be modified until the message is freed.
+	 *
+	 * @param readHeader	True if the header should be read from the packet.
+	 * @param header		An instance of the header class to use.
+	 * @param qosProperties	The QoS properties for this message.
+	 * @param packet		The message in encoded form.
+	 * @param encFactory	The stream factory to use for decoding.
+	 * @param pool			The pool the packet has been leased from, null if not pooled.
+	 * 
+	 * @throws MALException	On decoding error.
+	 */
+	public TCPMessage(
+			final boolean readHeader,
+			final TCPMessageHeader header,
+			final Map qosProperties,
+			final byte[] packet, final MALElementStreamFactory encFactory,
+			final TCPBufferPool pool) throws MALException {
 		this.qosProperties = qosProperties;
-		byte[] packet1 = null;
+		int offset = 0;
 
-		TCPTransport.RLOGGER.log(Level.FINEST, "\n\n\t##### total -> " + packet.length);
-		
 		if (readHeader) {
-			packet1 = header.decodeMessageHeader(packet);
-			TCPTransport.RLOGGER.log(Level.FINEST, "\n\n\t##### remain -> " + packet1.length);
+			offset = header.decodeMessageHeader(packet, 0);
+			TCPTransport.RLOGGER.log(Level.FINEST, "\n\n\t##### header -> " + offset);
 		}
 		this.header = header;
 
-		final ByteArrayInputStream bis = new ByteArrayInputStream(packet1);
-		final MALElementInputStream enc = encFactory.createInputStream(bis);
+		final MALElementInputStream enc = encFactory.createInputStream(packet, offset);
 		this.body = createMessageBody(encFactory, enc);
+		// Keeps the encoded body so that it can be forwarded without decoding.
+		int length = readHeader ? TCPConnectionHandler.getEncodedMessageLength(packet) : packet.length;
+		this.body.setEncodedBody(packet, offset, length - offset);
+		
+		if (pool != null) {
+			this.packet = packet;
+			this.pool = pool;
+		}
 	}
 
 	public MALMessageHeader getHeader() {
@@ -154,7 +186,16 @@ public class TCPMessage implements MALMessage, java.io.Serializable {
 	}
 
 	public void free() throws MALException {
-		// TODO (AF): ?
+		byte[] buf;
+		synchronized (this) {
+			buf = packet;
+			packet = null;
+		}
+		if (buf != null) {
+			// The body must no longer refer to the buffer before it is reused.
+			body.releaseEncodedBody();
+			pool.release(buf);
+		}
 	}
 	
 	/**
@@ -182,7 +223,8 @@ public class TCPMessage implements MALMessage, java.io.Serializable {
 				throw new MALException("Internal error encoding message, header NULL");
 
 			header.encodeMessageHeader(out);
-			TCPTransport.RLOGGER.log(Level.FINE, "##### header -> " + ((ByteArrayOutputStream) out).size());
+			if (out instanceof ByteArrayOutputStream)
+				TCPTransport.RLOGGER.log(Level.FINE, "##### header -> " + ((ByteArrayOutputStream) out).size());
 
 //			TCPTransport.RLOGGER.log(Level.FINEST, "\n\n\t%%%%% body=" + body);
 //			TCPTransport.RLOGGER.log(Level.FINEST, "\n\n\t%%%%% Encode body " + enc2);
@@ -195,7 +237,8 @@ public class TCPMessage implements MALMessage, java.io.Serializable {
 			// Be careful, flush method throws a NPE with encoding wrapper.
 			enc.flush();
 
-			TCPTransport.RLOGGER.log(Level.FINE, "##### total -> " + ((ByteArrayOutputStream) out).size());
+			if (out instanceof ByteArrayOutputStream)
+				TCPTransport.RLOGGER.log(Level.FINE, "##### total -> " + ((ByteArrayOutputStream) out).size());
 		} catch (Exception ex) {
 			throw new MALException("Internal error encoding message", ex);
 		}
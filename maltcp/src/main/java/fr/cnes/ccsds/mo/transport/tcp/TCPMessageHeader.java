@@ -635,13 +635,24 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 		throw new MALException("Should never be used");
 	}
 
+	/**
+	 * Cache of the URIs, identifiers and domains decoded from the headers.
+	 */
+	private static final TCPHeaderCache cache = new TCPHeaderCache(1024);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	class Buffer {
 		byte[] buf;
 		int off;
 
 		Buffer(byte[] buf) {
+			this(buf, 0);
+		}
+
+		Buffer(byte[] buf, int off) {
 			this.buf = buf;
-			off = 0;
+			this.off = off;
 		}
 		
 		byte get() {
@@ -726,6 +737,81 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 			}
 			return list;
 		}
+
+		/**
+		 * Decodes an URI through the header cache. A relative URI is completed
+		 * with the specified base URI, an empty one is the base URI itself.
+		 */
+		URI decodeCachedURI(boolean present, String baseURI) throws IOException {
+			final int len = present ? decodeBinaryUnsignedInt() : 0;
+			final int hash = TCPHeaderCache.hash(TCPHeaderCache.URI, baseURI, buf, off, len);
+			URI uri = (URI) cache.get(hash, TCPHeaderCache.URI, baseURI, buf, off, len);
+			if (uri == null) {
+				final String str = new String(buf, off, len, UTF8);
+				if (! present) {
+					uri = new URI(baseURI);
+				} else if (str.startsWith(protocol)) {
+					uri = new URI(str);
+				} else {
+					uri = new URI(baseURI + str);
+				}
+				cache.put(hash, TCPHeaderCache.URI, baseURI, buf, off, len, uri);
+			}
+			off += len;
+			return uri;
+		}
+
+		/**
+		 * Decodes an identifier through the header cache.
+		 */
+		Identifier decodeCachedIdentifier() throws IOException {
+			final int len = decodeBinaryUnsignedInt();
+			final int hash = TCPHeaderCache.hash(TCPHeaderCache.IDENTIFIER, null, buf, off, len);
+			Identifier id = (Identifier) cache.get(hash, TCPHeaderCache.IDENTIFIER, null, buf, off, len);
+			if (id == null) {
+				id = new Identifier(new String(buf, off, len, UTF8));
+				cache.put(hash, TCPHeaderCache.IDENTIFIER, null, buf, off, len, id);
+			}
+			off += len;
+			return id;
+		}
+
+		/**
+		 * Decodes a domain through the header cache, the encoded list is first
+		 * skipped to get its length. The cached list is shared, so each message
+		 * gets its own copy: the domain returned by getDomain is mutable, only
+		 * its identifiers are shared.
+		 */
+		IdentifierList decodeCachedDomain() throws IOException {
+			final int start = off;
+			int size = decodeBinaryUnsignedInt();
+			for (int i=0; i<size; i++) {
+				if ((buf[off++] & 0xFF) != 0) {
+					// The length must be read before updating the offset.
+					final int idlen = decodeBinaryUnsignedInt();
+					off += idlen;
+				}
+			}
+			final int len = off - start;
+			final int hash = TCPHeaderCache.hash(TCPHeaderCache.DOMAIN, null, buf, start, len);
+			IdentifierList list = (IdentifierList) cache.get(hash, TCPHeaderCache.DOMAIN, null, buf, start, len);
+			if (list == null) {
+				off = start;
+				size = decodeBinaryUnsignedInt();
+				list = new IdentifierList(size);
+				for (int i=0; i<size; i++) {
+					if ((buf[off++] & 0xFF) != 0) {
+						list.add(decodeCachedIdentifier());
+					} else {
+						list.add(null);
+					}
+				}
+				cache.put(hash, TCPHeaderCache.DOMAIN, null, buf, start, len, list);
+			}
+			final IdentifierList domain = new IdentifierList(list.size());
+			domain.addAll(list);
+			return domain;
+		}
 		
 		byte[] decodeBinaryBytes() throws IOException {
 			int len = decodeBinarySignedInt();
@@ -750,14 +836,24 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 		void skip(int n) {
 			off += n;
 		}
-		
-		byte[] getRemainingEncodedData() {
-			return Arrays.copyOfRange(buf, off, buf.length);
-		}
 	}
 	
 	public byte[] decodeMessageHeader(final byte[] packet) throws MALException {
-		Buffer buffer = new Buffer(packet);
+		int offset = decodeMessageHeader(packet, 0);
+		return Arrays.copyOfRange(packet, offset, packet.length);
+	}
+
+	/**
+	 * Decodes the message header directly from the packet without copying the
+	 * remaining encoded data.
+	 * 
+	 * @param packet	The buffer containing the encoded message.
+	 * @param offset	The offset of the message in the buffer.
+	 * @return the offset of the encoded body in the buffer.
+	 * @throws MALException	On decoding error.
+	 */
+	public int decodeMessageHeader(final byte[] packet, final int offset) throws MALException {
+		Buffer buffer = new Buffer(packet, offset);
 		
 		try {
 		// First part of the header is decoded with FixedBinaryDecoder.
@@ -816,27 +912,11 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 		// Second part of the header is decoded with SplitBinaryDecoder.
 		
 		// If source URI is not present or complete we should build it.
-		if (sourceFlag != 0) {
-			URIFrom = new URI(buffer.decodeBinaryString());
-			TCPTransport.RLOGGER.finest("@@@@@ << Get URI From=" + URIFrom);
-			if (! URIFrom.getValue().startsWith(protocol)) {
-				URIFrom = new URI(remoteBaseURI + URIFrom.getValue());
-			}
-		} else {
-			URIFrom = new URI(remoteBaseURI);
-		}
+		URIFrom = buffer.decodeCachedURI(sourceFlag != 0, remoteBaseURI);
 	    TCPTransport.RLOGGER.finest("@@@@@ << remoteBaseURI=" + remoteBaseURI + " -> URIFrom=" + URIFrom);
 
 		// If destination URI is not present or complete we should build it.
-		if (destinationFlag != 0) {
-			URITo =  new URI(buffer.decodeBinaryString());
-			TCPTransport.RLOGGER.finest("@@@@@ << Get URI To=" + URITo);
-			if (! URITo.getValue().startsWith(protocol)) {
-				URITo = new URI(localBaseURI + URITo.getValue());
-			}
-		} else {
-			URITo = new URI(localBaseURI);
-		}
+		URITo = buffer.decodeCachedURI(destinationFlag != 0, localBaseURI);
 	    TCPTransport.RLOGGER.finest("@@@@@ << localBaseURI=" + localBaseURI + " -> URITo=" + URITo);
 		
 		if (priorityFlag != 0) {
@@ -850,15 +930,15 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 			TCPTransport.RLOGGER.finest("@@@@@ << Decode timestamp=" + timestamp);
 		}
 		if (networkZoneFlag != 0) {
-			networkZone = new Identifier(buffer.decodeBinaryString());
+			networkZone = buffer.decodeCachedIdentifier();
 			TCPTransport.RLOGGER.finest("@@@@@ << Decode networkZone=" + networkZone);
 		}
 		if (sessionNameFlag != 0) {
-			sessionName = new Identifier(buffer.decodeBinaryString());
+			sessionName = buffer.decodeCachedIdentifier();
 			TCPTransport.RLOGGER.finest("@@@@@ << Decode sessionName=" + sessionName);
 		}
 		if (domainFlag != 0) {
-			domain = buffer.decodeBinaryIdentifierList();
+			domain = buffer.decodeCachedDomain();
 			TCPTransport.RLOGGER.finest("@@@@@ << Decode domain=" + domain);
 		}
 		if (authenticationIdFlag != 0) {
@@ -870,7 +950,7 @@ public class TCPMessageHeader implements MALMessageHeader, Composite, Cloneable
 		} catch (IOException exc) {
 			throw new MALException(exc.getMessage());
 		}
-		return buffer.getRemainingEncodedData();
+		return buffer.off;
 	}
 
 
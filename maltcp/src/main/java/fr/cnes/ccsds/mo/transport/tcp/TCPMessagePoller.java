@@ -31,7 +31,7 @@ import java.util.logging.Level;
  * This thread receives messages from TCP connection and forwards
  * them to related transport.
  */
-public class TCPMessagePoller extends Thread {
+public class TCPMessagePoller extends Thread implements TCPReceptionHandler {
 	/**
 	 * Reference to the transport
 	 */
@@ -46,6 +46,10 @@ public class TCPMessagePoller extends Thread {
 	 * creation
 	 */
 	private volatile String remoteURI = null;
+	/**
+	 * Buffer used to read the fixed part of the MALTCP header.
+	 */
+	private final byte[] header = new byte[TCPConnectionHandler.HEADER_FIXED_SIZE];
 
 	/**
 	 * Constructor.
@@ -76,12 +80,14 @@ public class TCPMessagePoller extends Thread {
 				// Get a message from the receiver and passes it to the transport.
 				TCPTransport.RLOGGER.log(Level.FINE, "Client @" + this.getId() + " wait message: {0}", remoteURI);
 
-				byte[] msg = handler.readEncodedMessage();
-				TCPTransport.RLOGGER.log(Level.FINE, "Client @" + this.getId() + " readEncodedMessage: {0}", msg.length);
+				byte[] msg = readEncodedMessage();
 
 				if (null != msg) {
 					// msg should never be null
+					TCPTransport.RLOGGER.log(Level.FINE, "Client @" + this.getId() + " readEncodedMessage: {0}", TCPConnectionHandler.getEncodedMessageLength(msg));
 					transport.receiveMessage(this, msg);
+					// The transport closes the connection if the message cannot be decoded.
+					if (handler.socket.isClosed()) bContinue = false;
 				}
 
 				TCPTransport.RLOGGER.log(Level.FINE, "Client @" + this.getId() + " receive message: {0}", remoteURI);
@@ -105,6 +111,41 @@ public class TCPMessagePoller extends Thread {
 		}
 	}
 
+	/**
+	 * Reads a complete message from the connection.
+	 * 
+	 * @return the encoded message.
+	 * @throws IOException	if the connection is broken or if the announced
+	 * 	length of the message is invalid.
+	 */
+	private byte[] readEncodedMessage() throws IOException {
+		try {
+			// read the header
+			handler.dis.readFully(header);
+			// get the packet size then read the remaining bytes
+			int length = handler.getReceivedMessageLength(header);
+			byte[] data = handler.allocate(length);
+			System.arraycopy(header, 0, data, 0, TCPConnectionHandler.HEADER_FIXED_SIZE);
+			handler.dis.readFully(data, TCPConnectionHandler.HEADER_FIXED_SIZE, length - TCPConnectionHandler.HEADER_FIXED_SIZE);
+
+			if (TCPTransport.RLOGGER.isLoggable(Level.FINE)) {
+				StringBuffer strbuf = new StringBuffer();
+				strbuf.append("readEncodedMessage: buf=");
+				for (int i = 0; i <length; i++)
+					strbuf.append(data[i] & 0xFF).append(' ');
+				TCPTransport.RLOGGER.fine(strbuf.toString());
+			}
+
+			return data;
+		} catch (java.net.SocketException exc) {
+			if (handler.socket.isClosed()) {
+				// socket has been closed to throw EOF exception higher
+				throw new EOFException();
+			}
+			throw exc;
+		}
+	}
+
 	public String getRemoteURI() {
 		return remoteURI;
 	}
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+/**
+ * Common interface of the objects receiving messages from a TCP connection
+ * and forwarding them to the transport: either a dedicated poller thread
+ * (blocking engine) or a channel handled by a selector thread (NIO engine).
+ */
+public interface TCPReceptionHandler {
+	/**
+	 * Returns the root URI of the remote MAL this connection is associated to.
+	 * 
+	 * @return the remote root URI, null if not yet known.
+	 */
+	public String getRemoteURI();
+
+	/**
+	 * Sets the root URI of the remote MAL this connection is associated to.
+	 * 
+	 * @param remoteURI	the remote root URI.
+	 */
+	public void setRemoteURI(String remoteURI);
+
+	/**
+	 * Returns the connection handler allowing to send messages through this
+	 * connection.
+	 * 
+	 * @return the connection handler.
+	 */
+	public TCPConnectionHandler getConnectionHandler();
+
+	/**
+	 * Returns the base URI of the remote peer computed from the socket address.
+	 * 
+	 * @return the remote base URI.
+	 */
+	public String getRemoteBaseURI();
+
+	/**
+	 * Closes the underlying connection.
+	 */
+	public void close();
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static fr.cnes.ccsds.mo.transport.tcp.TCPTransport.RLOGGER;
+
+/**
+ * NIO engine for the MALTCP transport.
+ * 
+ * Instead of a dedicated poller thread for each connection, this engine
+ * multiplexes all the connections of the transport on a small fixed pool
+ * of selector threads. The connections are assigned in a round-robin way.
+ */
+public class TCPSelectorEngine {
+	private final TCPTransport transport;
+	private final TCPSelectorThread[] threads;
+	private final AtomicInteger next = new AtomicInteger();
+	
+	private ServerSocketChannel server = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param transport	The MALTCP transport.
+	 * @param nbThreads	The number of I/O threads.
+	 * @throws IOException	if a selector cannot be opened.
+	 */
+	public TCPSelectorEngine(TCPTransport transport, int nbThreads) throws IOException {
+		this.transport = transport;
+		if (nbThreads < 1) nbThreads = 1;
+		threads = new TCPSelectorThread[nbThreads];
+		for (int i=0; i<nbThreads; i++) {
+			threads[i] = new TCPSelectorThread(this, i);
+		}
+	}
+
+	public TCPTransport getTransport() {
+		return transport;
+	}
+
+	public void start() {
+		for (TCPSelectorThread thread : threads) {
+			thread.start();
+		}
+	}
+
+	private TCPSelectorThread nextThread() {
+		int idx = (next.getAndIncrement() & Integer.MAX_VALUE) % threads.length;
+		return threads[idx];
+	}
+
+	/**
+	 * Starts listening for incoming connections. The server channel is handled
+	 * by the first I/O thread.
+	 * 
+	 * @param addr	The local address to bind.
+	 * @param port	The local port.
+	 * @throws IOException	if the server channel cannot be bound.
+	 */
+	public synchronized void listen(InetAddress addr, int port) throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().bind(new InetSocketAddress(addr, port));
+		server.configureBlocking(false);
+		threads[0].listen(server);
+	}
+
+	/**
+	 * Opens a new connection to the specified remote peer.
+	 * 
+	 * @param host	The remote host.
+	 * @param port	The remote port.
+	 * @return the handler of the new connection.
+	 * @throws IOException	if the connection cannot be established.
+	 */
+	public TCPChannelHandler connect(String host, int port) throws IOException {
+		InetSocketAddress addr = new InetSocketAddress(host, port);
+		if (addr.isUnresolved())
+			throw new UnknownHostException(host);
+
+		// The connection is established in blocking mode, the channel is then
+		// configured as non-blocking by the handler.
+		return register(SocketChannel.open(addr));
+	}
+
+	/**
+	 * Accepts all pending connections of the server channel, called by the
+	 * I/O thread handling the server channel.
+	 * 
+	 * @param server	the server channel.
+	 */
+	void accept(ServerSocketChannel server) {
+		try {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				register(channel);
+			}
+		} catch (IOException e) {
+			RLOGGER.log(Level.SEVERE, "Error while accepting connection", e);
+		}
+	}
+
+	private TCPChannelHandler register(SocketChannel channel) throws IOException {
+		TCPSelectorThread thread = nextThread();
+		TCPChannelHandler handler;
+		try {
+			handler = transport.createChannelHandler(channel, thread);
+		} catch (IOException exc) {
+			channel.close();
+			throw exc;
+		}
+		thread.register(handler);
+		return handler;
+	}
+
+	/**
+	 * Stops the I/O threads and closes all the connections.
+	 */
+	public synchronized void close() {
+		if (server != null) {
+			try {
+				server.close();
+			} catch (IOException e) {
+				RLOGGER.log(Level.SEVERE, "Error during termination", e);
+			}
+			server = null;
+		}
+		for (TCPSelectorThread thread : threads) {
+			thread.close();
+		}
+	}
+}
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+import static fr.cnes.ccsds.mo.transport.tcp.TCPTransport.RLOGGER;
+
+/**
+ * I/O thread of the NIO engine for the MALTCP transport.
+ * 
+ * This thread multiplexes a set of TCP connections on a single selector, it
+ * reads the incoming messages, writes the outgoing data that cannot be
+ * written directly by the sending threads and flushes the outgoing queues
+ * whose linger delay expired. It may also accept the incoming connections of
+ * the server socket.
+ */
+public class TCPSelectorThread extends Thread {
+	private final TCPSelectorEngine engine;
+	private final Selector selector;
+
+	/**
+	 * Channels waiting to be registered with the selector.
+	 */
+	private final ConcurrentLinkedQueue<TCPChannelHandler> registrations = new ConcurrentLinkedQueue<TCPChannelHandler>();
+	/**
+	 * Channels having pending outgoing data.
+	 */
+	private final ConcurrentLinkedQueue<TCPChannelHandler> writers = new ConcurrentLinkedQueue<TCPChannelHandler>();
+	/**
+	 * Server channels waiting to be registered with the selector.
+	 */
+	private final ConcurrentLinkedQueue<ServerSocketChannel> acceptors = new ConcurrentLinkedQueue<ServerSocketChannel>();
+	/**
+	 * Delayed flushes waiting to be scheduled.
+	 */
+	private final ConcurrentLinkedQueue<Linger> lingers = new ConcurrentLinkedQueue<Linger>();
+	/**
+	 * Scheduled delayed flushes, only used by this thread. As all the
+	 * connections use the same delay the list is ordered by deadline.
+	 */
+	private final LinkedList<Linger> timers = new LinkedList<Linger>();
+
+	/**
+	 * A delayed flush of the outgoing queue of a connection.
+	 */
+	private static final class Linger {
+		final TCPChannelHandler handler;
+		final long deadline;
+
+		Linger(TCPChannelHandler handler, long deadline) {
+			this.handler = handler;
+			this.deadline = deadline;
+		}
+	}
+
+	private volatile boolean running = true;
+
+	/**
+	 * Maximum time in milliseconds the closing thread waits for this thread to
+	 * close its connections.
+	 */
+	private static final long CLOSE_TIMEOUT = 5000;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param engine	The NIO engine this thread belongs to.
+	 * @param idx		The index of this thread in the engine.
+	 * @throws IOException	if the selector cannot be opened.
+	 */
+	public TCPSelectorThread(TCPSelectorEngine engine, int idx) throws IOException {
+		this.engine = engine;
+		this.selector = Selector.open();
+		setName(getClass().getName() + '#' + idx);
+	}
+
+	/**
+	 * Asynchronously registers a connection with this thread.
+	 * 
+	 * @param handler	the connection handler.
+	 */
+	void register(TCPChannelHandler handler) {
+		registrations.offer(handler);
+		selector.wakeup();
+	}
+
+	/**
+	 * Asynchronously registers a server channel with this thread.
+	 * 
+	 * @param server	the listening server channel.
+	 */
+	void listen(ServerSocketChannel server) {
+		acceptors.offer(server);
+		selector.wakeup();
+	}
+
+	/**
+	 * Signals that the connection has pending outgoing data.
+	 * 
+	 * @param handler	the connection handler.
+	 */
+	void interestWrite(TCPChannelHandler handler) {
+		writers.offer(handler);
+		selector.wakeup();
+	}
+
+	/**
+	 * Schedules a flush of the outgoing queue of the connection.
+	 * 
+	 * @param handler	the connection handler.
+	 * @param deadline	the date of the flush, as given by System.nanoTime.
+	 */
+	void schedule(TCPChannelHandler handler, long deadline) {
+		lingers.offer(new Linger(handler, deadline));
+		selector.wakeup();
+	}
+
+	/**
+	 * Unregisters the connection from this thread.
+	 * 
+	 * @param handler	the connection handler.
+	 */
+	void cancel(TCPChannelHandler handler) {
+		SelectionKey key = handler.key;
+		if (key != null) {
+			key.cancel();
+			selector.wakeup();
+		}
+	}
+
+	private void processPending() {
+		ServerSocketChannel server;
+		while ((server = acceptors.poll()) != null) {
+			try {
+				server.register(selector, SelectionKey.OP_ACCEPT);
+			} catch (IOException exc) {
+				RLOGGER.log(Level.SEVERE, "Cannot register server channel", exc);
+			}
+		}
+
+		TCPChannelHandler handler;
+		while ((handler = registrations.poll()) != null) {
+			try {
+				handler.key = handler.getChannel().register(selector, SelectionKey.OP_READ, handler);
+			} catch (IOException exc) {
+				RLOGGER.log(Level.SEVERE, "Cannot register channel", exc);
+				engine.getTransport().communicationError(handler.getRemoteURI(), handler);
+			}
+		}
+
+		while ((handler = writers.poll()) != null) {
+			enableWrite(handler);
+		}
+		
+		Linger linger;
+		while ((linger = lingers.poll()) != null) {
+			timers.addLast(linger);
+		}
+	}
+
+	/**
+	 * Waits for the channel of the handler to become writable. If the channel
+	 * is not registered, or no longer, its pending messages could never be sent
+	 * so the connection is closed and the sends fail instead of being lost.
+	 */
+	private void enableWrite(TCPChannelHandler handler) {
+		SelectionKey key = handler.key;
+		if ((key != null) && key.isValid()) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		} else if (! handler.isClosed()) {
+			RLOGGER.log(Level.SEVERE, getName() + " cannot write unregistered connection: {0}", handler.getRemoteURI());
+			engine.getTransport().communicationError(handler.getRemoteURI(), handler);
+		}
+	}
+
+	/**
+	 * Returns the select timeout in milliseconds until the next delayed flush,
+	 * 0 if there is none. The resolution of the linger delay is thus limited
+	 * to the one of the selector.
+	 */
+	private long nextTimeout() {
+		if (timers.isEmpty()) return 0;
+		long delay = timers.getFirst().deadline - System.nanoTime();
+		if (delay <= 0) return -1;
+		return Math.max(1, (delay + 999999) / 1000000);
+	}
+
+	private void processTimers() {
+		long now = System.nanoTime();
+		while (! timers.isEmpty() && (timers.getFirst().deadline - now <= 0)) {
+			TCPChannelHandler handler = timers.removeFirst().handler;
+			try {
+				if (! handler.handleLinger())
+					enableWrite(handler);
+			} catch (IOException exc) {
+				RLOGGER.log(Level.SEVERE, getName() + " cannot write connection: " + handler.getRemoteURI(), exc);
+				engine.getTransport().communicationError(handler.getRemoteURI(), handler);
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		RLOGGER.info(getName() + " running");
+		try {
+			while (running) {
+				long timeout = nextTimeout();
+				if (timeout < 0) {
+					selector.selectNow();
+				} else {
+					selector.select(timeout);
+				}
+				processPending();
+				processTimers();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					
+					if (! key.isValid()) continue;
+					
+					if (key.isAcceptable()) {
+						engine.accept((ServerSocketChannel) key.channel());
+						continue;
+					}
+					
+					TCPChannelHandler handler = (TCPChannelHandler) key.attachment();
+					try {
+						if (key.isReadable())
+							handler.handleRead();
+						if (key.isValid() && key.isWritable() && handler.handleWrite())
+							key.interestOps(SelectionKey.OP_READ);
+					} catch (EOFException exc) {
+						RLOGGER.log(Level.SEVERE, getName() + " closing connection: {0}", handler.getRemoteURI());
+						engine.getTransport().closeConnection(handler.getRemoteURI(), handler);
+					} catch (IOException exc) {
+						RLOGGER.log(Level.SEVERE, getName() + " cannot handle connection: " + handler.getRemoteURI(), exc);
+						engine.getTransport().communicationError(handler.getRemoteURI(), handler);
+					} catch (RuntimeException exc) {
+						// Only closes this connection, the others handled by this thread go on
+						RLOGGER.log(Level.SEVERE, getName() + " error handling connection: " + handler.getRemoteURI(), exc);
+						engine.getTransport().communicationError(handler.getRemoteURI(), handler);
+					}
+				}
+			}
+		} catch (ClosedSelectorException exc) {
+			// The engine is closing
+		} catch (Throwable t) {
+			RLOGGER.log(Level.SEVERE, getName(), t);
+		} finally {
+			closeChannels();
+			RLOGGER.info(getName() + " exit");
+		}
+	}
+
+	/**
+	 * Closes all the channels registered with the selector, then the selector.
+	 * The key set of the selector is not thread-safe, so this is called by this
+	 * thread at the end of run, or by the closing thread if this thread has
+	 * never been started.
+	 */
+	private void closeChannels() {
+		try {
+			if (! selector.isOpen()) return;
+			for (SelectionKey key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+			selector.close();
+		} catch (Exception e) {
+			RLOGGER.log(Level.WARNING, "Error closing " + getName(), e);
+		}
+	}
+
+	/**
+	 * Stops this thread and closes all the connections it handles. The
+	 * connections are closed by this thread, the calling thread waits for it
+	 * to terminate.
+	 */
+	public void close() {
+		running = false;
+		if (getState() == State.NEW) {
+			closeChannels();
+			return;
+		}
+		selector.wakeup();
+		if (Thread.currentThread() == this) return;
+		try {
+			join(CLOSE_TIMEOUT);
+		} catch (InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		if (isAlive())
+			RLOGGER.log(Level.WARNING, "{0} not terminated after {1}ms", new Object[] { getName(), CLOSE_TIMEOUT });
+	}
+}
@@ -33,11 +33,13 @@ import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.rmi.server.UID;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -66,6 +68,7 @@ import org.ccsds.moims.mo.mal.structures.Union;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
 import org.ccsds.moims.mo.mal.transport.MALTransport;
 
 /**
@@ -90,6 +93,74 @@ public class TCPTransport implements MALTransport {
 	 * The delimiter to use to separate the external address part from the internal object part of the URL.
 	 */
 	private static final char SERVICE_DELIMITER = '/';
+
+	/**
+	 * QoS property selecting the I/O engine of the transport: "blocking" (default)
+	 * uses a poller thread per connection, "nio" multiplexes all the connections
+	 * on a small pool of selector threads.
+	 */
+	public static final String ENGINE_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.engine";
+	public static final String ENGINE_BLOCKING = "blocking";
+	public static final String ENGINE_NIO = "nio";
+	/**
+	 * QoS property defining the number of I/O threads of the NIO engine, default is 2.
+	 */
+	public static final String NIO_THREADS_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.nio.threads";
+	/**
+	 * QoS property enabling the pooling of the receive buffers, default is false.
+	 * If enabled a buffer is given back to the pool when the message is freed.
+	 */
+	public static final String BUFFER_POOL_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.buffer.pool";
+	/**
+	 * QoS property defining the maximum size of the pooled buffers, default is 1MB.
+	 */
+	public static final String BUFFER_POOL_MAX_SIZE_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.buffer.pool.maxsize";
+	/**
+	 * QoS property defining the maximum number of free buffers kept by size class, default is 64.
+	 */
+	public static final String BUFFER_POOL_MAX_COUNT_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.buffer.pool.maxcount";
+	/**
+	 * QoS property defining the maximum size in bytes of a gathering write of the
+	 * NIO engine, default is 64KB.
+	 */
+	public static final String BATCH_MAX_BYTES_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.nio.batch.maxbytes";
+	/**
+	 * QoS property defining the delay in microseconds during which an outgoing
+	 * message of the NIO engine may wait for other messages before being written,
+	 * default is 0 (no delay). The effective resolution is the one of the selector
+	 * (1 ms).
+	 */
+	public static final String BATCH_LINGER_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.nio.batch.linger";
+	/**
+	 * QoS property defining the number of connections (lanes) used to send
+	 * messages to a remote MAL, default is 1.
+	 */
+	public static final String CONNECTIONS_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.connections";
+	/**
+	 * QoS property selecting how a message is mapped to a lane when several
+	 * connections are used: "transaction" (default) maps all the messages of an
+	 * interaction to the same lane, keeping their order; "priority" maps each
+	 * priority value to its own lane, the priorities greater than the number of
+	 * lanes sharing the last one.
+	 */
+	public static final String LANE_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.connections.lane";
+	public static final String LANE_TRANSACTION = "transaction";
+	public static final String LANE_PRIORITY = "priority";
+	/**
+	 * QoS property defining the maximum size in bytes of a received message,
+	 * by default the size is not limited. A connection announcing a larger or
+	 * a negative message length is closed, the rejected length is logged.
+	 */
+	public static final String MAX_MESSAGE_SIZE_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.message.maxsize";
+	/**
+	 * QoS property defining the size in bytes above which an outgoing message
+	 * is encoded directly to the connection instead of being built in memory,
+	 * default is 0 (all the messages are built in memory). The length of such
+	 * a message is computed by a first encoding pass, so the content of a URL
+	 * based blob is read twice. Only the blocking engine streams messages, the
+	 * NIO engine always builds them in memory.
+	 */
+	public static final String STREAM_THRESHOLD_PROPERTY = "org.ccsds.moims.mo.mal.transport.maltcp.stream.threshold";
 	
 	/**
 	 * Map of string MAL names to endpoints.
@@ -100,10 +171,10 @@ public class TCPTransport implements MALTransport {
 	 */
 	protected final Map<String, TCPEndPoint> endpointRoutingMap = new HashMap<String, TCPEndPoint>();
 	/**
-	 * Map of outgoing channels. This associates a URI to a transport resource
-	 * that is able to send messages to this URI.
+	 * Map of outgoing channels. This associates a URI to the group of
+	 * connections that are able to send messages to this URI.
 	 */
-	private final Map<String, TCPConnectionHandler> outgoingDataChannels = Collections.synchronizedMap(new HashMap<String, TCPConnectionHandler>());
+	private final Map<String, TCPConnectionGroup> outgoingDataChannels = Collections.synchronizedMap(new HashMap<String, TCPConnectionGroup>());
 	/**
 	 * The stream factory used for encoding and decoding messages.
 	 */
@@ -142,6 +213,55 @@ public class TCPTransport implements MALTransport {
 	 */
 	private final List<TCPMessagePoller> pollerThreads = new ArrayList<TCPMessagePoller>();
 
+	/**
+	 * The number of I/O threads if the NIO engine is used, 0 for the blocking engine.
+	 */
+	private final int nioThreads;
+
+	/**
+	 * The NIO engine, null if the blocking engine is used.
+	 */
+	private TCPSelectorEngine selectorEngine = null;
+
+	/**
+	 * The pool of receive buffers, null if the buffers are not pooled.
+	 */
+	private final TCPBufferPool bufferPool;
+
+	/**
+	 * Maximum size of a gathering write of the NIO engine.
+	 */
+	private final int batchMaxBytes;
+	/**
+	 * Linger delay of the outgoing messages of the NIO engine in microseconds.
+	 */
+	private final long batchLingerMicros;
+
+	/**
+	 * Maximum size of a received message.
+	 */
+	private final int maxMessageSize;
+
+	/**
+	 * Size above which an outgoing message is streamed, 0 if disabled.
+	 */
+	private final int streamThreshold;
+
+	/**
+	 * Number of connections used to send messages to a remote MAL.
+	 */
+	private final int connections;
+	/**
+	 * True if the messages are mapped to a connection by priority, false if
+	 * they are mapped by transaction.
+	 */
+	private final boolean laneByPriority;
+
+	/**
+	 * Counters of the outgoing writes.
+	 */
+	private final TCPWriteStatistics writeStatistics = new TCPWriteStatistics();
+
 	public TCPTransport(Map properties) throws MALException {
 		this.qosProperties = properties;
 		this.streamFactory = MALElementStreamFactory.newFactory(PROTOCOL_SCHEME, properties);
@@ -167,10 +287,78 @@ public class TCPTransport implements MALTransport {
 					this.serverPort = 0; // 0 means this is a client
 				}
 			}
+
+			// I/O engine.
+			if (ENGINE_NIO.equalsIgnoreCase((String) properties.get(ENGINE_PROPERTY))) {
+				if (properties.containsKey(NIO_THREADS_PROPERTY)) {
+					this.nioThreads = Math.max(1, Integer.parseInt((String) properties.get(NIO_THREADS_PROPERTY)));
+				} else {
+					this.nioThreads = 2;
+				}
+			} else {
+				this.nioThreads = 0;
+			}
+			
+			// Write coalescing.
+			if (properties.containsKey(BATCH_MAX_BYTES_PROPERTY)) {
+				this.batchMaxBytes = Integer.parseInt((String) properties.get(BATCH_MAX_BYTES_PROPERTY));
+			} else {
+				this.batchMaxBytes = 64 * 1024;
+			}
+			if (properties.containsKey(BATCH_LINGER_PROPERTY)) {
+				this.batchLingerMicros = Long.parseLong((String) properties.get(BATCH_LINGER_PROPERTY));
+			} else {
+				this.batchLingerMicros = 0;
+			}
+
+			// Received messages.
+			if (properties.containsKey(MAX_MESSAGE_SIZE_PROPERTY)) {
+				this.maxMessageSize = Integer.parseInt((String) properties.get(MAX_MESSAGE_SIZE_PROPERTY));
+			} else {
+				this.maxMessageSize = Integer.MAX_VALUE;
+			}
+
+			// Sent messages.
+			if (properties.containsKey(STREAM_THRESHOLD_PROPERTY)) {
+				this.streamThreshold = Math.max(0, Integer.parseInt((String) properties.get(STREAM_THRESHOLD_PROPERTY)));
+			} else {
+				this.streamThreshold = 0;
+			}
+
+			// Connection pool.
+			if (properties.containsKey(CONNECTIONS_PROPERTY)) {
+				this.connections = Math.max(1, Integer.parseInt((String) properties.get(CONNECTIONS_PROPERTY)));
+			} else {
+				this.connections = 1;
+			}
+			this.laneByPriority = LANE_PRIORITY.equalsIgnoreCase((String) properties.get(LANE_PROPERTY));
+
+			// Receive buffers.
+			if (Boolean.parseBoolean((String) properties.get(BUFFER_POOL_PROPERTY))) {
+				int maxSize = 1024 * 1024;
+				if (properties.containsKey(BUFFER_POOL_MAX_SIZE_PROPERTY)) {
+					maxSize = Integer.parseInt((String) properties.get(BUFFER_POOL_MAX_SIZE_PROPERTY));
+				}
+				int maxCount = 64;
+				if (properties.containsKey(BUFFER_POOL_MAX_COUNT_PROPERTY)) {
+					maxCount = Integer.parseInt((String) properties.get(BUFFER_POOL_MAX_COUNT_PROPERTY));
+				}
+				this.bufferPool = new TCPBufferPool(maxSize, maxCount);
+			} else {
+				this.bufferPool = null;
+			}
 		} else {
 			// default values
 			this.serverPort = 0; // 0 means this is a client
 			this.serverHost = null; // null means this is a client
+			this.nioThreads = 0;
+			this.batchMaxBytes = 64 * 1024;
+			this.batchLingerMicros = 0;
+			this.maxMessageSize = Integer.MAX_VALUE;
+			this.streamThreshold = 0;
+			this.connections = 1;
+			this.laneByPriority = false;
+			this.bufferPool = null;
 		}
 
 	}
@@ -179,6 +367,19 @@ public class TCPTransport implements MALTransport {
 	    baseURI = getProtocol() + PROTOCOL_DELIMITER + createTransportAddress() + SERVICE_DELIMITER;
 
 	    RLOGGER.log(Level.INFO, "TCPTransport.init: " + RLOGGER.getLevel());
+		if (nioThreads > 0) {
+			RLOGGER.log(Level.INFO, "Starting TCP NIO engine with {0} threads", nioThreads);
+			try {
+				synchronized (this) {
+					selectorEngine = new TCPSelectorEngine(this, nioThreads);
+					selectorEngine.start();
+				}
+			} catch (IOException exc) {
+				RLOGGER.log(Level.SEVERE, "Error starting TCP NIO engine", exc);
+				throw new MALException("Error initialising TCP NIO engine", exc);
+			}
+		}
+
 		if (serverHost != null) {
 			// this is also a server (i.e. provides some services)
 			RLOGGER.log(Level.INFO, "Starting TCP Server Transport on port {0}", serverPort);
@@ -186,12 +387,17 @@ public class TCPTransport implements MALTransport {
 			// start server socket on predefined port / interface
 			try {
 				InetAddress serverHostAddr = InetAddress.getByName(serverHost);
-				ServerSocket serverSocket = new ServerSocket(serverPort, 0, serverHostAddr);
+				if (selectorEngine != null) {
+					// the connections are accepted by the NIO engine
+					selectorEngine.listen(serverHostAddr, serverPort);
+				} else {
+					ServerSocket serverSocket = new ServerSocket(serverPort, 0, serverHostAddr);
 
-				// create thread that will listen for connections
-				synchronized (this) {
-					serverConnectionListener = new TCPServerConnectionListener(this, serverSocket);
-					serverConnectionListener.start();
+					// create thread that will listen for connections
+					synchronized (this) {
+						serverConnectionListener = new TCPServerConnectionListener(this, serverSocket);
+						serverConnectionListener.start();
+					}
 				}
 
 				RLOGGER.log(Level.INFO, "Started TCP Server Transport on port {0}", serverPort);
@@ -385,9 +591,9 @@ public class TCPTransport implements MALTransport {
 		endpointRoutingMap.clear();
 
 		RLOGGER.fine("Closing outgoing channels");
-		for (Map.Entry<String, TCPConnectionHandler> entry : outgoingDataChannels.entrySet()) {
-			final TCPConnectionHandler sender = entry.getValue();
-			sender.close();
+		for (Map.Entry<String, TCPConnectionGroup> entry : outgoingDataChannels.entrySet()) {
+			final TCPConnectionGroup senders = entry.getValue();
+			senders.close();
 		}
 
 		outgoingDataChannels.clear();
@@ -397,42 +603,25 @@ public class TCPTransport implements MALTransport {
 			if (null != serverConnectionListener) {
 				serverConnectionListener.interrupt();
 			}
+			if (null != selectorEngine) {
+				selectorEngine.close();
+			}
 		}
 	}
 	
 	public void sendMessage(TCPMessage msg) throws MALTransmitErrorException, IllegalArgumentException {
 		try {
-			// get the root URI, (e.g. tcpip://10.0.0.1:61616 )
-			String destinationURI = msg.getHeader().getURITo().getValue();
-			String remoteRootURI = getRootURI(destinationURI);
-
-			RLOGGER.log(Level.FINE,
-					"TCP sending msg. Target root URI: {0} full URI:{1} ## {2} ##",
-					new Object[] { remoteRootURI, destinationURI, msg.getHeader().getTransactionId() });
-
-			// Get outgoing channel
-			TCPConnectionHandler handler = outgoingDataChannels.get(remoteRootURI);
-			if (null == handler) {
-				// we do not have any channel for this URI
-				// try to create a set of connections to this URI
-				RLOGGER.log(Level.FINE, "TCP received request to create connections to URI: {0}", remoteRootURI);
-
-				try {
-					// create new sender for this URI
-					handler = registerConnectionHandler(createConnectionHandler(msg, remoteRootURI), remoteRootURI);
-				} catch (MALException e) {
-					RLOGGER.log(Level.SEVERE, "TCP could not connect to :" + remoteRootURI, e);
-					throw new MALTransmitErrorException(msg.getHeader(),
-							new MALStandardError(
-									MALHelper.DESTINATION_UNKNOWN_ERROR_NUMBER,
-									null), null);
-				}
-			}
+			TCPConnectionHandler handler = getConnectionHandler(msg);
 			RLOGGER.log(Level.FINE, "TCP send message using: {0}", handler);
 
-			handler.sendEncodedMessage(internalEncodeMessage(msg));
+			byte[] packet = encodeMessage(handler, msg);
+			if (packet != null) {
+				handler.sendEncodedMessage(packet);
+			} else {
+				streamEncodedMessage(handler, msg);
+			}
 
-			RLOGGER.log(Level.FINE, "TCP finished Sending data to {0}", remoteRootURI);
+			RLOGGER.log(Level.FINE, "TCP finished Sending data to {0}", handler.getRemoteBaseURI());
 		} catch (MALTransmitErrorException e) {
 			// this stops any true MAL exceptions getting caught by the
 			// generic catch all below
@@ -448,7 +637,185 @@ public class TCPTransport implements MALTransport {
 	}
 
 	/**
-	 * Registers a connection handler for a given root URI.
+	 * Sends a list of messages. The messages are grouped by connection, then
+	 * the messages of each connection are sent as a single batch, in order.
+	 * 
+	 * @param msgList	the messages to send.
+	 * @throws MALTransmitMultipleErrorException	if some messages cannot be sent.
+	 */
+	public void sendMessages(TCPMessage[] msgList) throws MALTransmitMultipleErrorException {
+		final List<MALTransmitErrorException> errors = new ArrayList<MALTransmitErrorException>();
+		
+		// Groups the messages by connection, keeping their order.
+		final Map<TCPConnectionHandler, List<TCPMessage>> batches = new LinkedHashMap<TCPConnectionHandler, List<TCPMessage>>();
+		for (TCPMessage msg : msgList) {
+			try {
+				TCPConnectionHandler handler = getConnectionHandler(msg);
+				List<TCPMessage> batch = batches.get(handler);
+				if (batch == null) {
+					batch = new ArrayList<TCPMessage>();
+					batches.put(handler, batch);
+				}
+				batch.add(msg);
+			} catch (MALTransmitErrorException e) {
+				errors.add(e);
+			} catch (Exception t) {
+				RLOGGER.log(Level.SEVERE, "TCP could not send message!", t);
+				errors.add(new MALTransmitErrorException(msg.getHeader(), new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null), null));
+			}
+		}
+
+		for (Map.Entry<TCPConnectionHandler, List<TCPMessage>> entry : batches.entrySet()) {
+			TCPConnectionHandler handler = entry.getKey();
+			List<TCPMessage> batch = entry.getValue();
+			List<byte[]> packets = new ArrayList<byte[]>(batch.size());
+			List<TCPMessage> encoded = new ArrayList<TCPMessage>(batch.size());
+			for (TCPMessage msg : batch) {
+				try {
+					byte[] packet = encodeMessage(handler, msg);
+					if (packet != null) {
+						packets.add(packet);
+						encoded.add(msg);
+					} else {
+						// Sends the previous messages first to keep the order.
+						sendBatch(handler, packets, encoded, errors);
+						streamEncodedMessage(handler, msg);
+					}
+				} catch (MALTransmitErrorException e) {
+					errors.add(e);
+				} catch (Exception t) {
+					RLOGGER.log(Level.SEVERE, "TCP could not encode message!", t);
+					errors.add(new MALTransmitErrorException(msg.getHeader(), new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null), null));
+				}
+			}
+			sendBatch(handler, packets, encoded, errors);
+		}
+
+		if (! errors.isEmpty()) {
+			throw new MALTransmitMultipleErrorException(errors.toArray(new MALTransmitErrorException[errors.size()]));
+		}
+	}
+
+	/**
+	 * Sends a batch of encoded messages on a connection, the lists are then
+	 * cleared.
+	 * 
+	 * @param handler	the connection.
+	 * @param packets	the encoded messages.
+	 * @param encoded	the messages.
+	 * @param errors	the list receiving the errors.
+	 */
+	private void sendBatch(TCPConnectionHandler handler, List<byte[]> packets, List<TCPMessage> encoded,
+			List<MALTransmitErrorException> errors) {
+		if (packets.isEmpty()) return;
+
+		RLOGGER.log(Level.FINE, "TCP send {0} messages using: {1}", new Object[] { packets.size(), handler });
+		try {
+			handler.sendEncodedMessages(packets);
+		} catch (IOException t) {
+			RLOGGER.log(Level.SEVERE, "TCP could not send messages!", t);
+			for (TCPMessage msg : encoded)
+				errors.add(new MALTransmitErrorException(msg.getHeader(), new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null), null));
+		}
+		packets.clear();
+		encoded.clear();
+	}
+
+	/**
+	 * Returns the connection to the destination of the message, the connection
+	 * is created if needed.
+	 * 
+	 * @param msg	the message to send.
+	 * @return the connection handler.
+	 * @throws MALTransmitErrorException	if the destination cannot be reached.
+	 */
+	protected TCPConnectionHandler getConnectionHandler(TCPMessage msg) throws Exception {
+		// get the root URI, (e.g. tcpip://10.0.0.1:61616 )
+		String destinationURI = msg.getHeader().getURITo().getValue();
+		String remoteRootURI = getRootURI(destinationURI);
+
+		RLOGGER.log(Level.FINE,
+				"TCP sending msg. Target root URI: {0} full URI:{1} ## {2} ##",
+				new Object[] { remoteRootURI, destinationURI, msg.getHeader().getTransactionId() });
+
+		// Get outgoing channel
+		int lane = selectLane(msg);
+		TCPConnectionHandler handler = null;
+		TCPConnectionGroup group = outgoingDataChannels.get(remoteRootURI);
+		if (null != group) {
+			handler = group.get(lane);
+		}
+		if (null == handler) {
+			// we do not have any channel for this URI and lane
+			// try to create a connection to this URI
+			RLOGGER.log(Level.FINE, "TCP received request to create connections to URI: {0}", remoteRootURI);
+
+			try {
+				// create new sender for this URI
+				handler = registerConnectionHandler(createConnectionHandler(msg, remoteRootURI), remoteRootURI, lane);
+			} catch (MALException e) {
+				RLOGGER.log(Level.SEVERE, "TCP could not connect to :" + remoteRootURI, e);
+				throw new MALTransmitErrorException(msg.getHeader(),
+						new MALStandardError(
+								MALHelper.DESTINATION_UNKNOWN_ERROR_NUMBER,
+								null), null);
+			}
+		}
+		return handler;
+	}
+
+	/**
+	 * Selects the lane used to send a message, i.e. the connection of the
+	 * group associated to the destination.
+	 * 
+	 * @param msg	the message to send.
+	 * @return the lane, between 0 and the number of connections - 1.
+	 */
+	protected int selectLane(TCPMessage msg) {
+		if (connections == 1) return 0;
+		
+		if (laneByPriority) {
+			UInteger priority = msg.getHeader().getPriority();
+			if (priority == null) return 0;
+			return (int) Math.min(priority.getValue(), connections - 1);
+		}
+		Long transactionId = msg.getHeader().getTransactionId();
+		if (transactionId == null) return 0;
+		long id = transactionId.longValue();
+		return (int) ((id ^ (id >>> 32)) & 0x7FFFFFFF) % connections;
+	}
+
+	/**
+	 * Registers a connection handler opened by this transport for a given
+	 * root URI and lane.
+	 *
+	 * @param handler		The data sender that is able to send messages to the URI
+	 * @param remoteRootURI	The remote root URI
+	 * @param lane			The lane of the connection
+	 * 
+	 * @return returns the connection handler for this URI and lane.
+	 */
+	protected synchronized TCPConnectionHandler registerConnectionHandler(
+			TCPConnectionHandler handler, String remoteRootURI, int lane) {
+		RLOGGER.log(Level.INFO, "TCP register connection to URI: {0} lane: {1}", new Object[] { remoteRootURI, lane });
+		
+		TCPConnectionGroup group = outgoingDataChannels.get(remoteRootURI);
+		if (group == null) {
+			group = new TCPConnectionGroup(remoteRootURI, connections, true);
+			outgoingDataChannels.put(remoteRootURI, group);
+		}
+		TCPConnectionHandler h = group.register(lane, handler);
+		if (h != handler) {
+			// There is already a TCP channel for this URI and lane
+			RLOGGER.log(Level.WARNING, "TCP connection handler already registerd for URI:" + remoteRootURI, new Exception());
+			handler.close();
+		}
+
+		return h;
+	}
+
+	/**
+	 * Registers a connection handler accepted by this transport for a given root URI.
 	 *
 	 * @param handler		The data sender that is able to send messages to the URI
 	 * @param remoteRootURI	The remote root URI
@@ -460,20 +827,36 @@ public class TCPTransport implements MALTransport {
 		RLOGGER.log(Level.INFO, "TCP register connection to URI: {0}", remoteRootURI);
 		
 		// Check if there is already a TCP channel for this URI
-		TCPConnectionHandler h = outgoingDataChannels.get(remoteRootURI);
-		if (h != null) {
-			// There is already a TCP channel for this URI
-			RLOGGER.log(Level.WARNING, "TCP connection handler already registerd for URI:" + remoteRootURI, new Exception());
-		} else {
+		TCPConnectionGroup group = outgoingDataChannels.get(remoteRootURI);
+		if (group == null) {
 			// There is no TCP channel for this URI, register it
 			RLOGGER.fine("TCP registering connection handler for URI:" + remoteRootURI);
-			outgoingDataChannels.put(remoteRootURI, handler);
-			h = handler;
+			group = new TCPConnectionGroup(remoteRootURI, connections, false);
+			outgoingDataChannels.put(remoteRootURI, group);
+		}
+		TCPConnectionHandler h = group.add(handler);
+		if (h != handler) {
+			// All the lanes for this URI are already connected
+			RLOGGER.log(Level.WARNING, "TCP connection handler already registerd for URI:" + remoteRootURI, new Exception());
 		}
 
 		return h;
 	}
 
+	/**
+	 * Encodes a message into a complete MALTCP frame.
+	 * 
+	 * The frame is built in memory as its header holds the length of the
+	 * message, so a URL based blob streamed by the encoder is fully loaded in
+	 * the returned array. Larger messages may be streamed to the connection,
+	 * see STREAM_THRESHOLD_PROPERTY. A received frame is always buffered before
+	 * being decoded, its size may be limited with the MAX_MESSAGE_SIZE_PROPERTY
+	 * QoS property.
+	 * 
+	 * @param msg	the message to encode.
+	 * @return the encoded frame.
+	 * @throws Exception	if the message cannot be encoded.
+	 */
 	protected byte[] internalEncodeMessage(final TCPMessage msg) throws Exception {
 		// encode the message
 		try {
@@ -488,6 +871,104 @@ public class TCPTransport implements MALTransport {
 		}
 	}
 
+	/**
+	 * Byte array output stream refusing to grow beyond a maximum size, the
+	 * encoding is then aborted by an IllegalStateException.
+	 */
+	private static final class BoundedByteArrayOutputStream extends ByteArrayOutputStream {
+		private final int maxSize;
+		boolean overflow = false;
+
+		BoundedByteArrayOutputStream(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		private void check(int len) {
+			if (count + len > maxSize) {
+				overflow = true;
+				throw new IllegalStateException("MALTCP frame larger than " + maxSize + " bytes");
+			}
+		}
+
+		@Override
+		public void write(int b) {
+			check(1);
+			super.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			check(len);
+			super.write(b, off, len);
+		}
+	}
+
+	/**
+	 * Encodes a message to send on a connection.
+	 * 
+	 * @param handler	the connection.
+	 * @param msg		the message to encode.
+	 * @return the encoded frame, null if the message must be streamed to the
+	 * 	connection with streamEncodedMessage.
+	 * @throws Exception	if the message cannot be encoded.
+	 */
+	protected byte[] encodeMessage(final TCPConnectionHandler handler, final TCPMessage msg) throws Exception {
+		if ((streamThreshold == 0) || ! handler.isStreamable())
+			return internalEncodeMessage(msg);
+
+		final BoundedByteArrayOutputStream baos = new BoundedByteArrayOutputStream(streamThreshold);
+		try {
+			final MALElementOutputStream enc = getStreamFactory().createOutputStream(baos);
+			msg.encodeMessage(getStreamFactory(), enc, baos);
+			if (baos.overflow) return null;
+			return baos.toByteArray();
+		} catch (MALException ex) {
+			if (baos.overflow) return null;
+			RLOGGER.log(Level.SEVERE, "TCP could not encode message!", ex);
+			throw new MALTransmitErrorException(msg.getHeader(), new MALStandardError(MALHelper.BAD_ENCODING_ERROR_NUMBER, null), null);
+		}
+	}
+
+	/**
+	 * Encodes a message directly to a connection, the MALTCP frame is not
+	 * built in memory. A first encoding pass computes the length of the frame,
+	 * a second one writes it to the connection.
+	 * 
+	 * @param handler	the connection.
+	 * @param msg		the message to send.
+	 * @throws Exception	if the message cannot be encoded or sent.
+	 */
+	protected void streamEncodedMessage(final TCPConnectionHandler handler, final TCPMessage msg) throws Exception {
+		final long length;
+		try {
+			final TCPFrameOutputStream counter = new TCPFrameOutputStream();
+			msg.encodeMessage(getStreamFactory(), getStreamFactory().createOutputStream(counter), counter);
+			length = counter.getCount();
+			if (length - TCPConnectionHandler.HEADER_FIXED_SIZE > Integer.MAX_VALUE)
+				throw new MALException("MALTCP message too large: " + length + " bytes");
+		} catch (MALException ex) {
+			RLOGGER.log(Level.SEVERE, "TCP could not encode message!", ex);
+			throw new MALTransmitErrorException(msg.getHeader(), new MALStandardError(MALHelper.BAD_ENCODING_ERROR_NUMBER, null), null);
+		}
+
+		RLOGGER.log(Level.FINE, "TCP streams a message of {0} bytes using: {1}", new Object[] { length, handler });
+		synchronized (handler.dos) {
+			final TCPFrameOutputStream out = new TCPFrameOutputStream(handler.dos,
+					(int) (length - TCPConnectionHandler.HEADER_FIXED_SIZE));
+			try {
+				msg.encodeMessage(getStreamFactory(), getStreamFactory().createOutputStream(out), out);
+				if (out.getCount() != length)
+					throw new IOException("MALTCP message changed while being streamed: " + out.getCount() + " bytes instead of " + length);
+			} catch (Exception exc) {
+				// The frame is partially written, the connection cannot be used anymore.
+				handler.close();
+				throw exc;
+			}
+			handler.dos.flush();
+		}
+		if (handler.stats != null) handler.stats.flushed(1, length);
+	}
+
 	/**
 	 * Returns the stream factory.
 	 *
@@ -497,7 +978,48 @@ public class TCPTransport implements MALTransport {
 		return streamFactory;
 	}
 
-	public void closeConnection(final String uriTo, final TCPMessagePoller poller) {
+	/**
+	 * Returns the pool of receive buffers.
+	 *
+	 * @return the pool of receive buffers, null if the buffers are not pooled.
+	 */
+	public TCPBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * @return the maximum size in bytes of a gathering write of the NIO engine.
+	 */
+	public int getBatchMaxBytes() {
+		return batchMaxBytes;
+	}
+
+	/**
+	 * @return the maximum size in bytes of a received message.
+	 */
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * @return the linger delay in microseconds of the outgoing messages of the NIO engine.
+	 */
+	public long getBatchLingerMicros() {
+		return batchLingerMicros;
+	}
+
+	/**
+	 * Returns the counters of the outgoing writes of this transport, they allow
+	 * to tune the write coalescing (average and maximum number of messages by
+	 * write).
+	 *
+	 * @return the counters of the outgoing writes.
+	 */
+	public TCPWriteStatistics getWriteStatistics() {
+		return writeStatistics;
+	}
+
+	public void closeConnection(final String uriTo, final TCPReceptionHandler poller) {
 		String localUriTo = uriTo;
 		// remove all associations with this target URI
 		if ((null == localUriTo) && (null != poller)) {
@@ -505,10 +1027,19 @@ public class TCPTransport implements MALTransport {
 		}
 
 		if (localUriTo != null) {
-			TCPConnectionHandler commsChannel = outgoingDataChannels.get(localUriTo);
-			if (commsChannel != null) {
-				commsChannel.close();
-				outgoingDataChannels.remove(localUriTo);
+			TCPConnectionGroup commsChannels = outgoingDataChannels.get(localUriTo);
+			if (commsChannels != null) {
+				if (null != poller) {
+					// only removes the broken connection from the group
+					synchronized (this) {
+						if (commsChannels.remove(poller.getConnectionHandler())
+								&& (outgoingDataChannels.get(localUriTo) == commsChannels))
+							outgoingDataChannels.remove(localUriTo);
+					}
+				} else {
+					commsChannels.close();
+					outgoingDataChannels.remove(localUriTo);
+				}
 			} else {
 				RLOGGER.log(Level.WARNING,
 						"Could not locate associated data to close communications for URI : {0} ", localUriTo);
@@ -529,7 +1060,7 @@ public class TCPTransport implements MALTransport {
 	 *            the connection handler that received this message
 	 * @param receptionHandler
 	 */
-	public void communicationError(String uriTo, TCPMessagePoller poller) {
+	public void communicationError(String uriTo, TCPReceptionHandler poller) {
 		RLOGGER.log(Level.SEVERE, "TCP Communication Error with {0} ", uriTo);
 		closeConnection(uriTo, poller);
 	}
@@ -680,13 +1211,20 @@ public class TCPTransport implements MALTransport {
 	}
 
 	public TCPMessage createMessage(byte[] packet, String remoteBaseURI) throws MALException {
-	    return new TCPMessage(true, new TCPMessageHeader(getProtocol(), getLocalBaseURI(), remoteBaseURI), qosProperties, packet, getStreamFactory());
+	    return new TCPMessage(true, new TCPMessageHeader(getProtocol(), getLocalBaseURI(), remoteBaseURI), qosProperties, packet, getStreamFactory(), bufferPool);
 	}
 	
-	public void receiveMessage(TCPMessagePoller poller, byte[] rawMsg) {
+	public void receiveMessage(TCPReceptionHandler poller, byte[] rawMsg) {
 		try {
 			TCPTransport.RLOGGER.log(Level.FINE, "TCP Receiving message");
-			TCPMessage malMsg = createMessage(rawMsg, poller.getRemoteBaseURI());
+			TCPMessage malMsg;
+			try {
+				malMsg = createMessage(rawMsg, poller.getRemoteBaseURI());
+			} catch (MALException | RuntimeException exc) {
+				// The buffer has not been handed over to a message.
+				if (bufferPool != null) bufferPool.release(rawMsg);
+				throw exc;
+			}
 			TCPTransport.RLOGGER.log(Level.FINE,
 					"TCP Receiving message : {0}", new Object[] { malMsg.getHeader().getTransactionId() });
 
@@ -728,7 +1266,17 @@ public class TCPTransport implements MALTransport {
 	}
 	
 	public TCPConnectionHandler createConnectionHandler(Socket socket) throws IOException {
-		return new TCPConnectionHandler(socket, remoteBaseURI(socket));
+		TCPConnectionHandler handler = new TCPConnectionHandler(socket, remoteBaseURI(socket), bufferPool);
+		handler.setWriteStatistics(writeStatistics);
+		handler.setMaxMessageSize(maxMessageSize);
+		return handler;
+	}
+
+	public TCPChannelHandler createChannelHandler(SocketChannel channel, TCPSelectorThread selector) throws IOException {
+		TCPChannelHandler handler = new TCPChannelHandler(this, channel, selector, remoteBaseURI(channel.socket()));
+		handler.setWriteStatistics(writeStatistics);
+		handler.setMaxMessageSize(maxMessageSize);
+		return handler;
 	}
 
 	protected TCPConnectionHandler createConnectionHandler(
@@ -750,13 +1298,21 @@ public class TCPTransport implements MALTransport {
 			String host = targetAddress.split(":")[0];
 			int port = Integer.parseInt(targetAddress.split(":")[1]);
 
-			// Creates a connection handler for the socket
-			TCPConnectionHandler handler = createConnectionHandler(new Socket(host, port));
-			// Creates also a thread for this connection in order to read messages from it.
-			TCPMessagePoller poller = new TCPMessagePoller(this, handler);
-			poller.setRemoteURI(remoteRootURI);
-			pollerThreads.add(poller);
-			poller.start();
+			TCPConnectionHandler handler;
+			if (selectorEngine != null) {
+				// Creates a connection handled by the NIO engine
+				TCPChannelHandler channel = selectorEngine.connect(host, port);
+				channel.setRemoteURI(remoteRootURI);
+				handler = channel;
+			} else {
+				// Creates a connection handler for the socket
+				handler = createConnectionHandler(new Socket(host, port));
+				// Creates also a thread for this connection in order to read messages from it.
+				TCPMessagePoller poller = new TCPMessagePoller(this, handler);
+				poller.setRemoteURI(remoteRootURI);
+				pollerThreads.add(poller);
+				poller.start();
+			}
 			
 			RLOGGER.log(Level.FINE, "TCP connection created: {0}", handler);
 
@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * MIT License
+ * 
+ * Copyright (c) 2017 - 2018 CNES
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the outgoing writes of a MALTCP transport. A flush is a single
+ * write operation on a connection, it may contain several messages when the
+ * outgoing messages are coalesced.
+ */
+public class TCPWriteStatistics {
+	private final AtomicLong flushCount = new AtomicLong();
+	private final AtomicLong messageCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong maxBatchSize = new AtomicLong();
+
+	/**
+	 * Records a write operation.
+	 * 
+	 * @param messages	the number of messages completely written.
+	 * @param bytes		the number of bytes written.
+	 */
+	void flushed(int messages, long bytes) {
+		flushCount.incrementAndGet();
+		messageCount.addAndGet(messages);
+		byteCount.addAndGet(bytes);
+		long max = maxBatchSize.get();
+		while ((messages > max) && ! maxBatchSize.compareAndSet(max, messages))
+			max = maxBatchSize.get();
+	}
+
+	/**
+	 * @return the number of write operations.
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * @return the number of messages written.
+	 */
+	public long getMessageCount() {
+		return messageCount.get();
+	}
+
+	/**
+	 * @return the number of bytes written.
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * @return the largest number of messages written by a single operation.
+	 */
+	public long getMaxBatchSize() {
+		return maxBatchSize.get();
+	}
+
+	/**
+	 * @return the average number of messages written by a single operation.
+	 */
+	public double getAverageBatchSize() {
+		long flushes = flushCount.get();
+		if (flushes == 0) return 0;
+		return (double) messageCount.get() / flushes;
+	}
+
+	/**
+	 * Resets all the counters.
+	 */
+	public void reset() {
+		flushCount.set(0);
+		messageCount.set(0);
+		byteCount.set(0);
+		maxBatchSize.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "TCPWriteStatistics [flushCount=" + getFlushCount()
+				+ ", messageCount=" + getMessageCount()
+				+ ", byteCount=" + getByteCount()
+				+ ", maxBatchSize=" + getMaxBatchSize() + "]";
+	}
+}
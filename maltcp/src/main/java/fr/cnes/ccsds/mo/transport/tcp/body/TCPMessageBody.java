@@ -25,12 +25,15 @@ package fr.cnes.ccsds.mo.transport.tcp.body;
 
 import fr.cnes.ccsds.mo.transport.tcp.TCPTransport;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.net.URL;
 import java.util.Arrays;
 import java.util.logging.Level;
 
@@ -85,7 +88,22 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 	 * The decoded body parts.
 	 */
 	protected Object[] messageParts;
-	private final boolean wrappedBodyParts;
+	/**
+	 * True if the encoded body parts are wrapped in BLOBs.
+	 */
+	protected final boolean wrappedBodyParts;
+	/**
+	 * The buffer holding the encoded body of a received message, null if the
+	 * body has not been received or if the buffer has been released.
+	 */
+	private transient byte[] encodedBody = null;
+	private transient int encodedOffset;
+	private transient int encodedLength;
+	/**
+	 * End offsets of the body parts in the encoded body, an empty array if the
+	 * parts cannot be delimited, null if not yet computed.
+	 */
+	private transient int[] encodedPartEnds = null;
 	private static final long serialVersionUID = 0L;
 
 	/**
@@ -143,33 +161,129 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 		return bodyPartCount;
 	}
 
+	/**
+	 * Sets the encoded form of a received body, it is returned as is by
+	 * getEncodedBody until the encoded body is released.
+	 * 
+	 * @param buf		The buffer holding the encoded body.
+	 * @param offset	The offset of the body in the buffer.
+	 * @param length	The length of the encoded body.
+	 */
+	public synchronized void setEncodedBody(byte[] buf, int offset, int length) {
+		this.encodedBody = buf;
+		this.encodedOffset = offset;
+		this.encodedLength = length;
+	}
+
+	/**
+	 * Returns the encoded body. The body of a received message is returned
+	 * without copy, the returned Blob shares the reception buffer and it is
+	 * only valid until the message is freed. Otherwise the body is encoded
+	 * with the stream factory of the message.
+	 */
 	@Override
-	public MALEncodedBody getEncodedBody() throws MALException {
-		// TODO (AF):
-//		if (!decodedBody && (encBodyElements instanceof GENElementInputStream)) {
-//			return new MALEncodedBody(new Blob(((GENElementInputStream) encBodyElements).getRemainingEncodedData()));
-//		} else {
-//			throw new UnsupportedOperationException("Not supported yet.");
-//		}
-	    throw new MALException("Not yet implemented");
+	public synchronized MALEncodedBody getEncodedBody() throws MALException {
+		if ((null != messageParts) && (1 == messageParts.length) && (messageParts[0] instanceof MALEncodedBody)) {
+			return (MALEncodedBody) messageParts[0];
+		}
+		if (null != encodedBody) {
+			return new MALEncodedBody(new Blob(encodedBody, encodedOffset, encodedLength));
+		}
+		if (null == encFactory) {
+			throw new MALException("No stream factory to encode the message body");
+		}
+
+		decodeMessageBody();
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		encodeMessageBody(encFactory, encFactory.createOutputStream(baos), baos, ctx.getHeader().getInteractionStage(), ctx);
+		return new MALEncodedBody(new Blob(baos.toByteArray()));
 	}
 
 	@Override
 	public Object getBodyElement(final int index, final Object element) throws IllegalArgumentException, MALException {
+		if ((null != messageParts) && (1 == messageParts.length) && (messageParts[0] instanceof MALEncodedBody)) {
+			// A body created with a MALEncodedBody is only sent as is
+			throw new MALException("Encoded body without decoding context");
+		}
 		decodeMessageBody();
 
 		return messageParts[index];
 	}
 
+	/**
+	 * Returns an element of the body in its encoded form, -1 returns the
+	 * complete body. The element of a received body is returned as a part of
+	 * the encoded body, without copy and only valid until the message is freed
+	 * (see getEncodedBody). Otherwise the element is encoded again.
+	 */
 	@Override
-	public MALEncodedElement getEncodedBodyElement(final int index) throws MALException {
-		// TODO (AF): ?
+	public synchronized MALEncodedElement getEncodedBodyElement(final int index) throws MALException {
 		if (-1 == index) {
 			// want the complete message body
-			return new MALEncodedElement((Blob) encBodyElements.readElement(new Blob(), null));
-		} else {
+			return new MALEncodedElement(getEncodedBody().getEncodedBody());
+		}
+
+		final Object o = getBodyElement(index, null);
+		if (o instanceof MALEncodedElement) {
+			return (MALEncodedElement) o;
+		}
+		final int[] ends = getEncodedPartEnds();
+		if ((null != ends) && (index < ends.length)) {
+			final int start = (0 == index) ? encodedOffset : ends[index - 1];
+			return new MALEncodedElement(new Blob(encodedBody, start, ends[index] - start));
+		}
+		if (null == encFactory) {
+			throw new MALException("No stream factory to encode the body element");
+		}
+
+		Object sf = null;
+		ctx.setBodyElementIndex(index);
+		if (!ctx.getHeader().getIsErrorMessage()) {
+			sf = ctx.getOperation().getOperationStage(ctx.getHeader().getInteractionStage()).getElementShortForms()[index];
+		}
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final MALElementOutputStream enc = encFactory.createOutputStream(baos);
+		encodeBodyPart(encFactory, enc, false, sf, o, ctx);
+		enc.flush();
+		enc.close();
+		return new MALEncodedElement(new Blob(baos.toByteArray()));
+	}
+
+	/**
+	 * Delimits the body parts in the encoded body of a received message: the
+	 * encoded body is scanned once with a decoder reading from a stream that
+	 * gives its position. The parts can only be delimited if the decoder
+	 * reads exactly the bytes of each part, as the binary decoder does.
+	 *
+	 * @return The end offsets of the parts, null if they cannot be delimited.
+	 */
+	private int[] getEncodedPartEnds() throws MALException {
+		if ((null == encodedBody) || wrappedBodyParts || (null == encFactory)) {
 			return null;
 		}
+		if (null == encodedPartEnds) {
+			final PositionInputStream is = new PositionInputStream(encodedBody, encodedOffset, encodedLength);
+			final MALElementInputStream dec = encFactory.createInputStream(is);
+			int[] ends = new int[bodyPartCount];
+			// An encoding reading a part of the body before the first part, e.g.
+			// the split binary bit field, shares it between the parts.
+			if (is.getPosition() == encodedOffset) {
+				for (int i = 0; i < bodyPartCount; i++) {
+					Object sf = null;
+					ctx.setBodyElementIndex(i);
+					if (!ctx.getHeader().getIsErrorMessage()) {
+						sf = ctx.getOperation().getOperationStage(ctx.getHeader().getInteractionStage()).getElementShortForms()[i];
+					}
+					decodeBodyPart(dec, ctx, sf);
+					ends[i] = is.getPosition();
+				}
+			}
+			if ((0 == bodyPartCount) || (ends[bodyPartCount - 1] != encodedOffset + encodedLength)) {
+				ends = new int[0];
+			}
+			encodedPartEnds = ends;
+		}
+		return (0 == encodedPartEnds.length) ? null : encodedPartEnds;
 	}
 
 	/**
@@ -193,7 +307,7 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 			enc.flush();
 
 			try {
-				lowLevelOutputStream.write(((MALEncodedBody) messageParts[0]).getEncodedBody().getValue());
+				writeEncodedBody(lowLevelOutputStream, ((MALEncodedBody) messageParts[0]).getEncodedBody());
 				lowLevelOutputStream.flush();
 			} catch (IOException ex) {
 				throw new MALException("MAL encoded body encoding error", ex);
@@ -202,7 +316,7 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 			enc.flush();
 
 			try {
-				lowLevelOutputStream.write(getEncodedBody().getEncodedBody().getValue());
+				writeEncodedBody(lowLevelOutputStream, getEncodedBody().getEncodedBody());
 				lowLevelOutputStream.flush();
 			} catch (IOException ex) {
 				throw new MALException("MAL encoded body encoding error", ex);
@@ -254,6 +368,17 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 		enc.close();
 	}
 
+	/**
+	 * Writes an already encoded body verbatim.
+	 */
+	private static void writeEncodedBody(final OutputStream os, final Blob body) throws MALException, IOException {
+		if (body.isURLBased()) {
+			os.write(body.getValue());
+		} else {
+			os.write(body.getValue(), body.getOffset(), body.getLength());
+		}
+	}
+
 	protected void encodeBodyPart(final MALElementStreamFactory streamFactory,
 			final MALElementOutputStream enc,
 			final boolean wrapBodyParts,
@@ -336,10 +461,21 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 		}
 	}
 
+	/**
+	 * Decodes the body if not already done then releases the encoded body parts,
+	 * so that the buffer holding them can be reused.
+	 */
+	public synchronized void releaseEncodedBody() {
+		decodeMessageBody();
+		encBodyElements = null;
+		encodedBody = null;
+		encodedPartEnds = null;
+	}
+
 	/**
 	 * Decodes the message body.
 	 */
-	protected void decodeMessageBody() {
+	protected synchronized void decodeMessageBody() {
 		if (!decodedBody) {
 			decodedBody = true;
 
@@ -397,13 +533,11 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 					messageParts[0] = decodeBodyPart(encBodyElements, ctx, sf);
 				} else if (bodyPartCount > 1) {
 					MALElementInputStream benc = encBodyElements;
+					Blob body = null;
 					if (wrappedBodyParts) {
 						TCPTransport.RLOGGER.fine("TCP Message decoding body wrapper");
-						final Blob body = (Blob) encBodyElements.readElement(
-								new Blob(), null);
-						final ByteArrayInputStream bais = new ByteArrayInputStream(
-								body.getValue());
-						benc = encFactory.createInputStream(bais);
+						body = (Blob) encBodyElements.readElement(new Blob(), null);
+						benc = encFactory.createInputStream(openWrapper(body));
 					}
 
 					for (int i = 0; i < bodyPartCount; i++) {
@@ -422,6 +556,7 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 
 						messageParts[i] = decodeBodyPart(benc, ctx, sf);
 					}
+					if (body != null) closeWrapper(benc, body);
 				}
 
 				TCPTransport.RLOGGER.fine("TCP Message decoded body");
@@ -449,11 +584,10 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 		Object rv = null;
 
 		MALElementInputStream lenc = decoder;
+		Blob ele = null;
 		if (wrappedBodyParts) {
-			final Blob ele = (Blob) decoder.readElement(new Blob(), null);
-			final ByteArrayInputStream lbais = new ByteArrayInputStream(
-					ele.getValue());
-			lenc = encFactory.createInputStream(lbais);
+			ele = (Blob) decoder.readElement(new Blob(), null);
+			lenc = encFactory.createInputStream(openWrapper(ele));
 		}
 
 		// work out whether it is a MAL element or JAXB element we have received
@@ -498,7 +632,47 @@ public class TCPMessageBody implements MALMessageBody, java.io.Serializable {
 				}
 			}
 		}
+		if (ele != null) closeWrapper(lenc, ele);
 
 		return rv;
 	}
+
+	/**
+	 * Opens a stream on a wrapped body part. A large part may have been stored
+	 * in a temporary file by the decoder (see the blob spool threshold of the
+	 * binary encoding), it is then decoded from the file.
+	 */
+	private static InputStream openWrapper(Blob wrapper) throws MALException {
+		if (wrapper.isURLBased()) {
+			try {
+				return new BufferedInputStream(new URL(wrapper.getURL()).openStream(), 64 * 1024);
+			} catch (IOException ex) {
+				throw new MALException("Cannot read wrapped body part: " + wrapper.getURL(), ex);
+			}
+		}
+		return new ByteArrayInputStream(wrapper.getValue(), wrapper.getOffset(), wrapper.getLength());
+	}
+
+	/**
+	 * Closes the stream of a wrapped body part and deletes its temporary file
+	 * if any.
+	 */
+	private static void closeWrapper(MALElementInputStream lenc, Blob wrapper) throws MALException {
+		lenc.close();
+		wrapper.delete();
+	}
+
+	/**
+	 * Input stream giving its position in the encoded body.
+	 */
+	private static class PositionInputStream extends ByteArrayInputStream {
+
+		PositionInputStream(final byte[] buf, final int offset, final int length) {
+			super(buf, offset, length);
+		}
+
+		int getPosition() {
+			return pos;
+		}
+	}
 }
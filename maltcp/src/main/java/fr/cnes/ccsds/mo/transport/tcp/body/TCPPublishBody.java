@@ -30,15 +30,24 @@ import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
 import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 
 /**
  * Implementation of the MALPublishBody interface.
+ * 
+ * The updates are kept encoded if encoded element lists are passed to
+ * getUpdateLists or getUpdateList before the body is decoded, this allows a
+ * broker to copy them as is in the NOTIFY messages.
  */
 public class TCPPublishBody extends TCPMessageBody implements MALPublishBody {
 	private static final long serialVersionUID = 0L;
 	private final int offset;
 	private UpdateHeaderList hdrList = null;
+	/**
+	 * True if the update lists are decoded as MALEncodedElementList.
+	 */
+	private boolean encodedUpdates = false;
 
 	/**
 	 * Constructor.
@@ -105,6 +114,7 @@ public class TCPPublishBody extends TCPMessageBody implements MALPublishBody {
 	}
 
 	public List[] getUpdateLists(final List... updateLists) throws MALException {
+		keepEncodedUpdates(updateLists);
 		decodeMessageBody();
 
 		final List[] rv = new List[messageParts.length - offset - 1];
@@ -116,6 +126,7 @@ public class TCPPublishBody extends TCPMessageBody implements MALPublishBody {
 	}
 
 	public List getUpdateList(final int listIndex, final List updateList) throws MALException {
+		keepEncodedUpdates(updateList);
 		return (List) getBodyElement(offset + listIndex + 1, updateList);
 	}
 
@@ -133,7 +144,41 @@ public class TCPPublishBody extends TCPMessageBody implements MALPublishBody {
 	}
 
 	public MALEncodedElement getEncodedUpdate(final int listIndex, final int updateIndex) throws MALException {
-		// TODO:
-		throw new MALException("Not supported yet.");
+		decodeMessageBody();
+
+		final Object updateList = messageParts[offset + 1 + listIndex];
+		if (!(updateList instanceof MALEncodedElementList))
+			throw new MALException("Updates have been decoded");
+		return ((MALEncodedElementList) updateList).get(updateIndex);
+	}
+
+	/**
+	 * Requests the updates to be kept encoded if one of the specified lists
+	 * is an encoded element list and the body is not yet decoded.
+	 * 
+	 * @param updateLists	The lists passed by the caller.
+	 */
+	private synchronized void keepEncodedUpdates(final List... updateLists) {
+		if (decodedBody || (null == updateLists))
+			return;
+		for (int i = 0; i < updateLists.length; i++) {
+			if (updateLists[i] instanceof MALEncodedElementList) {
+				encodedUpdates = true;
+				return;
+			}
+		}
+	}
+
+	@Override
+	protected Object decodeBodyPart(
+			final MALElementInputStream decoder,
+			final MALEncodingContext ctx,
+			final Object sf) throws MALException {
+		if (encodedUpdates && !wrappedBodyParts && !(sf instanceof String) && (ctx.getBodyElementIndex() > offset)) {
+			// The encoding returns the updates as a MALEncodedElementList if it
+			// supports it, otherwise they are decoded.
+			return decoder.readElement(new MALEncodedElementList(sf, 0), ctx);
+		}
+		return super.decodeBodyPart(decoder, ctx, sf);
 	}
 }
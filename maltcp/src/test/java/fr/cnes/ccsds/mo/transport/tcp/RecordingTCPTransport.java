@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+
+/**
+ * MALTCP transport listening on the loopback interface and recording the
+ * frames it receives instead of decoding them. The frames may also be
+ * rejected as if they could not be decoded.
+ */
+class RecordingTCPTransport extends TCPTransport {
+	static {
+		System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + ".maltcp",
+				BinaryElementStreamFactory.class.getName());
+	}
+
+	/**
+	 * Frames received, guarded by this.
+	 */
+	private final List<byte[]> frames = new ArrayList<byte[]>();
+	/**
+	 * Buffers passed to createMessage, guarded by this.
+	 */
+	private final List<byte[]> decoded = new ArrayList<byte[]>();
+	/**
+	 * Connections created by the NIO engine, guarded by this.
+	 */
+	private final List<TCPChannelHandler> channels = new ArrayList<TCPChannelHandler>();
+	private int errors = 0;
+	private int closes = 0;
+
+	/**
+	 * True if the received frames are decoded, in this case createMessage
+	 * fails.
+	 */
+	volatile boolean decode = false;
+
+	/**
+	 * Returns the properties of a server transport.
+	 *
+	 * @param engine	the value of the ENGINE_PROPERTY, null for the default engine.
+	 */
+	static Map<String, String> properties(String engine) throws IOException {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("org.ccsds.moims.mo.mal.transport.maltcp.host", "127.0.0.1");
+		properties.put("org.ccsds.moims.mo.mal.transport.maltcp.port", Integer.toString(freePort()));
+		if (engine != null) {
+			properties.put(ENGINE_PROPERTY, engine);
+			properties.put(NIO_THREADS_PROPERTY, "1");
+		}
+		return properties;
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	RecordingTCPTransport(Map<String, String> properties) throws MALException {
+		super(properties);
+	}
+
+	int getPort() {
+		return Integer.parseInt((String) qosProperties.get("org.ccsds.moims.mo.mal.transport.maltcp.port"));
+	}
+
+	@Override
+	public void receiveMessage(TCPReceptionHandler poller, byte[] rawMsg) {
+		if (decode) {
+			super.receiveMessage(poller, rawMsg);
+		} else {
+			synchronized (this) {
+				frames.add(Arrays.copyOf(rawMsg, TCPConnectionHandler.getEncodedMessageLength(rawMsg)));
+				notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public TCPMessage createMessage(byte[] packet, String remoteBaseURI) throws MALException {
+		synchronized (this) {
+			decoded.add(packet);
+			notifyAll();
+		}
+		throw new MALException("Cannot decode message");
+	}
+
+	@Override
+	public TCPChannelHandler createChannelHandler(SocketChannel channel, TCPSelectorThread selector) throws IOException {
+		TCPChannelHandler handler = super.createChannelHandler(channel, selector);
+		synchronized (this) {
+			channels.add(handler);
+			notifyAll();
+		}
+		return handler;
+	}
+
+	@Override
+	public void closeConnection(String uriTo, TCPReceptionHandler poller) {
+		super.closeConnection(uriTo, poller);
+		synchronized (this) {
+			closes++;
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void communicationError(String uriTo, TCPReceptionHandler poller) {
+		synchronized (this) {
+			errors++;
+		}
+		super.communicationError(uriTo, poller);
+	}
+
+	/**
+	 * Waits until the specified number of frames have been received.
+	 *
+	 * @return the received frames.
+	 */
+	synchronized List<byte[]> awaitFrames(int count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (frames.size() < count) {
+			long delay = end - System.currentTimeMillis();
+			if (delay <= 0) break;
+			wait(delay);
+		}
+		return new ArrayList<byte[]>(frames);
+	}
+
+	/**
+	 * Waits until the specified number of connections have been closed.
+	 *
+	 * @return the number of closed connections.
+	 */
+	synchronized int awaitCloses(int count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (closes < count) {
+			long delay = end - System.currentTimeMillis();
+			if (delay <= 0) break;
+			wait(delay);
+		}
+		return closes;
+	}
+
+	/**
+	 * Waits until the NIO engine has created the specified number of
+	 * connections.
+	 *
+	 * @return the created connections.
+	 */
+	synchronized List<TCPChannelHandler> awaitChannels(int count, long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (channels.size() < count) {
+			long delay = end - System.currentTimeMillis();
+			if (delay <= 0) break;
+			wait(delay);
+		}
+		return new ArrayList<TCPChannelHandler>(channels);
+	}
+
+	synchronized int getErrors() {
+		return errors;
+	}
+
+	synchronized int getCloses() {
+		return closes;
+	}
+
+	synchronized List<byte[]> getDecoded() {
+		return new ArrayList<byte[]>(decoded);
+	}
+}
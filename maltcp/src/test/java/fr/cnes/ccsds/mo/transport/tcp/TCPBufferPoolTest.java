@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TCPBufferPoolTest {
+	@Test
+	public void testSizeClasses() {
+		TCPBufferPool pool = new TCPBufferPool(4096, 2);
+		assertEquals(256, pool.lease(1).length);
+		assertEquals(256, pool.lease(256).length);
+		assertEquals(512, pool.lease(257).length);
+		assertEquals(4096, pool.lease(4096).length);
+		// Larger than the maximum size, not rounded
+		assertEquals(4097, pool.lease(4097).length);
+	}
+
+	@Test
+	public void testReuse() {
+		TCPBufferPool pool = new TCPBufferPool(4096, 2);
+		byte[] buf = pool.lease(1000);
+		pool.release(buf);
+		assertSame(buf, pool.lease(600));
+		assertNotSame(buf, pool.lease(600));
+	}
+
+	@Test
+	public void testMaxCount() {
+		TCPBufferPool pool = new TCPBufferPool(4096, 2);
+		byte[][] bufs = { pool.lease(1000), pool.lease(1000), pool.lease(1000) };
+		for (byte[] buf : bufs) pool.release(buf);
+		assertSame(bufs[0], pool.lease(1000));
+		assertSame(bufs[1], pool.lease(1000));
+		assertNotSame(bufs[2], pool.lease(1000));
+	}
+
+	@Test
+	public void testForeignBuffers() {
+		TCPBufferPool pool = new TCPBufferPool(4096, 2);
+		// Neither a size class nor a pooled size
+		byte[] odd = new byte[1000];
+		byte[] large = new byte[8192];
+		pool.release(odd);
+		pool.release(large);
+		assertEquals(1024, pool.lease(1000).length);
+		assertNotSame(large, pool.lease(8192));
+	}
+}
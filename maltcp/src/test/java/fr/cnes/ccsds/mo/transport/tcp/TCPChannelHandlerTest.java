@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Sends messages through a connection of the NIO engine and reads them from
+ * a plain socket, checking the coalescing of the queued messages.
+ */
+public class TCPChannelHandlerTest {
+	private static final long TIMEOUT = 5000;
+
+	private RecordingTCPTransport transport;
+	private Socket socket;
+	private TCPChannelHandler handler;
+
+	/**
+	 * Starts a transport with the NIO engine, then connects to it and waits
+	 * for the accepted connection to be registered with its selector.
+	 *
+	 * @param receiveBufferSize	the receive buffer of the socket, 0 for the default.
+	 */
+	private void start(Map<String, String> properties, int receiveBufferSize) throws Exception {
+		transport = new RecordingTCPTransport(properties);
+		transport.init();
+		socket = new Socket();
+		if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+		socket.connect(new InetSocketAddress("127.0.0.1", transport.getPort()));
+
+		List<TCPChannelHandler> channels = transport.awaitChannels(1, TIMEOUT);
+		assertEquals(1, channels.size());
+		handler = channels.get(0);
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while ((handler.key == null) && (System.currentTimeMillis() < end)) Thread.sleep(10);
+		assertTrue(handler.key != null);
+		transport.getWriteStatistics().reset();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (socket != null) socket.close();
+		if (transport != null) transport.close();
+	}
+
+	private static Map<String, String> properties(int maxBytes, long lingerMicros) throws Exception {
+		Map<String, String> properties = RecordingTCPTransport.properties(TCPTransport.ENGINE_NIO);
+		properties.put(TCPTransport.BATCH_MAX_BYTES_PROPERTY, Integer.toString(maxBytes));
+		properties.put(TCPTransport.BATCH_LINGER_PROPERTY, Long.toString(lingerMicros));
+		return properties;
+	}
+
+	/**
+	 * Sends the frames one by one, then reads them from the socket.
+	 *
+	 * @return the delay in nanoseconds between the first send and the
+	 * 	reception of the last byte.
+	 */
+	private long sendAndReceive(byte[][] frames) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (byte[] frame : frames) baos.write(frame);
+		byte[] expected = baos.toByteArray();
+
+		long start = System.nanoTime();
+		for (byte[] frame : frames) handler.sendEncodedMessage(frame);
+
+		socket.setSoTimeout((int) TIMEOUT);
+		byte[] received = new byte[expected.length];
+		new DataInputStream(socket.getInputStream()).readFully(received);
+		long delay = System.nanoTime() - start;
+
+		assertArrayEquals(expected, received);
+		return delay;
+	}
+
+	/**
+	 * Waits until the write statistics count the specified number of messages,
+	 * they are updated after the data has been written.
+	 *
+	 * @return the write statistics.
+	 */
+	private TCPWriteStatistics awaitWrittenMessages(int count) throws InterruptedException {
+		TCPWriteStatistics stats = transport.getWriteStatistics();
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while ((stats.getMessageCount() < count) && (System.currentTimeMillis() < end)) Thread.sleep(10);
+		return stats;
+	}
+
+	@Test
+	public void testLingerCoalescesMessages() throws Exception {
+		long linger = TimeUnit.MILLISECONDS.toMicros(200);
+		start(properties(64 * 1024, linger), 0);
+		byte[][] frames = new byte[5][];
+		for (int i = 0; i < frames.length; i++) frames[i] = TCPLoopbackTest.frame(100 * i, i);
+
+		long delay = sendAndReceive(frames);
+		// The messages are only written when the delay expires
+		assertTrue(delay >= TimeUnit.MICROSECONDS.toNanos(linger));
+		TCPWriteStatistics stats = awaitWrittenMessages(frames.length);
+		assertEquals(frames.length, stats.getMessageCount());
+		assertEquals(1, stats.getFlushCount());
+		assertEquals(frames.length, stats.getMaxBatchSize());
+	}
+
+	@Test
+	public void testFullBatchIsNotDelayed() throws Exception {
+		long linger = TimeUnit.SECONDS.toMicros(30);
+		start(properties(1000, linger), 0);
+		byte[][] frames = { TCPLoopbackTest.frame(500, 1), TCPLoopbackTest.frame(500, 2) };
+
+		// The second message fills the batch before the delay expires
+		long delay = sendAndReceive(frames);
+		assertTrue(delay < TimeUnit.MICROSECONDS.toNanos(linger));
+		assertEquals(frames.length, awaitWrittenMessages(frames.length).getMessageCount());
+	}
+
+	@Test
+	public void testPartialWriteAfterLinger() throws Exception {
+		long linger = TimeUnit.MILLISECONDS.toMicros(100);
+		start(properties(1024 * 1024, linger), 8192);
+		// The channel cannot take the whole queue at once
+		handler.getChannel().socket().setSendBufferSize(8192);
+		byte[][] frames = new byte[20][];
+		for (int i = 0; i < frames.length; i++) frames[i] = TCPLoopbackTest.frame(10000 + i, i);
+
+		long delay = sendAndReceive(frames);
+		assertTrue(delay >= TimeUnit.MICROSECONDS.toNanos(linger));
+		TCPWriteStatistics stats = awaitWrittenMessages(frames.length);
+		assertEquals(frames.length, stats.getMessageCount());
+		assertTrue(stats.toString(), stats.getFlushCount() > 1);
+	}
+}
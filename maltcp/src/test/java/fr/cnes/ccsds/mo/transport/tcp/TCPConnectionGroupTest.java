@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.Socket;
+import java.util.Map;
+
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.Test;
+
+import fr.cnes.encoding.binary.BinaryElementStreamFactory;
+
+public class TCPConnectionGroupTest {
+	private static TCPConnectionHandler handler() {
+		return new TCPConnectionHandler(new Socket(), "maltcp://127.0.0.1:1024/", null, null, null);
+	}
+
+	@Test
+	public void testConnectableGroup() {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 3, true);
+		TCPConnectionHandler h1 = handler();
+		assertSame(h1, group.register(1, h1));
+		// Each lane opens its own connection
+		assertNull(group.get(0));
+		assertSame(h1, group.get(1));
+		assertNull(group.get(2));
+	}
+
+	@Test
+	public void testRegisterKeepsConnection() {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 2, true);
+		TCPConnectionHandler h1 = handler();
+		TCPConnectionHandler h2 = handler();
+		assertSame(h1, group.register(0, h1));
+		assertSame(h1, group.register(0, h2));
+		assertSame(h2, group.register(1, h2));
+	}
+
+	@Test
+	public void testAcceptedGroup() {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 3, false);
+		assertNull(group.get(0));
+
+		TCPConnectionHandler h1 = handler();
+		TCPConnectionHandler h2 = handler();
+		assertSame(h1, group.add(h1));
+		assertSame(h2, group.add(h2));
+		assertSame(h1, group.get(0));
+		assertSame(h2, group.get(1));
+		// The unconnected lane uses the next connected one
+		assertSame(h1, group.get(2));
+
+		assertFalse(group.remove(h1));
+		assertSame(h2, group.get(0));
+		assertSame(h2, group.get(2));
+	}
+
+	@Test
+	public void testAddToFullGroup() {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 2, false);
+		TCPConnectionHandler h1 = handler();
+		TCPConnectionHandler h2 = handler();
+		group.add(h1);
+		group.add(h2);
+		assertSame(h1, group.add(handler()));
+		assertSame(h2, group.get(1));
+	}
+
+	@Test
+	public void testRemove() {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 2, true);
+		TCPConnectionHandler h1 = handler();
+		TCPConnectionHandler h2 = handler();
+		group.register(0, h1);
+		group.register(1, h2);
+		assertFalse(group.remove(h2));
+		// Not in the group
+		assertFalse(group.remove(h2));
+		assertTrue(group.remove(h1));
+		assertNull(group.get(0));
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		TCPConnectionGroup group = new TCPConnectionGroup("maltcp://127.0.0.1:1024/", 2, true);
+		Socket socket = new Socket();
+		group.register(0, new TCPConnectionHandler(socket, "maltcp://127.0.0.1:1024/", null, null, null));
+		group.close();
+		assertTrue(socket.isClosed());
+		assertNull(group.get(0));
+	}
+
+	private static TCPMessage message(Long transactionId, UInteger priority) throws Exception {
+		TCPMessageHeader header = new TCPMessageHeader(
+				new URI("maltcp://127.0.0.1:1025/Provider"), null,
+				new URI("maltcp://127.0.0.1:1024/Consumer"), null, QoSLevel.BESTEFFORT,
+				priority, new IdentifierList(), null, SessionType.LIVE, null,
+				InteractionType.SEND, null, transactionId,
+				new UShort(1), new UShort(1), new UShort(1), new UOctet((short) 1),
+				new UOctet((short) 0), Boolean.FALSE);
+		return new TCPMessage(false, header, null, new byte[0], new BinaryElementStreamFactory());
+	}
+
+	private static TCPTransport transport(String connections, String lane) throws Exception {
+		Map<String, String> properties = RecordingTCPTransport.properties(null);
+		if (connections != null) properties.put(TCPTransport.CONNECTIONS_PROPERTY, connections);
+		if (lane != null) properties.put(TCPTransport.LANE_PROPERTY, lane);
+		return new RecordingTCPTransport(properties);
+	}
+
+	@Test
+	public void testSingleLane() throws Exception {
+		TCPTransport transport = transport(null, null);
+		assertEquals(0, transport.selectLane(message(12L, new UInteger(3))));
+	}
+
+	@Test
+	public void testLaneByTransaction() throws Exception {
+		TCPTransport transport = transport("4", null);
+		assertEquals(0, transport.selectLane(message(null, null)));
+		for (long id = 0; id < 100; id++) {
+			int lane = transport.selectLane(message(id, null));
+			assertEquals(lane, transport.selectLane(message(id, new UInteger(id))));
+			assertTrue((lane >= 0) && (lane < 4));
+		}
+		assertEquals(1, transport.selectLane(message(5L, null)));
+		// Negative and large identifiers
+		assertTrue(transport.selectLane(message(-1L, null)) >= 0);
+		assertTrue(transport.selectLane(message(Long.MIN_VALUE, null)) >= 0);
+	}
+
+	@Test
+	public void testLaneByPriority() throws Exception {
+		TCPTransport transport = transport("3", TCPTransport.LANE_PRIORITY);
+		assertEquals(0, transport.selectLane(message(7L, null)));
+		assertEquals(0, transport.selectLane(message(7L, new UInteger(0))));
+		assertEquals(1, transport.selectLane(message(8L, new UInteger(1))));
+		assertEquals(2, transport.selectLane(message(9L, new UInteger(2))));
+		assertEquals(2, transport.selectLane(message(9L, new UInteger(1000))));
+	}
+}
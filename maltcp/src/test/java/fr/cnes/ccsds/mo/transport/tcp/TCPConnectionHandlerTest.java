@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads frames with the deprecated blocking read of a connection handler.
+ */
+public class TCPConnectionHandlerTest {
+	private Socket client;
+	private TCPConnectionHandler handler;
+
+	@Before
+	public void setUp() throws Exception {
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		try {
+			client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			handler = new TCPConnectionHandler(server.accept(), "maltcp://127.0.0.1:0");
+		} finally {
+			server.close();
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		client.close();
+		handler.close();
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testReadEncodedMessage() throws Exception {
+		byte[] first = TCPLoopbackTest.frame(10, 1);
+		byte[] second = TCPLoopbackTest.frame(0, 2);
+		OutputStream out = client.getOutputStream();
+		out.write(first);
+		out.write(second);
+		out.flush();
+
+		// Each message is returned in an array of its exact length
+		assertArrayEquals(first, handler.readEncodedMessage());
+		assertArrayEquals(second, handler.readEncodedMessage());
+
+		client.close();
+		try {
+			handler.readEncodedMessage();
+			fail("EOFException expected");
+		} catch (EOFException exc) {
+			// The peer closed the connection
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testReadOversizeMessage() throws Exception {
+		handler.setMaxMessageSize(100);
+		byte[] frame = TCPLoopbackTest.frame(100, 1);
+		client.getOutputStream().write(frame);
+		try {
+			handler.readEncodedMessage();
+			fail("IOException expected");
+		} catch (IOException exc) {
+			// The length is checked before the buffer is allocated
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.Test;
+
+public class TCPHeaderCacheTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static void put(TCPHeaderCache cache, int kind, String prefix, byte[] key, Object value) {
+		cache.put(TCPHeaderCache.hash(kind, prefix, key, 0, key.length), kind, prefix, key, 0, key.length, value);
+	}
+
+	private static Object get(TCPHeaderCache cache, int kind, String prefix, byte[] buf, int off, int len) {
+		return cache.get(TCPHeaderCache.hash(kind, prefix, buf, off, len), kind, prefix, buf, off, len);
+	}
+
+	@Test
+	public void testHit() {
+		TCPHeaderCache cache = new TCPHeaderCache(16);
+		Object value = new Object();
+		put(cache, TCPHeaderCache.IDENTIFIER, null, "abc".getBytes(UTF8), value);
+		// The key is compared with the bytes at the given offset
+		byte[] buf = "xxabcxx".getBytes(UTF8);
+		assertSame(value, get(cache, TCPHeaderCache.IDENTIFIER, null, buf, 2, 3));
+		// The cache keeps its own copy of the key
+		byte[] key = "def".getBytes(UTF8);
+		put(cache, TCPHeaderCache.IDENTIFIER, null, key, value);
+		key[0] = 'x';
+		assertSame(value, get(cache, TCPHeaderCache.IDENTIFIER, null, "def".getBytes(UTF8), 0, 3));
+	}
+
+	@Test
+	public void testMiss() {
+		TCPHeaderCache cache = new TCPHeaderCache(16);
+		byte[] key = "Consumer".getBytes(UTF8);
+		put(cache, TCPHeaderCache.URI, "maltcp://127.0.0.1:1024/", key, new Object());
+		assertNull(get(cache, TCPHeaderCache.IDENTIFIER, "maltcp://127.0.0.1:1024/", key, 0, key.length));
+		assertNull(get(cache, TCPHeaderCache.URI, "maltcp://127.0.0.1:1025/", key, 0, key.length));
+		assertNull(get(cache, TCPHeaderCache.URI, null, key, 0, key.length));
+		assertNull(get(cache, TCPHeaderCache.URI, "maltcp://127.0.0.1:1024/", key, 0, key.length - 1));
+		assertNull(get(cache, TCPHeaderCache.URI, "maltcp://127.0.0.1:1024/", "Consumes".getBytes(UTF8), 0, key.length));
+	}
+
+	@Test
+	public void testLongKeyNotCached() {
+		TCPHeaderCache cache = new TCPHeaderCache(16);
+		byte[] key = new byte[TCPHeaderCache.MAX_KEY_LENGTH];
+		put(cache, TCPHeaderCache.IDENTIFIER, null, key, "max");
+		assertEquals("max", get(cache, TCPHeaderCache.IDENTIFIER, null, key, 0, key.length));
+		key = new byte[TCPHeaderCache.MAX_KEY_LENGTH + 1];
+		put(cache, TCPHeaderCache.IDENTIFIER, null, key, "long");
+		assertNull(get(cache, TCPHeaderCache.IDENTIFIER, null, key, 0, key.length));
+	}
+
+	@Test
+	public void testReplace() {
+		// A single slot, each value replaces the previous one
+		TCPHeaderCache cache = new TCPHeaderCache(1);
+		byte[] k1 = "k1".getBytes(UTF8);
+		byte[] k2 = "k2".getBytes(UTF8);
+		put(cache, TCPHeaderCache.IDENTIFIER, null, k1, "v1");
+		put(cache, TCPHeaderCache.IDENTIFIER, null, k2, "v2");
+		assertNull(get(cache, TCPHeaderCache.IDENTIFIER, null, k1, 0, k1.length));
+		assertEquals("v2", get(cache, TCPHeaderCache.IDENTIFIER, null, k2, 0, k2.length));
+	}
+
+	private static byte[] encode(IdentifierList domain) throws Exception {
+		TCPMessageHeader header = new TCPMessageHeader(
+				new URI("maltcp://127.0.0.1:1025/Provider"), null,
+				new URI("maltcp://127.0.0.1:1024/Consumer"), new Time(1234L), QoSLevel.ASSURED,
+				new UInteger(5), domain, new Identifier("zone"), SessionType.LIVE, new Identifier("session"),
+				InteractionType.SUBMIT, new UOctet((short) 1), 42L,
+				new UShort(1), new UShort(2), new UShort(3), new UOctet((short) 1),
+				new UOctet((short) 0), Boolean.FALSE);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		header.encodeMessageHeader(baos);
+		return baos.toByteArray();
+	}
+
+	private static TCPMessageHeader decode(byte[] packet) throws Exception {
+		TCPMessageHeader header = new TCPMessageHeader("maltcp",
+				"maltcp://127.0.0.1:1024/", "maltcp://127.0.0.1:1025/");
+		assertEquals(packet.length, header.decodeMessageHeader(packet, 0));
+		return header;
+	}
+
+	@Test
+	public void testDecodedHeader() throws Exception {
+		IdentifierList domain = new IdentifierList();
+		domain.add(new Identifier("esa"));
+		domain.add(null);
+		domain.add(new Identifier("mission"));
+		byte[] packet = encode(domain);
+
+		TCPMessageHeader h1 = decode(packet);
+		TCPMessageHeader h2 = decode(packet);
+		assertEquals(new URI("maltcp://127.0.0.1:1025/Provider"), h1.getURIFrom());
+		assertEquals(new URI("maltcp://127.0.0.1:1024/Consumer"), h1.getURITo());
+		assertEquals(new Identifier("zone"), h1.getNetworkZone());
+		assertEquals(new Identifier("session"), h1.getSessionName());
+		assertEquals(domain, h1.getDomain());
+		assertEquals(Long.valueOf(42L), h1.getTransactionId());
+		assertEquals(h1, h2);
+
+		// URIs and identifiers are shared between the messages
+		assertSame(h1.getURIFrom(), h2.getURIFrom());
+		assertSame(h1.getURITo(), h2.getURITo());
+		assertSame(h1.getSessionName(), h2.getSessionName());
+		assertSame(h1.getDomain().get(0), h2.getDomain().get(0));
+
+		// Each message gets its own domain
+		assertNotSame(h1.getDomain(), h2.getDomain());
+		h1.getDomain().add(new Identifier("other"));
+		assertEquals(domain, h2.getDomain());
+		assertEquals(domain, decode(packet).getDomain());
+	}
+
+	@Test
+	public void testRelativeURIs() throws Exception {
+		byte[] packet = encode(new IdentifierList());
+		TCPMessageHeader h1 = decode(packet);
+		// The same encoded destination is completed with another base URI
+		TCPMessageHeader h2 = new TCPMessageHeader("maltcp",
+				"maltcp://127.0.0.1:2048/", "maltcp://127.0.0.1:1025/");
+		h2.decodeMessageHeader(packet, 0);
+		assertEquals(new URI("maltcp://127.0.0.1:1024/Consumer"), h1.getURITo());
+		assertEquals(new URI("maltcp://127.0.0.1:2048/Consumer"), h2.getURITo());
+	}
+}
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Sends raw MALTCP frames to a transport through the loopback interface,
+ * with the blocking engine and with the NIO engine.
+ */
+@RunWith(Parameterized.class)
+public class TCPLoopbackTest {
+	private static final long TIMEOUT = 5000;
+
+	@Parameters(name = "engine={0}")
+	public static Collection<Object[]> engines() {
+		return Arrays.asList(new Object[][] { { "blocking" }, { TCPTransport.ENGINE_NIO } });
+	}
+
+	private final String engine;
+	private RecordingTCPTransport transport;
+	private Socket socket;
+
+	public TCPLoopbackTest(String engine) {
+		this.engine = engine;
+	}
+
+	private void start(Map<String, String> properties) throws Exception {
+		transport = new RecordingTCPTransport(properties);
+		transport.init();
+		socket = new Socket("127.0.0.1", transport.getPort());
+		socket.setTcpNoDelay(true);
+	}
+
+	private void start() throws Exception {
+		start(RecordingTCPTransport.properties(engine));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (socket != null) socket.close();
+		if (transport != null) transport.close();
+	}
+
+	/**
+	 * Builds a frame whose body contains the specified number of bytes, the
+	 * fixed part of the header only holds the body length.
+	 */
+	static byte[] frame(int bodyLength, int seed) {
+		byte[] frame = new byte[TCPConnectionHandler.HEADER_FIXED_SIZE + bodyLength];
+		for (int i = 0; i < TCPConnectionHandler.MESSAGE_LENGTH_OFFSET; i++) {
+			frame[i] = (byte) (seed + i);
+		}
+		writeLength(frame, bodyLength);
+		for (int i = TCPConnectionHandler.HEADER_FIXED_SIZE; i < frame.length; i++) {
+			frame[i] = (byte) (seed * 31 + i);
+		}
+		return frame;
+	}
+
+	static void writeLength(byte[] frame, int bodyLength) {
+		int offset = TCPConnectionHandler.MESSAGE_LENGTH_OFFSET;
+		frame[offset] = (byte) (bodyLength >> 24);
+		frame[offset + 1] = (byte) (bodyLength >> 16);
+		frame[offset + 2] = (byte) (bodyLength >> 8);
+		frame[offset + 3] = (byte) bodyLength;
+	}
+
+	private void write(byte[] data, int offset, int length) throws IOException {
+		OutputStream out = socket.getOutputStream();
+		out.write(data, offset, length);
+		out.flush();
+	}
+
+	/**
+	 * Checks that the transport closed the connection, it is reset if the
+	 * transport did not read all the sent data.
+	 */
+	private void assertClosedByPeer() throws IOException {
+		socket.setSoTimeout((int) TIMEOUT);
+		InputStream in = socket.getInputStream();
+		try {
+			assertEquals(-1, in.read());
+		} catch (SocketException exc) {
+			// Connection reset
+		}
+	}
+
+	@Test
+	public void testPartialFrames() throws Exception {
+		start();
+		byte[] frame = frame(1000, 1);
+
+		// Splits the header then the body
+		write(frame, 0, 10);
+		Thread.sleep(50);
+		write(frame, 10, 20);
+		Thread.sleep(50);
+		write(frame, 30, 500);
+		Thread.sleep(50);
+		write(frame, 530, frame.length - 530);
+
+		List<byte[]> frames = transport.awaitFrames(1, TIMEOUT);
+		assertEquals(1, frames.size());
+		assertArrayEquals(frame, frames.get(0));
+	}
+
+	@Test
+	public void testSeveralFramesInOneWrite() throws Exception {
+		start();
+		byte[][] sent = { frame(0, 1), frame(10, 2), frame(5000, 3), frame(1, 4) };
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		for (byte[] frame : sent) baos.write(frame);
+		// The last frame ends in the next write
+		byte[] next = frame(20, 5);
+		baos.write(next, 0, 7);
+		byte[] data = baos.toByteArray();
+		write(data, 0, data.length);
+		Thread.sleep(50);
+		write(next, 7, next.length - 7);
+
+		List<byte[]> frames = transport.awaitFrames(sent.length + 1, TIMEOUT);
+		assertEquals(sent.length + 1, frames.size());
+		for (int i = 0; i < sent.length; i++) {
+			assertArrayEquals(sent[i], frames.get(i));
+		}
+		assertArrayEquals(next, frames.get(sent.length));
+		assertEquals(0, transport.getCloses());
+	}
+
+	@Test
+	public void testOversizeFrame() throws Exception {
+		Map<String, String> properties = RecordingTCPTransport.properties(engine);
+		properties.put(TCPTransport.MAX_MESSAGE_SIZE_PROPERTY, "1000");
+		start(properties);
+
+		byte[] accepted = frame(1000 - TCPConnectionHandler.HEADER_FIXED_SIZE, 1);
+		write(accepted, 0, accepted.length);
+		assertEquals(1, transport.awaitFrames(1, TIMEOUT).size());
+
+		byte[] rejected = frame(1000, 2);
+		write(rejected, 0, rejected.length);
+		assertEquals(1, transport.awaitCloses(1, TIMEOUT));
+		assertClosedByPeer();
+		assertEquals(1, transport.getErrors());
+		assertEquals(1, transport.awaitFrames(2, 100).size());
+	}
+
+	@Test
+	public void testNegativeLength() throws Exception {
+		start();
+		byte[] frame = frame(10, 1);
+		writeLength(frame, -1);
+		write(frame, 0, frame.length);
+
+		assertEquals(1, transport.awaitCloses(1, TIMEOUT));
+		assertClosedByPeer();
+		assertEquals(1, transport.getErrors());
+		assertEquals(0, transport.awaitFrames(1, 100).size());
+	}
+
+	@Test
+	public void testSizeNotLimitedByDefault() throws Exception {
+		start();
+		assertEquals(Integer.MAX_VALUE, transport.getMaxMessageSize());
+	}
+
+	@Test
+	public void testPeerDisconnect() throws Exception {
+		start();
+		byte[] frame = frame(100, 1);
+		// The connection is closed in the middle of the second frame
+		write(frame, 0, frame.length);
+		write(frame, 0, 50);
+		assertEquals(1, transport.awaitFrames(1, TIMEOUT).size());
+		socket.close();
+
+		assertEquals(1, transport.awaitCloses(1, TIMEOUT));
+		Thread.sleep(200);
+		assertEquals(1, transport.getCloses());
+		assertEquals(0, transport.getErrors());
+		assertEquals(1, transport.awaitFrames(2, 100).size());
+	}
+
+	@Test
+	public void testTransportClose() throws Exception {
+		// The blocking engine does not close the accepted connections
+		assumeTrue(TCPTransport.ENGINE_NIO.equals(engine));
+		start();
+		byte[] frame = frame(100, 1);
+		write(frame, 0, frame.length);
+		assertEquals(1, transport.awaitFrames(1, TIMEOUT).size());
+
+		// Closed from this thread while the selector may be running
+		transport.close();
+		transport = null;
+		assertClosedByPeer();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			assertFalse(thread.getName(), thread.getName().startsWith(TCPSelectorThread.class.getName()));
+		}
+	}
+
+	@Test
+	public void testDecodingErrorClosesOnce() throws Exception {
+		start();
+		transport.decode = true;
+		// Both frames are received by the same read
+		byte[] data = new byte[200];
+		System.arraycopy(frame(77, 1), 0, data, 0, 100);
+		System.arraycopy(frame(77, 2), 0, data, 100, 100);
+		write(data, 0, data.length);
+
+		assertEquals(1, transport.awaitCloses(1, TIMEOUT));
+		assertClosedByPeer();
+		Thread.sleep(200);
+		assertEquals(1, transport.getCloses());
+		assertEquals(1, transport.getErrors());
+		assertEquals(1, transport.getDecoded().size());
+	}
+
+	@Test
+	public void testDecodingErrorReleasesBuffer() throws Exception {
+		Map<String, String> properties = RecordingTCPTransport.properties(engine);
+		properties.put(TCPTransport.BUFFER_POOL_PROPERTY, "true");
+		start(properties);
+		transport.decode = true;
+		byte[] frame = frame(1000, 1);
+		write(frame, 0, frame.length);
+
+		assertEquals(1, transport.awaitCloses(1, TIMEOUT));
+		byte[] buf = transport.getDecoded().get(0);
+		assertSame(buf, transport.getBufferPool().lease(frame.length));
+	}
+}
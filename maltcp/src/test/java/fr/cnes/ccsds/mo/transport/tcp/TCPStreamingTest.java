@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * MIT License
+ *
+ * Copyright (c) 2017 - 2018 CNES
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+  *******************************************************************************/
+package fr.cnes.ccsds.mo.transport.tcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends messages larger than the stream threshold, they are encoded
+ * directly to the connection instead of being built in memory.
+ */
+public class TCPStreamingTest {
+	private static final long TIMEOUT = 5000;
+	private static final int THRESHOLD = 4096;
+
+	private static final MALSendOperation OP = new MALSendOperation(new UShort(1), new Identifier("send"),
+			Boolean.FALSE, new UShort(1),
+			new MALOperationStage(new UOctet((short) 1), new Object[] { Blob.SHORT_FORM }, new Object[0]));
+
+	private RecordingTCPTransport server;
+	private RecordingTCPTransport client;
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		server = new RecordingTCPTransport(RecordingTCPTransport.properties(null));
+		server.init();
+		Map<String, String> properties = RecordingTCPTransport.properties(null);
+		properties.put(TCPTransport.STREAM_THRESHOLD_PROPERTY, Integer.toString(THRESHOLD));
+		client = new RecordingTCPTransport(properties);
+		client.init();
+
+		file = File.createTempFile("maltcp", ".blob");
+		byte[] content = new byte[200 * 1024];
+		new Random(1).nextBytes(content);
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content);
+		} finally {
+			fos.close();
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (client != null) client.close();
+		if (server != null) server.close();
+		if (file != null) file.delete();
+	}
+
+	private TCPMessage message(Blob blob, long transactionId) throws Exception {
+		TCPMessageHeader header = new TCPMessageHeader(
+				new URI("maltcp://127.0.0.1:" + client.getPort() + "/Consumer"), new Blob(new byte[0]),
+				new URI("maltcp://127.0.0.1:" + server.getPort() + "/Provider"), null, QoSLevel.BESTEFFORT,
+				null, new IdentifierList(), null, SessionType.LIVE, null,
+				InteractionType.SEND, null, transactionId,
+				new UShort(1), new UShort(1), new UShort(1), new UOctet((short) 1),
+				new UOctet((short) 0), Boolean.FALSE);
+		return new TCPMessage(header, null, OP, blob);
+	}
+
+	/**
+	 * Returns the frame of the message built in memory, with its length.
+	 */
+	private byte[] frame(TCPMessage msg) throws Exception {
+		byte[] frame = client.internalEncodeMessage(msg);
+		TCPLoopbackTest.writeLength(frame, frame.length - TCPConnectionHandler.HEADER_FIXED_SIZE);
+		return frame;
+	}
+
+	private Blob urlBlob() throws Exception {
+		return new Blob(file.toURI().toURL().toString());
+	}
+
+	private Blob smallBlob(int seed) {
+		byte[] value = new byte[100];
+		new Random(seed).nextBytes(value);
+		return new Blob(value);
+	}
+
+	@Test
+	public void testEncodeMessage() throws Exception {
+		TCPConnectionHandler handler = new TCPConnectionHandler(new Socket(), "maltcp://127.0.0.1:1024/",
+				new DataOutputStream(new ByteArrayOutputStream()), null, null);
+		assertNotNull(client.encodeMessage(handler, message(smallBlob(1), 1L)));
+		assertNull(client.encodeMessage(handler, message(urlBlob(), 2L)));
+		assertNull(client.encodeMessage(handler, message(new Blob(new byte[THRESHOLD]), 3L)));
+
+		// The NIO engine does not stream messages
+		TCPConnectionHandler channel = new TCPConnectionHandler(new Socket(), "maltcp://127.0.0.1:1024/",
+				null, null, null);
+		assertNotNull(client.encodeMessage(channel, message(urlBlob(), 4L)));
+	}
+
+	@Test
+	public void testStreamedMessage() throws Exception {
+		TCPMessage msg = message(urlBlob(), 1L);
+		client.sendMessage(msg);
+
+		List<byte[]> frames = server.awaitFrames(1, TIMEOUT);
+		assertEquals(1, frames.size());
+		assertArrayEquals(frame(msg), frames.get(0));
+	}
+
+	@Test
+	public void testStreamedMessagesInBatch() throws Exception {
+		TCPMessage[] msgs = {
+				message(smallBlob(1), 1L), message(urlBlob(), 2L),
+				message(smallBlob(2), 3L), message(smallBlob(3), 4L), message(urlBlob(), 5L) };
+		client.sendMessages(msgs);
+
+		List<byte[]> frames = server.awaitFrames(msgs.length, TIMEOUT);
+		assertEquals(msgs.length, frames.size());
+		for (int i = 0; i < msgs.length; i++) {
+			assertArrayEquals(frame(msgs[i]), frames.get(i));
+		}
+		assertEquals(0, server.getCloses());
+	}
+
+	@Test
+	public void testFrameOutputStream() throws Exception {
+		byte[] frame = TCPLoopbackTest.frame(100, 1);
+		byte[] header = frame.clone();
+		// As written by the header encoder
+		TCPLoopbackTest.writeLength(header, 0);
+
+		TCPFrameOutputStream counter = new TCPFrameOutputStream();
+		counter.write(header);
+		assertEquals(header.length, counter.getCount());
+
+		// Written in one chunk, by chunks around the length and byte by byte
+		int[][] splits = { { header.length }, { 17, 3, 1, 2, 50 }, { 19, 4 }, { 20, 1 } };
+		for (int[] split : splits) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			TCPFrameOutputStream out = new TCPFrameOutputStream(baos, 100);
+			int off = 0;
+			for (int len : split) {
+				out.write(header, off, len);
+				off += len;
+			}
+			while (off < header.length) out.write(header[off++]);
+			assertEquals(header.length, out.getCount());
+			assertArrayEquals(frame, baos.toByteArray());
+		}
+	}
+}